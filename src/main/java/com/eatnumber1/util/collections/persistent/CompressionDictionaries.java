@@ -0,0 +1,147 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.compression.DictionaryCompressionProvider;
+import com.eatnumber1.util.compression.DictionaryTrainer;
+import com.eatnumber1.util.io.FileUtils;
+import com.eatnumber1.util.persistent.provider.CompressedPersistenceProvider;
+import com.eatnumber1.util.persistent.provider.PersistenceProvider;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Trains preset compression dictionaries on the elements of a list and keeps them in the list's directory, from where
+ * {@link FileBackedUnmappedArrayList#open()} gives them to a {@link CompressedPersistenceProvider}.
+ * <p/>
+ * Every dictionary which was ever installed is kept, as elements which were compressed with an older dictionary must
+ * still be decompressed with it.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class CompressionDictionaries {
+    @NotNull
+    protected static final String DICTIONARIES_FILENAME = "dictionaries", TEMPORARY_SUFFIX = ".tmp";
+
+    public static final int DEFAULT_SAMPLE_COUNT = 1024;
+
+    private CompressionDictionaries() {
+    }
+
+    /**
+     * Trains a dictionary on the uncompressed form of elements sampled evenly from the list.
+     */
+    @NotNull
+    public static <T> byte[] train( @NotNull FileBackedUnmappedArrayList<T> list, int sampleCount, int maxSize ) throws PersistenceException {
+        CompressedPersistenceProvider<T> provider = getProvider(list);
+        PersistenceProvider<T> delegate = provider.getDelegate();
+        int size = list.size();
+        List<byte[]> samples = new ArrayList<byte[]>(Math.min(size, sampleCount));
+        for( int i = 0; i < Math.min(size, sampleCount); i++ ) {
+            T element = list.get((int) ( (long) i * size / Math.min(size, sampleCount) ));
+            if( element != null ) samples.add(delegate.toBytes(element));
+        }
+        return DictionaryTrainer.train(samples, maxSize);
+    }
+
+    @NotNull
+    public static <T> byte[] train( @NotNull FileBackedUnmappedArrayList<T> list ) throws PersistenceException {
+        return train(list, DEFAULT_SAMPLE_COUNT, DictionaryTrainer.MAX_DICTIONARY_SIZE);
+    }
+
+    /**
+     * Stores the dictionary alongside the list and compresses elements which are written from now on with it.
+     */
+    public static <T> void install( @NotNull FileBackedUnmappedArrayList<T> list, @NotNull byte[] dictionary ) throws IOException {
+        CompressedPersistenceProvider<T> provider = getProvider(list);
+        if( !( provider.getCompressionProvider() instanceof DictionaryCompressionProvider ) ) throw new IllegalArgumentException("The list's compression provider does not support dictionaries.");
+        File directory = list.getStorageFile();
+        List<byte[]> dictionaries = new ArrayList<byte[]>(load(directory));
+        dictionaries.add(dictionary);
+        store(directory, dictionaries);
+        provider.setDictionaries(dictionaries);
+    }
+
+    /**
+     * Gives the dictionaries stored in the directory to the provider, if it is a {@link CompressedPersistenceProvider}.
+     */
+    public static void apply( @NotNull File directory, @NotNull PersistenceProvider<?> provider ) throws IOException {
+        if( !( provider instanceof CompressedPersistenceProvider ) ) return;
+        List<byte[]> dictionaries = load(directory);
+        if( !dictionaries.isEmpty() ) ( (CompressedPersistenceProvider<?>) provider ).setDictionaries(dictionaries);
+    }
+
+    @NotNull
+    public static List<byte[]> load( @NotNull File directory ) throws IOException {
+        File file = new File(directory, DICTIONARIES_FILENAME);
+        if( !file.exists() ) return Collections.emptyList();
+        List<byte[]> dictionaries = new ArrayList<byte[]>();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int count = in.readInt();
+            for( int i = 0; i < count; i++ ) {
+                byte[] dictionary = new byte[in.readInt()];
+                in.readFully(dictionary);
+                dictionaries.add(dictionary);
+            }
+        } catch( EOFException e ) {
+            throw new IOException("Dictionary file is truncated.", e);
+        } finally {
+            in.close();
+        }
+        return dictionaries;
+    }
+
+    /**
+     * Writes the dictionaries to a temporary file and renames it into place, so that the file is never seen half written.
+     */
+    private static void store( @NotNull File directory, @NotNull List<byte[]> dictionaries ) throws IOException {
+        File temporary = new File(directory, DICTIONARIES_FILENAME + TEMPORARY_SUFFIX);
+        FileOutputStream fileOut = new FileOutputStream(temporary);
+        try {
+            DataOutputStream out = new DataOutputStream(fileOut);
+            out.writeInt(dictionaries.size());
+            for( byte[] dictionary : dictionaries ) {
+                out.writeInt(dictionary.length);
+                out.write(dictionary);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+        FileUtils.rename(temporary, new File(directory, DICTIONARIES_FILENAME));
+    }
+
+    @NotNull
+    @SuppressWarnings({ "unchecked" })
+    private static <T> CompressedPersistenceProvider<T> getProvider( @NotNull FileBackedUnmappedArrayList<T> list ) {
+        if( !( list.persistenceProvider instanceof CompressedPersistenceProvider ) ) throw new IllegalArgumentException("The list's elements are not compressed.");
+        return (CompressedPersistenceProvider<T>) list.persistenceProvider;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import net.jcip.annotations.NotThreadSafe;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A cache of deserialized list elements, keyed by their index. Entries are kept in access order, and the least recently
+ * used entries are evicted for as long as {@link #isOverCapacity()} returns true. Cached elements are shared between
+ * calls to {@link java.util.List#get(int)}, so they should not be modified by the caller.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@NotThreadSafe
+public abstract class ElementCache<T> {
+    // The entries by index, so that the entries following an index can be moved without touching the others.
+    @NotNull
+    private final TreeMap<Integer, Entry<T>> entries = new TreeMap<Integer, Entry<T>>();
+
+    // The same entries in access order. Entries are compared by identity, so they keep their place when they move.
+    @NotNull
+    private final LinkedHashMap<Entry<T>, Entry<T>> recency = new LinkedHashMap<Entry<T>, Entry<T>>(16, 0.75f, true);
+
+    private long weight, hits, misses;
+
+    static final class Entry<T> {
+        @Nullable
+        final T value;
+
+        final int weight;
+
+        int index;
+
+        Entry( int index, @Nullable T value, int weight ) {
+            this.index = index;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * @return true if the least recently used entry should be evicted.
+     */
+    protected abstract boolean isOverCapacity();
+
+    @Nullable
+    Entry<T> get( int index ) {
+        Entry<T> entry = entries.get(index);
+        if( entry == null ) {
+            misses++;
+        } else {
+            hits++;
+            recency.get(entry);
+        }
+        return entry;
+    }
+
+    /**
+     * @param weight The serialized size of the element.
+     */
+    void put( int index, @Nullable T value, int weight ) {
+        Entry<T> entry = new Entry<T>(index, value, weight), old = entries.put(index, entry);
+        if( old != null ) {
+            recency.remove(old);
+            this.weight -= old.weight;
+        }
+        recency.put(entry, entry);
+        this.weight += weight;
+        Iterator<Entry<T>> iterator = recency.values().iterator();
+        while( isOverCapacity() && iterator.hasNext() ) {
+            Entry<T> eldest = iterator.next();
+            iterator.remove();
+            entries.remove(eldest.index);
+            this.weight -= eldest.weight;
+        }
+    }
+
+    void remove( int fromIndex, int toIndex ) {
+        if( fromIndex >= toIndex ) return;
+        SortedMap<Integer, Entry<T>> range = entries.subMap(fromIndex, toIndex);
+        for( Entry<T> entry : range.values() ) {
+            recency.remove(entry);
+            weight -= entry.weight;
+        }
+        range.clear();
+    }
+
+    /**
+     * Moves the entries of every element from {@code index} onwards by {@code delta} positions. When moving left, the
+     * entries being moved over must already have been removed.
+     */
+    void shift( int index, int delta ) {
+        if( delta == 0 ) return;
+        SortedMap<Integer, Entry<T>> tail = entries.tailMap(index);
+        if( tail.isEmpty() ) return;
+        List<Entry<T>> moved = new ArrayList<Entry<T>>(tail.values());
+        tail.clear();
+        for( Entry<T> entry : moved ) {
+            entry.index += delta;
+            entries.put(entry.index, entry);
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+        recency.clear();
+        weight = 0;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The total serialized size of the cached elements.
+     */
+    public long getWeight() {
+        return weight;
+    }
+
+    public long getHitCount() {
+        return hits;
+    }
+
+    public long getMissCount() {
+        return misses;
+    }
+
+    public void resetStatistics() {
+        hits = misses = 0;
+    }
+}
@@ -0,0 +1,978 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.io.FileUtils;
+import com.eatnumber1.util.io.IOUtils;
+import com.eatnumber1.util.io.Openable;
+import com.eatnumber1.util.persistent.channel.FileChannelProvider;
+import com.eatnumber1.util.persistent.channel.FileChannelProviderFactory;
+import com.eatnumber1.util.persistent.channel.FileChannelVisitor;
+import com.eatnumber1.util.persistent.numbers.FileBackedInteger;
+import com.eatnumber1.util.persistent.numbers.FileBackedLong;
+import com.eatnumber1.util.persistent.numbers.FileBackedUnmappedInteger;
+import com.eatnumber1.util.persistent.numbers.FileBackedUnmappedLong;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.jcip.annotations.NotThreadSafe;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A disk based B+tree mapping byte array keys to byte array values, which backs the file backed sorted maps and sets.
+ * <p/>
+ * The tree is stored in fixed size pages, the first of which describes the tree. Keys are stored in the pages, while
+ * the leaves only hold the location of their values in a separate value file to which values are only ever appended.
+ * Values which are removed or replaced are left behind as garbage, which is reclaimed by {@link #compact()}. Leaves are
+ * linked to their siblings, so range scans only read the pages which hold the range. Pages are read through a cache of
+ * a bounded number of pages, and changed pages are written back when they are evicted or the tree is flushed.
+ * <p/>
+ * Leaves are removed once they are empty, but pages are never merged.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@NotThreadSafe
+public class FileBackedBTree implements Closeable, Flushable, Openable {
+    @NotNull
+    protected static final String PAGES_FILENAME = "pages", VALUES_FILENAME = "values", SIZE_FILENAME = "size", GARBAGE_FILENAME = "garbage", COMPACTION_SUFFIX = ".compact";
+
+    protected static final long MAGIC = 0x4642425472656521L;
+
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+
+    public static final int DEFAULT_CACHE_SIZE = 1024;
+
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+    protected static final byte LEAF = 0, INTERNAL = 1, FREE = 2;
+
+    // The type of the page and the number of keys in it, then the previous and next leaves of a leaf, the first child of
+    // an internal node or the next free page of a free page.
+    protected static final int PAGE_HEADER_SIZE = 1 + 4 + 8 + 8;
+
+    // The length of the key, the key, then the location and length of the value or the child following the key.
+    protected static final int LEAF_ENTRY_OVERHEAD = 4 + 8 + 4, INTERNAL_ENTRY_OVERHEAD = 4 + 8;
+
+    protected static final int META_SIZE = 8 + 4 + 8 + 4 + 8 + 8;
+
+    // The first page describes the tree, so no node is stored in it.
+    protected static final long NIL = 0;
+
+    protected static final int COMPACTION_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Orders keys as unsigned bytes, comparing them lexicographically.
+     */
+    @NotNull
+    public static final Comparator<byte[]> BYTE_ORDER = new Comparator<byte[]>() {
+        @Override
+        public int compare( byte[] o1, byte[] o2 ) {
+            int length = Math.min(o1.length, o2.length);
+            for( int i = 0; i < length; i++ ) {
+                int c = ( o1[i] & 0xff ) - ( o2[i] & 0xff );
+                if( c != 0 ) return c;
+            }
+            return o1.length - o2.length;
+        }
+    };
+
+    @NotNull
+    protected FileChannelProvider pageChannel, valueChannel;
+
+    @NotNull
+    protected FileBackedInteger size;
+
+    @NotNull
+    protected FileBackedLong garbage;
+
+    @NotNull
+    protected FileChannelProviderFactory factory;
+
+    @NotNull
+    private File directory;
+
+    @NotNull
+    private Comparator<byte[]> comparator;
+
+    @NotNull
+    private LinkedHashMap<Long, Node> cache;
+
+    private int pageSize, cacheSize;
+
+    private long root, freeHead, pageCount;
+
+    private int height;
+
+    private boolean metaDirty;
+
+    // Set while a change to the tree is in progress, during which the nodes it holds must stay cached.
+    private boolean evictionDeferred;
+
+    protected long nextFree;
+
+    private double compactionThreshold;
+
+    protected boolean closed = true;
+
+    private int modCount;
+
+    protected static class Node {
+        protected final long page;
+
+        protected boolean leaf;
+
+        // The sibling leaves of a leaf.
+        protected long previous, next;
+
+        @NotNull
+        protected final List<byte[]> keys = new ArrayList<byte[]>();
+
+        // The children of an internal node, of which there is one more than there are keys, or the locations of the
+        // values of a leaf.
+        @NotNull
+        protected final List<Long> pointers = new ArrayList<Long>();
+
+        // The lengths of the values of a leaf.
+        @NotNull
+        protected final List<Integer> lengths = new ArrayList<Integer>();
+
+        protected boolean dirty;
+
+        protected Node( long page, boolean leaf ) {
+            this.page = page;
+            this.leaf = leaf;
+        }
+
+        protected int getByteSize() {
+            int byteSize = PAGE_HEADER_SIZE;
+            for( byte[] key : keys ) byteSize += key.length + ( leaf ? LEAF_ENTRY_OVERHEAD : INTERNAL_ENTRY_OVERHEAD );
+            return byteSize;
+        }
+
+        protected void write( @NotNull ByteBuffer buf ) {
+            buf.put(leaf ? LEAF : INTERNAL).putInt(keys.size());
+            if( leaf ) {
+                buf.putLong(previous).putLong(next);
+            } else {
+                buf.putLong(pointers.get(0)).putLong(NIL);
+            }
+            for( int i = 0; i < keys.size(); i++ ) {
+                byte[] key = keys.get(i);
+                buf.putInt(key.length).put(key);
+                if( leaf ) {
+                    buf.putLong(pointers.get(i)).putInt(lengths.get(i));
+                } else {
+                    buf.putLong(pointers.get(i + 1));
+                }
+            }
+        }
+
+        @NotNull
+        protected static Node read( long page, @NotNull ByteBuffer buf ) throws IOException {
+            byte type = buf.get();
+            if( type != LEAF && type != INTERNAL ) throw new IOException("Page " + page + " is not a node.");
+            Node node = new Node(page, type == LEAF);
+            int count = buf.getInt();
+            if( node.leaf ) {
+                node.previous = buf.getLong();
+                node.next = buf.getLong();
+            } else {
+                node.pointers.add(buf.getLong());
+                buf.getLong();
+            }
+            for( int i = 0; i < count; i++ ) {
+                byte[] key = new byte[buf.getInt()];
+                buf.get(key);
+                node.keys.add(key);
+                node.pointers.add(buf.getLong());
+                if( node.leaf ) node.lengths.add(buf.getInt());
+            }
+            return node;
+        }
+    }
+
+    /**
+     * A position in the leaves of the tree. A cursor is only valid until the tree is next structurally modified.
+     */
+    public class Cursor {
+        @NotNull
+        private final Node leaf;
+
+        private final int index;
+
+        protected Cursor( @NotNull Node leaf, int index ) {
+            this.leaf = leaf;
+            this.index = index;
+        }
+
+        @NotNull
+        public byte[] getKey() {
+            return leaf.keys.get(index);
+        }
+
+        @NotNull
+        public byte[] getValue() throws IOException {
+            return readValue(leaf.pointers.get(index), leaf.lengths.get(index));
+        }
+
+        @Nullable
+        public Cursor next() throws IOException {
+            if( index + 1 < leaf.keys.size() ) return new Cursor(leaf, index + 1);
+            return leaf.next == NIL ? null : cursor(readNode(leaf.next), 0);
+        }
+
+        @Nullable
+        public Cursor previous() throws IOException {
+            if( index > 0 ) return new Cursor(leaf, index - 1);
+            if( leaf.previous == NIL ) return null;
+            Node previous = readNode(leaf.previous);
+            return cursor(previous, previous.keys.size() - 1);
+        }
+    }
+
+    public FileBackedBTree( @NotNull File directory, @NotNull Comparator<byte[]> comparator, @NotNull FileChannelProviderFactory factory ) throws IOException {
+        this(directory, comparator, factory, DEFAULT_PAGE_SIZE, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param pageSize The size of the pages of a new tree. An existing tree keeps the page size it was created with.
+     * @param cacheSize The number of pages to cache.
+     */
+    public FileBackedBTree( @NotNull File directory, @NotNull Comparator<byte[]> comparator, @NotNull FileChannelProviderFactory factory, int pageSize, int cacheSize ) throws IOException {
+        if( pageSize < PAGE_HEADER_SIZE * 8 ) throw new IllegalArgumentException("The page size must be at least " + PAGE_HEADER_SIZE * 8 + ".");
+        if( cacheSize <= 0 ) throw new IllegalArgumentException("The cache size must be positive.");
+        this.directory = directory;
+        this.comparator = comparator;
+        this.factory = factory;
+        this.pageSize = pageSize;
+        this.cacheSize = cacheSize;
+        compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+        open();
+    }
+
+    @Override
+    public void open() throws IOException {
+        if( closed ) {
+            if( directory.exists() ) {
+                if( !directory.isDirectory() ) throw new IOException(directory + " is not a directory.");
+            } else {
+                FileUtils.mkdir(directory);
+            }
+            recoverCompaction();
+            File pageFile = new File(directory, PAGES_FILENAME), valueFile = new File(directory, VALUES_FILENAME);
+            boolean pageFileExists = pageFile.exists(), valueFileExists = valueFile.exists();
+            if( pageFileExists || valueFileExists ) {
+                if( !pageFileExists ) throw new IOException("Page file is missing. The tree is corrupt.");
+                if( !valueFileExists ) throw new IOException("Value file is missing. The tree is corrupt.");
+            } else {
+                FileUtils.createNewFile(pageFile);
+                FileUtils.createNewFile(valueFile);
+            }
+            pageChannel = factory.create(pageFile);
+            valueChannel = factory.create(valueFile);
+            File sizeFile = new File(directory, SIZE_FILENAME), garbageFile = new File(directory, GARBAGE_FILENAME);
+            size = new FileBackedUnmappedInteger(sizeFile, factory.create(sizeFile));
+            garbage = new FileBackedUnmappedLong(garbageFile, factory.create(garbageFile));
+            cache = new LinkedHashMap<Long, Node>(16, 0.75f, true);
+            if( size(pageChannel) == 0 ) {
+                reset();
+            } else {
+                readMeta();
+            }
+            nextFree = size(valueChannel);
+            closed = false;
+        }
+    }
+
+    /**
+     * Finishes or discards a compaction which was interrupted. The compacted page file is renamed into place before the
+     * compacted value file, so a compacted value file without a compacted page file is the only one left to rename.
+     */
+    private void recoverCompaction() throws IOException {
+        File compactPageFile = new File(directory, PAGES_FILENAME + COMPACTION_SUFFIX);
+        File compactValueFile = new File(directory, VALUES_FILENAME + COMPACTION_SUFFIX);
+        if( compactPageFile.exists() ) {
+            FileUtils.delete(compactPageFile);
+            if( compactValueFile.exists() ) FileUtils.delete(compactValueFile);
+        } else if( compactValueFile.exists() ) {
+            FileUtils.rename(compactValueFile, new File(directory, VALUES_FILENAME));
+        }
+    }
+
+    private void reset() throws IOException {
+        cache.clear();
+        truncate(pageChannel, 0);
+        truncate(valueChannel, 0);
+        nextFree = 0;
+        pageCount = 1;
+        freeHead = NIL;
+        height = 1;
+        root = newNode(true).page;
+        writeMeta();
+        size.intValue(0);
+        garbage.longValue(0);
+    }
+
+    private void readMeta() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(META_SIZE);
+        readPage(buf, 0);
+        buf.flip();
+        if( buf.remaining() < META_SIZE || buf.getLong() != MAGIC ) throw new IOException(directory + " does not contain a tree.");
+        pageSize = buf.getInt();
+        root = buf.getLong();
+        height = buf.getInt();
+        freeHead = buf.getLong();
+        pageCount = buf.getLong();
+        metaDirty = false;
+    }
+
+    private void writeMeta() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(META_SIZE);
+        buf.putLong(MAGIC).putInt(pageSize).putLong(root).putInt(height).putLong(freeHead).putLong(pageCount);
+        buf.flip();
+        writePage(buf, 0);
+        metaDirty = false;
+    }
+
+    @NotNull
+    public File getStorageFile() {
+        return directory;
+    }
+
+    public boolean isMapped() {
+        return false;
+    }
+
+    @NotNull
+    public Comparator<byte[]> getComparator() {
+        return comparator;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public void setCacheSize( int cacheSize ) throws IOException {
+        if( cacheSize <= 0 ) throw new IllegalArgumentException("The cache size must be positive.");
+        this.cacheSize = cacheSize;
+        evict();
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public double getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    /**
+     * @param compactionThreshold The garbage ratio above which {@link #flush()} compacts the value file, or a value
+     * greater than one to only compact when {@link #compact()} is called.
+     */
+    public void setCompactionThreshold( double compactionThreshold ) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    public long getGarbageSize() {
+        return garbage.longValue();
+    }
+
+    public double getGarbageRatio() {
+        return nextFree == 0 ? 0 : (double) getGarbageSize() / nextFree;
+    }
+
+    public int size() {
+        return size.intValue();
+    }
+
+    public int getModCount() {
+        return modCount;
+    }
+
+    /**
+     * @return The largest key which can be stored in the tree.
+     */
+    public int getMaxKeyLength() {
+        // Every page must be able to hold enough keys to be split in two.
+        return ( pageSize - PAGE_HEADER_SIZE ) / 4 - LEAF_ENTRY_OVERHEAD;
+    }
+
+    private void checkKey( @NotNull byte[] key ) {
+        if( key.length > getMaxKeyLength() ) throw new IllegalArgumentException("Keys may not be longer than " + getMaxKeyLength() + " bytes.");
+    }
+
+    @NotNull
+    protected Node readNode( long page ) throws IOException {
+        Node node = cache.get(page);
+        if( node != null ) return node;
+        ByteBuffer buf = ByteBuffer.allocate(pageSize);
+        readPage(buf, page * pageSize);
+        if( buf.hasRemaining() ) throw new EOFException("Page " + page + " is truncated.");
+        buf.flip();
+        node = Node.read(page, buf);
+        cache.put(page, node);
+        evict();
+        return node;
+    }
+
+    /**
+     * Marks a node as changed. This must be called after every change to a node, as a node which was evicted from the
+     * cache while it was being changed is put back into it.
+     */
+    protected void dirty( @NotNull Node node ) throws IOException {
+        node.dirty = true;
+        cache.put(node.page, node);
+        evict();
+    }
+
+    private void evict() throws IOException {
+        if( evictionDeferred ) return;
+        Iterator<Node> iterator = cache.values().iterator();
+        while( cache.size() > cacheSize ) {
+            Node eldest = iterator.next();
+            iterator.remove();
+            if( eldest.dirty ) writeNode(eldest);
+        }
+    }
+
+    private void writeNode( @NotNull Node node ) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(pageSize);
+        node.write(buf);
+        buf.clear();
+        writePage(buf, node.page * pageSize);
+        node.dirty = false;
+    }
+
+    @NotNull
+    protected Node newNode( boolean leaf ) throws IOException {
+        long page;
+        if( freeHead != NIL ) {
+            page = freeHead;
+            ByteBuffer buf = ByteBuffer.allocate(PAGE_HEADER_SIZE);
+            readPage(buf, page * pageSize);
+            if( buf.get(0) != FREE ) throw new IOException("Page " + page + " is not free.");
+            freeHead = buf.getLong(1 + 4);
+        } else {
+            page = pageCount++;
+        }
+        metaDirty = true;
+        Node node = new Node(page, leaf);
+        dirty(node);
+        return node;
+    }
+
+    protected void free( @NotNull Node node ) throws IOException {
+        cache.remove(node.page);
+        ByteBuffer buf = ByteBuffer.allocate(PAGE_HEADER_SIZE);
+        buf.put(FREE).putInt(0).putLong(freeHead).putLong(NIL);
+        buf.flip();
+        writePage(buf, node.page * pageSize);
+        freeHead = node.page;
+        metaDirty = true;
+    }
+
+    private int search( @NotNull Node node, @NotNull byte[] key ) {
+        return Collections.binarySearch(node.keys, key, comparator);
+    }
+
+    /**
+     * @return The index of the child of an internal node which may contain the key.
+     */
+    private int childIndex( @NotNull Node node, @NotNull byte[] key ) {
+        int index = search(node, key);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     * @param path If not null, the internal nodes on the path to the leaf are added to it.
+     */
+    @NotNull
+    private Node findLeaf( @NotNull byte[] key, @Nullable List<Node> path ) throws IOException {
+        Node node = readNode(root);
+        while( !node.leaf ) {
+            if( path != null ) path.add(node);
+            node = readNode(node.pointers.get(childIndex(node, key)));
+        }
+        return node;
+    }
+
+    /**
+     * @return A cursor at the given index of a leaf, or at the following entry if the index is past the end of the leaf.
+     */
+    @Nullable
+    private Cursor cursor( @NotNull Node leaf, int index ) throws IOException {
+        while( index >= leaf.keys.size() ) {
+            if( leaf.next == NIL ) return null;
+            leaf = readNode(leaf.next);
+            index = 0;
+        }
+        while( index < 0 ) {
+            if( leaf.previous == NIL ) return null;
+            leaf = readNode(leaf.previous);
+            index = leaf.keys.size() - 1;
+        }
+        return new Cursor(leaf, index);
+    }
+
+    @Nullable
+    public byte[] get( @NotNull byte[] key ) throws IOException {
+        Node leaf = findLeaf(key, null);
+        int index = search(leaf, key);
+        return index < 0 ? null : readValue(leaf.pointers.get(index), leaf.lengths.get(index));
+    }
+
+    public boolean containsKey( @NotNull byte[] key ) throws IOException {
+        return search(findLeaf(key, null), key) >= 0;
+    }
+
+    @Nullable
+    public Cursor first() throws IOException {
+        Node node = readNode(root);
+        while( !node.leaf ) node = readNode(node.pointers.get(0));
+        return cursor(node, 0);
+    }
+
+    @Nullable
+    public Cursor last() throws IOException {
+        Node node = readNode(root);
+        while( !node.leaf ) node = readNode(node.pointers.get(node.pointers.size() - 1));
+        return cursor(node, node.keys.size() - 1);
+    }
+
+    /**
+     * @return A cursor at the least key greater than, or equal to if {@code inclusive}, the given key.
+     */
+    @Nullable
+    public Cursor ceiling( @NotNull byte[] key, boolean inclusive ) throws IOException {
+        Node leaf = findLeaf(key, null);
+        int index = search(leaf, key);
+        if( index >= 0 ) {
+            if( !inclusive ) index++;
+        } else {
+            index = -index - 1;
+        }
+        return cursor(leaf, index);
+    }
+
+    /**
+     * @return A cursor at the greatest key less than, or equal to if {@code inclusive}, the given key.
+     */
+    @Nullable
+    public Cursor floor( @NotNull byte[] key, boolean inclusive ) throws IOException {
+        Node leaf = findLeaf(key, null);
+        int index = search(leaf, key);
+        if( index >= 0 ) {
+            if( !inclusive ) index--;
+        } else {
+            index = -index - 2;
+        }
+        return cursor(leaf, index);
+    }
+
+    /**
+     * @return The previous value for the key, or null if there was none.
+     */
+    @Nullable
+    public byte[] put( @NotNull byte[] key, @NotNull byte[] value ) throws IOException {
+        checkKey(key);
+        evictionDeferred = true;
+        try {
+            return putInternal(key, value);
+        } finally {
+            evictionDeferred = false;
+            evict();
+        }
+    }
+
+    @Nullable
+    private byte[] putInternal( @NotNull byte[] key, @NotNull byte[] value ) throws IOException {
+        List<Node> path = new ArrayList<Node>(height);
+        Node leaf = findLeaf(key, path);
+        int index = search(leaf, key);
+        if( index >= 0 ) {
+            long offset = leaf.pointers.get(index);
+            int length = leaf.lengths.get(index);
+            byte[] old = readValue(offset, length);
+            if( length == value.length ) {
+                // A value of the same length can be replaced in place.
+                writeValue(ByteBuffer.wrap(value), offset);
+            } else {
+                leaf.pointers.set(index, appendValue(value));
+                leaf.lengths.set(index, value.length);
+                garbage.longValue(garbage.longValue() + length);
+                dirty(leaf);
+            }
+            return old;
+        }
+        index = -index - 1;
+        leaf.keys.add(index, key);
+        leaf.pointers.add(index, appendValue(value));
+        leaf.lengths.add(index, value.length);
+        dirty(leaf);
+        modCount++;
+        size.intValue(size.intValue() + 1);
+        if( leaf.getByteSize() > pageSize ) split(leaf, path);
+        return null;
+    }
+
+    /**
+     * Splits an overflowing node in two, splitting its ancestors as they overflow in turn.
+     */
+    private void split( @NotNull Node node, @NotNull List<Node> path ) throws IOException {
+        while( node.getByteSize() > pageSize ) {
+            int count = node.keys.size(), middle = splitIndex(node);
+            Node right = newNode(node.leaf);
+            byte[] separator;
+            if( node.leaf ) {
+                right.keys.addAll(node.keys.subList(middle, count));
+                right.pointers.addAll(node.pointers.subList(middle, count));
+                right.lengths.addAll(node.lengths.subList(middle, count));
+                node.lengths.subList(middle, count).clear();
+                node.pointers.subList(middle, count).clear();
+                node.keys.subList(middle, count).clear();
+                separator = right.keys.get(0);
+                right.previous = node.page;
+                right.next = node.next;
+                if( node.next != NIL ) {
+                    Node next = readNode(node.next);
+                    next.previous = right.page;
+                    dirty(next);
+                }
+                node.next = right.page;
+            } else {
+                separator = node.keys.get(middle);
+                right.keys.addAll(node.keys.subList(middle + 1, count));
+                right.pointers.addAll(node.pointers.subList(middle + 1, count + 1));
+                node.pointers.subList(middle + 1, count + 1).clear();
+                node.keys.subList(middle, count).clear();
+            }
+            dirty(node);
+            dirty(right);
+            if( path.isEmpty() ) {
+                Node newRoot = newNode(false);
+                newRoot.pointers.add(node.page);
+                newRoot.keys.add(separator);
+                newRoot.pointers.add(right.page);
+                dirty(newRoot);
+                root = newRoot.page;
+                height++;
+                metaDirty = true;
+                return;
+            }
+            Node parent = path.remove(path.size() - 1);
+            int index = parent.pointers.indexOf(node.page);
+            parent.keys.add(index, separator);
+            parent.pointers.add(index + 1, right.page);
+            dirty(parent);
+            node = parent;
+        }
+    }
+
+    /**
+     * @return The index of the first key to move into the right half of a node, which halves the size of the node.
+     */
+    private static int splitIndex( @NotNull Node node ) {
+        int half = ( node.getByteSize() - PAGE_HEADER_SIZE ) / 2, count = node.keys.size(), bytes = 0, index = 0;
+        while( index < count && bytes < half ) {
+            bytes += node.keys.get(index).length + ( node.leaf ? LEAF_ENTRY_OVERHEAD : INTERNAL_ENTRY_OVERHEAD );
+            index++;
+        }
+        // Both halves must keep a key, and an internal node gives up the key at the split to its parent.
+        return Math.max(1, Math.min(index, count - ( node.leaf ? 1 : 2 )));
+    }
+
+    /**
+     * @return The value of the removed key, or null if there was none.
+     */
+    @Nullable
+    public byte[] remove( @NotNull byte[] key ) throws IOException {
+        evictionDeferred = true;
+        try {
+            return removeInternal(key);
+        } finally {
+            evictionDeferred = false;
+            evict();
+        }
+    }
+
+    @Nullable
+    private byte[] removeInternal( @NotNull byte[] key ) throws IOException {
+        List<Node> path = new ArrayList<Node>(height);
+        Node leaf = findLeaf(key, path);
+        int index = search(leaf, key);
+        if( index < 0 ) return null;
+        int length = leaf.lengths.get(index);
+        byte[] old = readValue(leaf.pointers.get(index), length);
+        leaf.keys.remove(index);
+        leaf.pointers.remove(index);
+        leaf.lengths.remove(index);
+        dirty(leaf);
+        garbage.longValue(garbage.longValue() + length);
+        modCount++;
+        size.intValue(size.intValue() - 1);
+        if( leaf.keys.isEmpty() && !path.isEmpty() ) removeLeaf(leaf, path);
+        return old;
+    }
+
+    /**
+     * Removes an empty leaf from the tree, removing its ancestors as they become empty in turn.
+     */
+    private void removeLeaf( @NotNull Node leaf, @NotNull List<Node> path ) throws IOException {
+        if( leaf.previous != NIL ) {
+            Node previous = readNode(leaf.previous);
+            previous.next = leaf.next;
+            dirty(previous);
+        }
+        if( leaf.next != NIL ) {
+            Node next = readNode(leaf.next);
+            next.previous = leaf.previous;
+            dirty(next);
+        }
+        Node node = leaf;
+        while( true ) {
+            Node parent = path.remove(path.size() - 1);
+            int index = parent.pointers.indexOf(node.page);
+            parent.pointers.remove(index);
+            if( !parent.keys.isEmpty() ) parent.keys.remove(index == 0 ? 0 : index - 1);
+            free(node);
+            dirty(parent);
+            if( !parent.pointers.isEmpty() ) break;
+            if( path.isEmpty() ) {
+                // The tree is empty, so the root becomes an empty leaf.
+                parent.leaf = true;
+                parent.previous = parent.next = NIL;
+                dirty(parent);
+                height = 1;
+                metaDirty = true;
+                return;
+            }
+            node = parent;
+        }
+        Node rootNode = readNode(root);
+        while( !rootNode.leaf && rootNode.pointers.size() == 1 ) {
+            free(rootNode);
+            root = rootNode.pointers.get(0);
+            height--;
+            metaDirty = true;
+            rootNode = readNode(root);
+        }
+    }
+
+    public void clear() throws IOException {
+        modCount++;
+        reset();
+    }
+
+    @NotNull
+    protected byte[] readValue( long offset, int length ) throws IOException {
+        byte[] value = new byte[length];
+        if( length == 0 ) return value;
+        ByteBuffer buf = ByteBuffer.wrap(value);
+        readValues(buf, offset);
+        if( buf.hasRemaining() ) throw new EOFException("The value at " + offset + " is truncated.");
+        return value;
+    }
+
+    private long appendValue( @NotNull byte[] value ) throws IOException {
+        long offset = nextFree;
+        if( value.length != 0 ) writeValue(ByteBuffer.wrap(value), offset);
+        nextFree += value.length;
+        return offset;
+    }
+
+    /**
+     * Rewrites the value file so that it only contains live values, stored in key order. A copy of the page file is
+     * updated to point at the rewritten values, then both are renamed into place.
+     */
+    public void compact() throws IOException {
+        flushPages();
+        File compactPageFile = new File(directory, PAGES_FILENAME + COMPACTION_SUFFIX);
+        File compactValueFile = new File(directory, VALUES_FILENAME + COMPACTION_SUFFIX);
+        FileUtils.copyFile(new File(directory, PAGES_FILENAME), compactPageFile);
+        FileUtils.forceCreateNewFile(compactValueFile);
+        long valueSize;
+        FileChannelProvider pageOut = factory.create(compactPageFile), valueOut = factory.create(compactValueFile);
+        try {
+            valueSize = compact(pageOut, valueOut);
+            pageOut.flush();
+            valueOut.flush();
+        } finally {
+            IOUtils.closeQuietly(pageOut);
+            IOUtils.closeQuietly(valueOut);
+        }
+        cache.clear();
+        pageChannel.close();
+        valueChannel.close();
+        FileUtils.rename(compactPageFile, new File(directory, PAGES_FILENAME));
+        FileUtils.rename(compactValueFile, new File(directory, VALUES_FILENAME));
+        pageChannel = factory.create(new File(directory, PAGES_FILENAME));
+        valueChannel = factory.create(new File(directory, VALUES_FILENAME));
+        nextFree = valueSize;
+        garbage.longValue(0);
+        modCount++;
+    }
+
+    private long compact( @NotNull FileChannelProvider pageOut, @NotNull FileChannelProvider valueOut ) throws IOException {
+        ByteBuffer values = ByteBuffer.allocate(COMPACTION_BUFFER_SIZE), page = ByteBuffer.allocate(pageSize);
+        long valuePosition = 0, offset = 0;
+        Node node = readNode(root);
+        while( !node.leaf ) node = readNode(node.pointers.get(0));
+        while( true ) {
+            Node copy = new Node(node.page, true);
+            copy.previous = node.previous;
+            copy.next = node.next;
+            copy.keys.addAll(node.keys);
+            copy.lengths.addAll(node.lengths);
+            for( int i = 0; i < node.keys.size(); i++ ) {
+                int length = node.lengths.get(i);
+                byte[] value = readValue(node.pointers.get(i), length);
+                if( length > values.remaining() ) valuePosition += drain(valueOut, values, valuePosition);
+                if( length > values.remaining() ) {
+                    write(valueOut, ByteBuffer.wrap(value), valuePosition);
+                    valuePosition += length;
+                } else {
+                    values.put(value);
+                }
+                copy.pointers.add(offset);
+                offset += length;
+            }
+            page.clear();
+            copy.write(page);
+            page.clear();
+            write(pageOut, page, node.page * pageSize);
+            if( node.next == NIL ) break;
+            node = readNode(node.next);
+        }
+        drain(valueOut, values, valuePosition);
+        return offset;
+    }
+
+    /**
+     * Writes out the contents of a buffer which is being filled, and clears it.
+     */
+    private static int drain( @NotNull FileChannelProvider provider, @NotNull ByteBuffer buf, long position ) throws IOException {
+        buf.flip();
+        int length = buf.remaining();
+        write(provider, buf, position);
+        buf.clear();
+        return length;
+    }
+
+    protected static long size( @NotNull FileChannelProvider provider ) throws IOException {
+        return provider.visitValueChannelShared(new FileChannelVisitor<Long>() {
+            @Override
+            public Long visit( @NotNull FileChannel channel ) throws IOException {
+                return channel.size();
+            }
+        });
+    }
+
+    protected static void truncate( @NotNull FileChannelProvider provider, final long length ) throws IOException {
+        provider.visitValueChannel(new FileChannelVisitor<Void>() {
+            @Override
+            public Void visit( @NotNull FileChannel channel ) throws IOException {
+                if( channel.size() > length ) channel.truncate(length);
+                return null;
+            }
+        });
+    }
+
+    private static void read( @NotNull FileChannelProvider provider, @NotNull ByteBuffer dst, long position ) throws IOException {
+        provider.read(dst, position);
+    }
+
+    private static void write( @NotNull FileChannelProvider provider, @NotNull ByteBuffer src, long position ) throws IOException {
+        provider.write(src, position);
+    }
+
+    /**
+     * Reads from the page file until {@code dst} is full or the end of the file is reached.
+     */
+    protected void readPage( @NotNull ByteBuffer dst, long position ) throws IOException {
+        read(pageChannel, dst, position);
+    }
+
+    protected void writePage( @NotNull ByteBuffer src, long position ) throws IOException {
+        write(pageChannel, src, position);
+    }
+
+    /**
+     * Reads from the value file until {@code dst} is full or the end of the file is reached.
+     */
+    protected void readValues( @NotNull ByteBuffer dst, long position ) throws IOException {
+        read(valueChannel, dst, position);
+    }
+
+    protected void writeValue( @NotNull ByteBuffer src, long position ) throws IOException {
+        write(valueChannel, src, position);
+    }
+
+    private void flushPages() throws IOException {
+        for( Node node : cache.values() ) {
+            if( node.dirty ) writeNode(node);
+        }
+        if( metaDirty ) writeMeta();
+    }
+
+    public void flush() throws IOException {
+        if( getGarbageRatio() > compactionThreshold ) compact();
+        flushPages();
+        size.flush();
+        garbage.flush();
+        pageChannel.flush();
+        valueChannel.flush();
+    }
+
+    public void close() throws IOException {
+        if( !closed ) {
+            flush();
+            cache.clear();
+            pageChannel.close();
+            valueChannel.close();
+            size.close();
+            garbage.close();
+            closed = true;
+        }
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        try {
+            close();
+        } finally {
+            super.finalize();
+        }
+    }
+}
@@ -0,0 +1,813 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.compression.CompressionException;
+import com.eatnumber1.util.compression.CompressionProvider;
+import com.eatnumber1.util.compression.ZLIBCompressionProvider;
+import com.eatnumber1.util.io.FileUtils;
+import com.eatnumber1.util.io.IOUtils;
+import com.eatnumber1.util.nio.ByteBufferUtils;
+import com.eatnumber1.util.persistent.channel.FileChannelProvider;
+import com.eatnumber1.util.persistent.channel.FileChannelProviderFactory;
+import com.eatnumber1.util.persistent.channel.FileChannelVisitor;
+import com.eatnumber1.util.persistent.channel.SimpleFileChannelProvider;
+import com.eatnumber1.util.persistent.provider.PersistenceProvider;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import net.jcip.annotations.NotThreadSafe;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A list which packs consecutive elements into blocks of about {@link #getBlockSize()} bytes and compresses each block
+ * as a whole, so that small elements share the cost of compression and compress against each other.
+ * <p/>
+ * Blocks are only ever appended to the block file. The index of blocks, holding the position, compressed length and
+ * element count of each, is kept in memory and saved by replacing the index file when the list is flushed, so the
+ * files always hold the list as it was when it was last flushed. Blocks which are read are kept decompressed in a small
+ * cache, in which they are also modified. Modified blocks are compressed and appended when they leave the cache or the
+ * list is flushed, leaving their old copy behind as garbage which is reclaimed by {@link #compact()}.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@NotThreadSafe
+public class FileBackedBlockCompressedList<T> extends AbstractList<T> implements FileBackedList<T>, RandomAccess {
+    @NotNull
+    protected static final String BLOCKS_FILENAME = "blocks", INDEX_FILENAME = "index", COMPACTION_SUFFIX = ".compact", TEMPORARY_SUFFIX = ".tmp";
+
+    protected static final long MAGIC = 0x4642426c6f636b4cL;
+
+    protected static final int INDEX_HEADER_SIZE = Long.SIZE / 8 + Integer.SIZE / 8;
+
+    protected static final int INDEX_ENTRY_SIZE = Long.SIZE / 8 + 2 * ( Integer.SIZE / 8 );
+
+    protected static final int COMPACTION_BUFFER_SIZE = 1024 * 1024;
+
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    public static final int DEFAULT_CACHE_SIZE = 8;
+
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+    @NotNull
+    protected FileChannelProvider blockChannel;
+
+    @NotNull
+    protected PersistenceProvider<T> persistenceProvider;
+
+    @NotNull
+    protected CompressionProvider compressionProvider;
+
+    @NotNull
+    protected FileChannelProviderFactory factory;
+
+    @NotNull
+    private File directory;
+
+    private int blockSize, cacheSize;
+
+    private double compactionThreshold;
+
+    protected boolean closed = true;
+
+    @NotNull
+    private List<Entry> entries;
+
+    // The index of the first element of each block, which is only up to date for the first validFirsts blocks.
+    @NotNull
+    private int[] firsts;
+
+    private int validFirsts;
+
+    @NotNull
+    private LinkedHashMap<Entry, Block> cache;
+
+    private int size;
+
+    private long nextFree, garbage;
+
+    private boolean indexModified;
+
+    protected static class Entry {
+        // Negative for blocks which have not been written yet.
+        protected long start = -1;
+
+        protected int length, count;
+    }
+
+    protected static class Block {
+        @NotNull
+        protected final List<byte[]> elements;
+
+        // The uncompressed size of the elements.
+        protected int bytes;
+
+        protected boolean modified;
+
+        protected Block( @NotNull List<byte[]> elements ) {
+            this.elements = elements;
+            for( byte[] element : elements ) bytes += element.length;
+        }
+    }
+
+    public FileBackedBlockCompressedList( @NotNull File directory, @NotNull PersistenceProvider<T> persistenceProvider ) throws IOException {
+        this(directory, persistenceProvider, new ZLIBCompressionProvider());
+    }
+
+    public FileBackedBlockCompressedList( @NotNull File directory, @NotNull PersistenceProvider<T> persistenceProvider, @NotNull CompressionProvider compressionProvider ) throws IOException {
+        this(directory, persistenceProvider, compressionProvider, new FileChannelProviderFactory() {
+            @NotNull
+            @Override
+            public FileChannelProvider create( @NotNull File file ) throws IOException {
+                return new SimpleFileChannelProvider(file, "rw");
+            }
+        }, DEFAULT_BLOCK_SIZE, DEFAULT_CACHE_SIZE);
+    }
+
+    public FileBackedBlockCompressedList( @NotNull File directory, @NotNull PersistenceProvider<T> persistenceProvider, @NotNull CompressionProvider compressionProvider, @NotNull FileChannelProviderFactory factory, int blockSize, int cacheSize ) throws IOException {
+        if( blockSize <= 0 ) throw new IllegalArgumentException("The block size must be positive.");
+        if( cacheSize <= 0 ) throw new IllegalArgumentException("The cache size must be positive.");
+        this.directory = directory;
+        this.persistenceProvider = persistenceProvider;
+        this.compressionProvider = compressionProvider;
+        this.factory = factory;
+        this.blockSize = blockSize;
+        this.cacheSize = cacheSize;
+        compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+        open();
+    }
+
+    @Override
+    public void open() throws IOException {
+        if( closed ) {
+            if( directory.exists() ) {
+                if( !directory.isDirectory() ) throw new IOException(directory + " is not a directory.");
+            } else {
+                FileUtils.mkdir(directory);
+            }
+            recoverCompaction();
+            File blockFile = new File(directory, BLOCKS_FILENAME), indexFile = new File(directory, INDEX_FILENAME);
+            if( !blockFile.exists() ) {
+                if( indexFile.exists() ) throw new IOException("Block file is missing. The list is corrupt.");
+                FileUtils.createNewFile(blockFile);
+            }
+            entries = new ArrayList<Entry>();
+            firsts = new int[16];
+            validFirsts = 0;
+            cache = new LinkedHashMap<Entry, Block>(16, 0.75f, true);
+            blockChannel = factory.create(blockFile);
+            try {
+                if( indexFile.exists() ) readIndex(indexFile);
+            } catch( IOException e ) {
+                IOUtils.closeQuietly(blockChannel);
+                throw e;
+            }
+            nextFree = size(blockChannel);
+            size = 0;
+            long live = 0;
+            for( Entry entry : entries ) {
+                size += entry.count;
+                live += entry.length;
+            }
+            garbage = nextFree - live;
+            indexModified = false;
+            closed = false;
+        }
+    }
+
+    /**
+     * Finishes or discards a compaction which was interrupted. Files are only given their compaction names once they
+     * are complete, and the compacted block file is renamed into place before the compacted index.
+     */
+    private void recoverCompaction() throws IOException {
+        for( String name : new String[]{ BLOCKS_FILENAME, INDEX_FILENAME } ) {
+            File temporary = new File(directory, name + TEMPORARY_SUFFIX);
+            if( temporary.exists() ) FileUtils.delete(temporary);
+        }
+        File compactBlockFile = new File(directory, BLOCKS_FILENAME + COMPACTION_SUFFIX);
+        File compactIndexFile = new File(directory, INDEX_FILENAME + COMPACTION_SUFFIX);
+        if( compactIndexFile.exists() ) {
+            if( compactBlockFile.exists() ) FileUtils.rename(compactBlockFile, new File(directory, BLOCKS_FILENAME));
+            FileUtils.rename(compactIndexFile, new File(directory, INDEX_FILENAME));
+        } else if( compactBlockFile.exists() ) {
+            FileUtils.delete(compactBlockFile);
+        }
+    }
+
+    private void readIndex( @NotNull File indexFile ) throws IOException {
+        FileChannelProvider indexChannel = factory.create(indexFile);
+        try {
+            final ByteBuffer buf = ByteBuffer.allocate((int) size(indexChannel));
+            indexChannel.visitValueChannel(new FileChannelVisitor<Void>() {
+                @Override
+                public Void visit( @NotNull FileChannel channel ) throws IOException {
+                    IOUtils.read(channel, buf, buf.remaining());
+                    return null;
+                }
+            });
+            buf.flip();
+            if( buf.remaining() < INDEX_HEADER_SIZE || buf.getLong() != MAGIC ) throw new IOException("Index file is corrupt.");
+            int count = buf.getInt();
+            if( buf.remaining() != (long) count * INDEX_ENTRY_SIZE ) throw new IOException("Index file is corrupt.");
+            for( int i = 0; i < count; i++ ) {
+                Entry entry = new Entry();
+                entry.start = buf.getLong();
+                entry.length = buf.getInt();
+                entry.count = buf.getInt();
+                entries.add(entry);
+            }
+        } finally {
+            indexChannel.close();
+        }
+    }
+
+    /**
+     * Writes the index to a temporary file and renames it to {@code name}, so that the file is never seen half written.
+     */
+    private void writeIndex( @NotNull String name, @NotNull long[] starts ) throws IOException {
+        File temporary = new File(directory, INDEX_FILENAME + TEMPORARY_SUFFIX);
+        FileUtils.forceCreateNewFile(temporary);
+        final ByteBuffer buf = ByteBuffer.allocate(INDEX_HEADER_SIZE + entries.size() * INDEX_ENTRY_SIZE);
+        buf.putLong(MAGIC).putInt(entries.size());
+        for( int i = 0; i < entries.size(); i++ ) {
+            Entry entry = entries.get(i);
+            buf.putLong(starts[i]).putInt(entry.length).putInt(entry.count);
+        }
+        buf.flip();
+        FileChannelProvider indexChannel = factory.create(temporary);
+        try {
+            indexChannel.visitValueChannel(new FileChannelVisitor<Void>() {
+                @Override
+                public Void visit( @NotNull FileChannel channel ) throws IOException {
+                    IOUtils.write(channel, buf, buf.remaining());
+                    return null;
+                }
+            });
+            indexChannel.flush();
+        } finally {
+            indexChannel.close();
+        }
+        FileUtils.rename(temporary, new File(directory, name));
+    }
+
+    @NotNull
+    private long[] getStarts() {
+        long[] starts = new long[entries.size()];
+        for( int i = 0; i < starts.length; i++ ) starts[i] = entries.get(i).start;
+        return starts;
+    }
+
+    @NotNull
+    public File getStorageFile() {
+        return directory;
+    }
+
+    public boolean isMapped() {
+        return false;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public void setCacheSize( int cacheSize ) throws IOException {
+        if( cacheSize <= 0 ) throw new IllegalArgumentException("The cache size must be positive.");
+        this.cacheSize = cacheSize;
+        evict();
+    }
+
+    public double getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    /**
+     * @param compactionThreshold The garbage ratio above which {@link #flush()} compacts the list, or a value greater
+     * than one to only compact when {@link #compact()} is called.
+     */
+    public void setCompactionThreshold( double compactionThreshold ) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    public int getBlockCount() {
+        return entries.size();
+    }
+
+    public long getGarbageSize() {
+        return garbage;
+    }
+
+    public double getGarbageRatio() {
+        return nextFree == 0 ? 0 : (double) garbage / nextFree;
+    }
+
+    private void invalidateFirsts( int block ) {
+        validFirsts = Math.min(validFirsts, block);
+    }
+
+    private int getFirst( int block ) {
+        if( block >= validFirsts ) {
+            if( firsts.length < entries.size() ) {
+                int[] grown = new int[Math.max(entries.size(), firsts.length * 2)];
+                System.arraycopy(firsts, 0, grown, 0, validFirsts);
+                firsts = grown;
+            }
+            for( int i = validFirsts; i <= block; i++ ) firsts[i] = i == 0 ? 0 : firsts[i - 1] + entries.get(i - 1).count;
+            validFirsts = block + 1;
+        }
+        return firsts[block];
+    }
+
+    /**
+     * @return The block holding the element at the index.
+     */
+    private int find( int index ) {
+        int low = 0, high = entries.size() - 1;
+        getFirst(high);
+        while( low < high ) {
+            int mid = ( low + high + 1 ) >>> 1;
+            if( firsts[mid] <= index ) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    @NotNull
+    private Block load( int block ) throws IOException {
+        Entry entry = entries.get(block);
+        Block loaded = cache.get(entry);
+        if( loaded == null ) {
+            loaded = read(entry);
+            cache.put(entry, loaded);
+        }
+        return loaded;
+    }
+
+    @NotNull
+    private Block read( @NotNull Entry entry ) throws IOException {
+        ByteBuffer compressed = ByteBuffer.allocate(entry.length);
+        long start = entry.start;
+        readBlocks(compressed, start);
+        ByteBuffer buf;
+        try {
+            buf = ByteBuffer.wrap(compressionProvider.decompress(compressed.array()));
+        } catch( CompressionException e ) {
+            throw new IOException(e);
+        }
+        try {
+            int count = (int) ByteBufferUtils.getVarint(buf);
+            if( count != entry.count ) throw new IOException("Block at " + start + " holds " + count + " elements rather than " + entry.count + ".");
+            int[] lengths = new int[count];
+            for( int i = 0; i < count; i++ ) lengths[i] = (int) ByteBufferUtils.getVarint(buf);
+            List<byte[]> elements = new ArrayList<byte[]>(count);
+            for( int length : lengths ) {
+                byte[] element = new byte[length];
+                buf.get(element);
+                elements.add(element);
+            }
+            return new Block(elements);
+        } catch( BufferUnderflowException e ) {
+            throw new IOException("Block at " + start + " is truncated.", e);
+        }
+    }
+
+    @NotNull
+    private byte[] compress( @NotNull Block block ) throws IOException {
+        int length = ByteBufferUtils.getVarintSize(block.elements.size()) + block.bytes;
+        for( byte[] element : block.elements ) length += ByteBufferUtils.getVarintSize(element.length);
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        ByteBufferUtils.putVarint(buf, block.elements.size());
+        for( byte[] element : block.elements ) ByteBufferUtils.putVarint(buf, element.length);
+        for( byte[] element : block.elements ) buf.put(element);
+        try {
+            return compressionProvider.compress(buf.array());
+        } catch( CompressionException e ) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Appends a modified block to the block file, leaving its previous copy as garbage.
+     */
+    private void write( @NotNull Entry entry, @NotNull Block block ) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(compress(block));
+        long position = nextFree;
+        blockChannel.write(buf, position);
+        if( entry.start >= 0 ) garbage += entry.length;
+        entry.start = position;
+        entry.length = buf.capacity();
+        nextFree += entry.length;
+        block.modified = false;
+        indexModified = true;
+    }
+
+    /**
+     * Drops the least recently used blocks from the cache, writing those which were modified.
+     */
+    private void evict() throws IOException {
+        Iterator<Map.Entry<Entry, Block>> iterator = cache.entrySet().iterator();
+        while( cache.size() > cacheSize ) {
+            Map.Entry<Entry, Block> eldest = iterator.next();
+            if( eldest.getValue().modified ) write(eldest.getKey(), eldest.getValue());
+            iterator.remove();
+        }
+    }
+
+    private void modified( @NotNull Block block ) {
+        block.modified = true;
+        indexModified = true;
+    }
+
+    private void insertBlock( int position, @NotNull Entry entry, @NotNull Block block ) {
+        entries.add(position, entry);
+        invalidateFirsts(position);
+        cache.put(entry, block);
+        modified(block);
+    }
+
+    private void removeBlock( int position ) {
+        Entry entry = entries.remove(position);
+        invalidateFirsts(position);
+        cache.remove(entry);
+        if( entry.start >= 0 ) garbage += entry.length;
+        indexModified = true;
+    }
+
+    /**
+     * Splits a block which has grown past the block size into two blocks of about the same size.
+     */
+    private void split( int position, @NotNull Block block ) {
+        if( block.bytes <= blockSize || block.elements.size() < 2 ) return;
+        int at = 0, bytes = 0;
+        while( at < block.elements.size() - 1 && bytes + block.elements.get(at).length <= block.bytes / 2 ) {
+            bytes += block.elements.get(at++).length;
+        }
+        at = Math.max(at, 1);
+        List<byte[]> tail = block.elements.subList(at, block.elements.size());
+        Block next = new Block(new ArrayList<byte[]>(tail));
+        tail.clear();
+        block.bytes -= next.bytes;
+        Entry entry = entries.get(position), nextEntry = new Entry();
+        nextEntry.count = next.elements.size();
+        entry.count -= nextEntry.count;
+        insertBlock(position + 1, nextEntry, next);
+    }
+
+    /**
+     * Merges a block which has shrunk with the block after it, if both fit in a single block.
+     */
+    private void merge( int position, @NotNull Block block ) throws IOException {
+        if( block.bytes >= blockSize / 4 || position + 1 >= entries.size() ) return;
+        Block next = load(position + 1);
+        if( block.bytes + next.bytes > blockSize ) return;
+        block.elements.addAll(next.elements);
+        block.bytes += next.bytes;
+        entries.get(position).count += next.elements.size();
+        removeBlock(position + 1);
+    }
+
+    @NotNull
+    private byte[] toBytes( @Nullable T object ) throws PersistenceException {
+        return persistenceProvider.toBytes(object);
+    }
+
+    @Nullable
+    private T fromBytes( @NotNull byte[] bytes ) throws PersistenceException {
+        return persistenceProvider.fromBytes(bytes);
+    }
+
+    private void checkIndex( int index, int bound ) {
+        if( index < 0 || index >= bound ) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    @Override
+    public T get( int index ) {
+        checkIndex(index, size);
+        try {
+            int block = find(index);
+            T object = fromBytes(load(block).elements.get(index - getFirst(block)));
+            evict();
+            return object;
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        } catch( PersistenceException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public T set( int index, T element ) {
+        checkIndex(index, size);
+        try {
+            byte[] bytes = toBytes(element);
+            int position = find(index);
+            Block block = load(position);
+            byte[] old = block.elements.set(index - getFirst(position), bytes);
+            block.bytes += bytes.length - old.length;
+            modified(block);
+            split(position, block);
+            evict();
+            return fromBytes(old);
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        } catch( PersistenceException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void add( int index, T element ) {
+        checkIndex(index, size + 1);
+        try {
+            byte[] bytes = toBytes(element);
+            int position = index == size ? entries.size() - 1 : find(index);
+            Block block = position < 0 ? null : load(position);
+            if( block == null || ( index == size && block.bytes + bytes.length > blockSize ) ) {
+                // Appends which do not fit in the last block start a new one rather than splitting it.
+                position++;
+                block = new Block(new ArrayList<byte[]>());
+                insertBlock(position, new Entry(), block);
+            }
+            block.elements.add(index - getFirst(position), bytes);
+            block.bytes += bytes.length;
+            entries.get(position).count++;
+            invalidateFirsts(position + 1);
+            size++;
+            modCount++;
+            modified(block);
+            split(position, block);
+            evict();
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        } catch( PersistenceException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public T remove( int index ) {
+        checkIndex(index, size);
+        try {
+            int position = find(index);
+            Block block = load(position);
+            byte[] old = block.elements.remove(index - getFirst(position));
+            block.bytes -= old.length;
+            entries.get(position).count--;
+            invalidateFirsts(position + 1);
+            size--;
+            modCount++;
+            if( block.elements.isEmpty() ) {
+                removeBlock(position);
+            } else {
+                modified(block);
+                merge(position, block);
+            }
+            evict();
+            return fromBytes(old);
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        } catch( PersistenceException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+        invalidateFirsts(0);
+        cache.clear();
+        size = 0;
+        modCount++;
+        // The index file still refers to the blocks until the list is flushed, so they are left to compaction.
+        garbage = nextFree;
+        indexModified = true;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Reads the blocks in order without passing them through the cache, so that a scan of the list decompresses each
+     * block once and does not evict the blocks which are being used for random access.
+     */
+    @NotNull
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private int cursor, lastReturned = -1, expectedModCount = modCount;
+
+            @Nullable
+            private List<byte[]> current;
+
+            private int currentFirst;
+
+            @Override
+            public boolean hasNext() {
+                return cursor < size;
+            }
+
+            @Override
+            public T next() {
+                if( modCount != expectedModCount ) throw new ConcurrentModificationException();
+                if( cursor >= size ) throw new NoSuchElementException();
+                try {
+                    if( current == null || cursor >= currentFirst + current.size() ) {
+                        int position = find(cursor);
+                        Entry entry = entries.get(position);
+                        Block block = cache.get(entry);
+                        current = ( block == null ? read(entry) : block ).elements;
+                        currentFirst = getFirst(position);
+                    }
+                    T object = fromBytes(current.get(cursor - currentFirst));
+                    lastReturned = cursor++;
+                    return object;
+                } catch( IOException e ) {
+                    throw new RuntimeException(e);
+                } catch( PersistenceException e ) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            public void remove() {
+                if( lastReturned < 0 ) throw new IllegalStateException();
+                if( modCount != expectedModCount ) throw new ConcurrentModificationException();
+                FileBackedBlockCompressedList.this.remove(lastReturned);
+                cursor = lastReturned;
+                lastReturned = -1;
+                current = null;
+                expectedModCount = modCount;
+            }
+        };
+    }
+
+    /**
+     * Rewrites the block file so that it only holds the blocks of the list, in order.
+     */
+    public void compact() throws IOException {
+        File temporaryBlockFile = new File(directory, BLOCKS_FILENAME + TEMPORARY_SUFFIX);
+        FileUtils.forceCreateNewFile(temporaryBlockFile);
+        long[] starts = new long[entries.size()];
+        int[] lengths = new int[entries.size()];
+        long length;
+        FileChannelProvider blockOut = factory.create(temporaryBlockFile);
+        try {
+            length = compact(blockOut, starts, lengths);
+            blockOut.flush();
+        } finally {
+            IOUtils.closeQuietly(blockOut);
+        }
+        File compactBlockFile = new File(directory, BLOCKS_FILENAME + COMPACTION_SUFFIX);
+        FileUtils.rename(temporaryBlockFile, compactBlockFile);
+        int[] oldLengths = new int[entries.size()];
+        for( int i = 0; i < lengths.length; i++ ) {
+            Entry entry = entries.get(i);
+            oldLengths[i] = entry.length;
+            entry.length = lengths[i];
+        }
+        try {
+            writeIndex(INDEX_FILENAME + COMPACTION_SUFFIX, starts);
+        } catch( IOException e ) {
+            for( int i = 0; i < oldLengths.length; i++ ) entries.get(i).length = oldLengths[i];
+            throw e;
+        }
+        blockChannel.close();
+        FileUtils.rename(compactBlockFile, new File(directory, BLOCKS_FILENAME));
+        FileUtils.rename(new File(directory, INDEX_FILENAME + COMPACTION_SUFFIX), new File(directory, INDEX_FILENAME));
+        blockChannel = factory.create(new File(directory, BLOCKS_FILENAME));
+        for( int i = 0; i < starts.length; i++ ) entries.get(i).start = starts[i];
+        for( Block block : cache.values() ) block.modified = false;
+        nextFree = length;
+        garbage = 0;
+        indexModified = false;
+    }
+
+    private long compact( @NotNull FileChannelProvider blockOut, @NotNull long[] starts, @NotNull int[] lengths ) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(COMPACTION_BUFFER_SIZE);
+        long position = 0;
+        for( int i = 0; i < entries.size(); i++ ) {
+            Entry entry = entries.get(i);
+            Block block = cache.get(entry);
+            // Blocks which were not modified are copied without being decompressed.
+            ByteBuffer data;
+            if( block == null || !block.modified ) {
+                data = ByteBuffer.allocate(entry.length);
+                readBlocks(data, entry.start);
+                data.flip();
+            } else {
+                data = ByteBuffer.wrap(compress(block));
+            }
+            starts[i] = position;
+            lengths[i] = data.remaining();
+            if( data.remaining() > buf.remaining() ) drain(blockOut, buf, position - buf.position());
+            if( data.remaining() > buf.remaining() ) {
+                write(blockOut, data, position);
+            } else {
+                buf.put(data);
+            }
+            position += lengths[i];
+        }
+        drain(blockOut, buf, position - buf.position());
+        return position;
+    }
+
+    private void readBlocks( @NotNull ByteBuffer dst, long position ) throws IOException {
+        blockChannel.read(dst, position);
+        if( dst.hasRemaining() ) throw new EOFException("Premature end of file.");
+    }
+
+    private static void drain( @NotNull FileChannelProvider provider, @NotNull ByteBuffer buf, long position ) throws IOException {
+        buf.flip();
+        write(provider, buf, position);
+        buf.clear();
+    }
+
+    private static void write( @NotNull FileChannelProvider provider, @NotNull ByteBuffer buf, long position ) throws IOException {
+        provider.write(buf, position);
+    }
+
+    private static long size( @NotNull FileChannelProvider provider ) throws IOException {
+        return provider.visitValueChannelShared(new FileChannelVisitor<Long>() {
+            @Override
+            public Long visit( @NotNull FileChannel channel ) throws IOException {
+                return channel.size();
+            }
+        });
+    }
+
+    /**
+     * Writes every modified block and then the index, after which the files hold the list as it is now.
+     */
+    public void flush() throws IOException {
+        if( getGarbageRatio() > compactionThreshold ) {
+            compact();
+        } else {
+            for( Map.Entry<Entry, Block> cached : cache.entrySet() ) {
+                if( cached.getValue().modified ) write(cached.getKey(), cached.getValue());
+            }
+            if( getGarbageRatio() > compactionThreshold ) {
+                compact();
+            } else if( indexModified ) {
+                blockChannel.flush();
+                writeIndex(INDEX_FILENAME, getStarts());
+                indexModified = false;
+            }
+        }
+        blockChannel.flush();
+    }
+
+    public void close() throws IOException {
+        if( !closed ) {
+            flush();
+            blockChannel.close();
+            cache.clear();
+            closed = true;
+        }
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        try {
+            close();
+        } finally {
+            super.finalize();
+        }
+    }
+}
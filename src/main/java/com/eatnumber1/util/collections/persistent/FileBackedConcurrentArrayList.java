@@ -0,0 +1,282 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.concurrent.ListenableFutureTask;
+import com.eatnumber1.util.persistent.channel.AsynchronousFileChannelProvider;
+import com.eatnumber1.util.persistent.channel.FileChannelProvider;
+import com.eatnumber1.util.persistent.channel.FileChannelProviderFactory;
+import com.eatnumber1.util.persistent.provider.PersistenceProvider;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import net.jcip.annotations.ThreadSafe;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A file backed list which may be read from many threads at once. Readers use positional reads with their own buffers
+ * and only exclude writers, while writers exclude everything else. Elements are deserialized outside of the lock.
+ * <p/>
+ * The list must not be opened concurrently with any other operation. Iterators see concurrent modifications of the
+ * list as they happen, and may throw {@link IndexOutOfBoundsException} if elements are concurrently removed.
+ * <p/>
+ * Given a factory of {@link AsynchronousFileChannelProvider}s, {@link #getAsync(int)} and {@link #addAsync(Object)} run
+ * on the executor of the data file's provider.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@ThreadSafe
+public class FileBackedConcurrentArrayList<T> extends FileBackedUnmappedArrayList<T> {
+    @NotNull
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Fields which are used during open() must not have initializers, as open() is called from the super constructor.
+    private volatile int cachedSize;
+
+    public FileBackedConcurrentArrayList( @NotNull File file, @NotNull PersistenceProvider<T> persistenceProvider ) throws IOException {
+        super(file, persistenceProvider);
+        super.setReadAhead(0);
+    }
+
+    public FileBackedConcurrentArrayList( @NotNull File directory, @NotNull PersistenceProvider<T> persistenceProvider, @NotNull FileChannelProviderFactory factory ) throws IOException {
+        super(directory, persistenceProvider, factory);
+        super.setReadAhead(0);
+    }
+
+    @Override
+    public void open() throws IOException {
+        if( closed ) {
+            super.open();
+            cachedSize = super.size();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            super.close();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            super.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @throws UnsupportedOperationException as element caches are not thread safe.
+     */
+    @Override
+    public void setCache( @Nullable ElementCache<T> cache ) {
+        if( cache != null ) throw new UnsupportedOperationException("Element caches are not thread safe.");
+    }
+
+    /**
+     * @throws UnsupportedOperationException as buffered appends would have to be committed by readers.
+     */
+    @Override
+    public void setAppendBuffer( int bufferSize, long maxDelay, @NotNull TimeUnit unit ) throws IOException {
+        if( bufferSize != 0 ) throw new UnsupportedOperationException("Appends cannot be buffered by a concurrent list.");
+    }
+
+    /**
+     * @throws UnsupportedOperationException as streaming iterators buffer their modifications.
+     */
+    @Override
+    public void setReadAhead( int readAhead ) {
+        if( readAhead != 0 ) throw new UnsupportedOperationException("A concurrent list cannot be iterated with read ahead.");
+    }
+
+    private static void read( @NotNull FileChannelProvider provider, @NotNull ByteBuffer dst, long start ) throws IOException {
+        provider.read(dst, start);
+        if( dst.hasRemaining() ) throw new EOFException("Premature end of file.");
+    }
+
+    @Override
+    public T get( int index ) {
+        ByteBuffer data;
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            if( index < 0 || index >= cachedSize ) throw new IndexOutOfBoundsException();
+            ByteBuffer element = ByteBuffer.allocate(ELEMENT_SIZE);
+            read(elementChannel, element, getElementOffset(index));
+            data = ByteBuffer.allocate(element.getInt(POINTER_SIZE));
+            read(dataChannel, data, element.getLong(0));
+            data.flip();
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        } finally {
+            readLock.unlock();
+        }
+        try {
+            return bufferProvider.decode(data);
+        } catch( PersistenceException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public int size() {
+        // The size is read through the file while the list is being opened.
+        return closed ? super.size() : cachedSize;
+    }
+
+    @Override
+    protected void setSize( int size ) {
+        super.setSize(size);
+        cachedSize = size;
+    }
+
+    @Override
+    public T set( int index, T element ) {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            return super.set(index, element);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void setAll( int index, @NotNull Collection<? extends T> elements ) {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            super.setAll(index, elements);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void add( int index, T element ) {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            super.add(index, element);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @NotNull
+    public ListenableFutureTask<T> getAsync( final int index ) {
+        return AsynchronousFileChannelProvider.submit(dataChannel, new Callable<T>() {
+            @Override
+            public T call() {
+                return get(index);
+            }
+        });
+    }
+
+    @NotNull
+    public ListenableFutureTask<Boolean> addAsync( final T element ) {
+        return AsynchronousFileChannelProvider.submit(dataChannel, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return add(element);
+            }
+        });
+    }
+
+    @Override
+    public boolean add( T element ) {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            return super.add(element);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean addAll( int index, @NotNull Collection<? extends T> c ) {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            return super.addAll(index, c);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean addAll( @NotNull Collection<? extends T> c ) {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            return super.addAll(c);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public T remove( int index ) {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            return super.remove(index);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    protected void removeRange( int fromIndex, int toIndex ) {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            super.removeRange(fromIndex, toIndex);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            super.clear();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,755 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.io.FileUtils;
+import com.eatnumber1.util.io.IOUtils;
+import com.eatnumber1.util.io.Openable;
+import com.eatnumber1.util.persistent.channel.FileChannelProvider;
+import com.eatnumber1.util.persistent.channel.FileChannelProviderFactory;
+import com.eatnumber1.util.persistent.channel.FileChannelVisitor;
+import com.eatnumber1.util.persistent.numbers.FileBackedInteger;
+import com.eatnumber1.util.persistent.numbers.FileBackedLong;
+import com.eatnumber1.util.persistent.numbers.FileBackedUnmappedInteger;
+import com.eatnumber1.util.persistent.numbers.FileBackedUnmappedLong;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import net.jcip.annotations.NotThreadSafe;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A disk based hash table mapping byte array keys to byte array values, which backs the file backed maps and sets.
+ * <p/>
+ * The bucket file holds the offset of the first record of each bucket's chain in the record file, to which records are
+ * only ever appended. Records which are removed or replaced are left behind as garbage, which is reclaimed by
+ * {@link #compact()}. The table grows by linear hashing: every insertion which takes the table over its load factor
+ * splits a single bucket by relinking its chain, so the table is never rehashed all at once. The state of the split
+ * is derived from the number of buckets, which is stored separately so that the bucket file may be grown ahead of it.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@NotThreadSafe
+public class FileBackedHashTable implements Closeable, Flushable, Openable {
+    @NotNull
+    protected static final String BUCKETS_FILENAME = "buckets", RECORDS_FILENAME = "records", SIZE_FILENAME = "size", COUNT_FILENAME = "count", GARBAGE_FILENAME = "garbage", END_FILENAME = "end", COMPACTION_SUFFIX = ".compact";
+
+    protected static final int POINTER_SIZE = Long.SIZE / 8;
+
+    // A record is the offset of the next record in its chain, the hash of its key, the lengths of its key and value, then
+    // its key and value.
+    protected static final int RECORD_HEADER_SIZE = POINTER_SIZE + 3 * ( Integer.SIZE / 8 );
+
+    // Offsets are never zero as the record file starts with a header, so zero terminates a chain.
+    protected static final long NIL = 0;
+
+    protected static final long MAGIC = 0x4642486173685462L;
+
+    public static final int INITIAL_BUCKETS = 16;
+
+    public static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+    // Records are read speculatively in blocks of this size, so that most records only take a single read.
+    protected static final int RECORD_READ_SIZE = 256;
+
+    protected static final int COMPACTION_BUFFER_SIZE = 1024 * 1024;
+
+    @NotNull
+    protected FileChannelProvider bucketChannel, recordChannel;
+
+    @NotNull
+    protected FileBackedInteger size, count;
+
+    @NotNull
+    protected FileBackedLong garbage;
+
+    @NotNull
+    protected FileChannelProviderFactory factory;
+
+    @NotNull
+    private File directory;
+
+    protected int bucketCount;
+
+    protected long nextFree;
+
+    private float loadFactor;
+
+    private double compactionThreshold;
+
+    protected boolean closed = true;
+
+    private int modCount;
+
+    public static class Record {
+        protected final long offset;
+
+        protected long next;
+
+        protected final int hash;
+
+        @NotNull
+        protected final byte[] key;
+
+        // Null unless the value was read with the record.
+        @Nullable
+        protected final byte[] value;
+
+        protected final int valueLength;
+
+        protected Record( long offset, long next, int hash, @NotNull byte[] key, @Nullable byte[] value, int valueLength ) {
+            this.offset = offset;
+            this.next = next;
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+            this.valueLength = valueLength;
+        }
+
+        @NotNull
+        public byte[] getKey() {
+            return key;
+        }
+
+        @Nullable
+        public byte[] getValue() {
+            return value;
+        }
+
+        protected int getLength() {
+            return RECORD_HEADER_SIZE + key.length + valueLength;
+        }
+    }
+
+    public FileBackedHashTable( @NotNull File directory, @NotNull FileChannelProviderFactory factory ) throws IOException {
+        this.directory = directory;
+        this.factory = factory;
+        loadFactor = DEFAULT_LOAD_FACTOR;
+        compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+        open();
+    }
+
+    @Override
+    public void open() throws IOException {
+        if( closed ) {
+            if( directory.exists() ) {
+                if( !directory.isDirectory() ) throw new IOException(directory + " is not a directory.");
+            } else {
+                FileUtils.mkdir(directory);
+            }
+            recoverCompaction();
+            File bucketFile = new File(directory, BUCKETS_FILENAME), recordFile = new File(directory, RECORDS_FILENAME);
+            boolean bucketFileExists = bucketFile.exists(), recordFileExists = recordFile.exists();
+            if( bucketFileExists || recordFileExists ) {
+                if( !bucketFileExists ) throw new IOException("Bucket file is missing. The table is corrupt.");
+                if( !recordFileExists ) throw new IOException("Record file is missing. The table is corrupt.");
+            } else {
+                FileUtils.createNewFile(bucketFile);
+                FileUtils.createNewFile(recordFile);
+            }
+            bucketChannel = factory.create(bucketFile);
+            recordChannel = factory.create(recordFile);
+            File sizeFile = new File(directory, SIZE_FILENAME), countFile = new File(directory, COUNT_FILENAME), garbageFile = new File(directory, GARBAGE_FILENAME);
+            size = newSizeInteger(sizeFile, factory.create(sizeFile));
+            count = newSizeInteger(countFile, factory.create(countFile));
+            garbage = newGarbageLong(garbageFile, factory.create(garbageFile));
+            bucketCount = count.intValue();
+            nextFree = size(recordChannel);
+            recoverEnd();
+            if( nextFree == 0 && size(bucketChannel) == 0 ) {
+                reset();
+            } else if( bucketCount == 0 || !hasMagic() ) {
+                IOUtils.closeQuietly(bucketChannel);
+                IOUtils.closeQuietly(recordChannel);
+                IOUtils.closeQuietly(size);
+                IOUtils.closeQuietly(count);
+                IOUtils.closeQuietly(garbage);
+                throw new IOException(bucketCount == 0 ? "Bucket count is missing. The table is corrupt." : "Record file has a bad header. The table is corrupt.");
+            }
+            closed = false;
+        }
+    }
+
+    @NotNull
+    protected FileBackedInteger newSizeInteger( @NotNull File sizeFile, @NotNull FileChannelProvider channelProvider ) throws IOException {
+        return new FileBackedUnmappedInteger(sizeFile, channelProvider);
+    }
+
+    @NotNull
+    protected FileBackedLong newGarbageLong( @NotNull File garbageFile, @NotNull FileChannelProvider channelProvider ) throws IOException {
+        return new FileBackedUnmappedLong(garbageFile, channelProvider);
+    }
+
+    /**
+     * Finishes or discards a compaction which was interrupted. The compacted bucket file is renamed into place before the
+     * compacted record file, so a compacted record file without a compacted bucket file is the only one left to rename.
+     */
+    private void recoverCompaction() throws IOException {
+        File compactBucketFile = new File(directory, BUCKETS_FILENAME + COMPACTION_SUFFIX);
+        File compactRecordFile = new File(directory, RECORDS_FILENAME + COMPACTION_SUFFIX);
+        if( compactBucketFile.exists() ) {
+            FileUtils.delete(compactBucketFile);
+            if( compactRecordFile.exists() ) FileUtils.delete(compactRecordFile);
+        } else if( compactRecordFile.exists() ) {
+            FileUtils.rename(compactRecordFile, new File(directory, RECORDS_FILENAME));
+        }
+    }
+
+    /**
+     * Cuts the record file back to the end of its records if a table which grows the record file ahead of its records was
+     * not closed. Such a table records where its records end in the end file for as long as it is open.
+     */
+    private void recoverEnd() throws IOException {
+        File endFile = new File(directory, END_FILENAME);
+        if( !endFile.exists() ) return;
+        FileBackedLong end = new FileBackedUnmappedLong(endFile, factory.create(endFile));
+        long length;
+        try {
+            length = end.longValue();
+        } finally {
+            end.close();
+        }
+        // A compaction which was finished on open has already cut the record file back.
+        if( length > 0 && length < nextFree ) {
+            truncate(recordChannel, length);
+            nextFree = length;
+        }
+        FileUtils.delete(endFile);
+    }
+
+    private boolean hasMagic() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(POINTER_SIZE);
+        return recordChannel.read(header, 0) == POINTER_SIZE && header.getLong(0) == MAGIC;
+    }
+
+    private void reset() throws IOException {
+        truncate(bucketChannel, 0);
+        truncate(recordChannel, 0);
+        bucketCount = 0;
+        count.intValue(0);
+        appendBuckets(new long[INITIAL_BUCKETS]);
+        ByteBuffer header = ByteBuffer.allocate(POINTER_SIZE);
+        header.putLong(0, MAGIC);
+        writeRecords(header, 0);
+        setNextFree(POINTER_SIZE);
+        size.intValue(0);
+        garbage.longValue(0);
+    }
+
+    @NotNull
+    public File getStorageFile() {
+        return directory;
+    }
+
+    public boolean isMapped() {
+        return false;
+    }
+
+    public float getLoadFactor() {
+        return loadFactor;
+    }
+
+    public void setLoadFactor( float loadFactor ) {
+        if( loadFactor <= 0 ) throw new IllegalArgumentException("The load factor must be positive.");
+        this.loadFactor = loadFactor;
+    }
+
+    public double getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    /**
+     * @param compactionThreshold The garbage ratio above which {@link #flush()} compacts the table, or a value greater
+     * than one to only compact when {@link #compact()} is called.
+     */
+    public void setCompactionThreshold( double compactionThreshold ) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    public long getGarbageSize() {
+        return garbage.longValue();
+    }
+
+    protected void setNextFree( long nextFree ) throws IOException {
+        this.nextFree = nextFree;
+    }
+
+    public double getGarbageRatio() {
+        return (double) getGarbageSize() / nextFree;
+    }
+
+    public int size() {
+        return size.intValue();
+    }
+
+    public int getBucketCount() {
+        return bucketCount;
+    }
+
+    public int getModCount() {
+        return modCount;
+    }
+
+    protected static int hash( @NotNull byte[] key ) {
+        // FNV-1a, followed by a final mix so that the low bits depend on every byte.
+        int hash = 0x811c9dc5;
+        for( byte b : key ) {
+            hash ^= b & 0xff;
+            hash *= 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+
+    /**
+     * @return The number of buckets before the current round of splits began.
+     */
+    protected int getRoundSize() {
+        int round = INITIAL_BUCKETS;
+        while( round * 2 <= bucketCount ) round *= 2;
+        return round;
+    }
+
+    protected int bucket( int hash ) {
+        int round = getRoundSize();
+        int bucket = hash & ( round - 1 );
+        if( bucket < bucketCount - round ) bucket = hash & ( round * 2 - 1 );
+        return bucket;
+    }
+
+    @Nullable
+    public byte[] get( @NotNull byte[] key ) throws IOException {
+        Record record = find(key, true, null);
+        return record == null ? null : record.value;
+    }
+
+    public boolean containsKey( @NotNull byte[] key ) throws IOException {
+        return find(key, false, null) != null;
+    }
+
+    /**
+     * @param previous If not null, the first element is set to the record preceding the one which was found in its chain,
+     * or null if the record is the head of the chain.
+     */
+    @Nullable
+    protected Record find( @NotNull byte[] key, boolean withValue, @Nullable Record[] previous ) throws IOException {
+        int hash = hash(key);
+        long offset = readBucket(bucket(hash));
+        Record last = null;
+        while( offset != NIL ) {
+            Record record = readRecord(offset, key, hash, withValue);
+            if( record.key == key ) {
+                if( previous != null ) previous[0] = last;
+                return record;
+            }
+            last = record;
+            offset = record.next;
+        }
+        return null;
+    }
+
+    /**
+     * Reads the record at {@code offset}. If {@code key} is not null and the record does not have the given key, the key
+     * and value of the record are not read. If the record has the given key, {@code key} is used as its key.
+     */
+    @NotNull
+    protected Record readRecord( long offset, @Nullable byte[] key, int hash, boolean withValue ) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_READ_SIZE);
+        int read = readRecords(buf, offset);
+        if( read < RECORD_HEADER_SIZE ) throw new EOFException("The record at " + offset + " is truncated.");
+        long next = buf.getLong(0);
+        int recordHash = buf.getInt(POINTER_SIZE);
+        int keyLength = buf.getInt(POINTER_SIZE + 4), valueLength = buf.getInt(POINTER_SIZE + 8);
+        if( key != null && ( recordHash != hash || keyLength != key.length ) ) {
+            return new Record(offset, next, recordHash, new byte[0], null, valueLength);
+        }
+        int length = RECORD_HEADER_SIZE + keyLength + ( withValue ? valueLength : 0 );
+        if( length > read ) {
+            buf = ByteBuffer.allocate(length);
+            readRecords(buf, offset);
+            if( buf.hasRemaining() ) throw new EOFException("The record at " + offset + " is truncated.");
+        }
+        buf.position(RECORD_HEADER_SIZE);
+        byte[] recordKey = new byte[keyLength];
+        buf.get(recordKey);
+        if( key != null ) {
+            if( !Arrays.equals(key, recordKey) ) return new Record(offset, next, recordHash, new byte[0], null, valueLength);
+            recordKey = key;
+        }
+        byte[] value = null;
+        if( withValue ) {
+            value = new byte[valueLength];
+            buf.get(value);
+        }
+        return new Record(offset, next, recordHash, recordKey, value, valueLength);
+    }
+
+    /**
+     * @return The previous value for the key, or null if there was none.
+     */
+    @Nullable
+    public byte[] put( @NotNull byte[] key, @NotNull byte[] value ) throws IOException {
+        Record[] previous = new Record[1];
+        Record record = find(key, true, previous);
+        int hash = hash(key);
+        int bucket = bucket(hash);
+        if( record != null ) {
+            assert record.value != null;
+            if( record.valueLength == value.length ) {
+                // A value of the same length can be replaced in place.
+                writeRecords(ByteBuffer.wrap(value), record.offset + RECORD_HEADER_SIZE + key.length);
+                return record.value;
+            }
+            unlink(bucket, record, previous[0]);
+        }
+        long head = readBucket(bucket);
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_HEADER_SIZE + key.length + value.length);
+        buf.putLong(head).putInt(hash).putInt(key.length).putInt(value.length).put(key).put(value);
+        buf.flip();
+        long offset = nextFree;
+        writeRecords(buf, offset);
+        setNextFree(nextFree + buf.capacity());
+        writeBucket(bucket, offset);
+        if( record != null ) return record.value;
+        modCount++;
+        size.intValue(size.intValue() + 1);
+        if( size.intValue() > loadFactor * bucketCount ) split();
+        return null;
+    }
+
+    private void unlink( int bucket, @NotNull Record record, @Nullable Record previous ) throws IOException {
+        if( previous == null ) {
+            writeBucket(bucket, record.next);
+        } else {
+            writeNext(previous.offset, record.next);
+        }
+        garbage.longValue(garbage.longValue() + record.getLength());
+    }
+
+    /**
+     * @return The value of the removed record, or null if there was none.
+     */
+    @Nullable
+    public byte[] remove( @NotNull byte[] key ) throws IOException {
+        Record[] previous = new Record[1];
+        Record record = find(key, true, previous);
+        if( record == null ) return null;
+        unlink(bucket(record.hash), record, previous[0]);
+        modCount++;
+        size.intValue(size.intValue() - 1);
+        return record.value;
+    }
+
+    /**
+     * Splits the next bucket of the current round into itself and a new bucket at the end of the table, relinking the
+     * records of its chain in place.
+     */
+    protected void split() throws IOException {
+        int round = getRoundSize();
+        int bucket = bucketCount - round;
+        List<Record> low = new ArrayList<Record>(), high = new ArrayList<Record>();
+        for( long offset = readBucket(bucket); offset != NIL; ) {
+            Record record = readRecord(offset, null, 0, false);
+            ( ( record.hash & round ) == 0 ? low : high ).add(record);
+            offset = record.next;
+        }
+        writeBucket(bucket, relink(low));
+        appendBuckets(new long[]{ relink(high) });
+    }
+
+    private long relink( @NotNull List<Record> chain ) throws IOException {
+        for( int i = 0; i < chain.size(); i++ ) {
+            Record record = chain.get(i);
+            long next = i + 1 < chain.size() ? chain.get(i + 1).offset : NIL;
+            if( record.next != next ) writeNext(record.offset, next);
+        }
+        return chain.isEmpty() ? NIL : chain.get(0).offset;
+    }
+
+    private void writeNext( long offset, long next ) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(POINTER_SIZE);
+        buf.putLong(0, next);
+        writeRecords(buf, offset);
+    }
+
+    public void clear() throws IOException {
+        modCount++;
+        reset();
+    }
+
+    /**
+     * Iterates over the records of the table, bucket by bucket.
+     */
+    @NotNull
+    public Iterator<Record> iterator() {
+        return new Iterator<Record>() {
+            private int bucket = -1, expectedModCount = modCount;
+
+            private long next = NIL;
+
+            @Nullable
+            private Record last;
+
+            @Override
+            public boolean hasNext() {
+                if( expectedModCount != modCount ) throw new ConcurrentModificationException();
+                try {
+                    while( next == NIL && bucket + 1 < bucketCount ) next = readBucket(++bucket);
+                } catch( IOException e ) {
+                    throw new RuntimeException(e);
+                }
+                return next != NIL;
+            }
+
+            @Override
+            public Record next() {
+                if( !hasNext() ) throw new NoSuchElementException();
+                try {
+                    last = readRecord(next, null, 0, true);
+                } catch( IOException e ) {
+                    throw new RuntimeException(e);
+                }
+                next = last.next;
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if( last == null ) throw new IllegalStateException();
+                if( expectedModCount != modCount ) throw new ConcurrentModificationException();
+                try {
+                    FileBackedHashTable.this.remove(last.key);
+                } catch( IOException e ) {
+                    throw new RuntimeException(e);
+                }
+                expectedModCount = modCount;
+                last = null;
+            }
+        };
+    }
+
+    /**
+     * Rewrites the bucket and record files so that the record file only contains live records, stored chain by chain.
+     */
+    public void compact() throws IOException {
+        File compactBucketFile = new File(directory, BUCKETS_FILENAME + COMPACTION_SUFFIX);
+        File compactRecordFile = new File(directory, RECORDS_FILENAME + COMPACTION_SUFFIX);
+        FileUtils.forceCreateNewFile(compactBucketFile);
+        FileUtils.forceCreateNewFile(compactRecordFile);
+        long recordSize;
+        FileChannelProvider bucketOut = factory.create(compactBucketFile), recordOut = factory.create(compactRecordFile);
+        try {
+            recordSize = compact(bucketOut, recordOut);
+            bucketOut.flush();
+            recordOut.flush();
+        } finally {
+            IOUtils.closeQuietly(bucketOut);
+            IOUtils.closeQuietly(recordOut);
+        }
+        closeChannels();
+        FileUtils.rename(compactBucketFile, new File(directory, BUCKETS_FILENAME));
+        FileUtils.rename(compactRecordFile, new File(directory, RECORDS_FILENAME));
+        bucketChannel = factory.create(new File(directory, BUCKETS_FILENAME));
+        recordChannel = factory.create(new File(directory, RECORDS_FILENAME));
+        setNextFree(recordSize);
+        garbage.longValue(0);
+    }
+
+    private long compact( @NotNull FileChannelProvider bucketOut, @NotNull FileChannelProvider recordOut ) throws IOException {
+        ByteBuffer buckets = ByteBuffer.allocate(Math.min(bucketCount, COMPACTION_BUFFER_SIZE / POINTER_SIZE) * POINTER_SIZE);
+        ByteBuffer records = ByteBuffer.allocate(COMPACTION_BUFFER_SIZE);
+        records.putLong(MAGIC);
+        long bucketPosition = 0, recordPosition = 0, offset = POINTER_SIZE;
+        for( int bucket = 0; bucket < bucketCount; bucket++ ) {
+            long head = NIL;
+            for( long next = readBucket(bucket); next != NIL; ) {
+                Record record = readRecord(next, null, 0, true);
+                assert record.value != null;
+                next = record.next;
+                if( head == NIL ) head = offset;
+                int length = record.getLength();
+                ByteBuffer buf = ByteBuffer.allocate(length);
+                buf.putLong(next == NIL ? NIL : offset + length).putInt(record.hash).putInt(record.key.length).putInt(record.valueLength);
+                buf.put(record.key).put(record.value);
+                buf.flip();
+                if( length > records.remaining() ) recordPosition += drain(recordOut, records, recordPosition);
+                if( length > records.remaining() ) {
+                    recordPosition += write(recordOut, buf, recordPosition);
+                } else {
+                    records.put(buf);
+                }
+                offset += length;
+            }
+            if( !buckets.hasRemaining() ) bucketPosition += drain(bucketOut, buckets, bucketPosition);
+            buckets.putLong(head);
+        }
+        drain(bucketOut, buckets, bucketPosition);
+        drain(recordOut, records, recordPosition);
+        modCount++;
+        return offset;
+    }
+
+    /**
+     * Writes out the contents of a buffer which is being filled, and clears it.
+     */
+    private static int drain( @NotNull FileChannelProvider provider, @NotNull ByteBuffer buf, long position ) throws IOException {
+        buf.flip();
+        int length = write(provider, buf, position);
+        buf.clear();
+        return length;
+    }
+
+    private static int write( @NotNull FileChannelProvider provider, @NotNull final ByteBuffer buf, final long position ) throws IOException {
+        final int length = buf.remaining();
+        if( length == 0 ) return 0;
+        provider.visitValueChannel(new FileChannelVisitor<Void>() {
+            @Override
+            public Void visit( @NotNull FileChannel channel ) throws IOException {
+                channel.position(position);
+                IOUtils.write(channel, buf, length);
+                return null;
+            }
+        });
+        return length;
+    }
+
+    protected static long size( @NotNull FileChannelProvider provider ) throws IOException {
+        return provider.visitValueChannelShared(new FileChannelVisitor<Long>() {
+            @Override
+            public Long visit( @NotNull FileChannel channel ) throws IOException {
+                return channel.size();
+            }
+        });
+    }
+
+    protected static void truncate( @NotNull FileChannelProvider provider, final long length ) throws IOException {
+        provider.visitValueChannel(new FileChannelVisitor<Void>() {
+            @Override
+            public Void visit( @NotNull FileChannel channel ) throws IOException {
+                if( channel.size() > length ) channel.truncate(length);
+                return null;
+            }
+        });
+    }
+
+    protected long readBucket( final int bucket ) throws IOException {
+        return bucketChannel.visitValueChannel(new FileChannelVisitor<Long>() {
+            @Override
+            public Long visit( @NotNull FileChannel channel ) throws IOException {
+                ByteBuffer buf = ByteBuffer.allocate(POINTER_SIZE);
+                channel.position((long) bucket * POINTER_SIZE);
+                IOUtils.read(channel, buf, POINTER_SIZE);
+                return buf.getLong(0);
+            }
+        });
+    }
+
+    protected void writeBucket( final int bucket, final long head ) throws IOException {
+        bucketChannel.visitValueChannel(new FileChannelVisitor<Void>() {
+            @Override
+            public Void visit( @NotNull FileChannel channel ) throws IOException {
+                ByteBuffer buf = ByteBuffer.allocate(POINTER_SIZE);
+                buf.putLong(0, head);
+                channel.position((long) bucket * POINTER_SIZE);
+                IOUtils.write(channel, buf, POINTER_SIZE);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Adds buckets with the given chain heads to the end of the table.
+     */
+    protected void appendBuckets( @NotNull long[] heads ) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(heads.length * POINTER_SIZE);
+        for( long head : heads ) buf.putLong(head);
+        buf.flip();
+        bucketChannel.visitValueChannel(new FileChannelVisitor<Void>() {
+            @Override
+            public Void visit( @NotNull FileChannel channel ) throws IOException {
+                channel.position((long) bucketCount * POINTER_SIZE);
+                IOUtils.write(channel, buf, buf.remaining());
+                return null;
+            }
+        });
+        bucketCount += heads.length;
+        count.intValue(bucketCount);
+    }
+
+    /**
+     * Reads from the record file until {@code dst} is full or the end of the file is reached.
+     *
+     * @return The number of bytes read.
+     */
+    protected int readRecords( @NotNull ByteBuffer dst, long position ) throws IOException {
+        return Math.max(recordChannel.read(dst, position), 0);
+    }
+
+    protected void writeRecords( @NotNull ByteBuffer src, long position ) throws IOException {
+        recordChannel.write(src, position);
+    }
+
+    public void flush() throws IOException {
+        if( getGarbageRatio() > compactionThreshold ) compact();
+        size.flush();
+        count.flush();
+        garbage.flush();
+        bucketChannel.flush();
+        recordChannel.flush();
+    }
+
+    protected void closeChannels() throws IOException {
+        bucketChannel.close();
+        recordChannel.close();
+    }
+
+    public void close() throws IOException {
+        if( !closed ) {
+            flush();
+            closeChannels();
+            size.close();
+            count.close();
+            garbage.close();
+            closed = true;
+        }
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        try {
+            close();
+        } finally {
+            super.finalize();
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.io.FileUtils;
+import com.eatnumber1.util.io.IOUtils;
+import com.eatnumber1.util.persistent.channel.FileChannelProvider;
+import com.eatnumber1.util.persistent.channel.FileChannelProviderFactory;
+import com.eatnumber1.util.persistent.channel.FileChannelVisitor;
+import com.eatnumber1.util.persistent.numbers.FileBackedLong;
+import com.eatnumber1.util.persistent.numbers.FileBackedUnmappedLong;
+import com.eatnumber1.util.persistent.provider.PersistenceProvider;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.SortedMap;
+import net.jcip.annotations.NotThreadSafe;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A file backed list which never moves element data once it has been written. Payloads are always appended to the
+ * data file and mid-list mutations only shift the list file, leaving the replaced or removed payloads behind as
+ * garbage. The garbage is reclaimed by {@link #compact()}, which is run from {@link #flush()} once the garbage ratio
+ * exceeds the compaction threshold.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@NotThreadSafe
+public class FileBackedLogStructuredArrayList<T> extends FileBackedUnmappedArrayList<T> {
+    @NotNull
+    protected static final String GARBAGE_FILENAME = "garbage", COMPACTION_SUFFIX = ".compact";
+
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+    protected static final int COMPACTION_BUFFER_SIZE = 1024 * 1024;
+
+    // Fields which are used during open() must not have initializers, as open() is called from the super constructor.
+    @NotNull
+    protected FileBackedLong garbage;
+
+    private double compactionThreshold;
+
+    public FileBackedLogStructuredArrayList( @NotNull File file, @NotNull PersistenceProvider<T> persistenceProvider ) throws IOException {
+        super(file, persistenceProvider);
+        compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+    }
+
+    public FileBackedLogStructuredArrayList( @NotNull File directory, @NotNull PersistenceProvider<T> persistenceProvider, @NotNull FileChannelProviderFactory factory ) throws IOException {
+        super(directory, persistenceProvider, factory);
+        compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+    }
+
+    @Override
+    public void open() throws IOException {
+        if( closed ) {
+            recoverCompaction();
+            super.open();
+            File garbageFile = new File(getStorageFile(), GARBAGE_FILENAME);
+            garbage = newGarbageLong(garbageFile, factory.create(garbageFile));
+            // Payloads are not stored in list order, so the end of the data file is the end of the log.
+            nextFree = dataChannel.visitValueChannelShared(new FileChannelVisitor<Long>() {
+                @Override
+                public Long visit( @NotNull FileChannel channel ) throws IOException {
+                    return channel.size();
+                }
+            });
+        }
+    }
+
+    /**
+     * Finishes or discards a compaction which was interrupted. The compacted list file is renamed into place before the
+     * compacted data file, so a compacted data file without a compacted list file is the only one left to be renamed.
+     */
+    private void recoverCompaction() throws IOException {
+        File directory = getStorageFile();
+        File compactListFile = new File(directory, LIST_FILENAME + COMPACTION_SUFFIX);
+        File compactDataFile = new File(directory, DATA_FILENAME + COMPACTION_SUFFIX);
+        if( compactListFile.exists() ) {
+            FileUtils.delete(compactListFile);
+            if( compactDataFile.exists() ) FileUtils.delete(compactDataFile);
+        } else if( compactDataFile.exists() ) {
+            FileUtils.rename(compactDataFile, new File(directory, DATA_FILENAME));
+        }
+    }
+
+    @NotNull
+    protected FileBackedLong newGarbageLong( @NotNull File garbageFile, @NotNull FileChannelProvider channelProvider ) throws IOException {
+        return new FileBackedUnmappedLong(garbageFile, channelProvider);
+    }
+
+    public double getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    /**
+     * @param compactionThreshold The garbage ratio above which {@link #flush()} compacts the list, or a value greater
+     * than one to only compact when {@link #compact()} is called.
+     */
+    public void setCompactionThreshold( double compactionThreshold ) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    public long getGarbageSize() {
+        return garbage.longValue();
+    }
+
+    public double getGarbageRatio() {
+        return nextFree == 0 ? 0 : (double) getGarbageSize() / nextFree;
+    }
+
+    private void release( @NotNull Element element ) {
+        if( element.size != 0 ) garbage.longValue(garbage.longValue() + element.size);
+    }
+
+    @Override
+    protected void writeObject( int index, @Nullable T object ) throws PersistenceException, IOException {
+        ByteBuffer buf = encode(object);
+        int newSize = buf.remaining();
+        Element element;
+        if( index == size() ) {
+            element = newElement(nextFree, newSize);
+        } else {
+            element = newElement(index);
+            // A payload of the same size can be replaced in place without creating any garbage.
+            if( element.size != newSize ) {
+                release(element);
+                element.start = nextFree;
+                element.size = newSize;
+            }
+        }
+        writeData(buf, element.start);
+        element.write(index);
+        if( element.start == nextFree ) nextFree += newSize;
+    }
+
+    private void release( int index, int count ) throws IOException {
+        ByteBuffer elements = ByteBuffer.allocate(Math.min(count, COPY_BUFFER_ELEMENTS) * ELEMENT_SIZE);
+        long released = 0;
+        for( int i = 0; i < count; i += COPY_BUFFER_ELEMENTS ) {
+            int chunk = Math.min(count - i, COPY_BUFFER_ELEMENTS);
+            elements.clear();
+            elements.limit(chunk * ELEMENT_SIZE);
+            readElements(index + i, elements);
+            for( int j = 0; j < chunk; j++ ) {
+                released += elements.getInt(j * ELEMENT_SIZE + POINTER_SIZE);
+            }
+        }
+        if( released != 0 ) garbage.longValue(garbage.longValue() + released);
+    }
+
+    @Override
+    protected void writeObjects( int index, @NotNull Collection<? extends T> objects ) throws PersistenceException, IOException {
+        ByteBuffer[] payloads = toBuffers(objects);
+        long length = length(payloads);
+        release(index, payloads.length);
+        writeElements(index, toElements(payloads, nextFree));
+        writeData(payloads, nextFree);
+        nextFree += length;
+    }
+
+    @Override
+    protected void insertObjects( int index, @NotNull Collection<? extends T> objects ) throws PersistenceException, IOException {
+        ByteBuffer[] payloads = toBuffers(objects);
+        long length = length(payloads);
+        copyElements(index, index + payloads.length, size() - index);
+        writeElements(index, toElements(payloads, nextFree));
+        writeData(payloads, nextFree);
+        nextFree += length;
+    }
+
+    @Override
+    protected void removeObjects( int fromIndex, int toIndex ) throws IOException {
+        release(fromIndex, toIndex - fromIndex);
+        copyElements(toIndex, fromIndex, size() - toIndex);
+        listTruncateSize += (long) ( toIndex - fromIndex ) * ELEMENT_SIZE;
+    }
+
+    /**
+     * Only the list file is rewritten. Replacement payloads are appended to the data file unless they have the same
+     * size as the payload they replace.
+     */
+    @Override
+    protected void applyModifications( @NotNull SortedMap<Integer, Modification> modifications ) throws IOException {
+        int size = size(), first = modifications.firstKey(), last = modifications.lastKey();
+        ByteBuffer in = ByteBuffer.allocate(Math.min(last - first + 1, COPY_BUFFER_ELEMENTS) * ELEMENT_SIZE);
+        ByteBuffer out = ByteBuffer.allocate(in.capacity());
+        in.limit(0);
+        int outIndex = first;
+        long released = 0;
+        for( int i = first; i <= last; i++ ) {
+            if( !in.hasRemaining() ) readRecords(in, i, last + 1);
+            long start = in.getLong();
+            int length = in.getInt();
+            if( !out.hasRemaining() ) outIndex += writeRecords(out, outIndex);
+            Modification modification = modifications.get(i);
+            if( modification == null ) {
+                out.putLong(start).putInt(length);
+            } else if( modification.payload != null && modification.payload.remaining() == length ) {
+                writeData(modification.payload, start);
+                out.putLong(start).putInt(length);
+            } else {
+                released += length;
+                if( modification.payload != null ) {
+                    int newLength = modification.payload.remaining();
+                    writeData(modification.payload, nextFree);
+                    out.putLong(nextFree).putInt(newLength);
+                    nextFree += newLength;
+                }
+            }
+        }
+        outIndex += writeRecords(out, outIndex);
+        int tail = size - last - 1;
+        copyElements(last + 1, outIndex, tail);
+        if( released != 0 ) garbage.longValue(garbage.longValue() + released);
+        listTruncateSize += (long) ( last + 1 - outIndex ) * ELEMENT_SIZE;
+        setSize(outIndex + tail);
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        garbage.longValue(0);
+    }
+
+    /**
+     * Rewrites the list and data files so that the data file only contains live payloads, stored in list order.
+     */
+    public void compact() throws IOException {
+        commit();
+        commitJournal();
+        File directory = getStorageFile();
+        File listFile = new File(directory, LIST_FILENAME), dataFile = new File(directory, DATA_FILENAME);
+        File compactListFile = new File(directory, LIST_FILENAME + COMPACTION_SUFFIX);
+        File compactDataFile = new File(directory, DATA_FILENAME + COMPACTION_SUFFIX);
+        FileUtils.forceCreateNewFile(compactListFile);
+        FileUtils.forceCreateNewFile(compactDataFile);
+        long dataSize;
+        FileChannelProvider listOut = factory.create(compactListFile), dataOut = factory.create(compactDataFile);
+        try {
+            dataSize = compact(listOut, dataOut);
+            listOut.flush();
+            dataOut.flush();
+        } finally {
+            IOUtils.closeQuietly(listOut);
+            IOUtils.closeQuietly(dataOut);
+        }
+        elementChannel.close();
+        dataChannel.close();
+        FileUtils.rename(compactListFile, listFile);
+        FileUtils.rename(compactDataFile, dataFile);
+        elementChannel = factory.create(listFile);
+        dataChannel = factory.create(dataFile);
+        if( isJournaled() ) openJournal();
+        listTruncateSize = dataTruncateSize = 0;
+        nextFree = dataSize;
+        garbage.longValue(0);
+    }
+
+    private long compact( @NotNull FileChannelProvider listOut, @NotNull FileChannelProvider dataOut ) throws IOException {
+        int size = size();
+        ByteBuffer elements = ByteBuffer.allocate(Math.min(size, COPY_BUFFER_ELEMENTS) * ELEMENT_SIZE);
+        ByteBuffer data = ByteBuffer.allocate(COMPACTION_BUFFER_SIZE);
+        long dataPosition = 0, listPosition = 0, start = 0;
+        for( int i = 0; i < size; i++ ) {
+            Element element = newElement(i);
+            if( element.size > data.remaining() ) {
+                dataPosition += append(dataOut, data, dataPosition);
+            }
+            if( element.size > data.remaining() ) {
+                ByteBuffer payload = ByteBuffer.allocate(element.size);
+                readData(payload, element.start);
+                dataPosition += append(dataOut, payload, dataPosition);
+            } else {
+                ByteBuffer payload = data.slice();
+                payload.limit(element.size);
+                readData(payload.slice(), element.start);
+                data.position(data.position() + element.size);
+            }
+            if( !elements.hasRemaining() ) listPosition += append(listOut, elements, listPosition);
+            elements.putLong(start).putInt(element.size);
+            start += element.size;
+        }
+        append(dataOut, data, dataPosition);
+        append(listOut, elements, listPosition);
+        return start;
+    }
+
+    private static int append( @NotNull FileChannelProvider provider, @NotNull final ByteBuffer buf, final long position ) throws IOException {
+        buf.flip();
+        final int length = buf.remaining();
+        provider.visitValueChannel(new FileChannelVisitor<Void>() {
+            @Override
+            public Void visit( @NotNull FileChannel channel ) throws IOException {
+                channel.position(position);
+                IOUtils.write(channel, buf, length);
+                return null;
+            }
+        });
+        buf.clear();
+        return length;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if( getGarbageRatio() > compactionThreshold ) compact();
+        garbage.flush();
+        super.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if( !closed ) {
+            super.close();
+            garbage.close();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.persistent.channel.FileChannelProvider;
+import com.eatnumber1.util.persistent.channel.FileChannelProviderFactory;
+import com.eatnumber1.util.persistent.numbers.FileBackedInteger;
+import com.eatnumber1.util.persistent.numbers.FileBackedMappedInteger;
+import com.eatnumber1.util.persistent.provider.PersistenceProvider;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import net.jcip.annotations.NotThreadSafe;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * While the list is open the backing files are grown in chunks ahead of the data written to them. They are truncated
+ * back to their real length on close, so the on-disk format is the same as that of {@link FileBackedUnmappedArrayList}.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@NotThreadSafe
+public class FileBackedMappedArrayList<T> extends FileBackedUnmappedArrayList<T> {
+    protected static final int LIST_CHUNK_SIZE = ELEMENT_SIZE * 64 * 1024;
+
+    public static final int DEFAULT_DATA_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    // Fields which are used during open() must not have initializers, as open() is called from the super constructor.
+    @Nullable
+    private MappedWindow listWindow, dataWindow;
+
+    private int dataWindowSize;
+
+    protected class MappedElement extends Element {
+        public MappedElement( long start, int size ) {
+            super(start, size);
+        }
+
+        public MappedElement( int index ) throws IOException {
+            ByteBuffer buf = getListWindow().read(elementChannel, getElementOffset(index), ELEMENT_SIZE);
+            start = buf.getLong();
+            size = buf.getInt();
+        }
+
+        public void write( int index ) throws IOException {
+            preserveElements(index, 1);
+            getListWindow().write(elementChannel, getElementOffset(index), ELEMENT_SIZE).putLong(start).putInt(size);
+        }
+    }
+
+    public FileBackedMappedArrayList( @NotNull File file, @NotNull PersistenceProvider<T> persistenceProvider ) throws IOException {
+        super(file, persistenceProvider);
+        dataWindowSize = DEFAULT_DATA_WINDOW_SIZE;
+    }
+
+    public FileBackedMappedArrayList( @NotNull File directory, @NotNull PersistenceProvider<T> persistenceProvider, @NotNull FileChannelProviderFactory factory ) throws IOException {
+        this(directory, persistenceProvider, factory, DEFAULT_DATA_WINDOW_SIZE);
+    }
+
+    public FileBackedMappedArrayList( @NotNull File directory, @NotNull PersistenceProvider<T> persistenceProvider, @NotNull FileChannelProviderFactory factory, int dataWindowSize ) throws IOException {
+        super(directory, persistenceProvider, factory);
+        if( dataWindowSize <= 0 ) throw new IllegalArgumentException("The data window size must be positive.");
+        this.dataWindowSize = dataWindowSize;
+        // The super constructor may have opened the list through a window of the default size.
+        if( dataWindow != null ) {
+            dataWindow.unmap();
+            dataWindow = null;
+        }
+    }
+
+    @NotNull
+    @Override
+    protected Element newElement( long start, int size ) {
+        return new MappedElement(start, size);
+    }
+
+    @NotNull
+    @Override
+    protected Element newElement( int index ) throws IOException {
+        return new MappedElement(index);
+    }
+
+    @NotNull
+    @Override
+    protected FileBackedInteger newSizeInteger( @NotNull File sizeFile, @NotNull FileChannelProvider channelProvider ) throws IOException {
+        return new FileBackedMappedInteger(sizeFile, channelProvider);
+    }
+
+    @Override
+    public boolean isMapped() {
+        return true;
+    }
+
+    @NotNull
+    private MappedWindow getListWindow() {
+        if( listWindow == null ) listWindow = MappedWindow.growing(LIST_CHUNK_SIZE);
+        return listWindow;
+    }
+
+    @NotNull
+    private MappedWindow getDataWindow() {
+        if( dataWindow == null ) dataWindow = MappedWindow.sliding(dataWindowSize == 0 ? DEFAULT_DATA_WINDOW_SIZE : dataWindowSize);
+        return dataWindow;
+    }
+
+    private void unmap() {
+        if( listWindow != null ) listWindow.unmap();
+        if( dataWindow != null ) dataWindow.unmap();
+    }
+
+    @Override
+    protected void readElements( int index, @NotNull ByteBuffer dst ) throws IOException {
+        int count = dst.remaining() / ELEMENT_SIZE;
+        dst.put(getListWindow().read(elementChannel, getElementOffset(index), count * ELEMENT_SIZE));
+    }
+
+    @Override
+    protected void writeElements( int index, @NotNull ByteBuffer src ) throws IOException {
+        int count = src.remaining() / ELEMENT_SIZE;
+        preserveElements(index, count);
+        getListWindow().write(elementChannel, getElementOffset(index), count * ELEMENT_SIZE).put(src);
+    }
+
+    @Override
+    protected void copyElements( int from, int to, int count, long startDelta ) throws IOException {
+        if( count == 0 || ( from == to && startDelta == 0 ) ) return;
+        // Map every element being copied at once, rather than moving the mapping back and forth between them.
+        getListWindow().write(elementChannel, 0, getElementOffset(Math.max(from, to) + count));
+        ByteBuffer chunkBuf = ByteBuffer.allocate(Math.min(count, COPY_BUFFER_ELEMENTS) * ELEMENT_SIZE);
+        int remaining = count;
+        while( remaining > 0 ) {
+            int chunk = Math.min(remaining, COPY_BUFFER_ELEMENTS);
+            int offset = from < to ? remaining - chunk : count - remaining;
+            chunkBuf.clear();
+            chunkBuf.limit(chunk * ELEMENT_SIZE);
+            readElements(from + offset, chunkBuf);
+            relocate(chunkBuf, chunk, startDelta);
+            chunkBuf.flip();
+            writeElements(to + offset, chunkBuf);
+            remaining -= chunk;
+        }
+    }
+
+    @Override
+    protected void readData( @NotNull ByteBuffer dst, long start ) throws IOException {
+        dst.put(getDataWindow().read(dataChannel, start, dst.remaining()));
+    }
+
+    @Override
+    protected void writeData( @NotNull ByteBuffer src, long start ) throws IOException {
+        preserveData(start, src.remaining());
+        getDataWindow().write(dataChannel, start, src.remaining()).put(src);
+    }
+
+    @Override
+    protected void readData( @NotNull ByteBuffer[] dsts, long start ) throws IOException {
+        for( ByteBuffer dst : dsts ) {
+            int length = dst.remaining();
+            readData(dst, start);
+            start += length;
+        }
+    }
+
+    @Override
+    protected void writeData( @NotNull ByteBuffer[] srcs, long start ) throws IOException {
+        for( ByteBuffer src : srcs ) {
+            int length = src.remaining();
+            writeData(src, start);
+            start += length;
+        }
+    }
+
+    /**
+     * The backing files are only truncated to their real length on close, as truncating a file below a region which is
+     * mapped is not allowed on every platform.
+     */
+    @Override
+    protected void truncate() throws IOException {
+        listTruncateSize = dataTruncateSize = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if( listWindow != null ) listWindow.force();
+        if( dataWindow != null ) dataWindow.force();
+        super.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if( !closed ) {
+            flush();
+            unmap();
+            truncate(elementChannel, (long) size() * ELEMENT_SIZE);
+            truncate(dataChannel, nextFree);
+            super.close();
+        }
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        // The size integer and the channels may already have been finalized, so only release the mappings.
+        if( !closed ) {
+            unmap();
+            closed = true;
+        }
+        super.finalize();
+    }
+}
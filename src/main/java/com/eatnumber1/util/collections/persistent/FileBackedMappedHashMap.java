@@ -0,0 +1,45 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.persistent.channel.FileChannelProviderFactory;
+import com.eatnumber1.util.persistent.provider.PersistenceProvider;
+import java.io.File;
+import java.io.IOException;
+import net.jcip.annotations.NotThreadSafe;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@NotThreadSafe
+public class FileBackedMappedHashMap<K, V> extends FileBackedUnmappedHashMap<K, V> {
+    public FileBackedMappedHashMap( @NotNull File directory, @NotNull PersistenceProvider<K> keyProvider, @NotNull PersistenceProvider<V> valueProvider ) throws IOException {
+        super(directory, keyProvider, valueProvider);
+    }
+
+    public FileBackedMappedHashMap( @NotNull File directory, @NotNull PersistenceProvider<K> keyProvider, @NotNull PersistenceProvider<V> valueProvider, @NotNull FileChannelProviderFactory factory ) throws IOException {
+        super(directory, keyProvider, valueProvider, factory);
+    }
+
+    @NotNull
+    @Override
+    protected FileBackedHashTable newTable( @NotNull File directory, @NotNull FileChannelProviderFactory factory ) throws IOException {
+        return new FileBackedMappedHashTable(directory, factory);
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.io.FileUtils;
+import com.eatnumber1.util.persistent.channel.FileChannelProvider;
+import com.eatnumber1.util.persistent.channel.FileChannelProviderFactory;
+import com.eatnumber1.util.persistent.numbers.FileBackedInteger;
+import com.eatnumber1.util.persistent.numbers.FileBackedLong;
+import com.eatnumber1.util.persistent.numbers.FileBackedMappedInteger;
+import com.eatnumber1.util.persistent.numbers.FileBackedMappedLong;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import net.jcip.annotations.NotThreadSafe;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * While the table is open the bucket file is mapped in chunks ahead of the buckets stored in it, and the record file is
+ * accessed through a mapped window. The files are grown ahead of what is written to them, and truncated back to their
+ * real length on close, so the on-disk format is the same as that of {@link FileBackedHashTable}. Where the records
+ * end is kept in the end file while the table is open, so that the record file is cut back to its records when the
+ * table is next opened if it was not closed.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@NotThreadSafe
+public class FileBackedMappedHashTable extends FileBackedHashTable {
+    protected static final int BUCKET_CHUNK_SIZE = POINTER_SIZE * 64 * 1024;
+
+    public static final int DEFAULT_RECORD_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    // Fields which are used during open() must not have initializers, as open() is called from the super constructor.
+    @Nullable
+    private MappedWindow bucketWindow, recordWindow;
+
+    private int recordWindowSize;
+
+    @Nullable
+    private FileBackedLong end;
+
+    public FileBackedMappedHashTable( @NotNull File directory, @NotNull FileChannelProviderFactory factory ) throws IOException {
+        this(directory, factory, DEFAULT_RECORD_WINDOW_SIZE);
+    }
+
+    public FileBackedMappedHashTable( @NotNull File directory, @NotNull FileChannelProviderFactory factory, int recordWindowSize ) throws IOException {
+        super(directory, factory);
+        if( recordWindowSize <= 0 ) throw new IllegalArgumentException("The record window size must be positive.");
+        this.recordWindowSize = recordWindowSize;
+        // The super constructor may have opened the table through a window of the default size.
+        if( recordWindow != null ) {
+            recordWindow.unmap();
+            recordWindow = null;
+        }
+    }
+
+    @Override
+    public void open() throws IOException {
+        if( closed ) {
+            super.open();
+            File endFile = new File(getStorageFile(), END_FILENAME);
+            end = newGarbageLong(endFile, factory.create(endFile));
+            end.longValue(nextFree);
+        }
+    }
+
+    @NotNull
+    @Override
+    protected FileBackedInteger newSizeInteger( @NotNull File sizeFile, @NotNull FileChannelProvider channelProvider ) throws IOException {
+        return new FileBackedMappedInteger(sizeFile, channelProvider);
+    }
+
+    @NotNull
+    @Override
+    protected FileBackedLong newGarbageLong( @NotNull File garbageFile, @NotNull FileChannelProvider channelProvider ) throws IOException {
+        return new FileBackedMappedLong(garbageFile, channelProvider);
+    }
+
+    @Override
+    public boolean isMapped() {
+        return true;
+    }
+
+    @NotNull
+    private MappedWindow getBucketWindow() {
+        if( bucketWindow == null ) bucketWindow = MappedWindow.growing(BUCKET_CHUNK_SIZE);
+        return bucketWindow;
+    }
+
+    @NotNull
+    private MappedWindow getRecordWindow() {
+        if( recordWindow == null ) recordWindow = MappedWindow.sliding(recordWindowSize == 0 ? DEFAULT_RECORD_WINDOW_SIZE : recordWindowSize);
+        return recordWindow;
+    }
+
+    private void unmap() {
+        if( bucketWindow != null ) bucketWindow.unmap();
+        if( recordWindow != null ) recordWindow.unmap();
+    }
+
+    @Override
+    protected void setNextFree( long nextFree ) throws IOException {
+        super.setNextFree(nextFree);
+        // The end is not open yet while open() resets a new table.
+        if( end != null ) end.longValue(nextFree);
+    }
+
+    @Override
+    protected long readBucket( int bucket ) throws IOException {
+        return getBucketWindow().read(bucketChannel, (long) bucket * POINTER_SIZE, POINTER_SIZE).getLong();
+    }
+
+    @Override
+    protected void writeBucket( int bucket, long head ) throws IOException {
+        getBucketWindow().write(bucketChannel, (long) bucket * POINTER_SIZE, POINTER_SIZE).putLong(head);
+    }
+
+    @Override
+    protected void appendBuckets( @NotNull long[] heads ) throws IOException {
+        ByteBuffer buf = getBucketWindow().write(bucketChannel, (long) bucketCount * POINTER_SIZE, heads.length * POINTER_SIZE);
+        for( long head : heads ) buf.putLong(head);
+        bucketCount += heads.length;
+        count.intValue(bucketCount);
+    }
+
+    @Override
+    protected int readRecords( @NotNull ByteBuffer dst, long position ) throws IOException {
+        // The file is grown ahead of the records.
+        int length = (int) Math.min(dst.remaining(), nextFree - position);
+        if( length <= 0 ) return 0;
+        dst.put(getRecordWindow().read(recordChannel, position, length));
+        return length;
+    }
+
+    @Override
+    protected void writeRecords( @NotNull ByteBuffer src, long position ) throws IOException {
+        getRecordWindow().write(recordChannel, position, src.remaining()).put(src);
+    }
+
+    @Override
+    public void clear() throws IOException {
+        // Accessing a mapping past the end of a truncated file is an error.
+        unmap();
+        super.clear();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if( bucketWindow != null ) bucketWindow.force();
+        if( recordWindow != null ) recordWindow.force();
+        super.flush();
+        assert end != null;
+        end.flush();
+    }
+
+    @Override
+    protected void closeChannels() throws IOException {
+        unmap();
+        truncate(bucketChannel, (long) bucketCount * POINTER_SIZE);
+        truncate(recordChannel, nextFree);
+        super.closeChannels();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if( !closed ) {
+            super.close();
+            // The record file has been truncated to the end of the records.
+            assert end != null;
+            end.close();
+            end = null;
+            FileUtils.delete(new File(getStorageFile(), END_FILENAME));
+        }
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        // The numbers and the channels may already have been finalized, so only release the mappings.
+        if( !closed ) {
+            unmap();
+            closed = true;
+        }
+        super.finalize();
+    }
+}
@@ -0,0 +1,1121 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.persistent.channel.FileChannelProvider;
+import com.eatnumber1.util.persistent.channel.FileChannelProviderFactory;
+import com.eatnumber1.util.persistent.channel.SimpleFileChannelProvider;
+import com.eatnumber1.util.persistent.provider.PersistenceProvider;
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import net.jcip.annotations.NotThreadSafe;
+import org.apache.commons.collections15.MapIterator;
+import org.apache.commons.collections15.iterators.EntrySetMapIterator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A sorted map stored in a {@link FileBackedBTree}. Keys are ordered by the given comparator, or by their persisted form
+ * if there is none, in which case the key persistence provider must persist equal keys identically. Only the pages of
+ * the tree which are in use are read, so ranges of maps which are too large to be held in memory may be scanned through
+ * the navigable views of the map.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@NotThreadSafe
+public class FileBackedTreeMap<K, V> extends AbstractMap<K, V> implements FileBackedMap<K, V>, NavigableMap<K, V> {
+    @NotNull
+    private PersistenceProvider<K> keyProvider;
+
+    @NotNull
+    private PersistenceProvider<V> valueProvider;
+
+    @Nullable
+    private Comparator<? super K> comparator;
+
+    @NotNull
+    private Comparator<K> keyComparator;
+
+    @NotNull
+    private FileChannelProviderFactory factory;
+
+    @NotNull
+    private File directory;
+
+    @Nullable
+    private FileBackedBTree tree;
+
+    @NotNull
+    private View all;
+
+    public FileBackedTreeMap( @NotNull File directory, @NotNull PersistenceProvider<K> keyProvider, @NotNull PersistenceProvider<V> valueProvider ) throws IOException {
+        this(directory, keyProvider, valueProvider, null);
+    }
+
+    public FileBackedTreeMap( @NotNull File directory, @NotNull PersistenceProvider<K> keyProvider, @NotNull PersistenceProvider<V> valueProvider, @Nullable Comparator<? super K> comparator ) throws IOException {
+        this(directory, keyProvider, valueProvider, comparator, new FileChannelProviderFactory() {
+            @NotNull
+            @Override
+            public FileChannelProvider create( @NotNull File file ) throws IOException {
+                return new SimpleFileChannelProvider(file, "rw");
+            }
+        });
+    }
+
+    /**
+     * @param comparator The comparator to order the keys with, or null to order keys by their persisted form.
+     */
+    public FileBackedTreeMap( @NotNull File directory, @NotNull PersistenceProvider<K> keyProvider, @NotNull PersistenceProvider<V> valueProvider, @Nullable final Comparator<? super K> comparator, @NotNull FileChannelProviderFactory factory ) throws IOException {
+        this.directory = directory;
+        this.keyProvider = keyProvider;
+        this.valueProvider = valueProvider;
+        this.comparator = comparator;
+        this.factory = factory;
+        if( comparator == null ) {
+            keyComparator = new Comparator<K>() {
+                @Override
+                public int compare( K o1, K o2 ) {
+                    try {
+                        return FileBackedBTree.BYTE_ORDER.compare(FileBackedTreeMap.this.keyProvider.toBytes(o1), FileBackedTreeMap.this.keyProvider.toBytes(o2));
+                    } catch( PersistenceException e ) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+        } else {
+            keyComparator = new Comparator<K>() {
+                @Override
+                public int compare( K o1, K o2 ) {
+                    return comparator.compare(o1, o2);
+                }
+            };
+        }
+        all = new View(true, null, false, true, null, false, false);
+        open();
+    }
+
+    @NotNull
+    protected FileBackedBTree newTree( @NotNull File directory, @NotNull Comparator<byte[]> comparator, @NotNull FileChannelProviderFactory factory ) throws IOException {
+        return new FileBackedBTree(directory, comparator, factory);
+    }
+
+    @Override
+    public void open() throws IOException {
+        if( tree == null ) {
+            Comparator<byte[]> byteComparator = FileBackedBTree.BYTE_ORDER;
+            if( comparator != null ) {
+                byteComparator = new Comparator<byte[]>() {
+                    @Override
+                    public int compare( byte[] o1, byte[] o2 ) {
+                        try {
+                            return keyComparator.compare(keyProvider.fromBytes(o1), keyProvider.fromBytes(o2));
+                        } catch( PersistenceException e ) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                };
+            }
+            tree = newTree(directory, byteComparator, factory);
+        } else {
+            tree.open();
+        }
+    }
+
+    @NotNull
+    protected FileBackedBTree getTree() {
+        assert tree != null;
+        return tree;
+    }
+
+    @Override
+    public boolean isMapped() {
+        return getTree().isMapped();
+    }
+
+    @NotNull
+    @Override
+    public File getStorageFile() {
+        return directory;
+    }
+
+    /**
+     * Reclaims the space of the values which have been removed or replaced. This is also done by {@link #flush()} once
+     * the ratio of garbage exceeds the compaction threshold of the tree.
+     */
+    public void compact() throws IOException {
+        getTree().compact();
+    }
+
+    public void setCompactionThreshold( double compactionThreshold ) {
+        getTree().setCompactionThreshold(compactionThreshold);
+    }
+
+    public void setCacheSize( int cacheSize ) throws IOException {
+        getTree().setCacheSize(cacheSize);
+    }
+
+    @NotNull
+    @SuppressWarnings({ "unchecked" })
+    private byte[] toKeyBytes( @Nullable Object key ) {
+        try {
+            return keyProvider.toBytes((K) key);
+        } catch( PersistenceException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Nullable
+    private K toKey( @NotNull byte[] bytes ) {
+        try {
+            return keyProvider.fromBytes(bytes);
+        } catch( PersistenceException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Nullable
+    private V toValue( @Nullable byte[] bytes ) {
+        if( bytes == null ) return null;
+        try {
+            return valueProvider.fromBytes(bytes);
+        } catch( PersistenceException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private int compare( @NotNull byte[] o1, @NotNull byte[] o2 ) {
+        return getTree().getComparator().compare(o1, o2);
+    }
+
+    protected class MapEntry implements Entry<K, V> {
+        @Nullable
+        private final K key;
+
+        @Nullable
+        private V value;
+
+        public MapEntry( @Nullable K key, @Nullable V value ) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue( V value ) {
+            V old = put(key, value);
+            this.value = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if( !( obj instanceof Entry ) ) return false;
+            Entry<?, ?> entry = (Entry<?, ?>) obj;
+            return ( key == null ? entry.getKey() == null : key.equals(entry.getKey()) ) && ( value == null ? entry.getValue() == null : value.equals(entry.getValue()) );
+        }
+
+        @Override
+        public int hashCode() {
+            return ( key == null ? 0 : key.hashCode() ) ^ ( value == null ? 0 : value.hashCode() );
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    /**
+     * A range of the map, in ascending or descending order. The whole map is a view with no bounds.
+     */
+    protected class View extends AbstractMap<K, V> implements NavigableMap<K, V> {
+        private final boolean fromStart, toEnd, loInclusive, hiInclusive, descending;
+
+        @Nullable
+        private final byte[] lo, hi;
+
+        @Nullable
+        private Set<Entry<K, V>> entrySet;
+
+        @Nullable
+        private NavigableSet<K> keySet;
+
+        protected View( boolean fromStart, @Nullable byte[] lo, boolean loInclusive, boolean toEnd, @Nullable byte[] hi, boolean hiInclusive, boolean descending ) {
+            if( !fromStart && !toEnd ) {
+                assert lo != null && hi != null;
+                if( compare(lo, hi) > 0 ) throw new IllegalArgumentException("fromKey > toKey");
+            }
+            this.fromStart = fromStart;
+            this.lo = lo;
+            this.loInclusive = loInclusive;
+            this.toEnd = toEnd;
+            this.hi = hi;
+            this.hiInclusive = hiInclusive;
+            this.descending = descending;
+        }
+
+        private boolean tooLow( @NotNull byte[] key ) {
+            if( fromStart ) return false;
+            assert lo != null;
+            int c = compare(key, lo);
+            return c < 0 || ( c == 0 && !loInclusive );
+        }
+
+        private boolean tooHigh( @NotNull byte[] key ) {
+            if( toEnd ) return false;
+            assert hi != null;
+            int c = compare(key, hi);
+            return c > 0 || ( c == 0 && !hiInclusive );
+        }
+
+        private boolean inRange( @NotNull byte[] key ) {
+            return !tooLow(key) && !tooHigh(key);
+        }
+
+        private boolean inRange( @NotNull byte[] key, boolean inclusive ) {
+            if( inclusive ) return inRange(key);
+            // An exclusive bound may lie on an exclusive bound of this view.
+            return ( fromStart || compare(key, lo) >= 0 ) && ( toEnd || compare(key, hi) <= 0 );
+        }
+
+        @Nullable
+        private FileBackedBTree.Cursor inRange( @Nullable FileBackedBTree.Cursor cursor ) {
+            return cursor == null || !inRange(cursor.getKey()) ? null : cursor;
+        }
+
+        @Nullable
+        private FileBackedBTree.Cursor absLowest() throws IOException {
+            assert lo != null || fromStart;
+            return inRange(fromStart ? getTree().first() : getTree().ceiling(lo, loInclusive));
+        }
+
+        @Nullable
+        private FileBackedBTree.Cursor absHighest() throws IOException {
+            assert hi != null || toEnd;
+            return inRange(toEnd ? getTree().last() : getTree().floor(hi, hiInclusive));
+        }
+
+        @Nullable
+        private FileBackedBTree.Cursor absCeiling( @NotNull byte[] key, boolean inclusive ) throws IOException {
+            if( tooLow(key) ) return absLowest();
+            return inRange(getTree().ceiling(key, inclusive));
+        }
+
+        @Nullable
+        private FileBackedBTree.Cursor absFloor( @NotNull byte[] key, boolean inclusive ) throws IOException {
+            if( tooHigh(key) ) return absHighest();
+            return inRange(getTree().floor(key, inclusive));
+        }
+
+        @Nullable
+        private FileBackedBTree.Cursor first() throws IOException {
+            return descending ? absHighest() : absLowest();
+        }
+
+        @Nullable
+        private FileBackedBTree.Cursor last() throws IOException {
+            return descending ? absLowest() : absHighest();
+        }
+
+        /**
+         * @return The cursor at the next key after the given key in the order of this view.
+         */
+        @Nullable
+        private FileBackedBTree.Cursor after( @NotNull byte[] key, boolean inclusive ) throws IOException {
+            return descending ? absFloor(key, inclusive) : absCeiling(key, inclusive);
+        }
+
+        /**
+         * @return The cursor at the next key before the given key in the order of this view.
+         */
+        @Nullable
+        private FileBackedBTree.Cursor before( @NotNull byte[] key, boolean inclusive ) throws IOException {
+            return descending ? absCeiling(key, inclusive) : absFloor(key, inclusive);
+        }
+
+        @Nullable
+        private FileBackedBTree.Cursor step( @NotNull FileBackedBTree.Cursor cursor ) throws IOException {
+            return inRange(descending ? cursor.previous() : cursor.next());
+        }
+
+        @Nullable
+        private Entry<K, V> toEntry( @Nullable FileBackedBTree.Cursor cursor ) throws IOException {
+            if( cursor == null ) return null;
+            return new SimpleImmutableEntry<K, V>(toKey(cursor.getKey()), toValue(cursor.getValue()));
+        }
+
+        @Nullable
+        private K toKeyOrNull( @Nullable FileBackedBTree.Cursor cursor ) {
+            return cursor == null ? null : toKey(cursor.getKey());
+        }
+
+        @Override
+        public int size() {
+            if( fromStart && toEnd ) return getTree().size();
+            int size = 0;
+            try {
+                for( FileBackedBTree.Cursor cursor = absLowest(); cursor != null; cursor = inRange(cursor.next()) ) size++;
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            }
+            return size;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            try {
+                return absLowest() == null;
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public boolean containsKey( Object key ) {
+            try {
+                byte[] bytes = toKeyBytes(key);
+                return inRange(bytes) && getTree().containsKey(bytes);
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            } catch( ClassCastException e ) {
+                return false;
+            }
+        }
+
+        @Override
+        public V get( Object key ) {
+            try {
+                byte[] bytes = toKeyBytes(key);
+                return inRange(bytes) ? toValue(getTree().get(bytes)) : null;
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            } catch( ClassCastException e ) {
+                return null;
+            }
+        }
+
+        @Override
+        public V put( K key, V value ) {
+            byte[] bytes = toKeyBytes(key);
+            if( !inRange(bytes) ) throw new IllegalArgumentException("key out of range");
+            try {
+                return toValue(getTree().put(bytes, valueProvider.toBytes(value)));
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            } catch( PersistenceException e ) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public V remove( Object key ) {
+            try {
+                byte[] bytes = toKeyBytes(key);
+                return inRange(bytes) ? toValue(getTree().remove(bytes)) : null;
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            } catch( ClassCastException e ) {
+                return null;
+            }
+        }
+
+        private boolean removeKey( @Nullable Object key ) {
+            try {
+                byte[] bytes = toKeyBytes(key);
+                return inRange(bytes) && getTree().remove(bytes) != null;
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            } catch( ClassCastException e ) {
+                return false;
+            }
+        }
+
+        @Override
+        public void clear() {
+            if( fromStart && toEnd ) {
+                try {
+                    getTree().clear();
+                } catch( IOException e ) {
+                    throw new RuntimeException(e);
+                }
+            } else {
+                super.clear();
+            }
+        }
+
+        @Override
+        public Comparator<? super K> comparator() {
+            if( descending ) return Collections.reverseOrder(keyComparator);
+            if( comparator != null ) return comparator;
+            return keyComparator;
+        }
+
+        @Override
+        public K firstKey() {
+            try {
+                FileBackedBTree.Cursor cursor = first();
+                if( cursor == null ) throw new NoSuchElementException();
+                return toKey(cursor.getKey());
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public K lastKey() {
+            try {
+                FileBackedBTree.Cursor cursor = last();
+                if( cursor == null ) throw new NoSuchElementException();
+                return toKey(cursor.getKey());
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public Entry<K, V> firstEntry() {
+            try {
+                return toEntry(first());
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public Entry<K, V> lastEntry() {
+            try {
+                return toEntry(last());
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public Entry<K, V> pollFirstEntry() {
+            try {
+                Entry<K, V> entry = firstEntry();
+                if( entry != null ) getTree().remove(toKeyBytes(entry.getKey()));
+                return entry;
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public Entry<K, V> pollLastEntry() {
+            try {
+                Entry<K, V> entry = lastEntry();
+                if( entry != null ) getTree().remove(toKeyBytes(entry.getKey()));
+                return entry;
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public Entry<K, V> lowerEntry( K key ) {
+            try {
+                return toEntry(before(toKeyBytes(key), false));
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public K lowerKey( K key ) {
+            try {
+                return toKeyOrNull(before(toKeyBytes(key), false));
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public Entry<K, V> floorEntry( K key ) {
+            try {
+                return toEntry(before(toKeyBytes(key), true));
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public K floorKey( K key ) {
+            try {
+                return toKeyOrNull(before(toKeyBytes(key), true));
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public Entry<K, V> ceilingEntry( K key ) {
+            try {
+                return toEntry(after(toKeyBytes(key), true));
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public K ceilingKey( K key ) {
+            try {
+                return toKeyOrNull(after(toKeyBytes(key), true));
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public Entry<K, V> higherEntry( K key ) {
+            try {
+                return toEntry(after(toKeyBytes(key), false));
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public K higherKey( K key ) {
+            try {
+                return toKeyOrNull(after(toKeyBytes(key), false));
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @NotNull
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            if( entrySet == null ) entrySet = new EntrySet();
+            return entrySet;
+        }
+
+        @NotNull
+        @Override
+        public Set<K> keySet() {
+            return navigableKeySet();
+        }
+
+        @Override
+        public NavigableSet<K> navigableKeySet() {
+            if( keySet == null ) keySet = new KeySet();
+            return keySet;
+        }
+
+        @Override
+        public NavigableSet<K> descendingKeySet() {
+            return descendingMap().navigableKeySet();
+        }
+
+        @Override
+        public View descendingMap() {
+            return new View(fromStart, lo, loInclusive, toEnd, hi, hiInclusive, !descending);
+        }
+
+        @Override
+        public View subMap( K fromKey, boolean fromInclusive, K toKey, boolean toInclusive ) {
+            byte[] from = toKeyBytes(fromKey), to = toKeyBytes(toKey);
+            if( !inRange(from, fromInclusive) ) throw new IllegalArgumentException("fromKey out of range");
+            if( !inRange(to, toInclusive) ) throw new IllegalArgumentException("toKey out of range");
+            if( descending ) return new View(false, to, toInclusive, false, from, fromInclusive, true);
+            return new View(false, from, fromInclusive, false, to, toInclusive, false);
+        }
+
+        @Override
+        public View headMap( K toKey, boolean inclusive ) {
+            byte[] to = toKeyBytes(toKey);
+            if( !inRange(to, inclusive) ) throw new IllegalArgumentException("toKey out of range");
+            if( descending ) return new View(false, to, inclusive, toEnd, hi, hiInclusive, true);
+            return new View(fromStart, lo, loInclusive, false, to, inclusive, false);
+        }
+
+        @Override
+        public View tailMap( K fromKey, boolean inclusive ) {
+            byte[] from = toKeyBytes(fromKey);
+            if( !inRange(from, inclusive) ) throw new IllegalArgumentException("fromKey out of range");
+            if( descending ) return new View(fromStart, lo, loInclusive, false, from, inclusive, true);
+            return new View(false, from, inclusive, toEnd, hi, hiInclusive, false);
+        }
+
+        @Override
+        public SortedMap<K, V> subMap( K fromKey, K toKey ) {
+            return subMap(fromKey, true, toKey, false);
+        }
+
+        @Override
+        public SortedMap<K, V> headMap( K toKey ) {
+            return headMap(toKey, false);
+        }
+
+        @Override
+        public SortedMap<K, V> tailMap( K fromKey ) {
+            return tailMap(fromKey, true);
+        }
+
+        /**
+         * Iterates over the view in its order. Removing an element seeks to the element after it, as the removal may
+         * free the page which the iterator was in.
+         */
+        protected abstract class ViewIterator<E> implements Iterator<E> {
+            @Nullable
+            private FileBackedBTree.Cursor next;
+
+            @Nullable
+            private byte[] last;
+
+            private int expectedModCount = getTree().getModCount();
+
+            protected ViewIterator() {
+                try {
+                    next = first();
+                } catch( IOException e ) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Nullable
+            protected abstract E get( @NotNull FileBackedBTree.Cursor cursor ) throws IOException;
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public E next() {
+                if( expectedModCount != getTree().getModCount() ) throw new ConcurrentModificationException();
+                FileBackedBTree.Cursor cursor = next;
+                if( cursor == null ) throw new NoSuchElementException();
+                try {
+                    E element = get(cursor);
+                    last = cursor.getKey();
+                    next = step(cursor);
+                    return element;
+                } catch( IOException e ) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            public void remove() {
+                byte[] key = last;
+                if( key == null ) throw new IllegalStateException();
+                if( expectedModCount != getTree().getModCount() ) throw new ConcurrentModificationException();
+                try {
+                    getTree().remove(key);
+                    if( next != null ) next = after(key, false);
+                } catch( IOException e ) {
+                    throw new RuntimeException(e);
+                }
+                expectedModCount = getTree().getModCount();
+                last = null;
+            }
+        }
+
+        protected class EntrySet extends AbstractSet<Entry<K, V>> {
+            @NotNull
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new ViewIterator<Entry<K, V>>() {
+                    @NotNull
+                    @Override
+                    protected Entry<K, V> get( @NotNull FileBackedBTree.Cursor cursor ) throws IOException {
+                        return new MapEntry(toKey(cursor.getKey()), toValue(cursor.getValue()));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return View.this.size();
+            }
+
+            @Override
+            public boolean isEmpty() {
+                return View.this.isEmpty();
+            }
+
+            @Override
+            public void clear() {
+                View.this.clear();
+            }
+
+            @Override
+            public boolean contains( Object o ) {
+                if( !( o instanceof Entry ) ) return false;
+                Entry<?, ?> entry = (Entry<?, ?>) o;
+                if( !containsKey(entry.getKey()) ) return false;
+                Object value = get(entry.getKey());
+                return entry.getValue() == null ? value == null : entry.getValue().equals(value);
+            }
+
+            @Override
+            public boolean remove( Object o ) {
+                return contains(o) && removeKey(( (Entry<?, ?>) o ).getKey());
+            }
+        }
+
+        protected class KeySet extends AbstractSet<K> implements NavigableSet<K> {
+            @NotNull
+            @Override
+            public Iterator<K> iterator() {
+                return new ViewIterator<K>() {
+                    @Override
+                    protected K get( @NotNull FileBackedBTree.Cursor cursor ) {
+                        return toKey(cursor.getKey());
+                    }
+                };
+            }
+
+            @Override
+            public Iterator<K> descendingIterator() {
+                return descendingSet().iterator();
+            }
+
+            @Override
+            public int size() {
+                return View.this.size();
+            }
+
+            @Override
+            public boolean isEmpty() {
+                return View.this.isEmpty();
+            }
+
+            @Override
+            public void clear() {
+                View.this.clear();
+            }
+
+            @Override
+            public boolean contains( Object o ) {
+                return containsKey(o);
+            }
+
+            @Override
+            public boolean add( K k ) {
+                if( !inRange(toKeyBytes(k)) ) throw new IllegalArgumentException("key out of range");
+                return addKey(k);
+            }
+
+            @Override
+            public boolean remove( Object o ) {
+                return removeKey(o);
+            }
+
+            @Override
+            public Comparator<? super K> comparator() {
+                return View.this.comparator();
+            }
+
+            @Override
+            public K first() {
+                return firstKey();
+            }
+
+            @Override
+            public K last() {
+                return lastKey();
+            }
+
+            @Override
+            public K lower( K k ) {
+                return lowerKey(k);
+            }
+
+            @Override
+            public K floor( K k ) {
+                return floorKey(k);
+            }
+
+            @Override
+            public K ceiling( K k ) {
+                return ceilingKey(k);
+            }
+
+            @Override
+            public K higher( K k ) {
+                return higherKey(k);
+            }
+
+            @Override
+            public K pollFirst() {
+                Entry<K, V> entry = pollFirstEntry();
+                return entry == null ? null : entry.getKey();
+            }
+
+            @Override
+            public K pollLast() {
+                Entry<K, V> entry = pollLastEntry();
+                return entry == null ? null : entry.getKey();
+            }
+
+            @Override
+            public NavigableSet<K> descendingSet() {
+                return descendingMap().navigableKeySet();
+            }
+
+            @Override
+            public NavigableSet<K> subSet( K fromElement, boolean fromInclusive, K toElement, boolean toInclusive ) {
+                return subMap(fromElement, fromInclusive, toElement, toInclusive).navigableKeySet();
+            }
+
+            @Override
+            public NavigableSet<K> headSet( K toElement, boolean inclusive ) {
+                return headMap(toElement, inclusive).navigableKeySet();
+            }
+
+            @Override
+            public NavigableSet<K> tailSet( K fromElement, boolean inclusive ) {
+                return tailMap(fromElement, inclusive).navigableKeySet();
+            }
+
+            @Override
+            public SortedSet<K> subSet( K fromElement, K toElement ) {
+                return subSet(fromElement, true, toElement, false);
+            }
+
+            @Override
+            public SortedSet<K> headSet( K toElement ) {
+                return headSet(toElement, false);
+            }
+
+            @Override
+            public SortedSet<K> tailSet( K fromElement ) {
+                return tailSet(fromElement, true);
+            }
+        }
+    }
+
+    /**
+     * Adds a key through the key sets of the map. There is no value to add the key with, so this is unsupported unless
+     * it is overridden.
+     *
+     * @return Whether the key was added.
+     */
+    protected boolean addKey( @Nullable K key ) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int size() {
+        return all.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return all.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey( Object key ) {
+        return all.containsKey(key);
+    }
+
+    @Override
+    public V get( Object key ) {
+        return all.get(key);
+    }
+
+    @Override
+    public V put( K key, V value ) {
+        return all.put(key, value);
+    }
+
+    @Override
+    public V remove( Object key ) {
+        return all.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        all.clear();
+    }
+
+    @NotNull
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return all.entrySet();
+    }
+
+    @NotNull
+    @Override
+    public Set<K> keySet() {
+        return all.keySet();
+    }
+
+    @Override
+    public NavigableSet<K> navigableKeySet() {
+        return all.navigableKeySet();
+    }
+
+    @Override
+    public NavigableSet<K> descendingKeySet() {
+        return all.descendingKeySet();
+    }
+
+    @Override
+    public NavigableMap<K, V> descendingMap() {
+        return all.descendingMap();
+    }
+
+    @Override
+    public NavigableMap<K, V> subMap( K fromKey, boolean fromInclusive, K toKey, boolean toInclusive ) {
+        return all.subMap(fromKey, fromInclusive, toKey, toInclusive);
+    }
+
+    @Override
+    public NavigableMap<K, V> headMap( K toKey, boolean inclusive ) {
+        return all.headMap(toKey, inclusive);
+    }
+
+    @Override
+    public NavigableMap<K, V> tailMap( K fromKey, boolean inclusive ) {
+        return all.tailMap(fromKey, inclusive);
+    }
+
+    @Override
+    public SortedMap<K, V> subMap( K fromKey, K toKey ) {
+        return all.subMap(fromKey, toKey);
+    }
+
+    @Override
+    public SortedMap<K, V> headMap( K toKey ) {
+        return all.headMap(toKey);
+    }
+
+    @Override
+    public SortedMap<K, V> tailMap( K fromKey ) {
+        return all.tailMap(fromKey);
+    }
+
+    /**
+     * @return The comparator given to the map, or one which orders keys by their persisted form if none was given.
+     */
+    @Override
+    public Comparator<? super K> comparator() {
+        return all.comparator();
+    }
+
+    @Override
+    public K firstKey() {
+        return all.firstKey();
+    }
+
+    @Override
+    public K lastKey() {
+        return all.lastKey();
+    }
+
+    @Override
+    public Entry<K, V> firstEntry() {
+        return all.firstEntry();
+    }
+
+    @Override
+    public Entry<K, V> lastEntry() {
+        return all.lastEntry();
+    }
+
+    @Override
+    public Entry<K, V> pollFirstEntry() {
+        return all.pollFirstEntry();
+    }
+
+    @Override
+    public Entry<K, V> pollLastEntry() {
+        return all.pollLastEntry();
+    }
+
+    @Override
+    public Entry<K, V> lowerEntry( K key ) {
+        return all.lowerEntry(key);
+    }
+
+    @Override
+    public K lowerKey( K key ) {
+        return all.lowerKey(key);
+    }
+
+    @Override
+    public Entry<K, V> floorEntry( K key ) {
+        return all.floorEntry(key);
+    }
+
+    @Override
+    public K floorKey( K key ) {
+        return all.floorKey(key);
+    }
+
+    @Override
+    public Entry<K, V> ceilingEntry( K key ) {
+        return all.ceilingEntry(key);
+    }
+
+    @Override
+    public K ceilingKey( K key ) {
+        return all.ceilingKey(key);
+    }
+
+    @Override
+    public Entry<K, V> higherEntry( K key ) {
+        return all.higherEntry(key);
+    }
+
+    @Override
+    public K higherKey( K key ) {
+        return all.higherKey(key);
+    }
+
+    @Override
+    public MapIterator<K, V> mapIterator() {
+        return new EntrySetMapIterator<K, V>(this);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        getTree().flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        getTree().close();
+    }
+}
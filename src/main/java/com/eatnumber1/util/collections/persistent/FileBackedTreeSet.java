@@ -0,0 +1,248 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.persistent.channel.FileChannelProvider;
+import com.eatnumber1.util.persistent.channel.FileChannelProviderFactory;
+import com.eatnumber1.util.persistent.channel.SimpleFileChannelProvider;
+import com.eatnumber1.util.persistent.provider.PersistenceProvider;
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.SortedSet;
+import net.jcip.annotations.NotThreadSafe;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A sorted set stored in a {@link FileBackedBTree}. Elements are ordered by the given comparator, or by their persisted
+ * form if there is none, in which case the persistence provider must persist equal elements identically.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@NotThreadSafe
+public class FileBackedTreeSet<T> extends AbstractSet<T> implements FileBackedSet<T>, NavigableSet<T> {
+    @NotNull
+    private static final Object PRESENT = Boolean.TRUE;
+
+    // Every element maps to an empty value, so no values are stored.
+    @NotNull
+    private static final PersistenceProvider<Object> PRESENT_PROVIDER = new PersistenceProvider<Object>() {
+        @NotNull
+        @Override
+        public byte[] toBytes( @Nullable Object object ) {
+            return new byte[0];
+        }
+
+        @NotNull
+        @Override
+        public Object fromBytes( @NotNull byte[] bytes ) {
+            return PRESENT;
+        }
+    };
+
+    @NotNull
+    private FileBackedTreeMap<T, Object> map;
+
+    @NotNull
+    private NavigableSet<T> elements;
+
+    public FileBackedTreeSet( @NotNull File directory, @NotNull PersistenceProvider<T> persistenceProvider ) throws IOException {
+        this(directory, persistenceProvider, null);
+    }
+
+    public FileBackedTreeSet( @NotNull File directory, @NotNull PersistenceProvider<T> persistenceProvider, @Nullable Comparator<? super T> comparator ) throws IOException {
+        this(directory, persistenceProvider, comparator, new FileChannelProviderFactory() {
+            @NotNull
+            @Override
+            public FileChannelProvider create( @NotNull File file ) throws IOException {
+                return new SimpleFileChannelProvider(file, "rw");
+            }
+        });
+    }
+
+    /**
+     * @param comparator The comparator to order the elements with, or null to order elements by their persisted form.
+     */
+    public FileBackedTreeSet( @NotNull File directory, @NotNull PersistenceProvider<T> persistenceProvider, @Nullable Comparator<? super T> comparator, @NotNull FileChannelProviderFactory factory ) throws IOException {
+        map = new FileBackedTreeMap<T, Object>(directory, persistenceProvider, PRESENT_PROVIDER, comparator, factory) {
+            @Override
+            protected boolean addKey( @Nullable T key ) {
+                return put(key, PRESENT) == null;
+            }
+        };
+        elements = map.navigableKeySet();
+    }
+
+    @Override
+    public void open() throws IOException {
+        map.open();
+    }
+
+    @Override
+    public boolean isMapped() {
+        return map.isMapped();
+    }
+
+    @NotNull
+    @Override
+    public File getStorageFile() {
+        return map.getStorageFile();
+    }
+
+    /**
+     * @see FileBackedTreeMap#compact()
+     */
+    public void compact() throws IOException {
+        map.compact();
+    }
+
+    @NotNull
+    @Override
+    public Iterator<T> iterator() {
+        return elements.iterator();
+    }
+
+    @Override
+    public Iterator<T> descendingIterator() {
+        return elements.descendingIterator();
+    }
+
+    @Override
+    public int size() {
+        return elements.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return elements.isEmpty();
+    }
+
+    @Override
+    public boolean contains( Object o ) {
+        return elements.contains(o);
+    }
+
+    @Override
+    public boolean add( T t ) {
+        return elements.add(t);
+    }
+
+    @Override
+    public boolean remove( Object o ) {
+        return elements.remove(o);
+    }
+
+    @Override
+    public void clear() {
+        elements.clear();
+    }
+
+    @Override
+    public Comparator<? super T> comparator() {
+        return elements.comparator();
+    }
+
+    @Override
+    public T first() {
+        return elements.first();
+    }
+
+    @Override
+    public T last() {
+        return elements.last();
+    }
+
+    @Override
+    public T lower( T t ) {
+        return elements.lower(t);
+    }
+
+    @Override
+    public T floor( T t ) {
+        return elements.floor(t);
+    }
+
+    @Override
+    public T ceiling( T t ) {
+        return elements.ceiling(t);
+    }
+
+    @Override
+    public T higher( T t ) {
+        return elements.higher(t);
+    }
+
+    @Override
+    public T pollFirst() {
+        return elements.pollFirst();
+    }
+
+    @Override
+    public T pollLast() {
+        return elements.pollLast();
+    }
+
+    @Override
+    public NavigableSet<T> descendingSet() {
+        return elements.descendingSet();
+    }
+
+    @Override
+    public NavigableSet<T> subSet( T fromElement, boolean fromInclusive, T toElement, boolean toInclusive ) {
+        return elements.subSet(fromElement, fromInclusive, toElement, toInclusive);
+    }
+
+    @Override
+    public NavigableSet<T> headSet( T toElement, boolean inclusive ) {
+        return elements.headSet(toElement, inclusive);
+    }
+
+    @Override
+    public NavigableSet<T> tailSet( T fromElement, boolean inclusive ) {
+        return elements.tailSet(fromElement, inclusive);
+    }
+
+    @Override
+    public SortedSet<T> subSet( T fromElement, T toElement ) {
+        return elements.subSet(fromElement, toElement);
+    }
+
+    @Override
+    public SortedSet<T> headSet( T toElement ) {
+        return elements.headSet(toElement);
+    }
+
+    @Override
+    public SortedSet<T> tailSet( T fromElement ) {
+        return elements.tailSet(fromElement);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        map.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        map.close();
+    }
+}
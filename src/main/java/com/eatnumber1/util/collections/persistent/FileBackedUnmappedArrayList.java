@@ -17,12 +17,17 @@
 package com.eatnumber1.util.collections.persistent;
 
 import com.eatnumber1.util.io.FileUtils;
+import com.eatnumber1.util.io.IOUtils;
 import com.eatnumber1.util.persistent.channel.FileChannelProvider;
 import com.eatnumber1.util.persistent.channel.FileChannelProviderFactory;
+import com.eatnumber1.util.persistent.channel.FileChannelProviderUtils;
 import com.eatnumber1.util.persistent.channel.FileChannelVisitor;
 import com.eatnumber1.util.persistent.channel.SimpleFileChannelProvider;
+import com.eatnumber1.util.persistent.channel.UndoJournal;
 import com.eatnumber1.util.persistent.numbers.FileBackedInteger;
 import com.eatnumber1.util.persistent.numbers.FileBackedUnmappedInteger;
+import com.eatnumber1.util.persistent.provider.ByteBufferPersistenceProvider;
+import com.eatnumber1.util.persistent.provider.ByteBufferPersistenceProviderAdapter;
 import com.eatnumber1.util.persistent.provider.PersistenceProvider;
 import java.io.EOFException;
 import java.io.File;
@@ -30,7 +35,17 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.RandomAccess;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 import net.jcip.annotations.NotThreadSafe;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -39,16 +54,31 @@ import org.jetbrains.annotations.Nullable;
  * @author Russell Harmon
  * @since Jul 13, 2007
  */
-// TODO: Optionally cache the list
 @NotThreadSafe
 public class FileBackedUnmappedArrayList<T> extends AbstractList<T> implements FileBackedList<T>, RandomAccess {
     @NotNull
     protected static final String LIST_FILENAME = "list", DATA_FILENAME = "data", SIZE_FILENAME = "size";
 
+    @NotNull
+    protected static final String JOURNAL_FILENAME = "journal";
+
+    protected static final int JOURNAL_LIST = 0, JOURNAL_DATA = 1;
+
     protected static final int POINTER_SIZE = Long.SIZE / 8;
     protected static final int OBJECT_LENGTH_SIZE = Integer.SIZE / 8;
     protected static final int ELEMENT_SIZE = POINTER_SIZE + OBJECT_LENGTH_SIZE;
 
+    protected static final int COPY_BUFFER_ELEMENTS = 64 * 1024;
+
+    protected static final int COPY_BUFFER_SIZE = 1024 * 1024;
+
+    public static final int DEFAULT_APPEND_BUFFER_SIZE = 1024 * 1024;
+
+    public static final int DEFAULT_READ_AHEAD = 1024 * 1024;
+
+    // Scratch buffers which grow past this are not kept once the operation which needed them is done.
+    protected static final int MAX_SCRATCH_SIZE = 1024 * 1024;
+
     @NotNull
     protected FileChannelProvider elementChannel, dataChannel;
 
@@ -62,7 +92,10 @@ public class FileBackedUnmappedArrayList<T> extends AbstractList<T> implements F
     protected PersistenceProvider<T> persistenceProvider;
 
     @NotNull
-    private FileChannelProviderFactory factory;
+    protected ByteBufferPersistenceProvider<T> bufferProvider;
+
+    @NotNull
+    protected FileChannelProviderFactory factory;
 
     protected long nextFree;
 
@@ -70,6 +103,37 @@ public class FileBackedUnmappedArrayList<T> extends AbstractList<T> implements F
 
     protected boolean closed = true;
 
+    @Nullable
+    private ElementCache<T> cache;
+
+    // Appended elements which have not been written to the files yet. The buffers are null when appends are not buffered.
+    @Nullable
+    private ByteBuffer appendData, appendElements;
+
+    private int appendCount;
+
+    private long appendMaxDelay, appendSince;
+
+    private int readAhead = DEFAULT_READ_AHEAD;
+
+    // Incremented whenever elements are replaced, so that iterators drop the records and data they have read ahead.
+    private int rewrites;
+
+    // The iterator holding modifications which have not been written to the files yet, if any.
+    @Nullable
+    private StreamingListIterator modifyingIterator;
+
+    private int pendingRemovals;
+
+    @Nullable
+    private UndoJournal journal;
+
+    // Reused for encoding and decoding elements, so that reading and writing them does not allocate an array each.
+    @Nullable
+    private ByteBuffer encodeBuffer, decodeBuffer;
+
+    private boolean journaled;
+
     @NotNull
     private File directory;
 
@@ -102,6 +166,7 @@ public class FileBackedUnmappedArrayList<T> extends AbstractList<T> implements F
         }
 
         public void write( int index ) throws IOException {
+            preserveElements(index, 1);
             element_buf.position(0);
             element_buf.putLong(start).putInt(size);
             element_buf.position(0);
@@ -131,6 +196,7 @@ public class FileBackedUnmappedArrayList<T> extends AbstractList<T> implements F
 
     public FileBackedUnmappedArrayList( @NotNull File directory, @NotNull PersistenceProvider<T> persistenceProvider, @NotNull FileChannelProviderFactory factory ) throws IOException {
         this.persistenceProvider = persistenceProvider;
+        this.bufferProvider = ByteBufferPersistenceProviderAdapter.adapt(persistenceProvider);
         this.factory = factory;
         this.directory = directory;
         open();
@@ -153,11 +219,16 @@ public class FileBackedUnmappedArrayList<T> extends AbstractList<T> implements F
                 FileUtils.createNewFile(listFile);
                 FileUtils.createNewFile(dataFile);
             }
+            CompressionDictionaries.apply(directory, persistenceProvider);
             listTruncateSize = dataTruncateSize = 0;
+            // The files may have been changed while the list was closed.
+            if( cache != null ) cache.clear();
             elementChannel = factory.create(listFile);
             dataChannel = factory.create(dataFile);
             File sizeFile = new File(directory, SIZE_FILENAME);
             size = newSizeInteger(sizeFile, factory.create(sizeFile));
+            File journalFile = new File(directory, JOURNAL_FILENAME);
+            if( journaled || journalFile.exists() ) openJournal();
             int size = size();
             if( size != 0 && listFileExists && dataFileExists ) {
                 Element last = newElement(size - 1);
@@ -175,32 +246,225 @@ public class FileBackedUnmappedArrayList<T> extends AbstractList<T> implements F
     }
 
     protected void truncate() throws IOException {
+        // The journal can only restore data which is within the original lengths of the files.
+        if( journal != null && journal.isActive() ) return;
         if( listTruncateSize > 0 ) {
-            elementChannel.visitValueChannel(new FileChannelVisitor<Void>() {
-                @Override
-                public Void visit( @NotNull FileChannel channel ) throws IOException {
-                    try {
-                        channel.truncate(channel.size() - listTruncateSize);
-                        listTruncateSize = 0;
-                    } catch( IOException e ) {
-                        // Ignore
-                    }
-                    return null;
-                }
-            });
+            truncate(elementChannel, (long) size() * ELEMENT_SIZE);
+            listTruncateSize = 0;
         }
         if( dataTruncateSize > 0 ) {
-            dataChannel.visitValueChannel(new FileChannelVisitor<Void>() {
-                @Override
-                public Void visit( @NotNull FileChannel channel ) throws IOException {
-                    channel.truncate(channel.size() - dataTruncateSize);
-                    dataTruncateSize = 0;
-                    return null;
-                }
-            });
+            truncate(dataChannel, nextFree);
+            dataTruncateSize = 0;
+        }
+    }
+
+    protected static void truncate( @NotNull FileChannelProvider provider, final long length ) throws IOException {
+        provider.visitValueChannel(new FileChannelVisitor<Void>() {
+            @Override
+            public Void visit( @NotNull FileChannel channel ) throws IOException {
+                if( channel.size() > length ) channel.truncate(length);
+                return null;
+            }
+        });
+    }
+
+    @Nullable
+    public ElementCache<T> getCache() {
+        return cache;
+    }
+
+    /**
+     * @param cache The cache to hold deserialized elements in, or null to deserialize an element on every access.
+     */
+    public void setCache( @Nullable ElementCache<T> cache ) {
+        if( cache != null ) cache.clear();
+        this.cache = cache;
+    }
+
+    /**
+     * Enables write-behind buffering of elements added to the end of the list. Appended elements are committed to the
+     * files with a single write per file once {@code bufferSize} bytes are pending, when an element which was appended
+     * longer than {@code maxDelay} ago is followed by another append, or when any other operation needs them to be
+     * committed. Elements which have not been committed are lost if the list is neither flushed nor closed.
+     *
+     * @param bufferSize The number of bytes of appended data to buffer, or zero to write appended elements immediately.
+     */
+    public void setAppendBuffer( int bufferSize, long maxDelay, @NotNull TimeUnit unit ) throws IOException {
+        if( bufferSize < 0 ) throw new IllegalArgumentException("The buffer size must not be negative.");
+        commit();
+        if( bufferSize == 0 ) {
+            appendData = appendElements = null;
+        } else {
+            appendData = ByteBuffer.allocateDirect(bufferSize);
+            appendElements = ByteBuffer.allocateDirect(Math.max(1, bufferSize / 4 / ELEMENT_SIZE) * ELEMENT_SIZE);
+        }
+        appendMaxDelay = unit.toNanos(maxDelay);
+    }
+
+    public boolean isAppendBuffered() {
+        return appendData != null;
+    }
+
+    protected void appendObject( @Nullable T object ) throws PersistenceException, IOException {
+        ByteBuffer data = appendData, elements = appendElements;
+        assert data != null && elements != null;
+        int length = bufferProvider.getEncodedSize(object);
+        if( modifyingIterator != null ) modifyingIterator.commit();
+        if( length > data.remaining() || !elements.hasRemaining() ) commitAppends();
+        if( length > data.remaining() ) {
+            // The element would never fit in the buffer, so write it straight through.
+            int size = size();
+            ByteBuffer buf = scratch(encodeBuffer, length);
+            bufferProvider.encode(object, buf);
+            buf.flip();
+            writeData(buf, nextFree);
+            release(buf);
+            newElement(nextFree, length).write(size);
+            nextFree += length;
+            setSize(size + 1);
+            return;
+        }
+        if( appendCount == 0 ) appendSince = System.nanoTime();
+        elements.putLong(nextFree).putInt(length);
+        bufferProvider.encode(object, data);
+        nextFree += length;
+        appendCount++;
+        if( System.nanoTime() - appendSince >= appendMaxDelay ) commitAppends();
+    }
+
+    /**
+     * Writes the buffered appended elements to the files, with a single write to each of them.
+     */
+    protected void commitAppends() throws IOException {
+        if( appendCount == 0 ) return;
+        ByteBuffer data = appendData, elements = appendElements;
+        assert data != null && elements != null;
+        beginJournal();
+        int size = this.size.intValue();
+        data.flip();
+        elements.flip();
+        writeData(new ByteBuffer[]{ data }, nextFree - data.remaining());
+        writeElements(size, elements);
+        data.clear();
+        elements.clear();
+        setSize(size + appendCount);
+        appendCount = 0;
+    }
+
+    /**
+     * Writes all modifications which have been buffered by the list or its iterators to the files.
+     */
+    protected void commit() throws IOException {
+        StreamingListIterator iterator = modifyingIterator;
+        if( iterator != null ) iterator.commit();
+        commitAppends();
+    }
+
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * @param readAhead The number of bytes of data which iterators read at once, or zero to iterate with random reads.
+     */
+    public void setReadAhead( int readAhead ) {
+        if( readAhead < 0 ) throw new IllegalArgumentException("The read ahead must not be negative.");
+        this.readAhead = readAhead;
+    }
+
+    public boolean isJournaled() {
+        return journaled;
+    }
+
+    /**
+     * Enables an undo journal which makes the mutations of the list between two calls to {@link #flush()} atomic. Before
+     * a region of the list or data file is overwritten, its original contents are forced to the journal, and an
+     * interrupted transaction is rolled back when the list is next opened. Flushing forces the files to disk and ends
+     * the transaction, so a list which is flushed after every mutation does not need to be opened with synchronous
+     * channels to stay consistent.
+     */
+    public void setJournaled( boolean journaled ) throws IOException {
+        if( journaled == this.journaled ) return;
+        flush();
+        this.journaled = journaled;
+        if( journaled ) {
+            openJournal();
+        } else {
+            closeJournal();
+        }
+    }
+
+    /**
+     * Opens the journal, rolling the list back if the journal holds a transaction which was not committed.
+     */
+    protected void openJournal() throws IOException {
+        closeJournal();
+        File journalFile = new File(directory, JOURNAL_FILENAME);
+        if( !journalFile.exists() ) FileUtils.createNewFile(journalFile);
+        UndoJournal journal = new UndoJournal(factory.create(journalFile), elementChannel, dataChannel);
+        long size = journal.rollback();
+        if( size >= 0 ) {
+            this.size.intValue((int) size);
+            this.size.flush();
+            journal.commit();
+        }
+        if( journaled ) {
+            this.journal = journal;
+        } else {
+            journal.close();
+            FileUtils.delete(journalFile);
+        }
+    }
+
+    protected void closeJournal() throws IOException {
+        if( journal != null ) {
+            journal.close();
+            journal = null;
         }
     }
 
+    /**
+     * Begins a journal transaction if the list is journaled and none is active. This must be called before the files
+     * are modified.
+     */
+    protected void beginJournal() throws IOException {
+        UndoJournal journal = this.journal;
+        if( journal == null || journal.isActive() ) return;
+        int size = this.size.intValue();
+        journal.begin(size, (long) size * ELEMENT_SIZE, getCommittedDataLength());
+    }
+
+    /**
+     * @return The length of the data in the data file, which does not include buffered appends.
+     */
+    protected long getCommittedDataLength() {
+        return appendCount == 0 ? nextFree : nextFree - appendData.position();
+    }
+
+    /**
+     * Forces the files to disk and ends the active journal transaction, if any.
+     */
+    protected void commitJournal() throws IOException {
+        UndoJournal journal = this.journal;
+        if( journal == null || !journal.isActive() ) return;
+        size.flush();
+        elementChannel.flush();
+        dataChannel.flush();
+        journal.commit();
+    }
+
+    protected void preserveElements( int index, int count ) throws IOException {
+        if( journal == null ) return;
+        beginJournal();
+        journal.preserve(JOURNAL_LIST, (long) index * ELEMENT_SIZE, (long) count * ELEMENT_SIZE);
+    }
+
+    protected void preserveData( long start, long length ) throws IOException {
+        if( journal == null ) return;
+        beginJournal();
+        journal.preserve(JOURNAL_DATA, start, length);
+    }
+
     public boolean isMapped() {
         return false;
     }
@@ -208,6 +472,7 @@ public class FileBackedUnmappedArrayList<T> extends AbstractList<T> implements F
     public void close() throws IOException {
         if( !closed ) {
             flush();
+            closeJournal();
             size.close();
             elementChannel.close();
             dataChannel.close();
@@ -216,7 +481,9 @@ public class FileBackedUnmappedArrayList<T> extends AbstractList<T> implements F
     }
 
     public void flush() throws IOException {
+        commit();
         size.flush();
+        commitJournal();
         truncate();
     }
 
@@ -229,128 +496,667 @@ public class FileBackedUnmappedArrayList<T> extends AbstractList<T> implements F
         }
     }
 
+
     protected int getElementOffset( int index ) {
         return index * ELEMENT_SIZE;
     }
 
-    private void readData( @NotNull final ByteBuffer dst, @NotNull FileChannelProvider channel, final long start ) throws IOException {
-        channel.visitValueChannel(new FileChannelVisitor<Void>() {
+    private void readData( @NotNull ByteBuffer dst, @NotNull FileChannelProvider channel, long start ) throws IOException {
+        int length = dst.remaining();
+        int bytesRead = channel.read(dst, start);
+        if( bytesRead == -1 ) {
+            throw new EOFException("Premature end of file.");
+        } else if( bytesRead != length ) {
+            throw new IOException("Unable to read element fully.");
+        }
+    }
+
+    private void writeData( @NotNull ByteBuffer src, @NotNull FileChannelProvider channel, long start ) throws IOException {
+        int length = src.remaining();
+        if( channel.write(src, start) != length ) throw new IOException("Unable to write element fully.");
+    }
+
+    protected void readData( @NotNull ByteBuffer dst, long start ) throws IOException {
+        readData(dst, dataChannel, start);
+    }
+
+    protected void writeData( @NotNull ByteBuffer src, long start ) throws IOException {
+        preserveData(start, src.remaining());
+        writeData(src, dataChannel, start);
+    }
+
+    protected void readData( @NotNull ByteBuffer[] dsts, long start ) throws IOException {
+        long length = length(dsts);
+        long bytesRead = FileChannelProviderUtils.read(dataChannel, dsts, start);
+        if( bytesRead == -1 ) {
+            throw new EOFException("Premature end of file.");
+        } else if( bytesRead != length ) {
+            throw new IOException("Unable to read elements fully.");
+        }
+    }
+
+    protected void writeData( @NotNull ByteBuffer[] srcs, long start ) throws IOException {
+        long length = length(srcs);
+        preserveData(start, length);
+        if( FileChannelProviderUtils.write(dataChannel, srcs, start) != length ) throw new IOException("Unable to write elements fully.");
+    }
+
+    protected void readElements( int index, @NotNull ByteBuffer dst ) throws IOException {
+        readData(dst, elementChannel, getElementOffset(index));
+    }
+
+    protected void writeElements( int index, @NotNull ByteBuffer src ) throws IOException {
+        preserveElements(index, src.remaining() / ELEMENT_SIZE);
+        writeData(src, elementChannel, getElementOffset(index));
+    }
+
+    /**
+     * Moves the index records of {@code count} elements starting at {@code from} so that they start at {@code to}. The
+     * records are copied in large blocks, and {@code startDelta} is added to the data offset of each of them.
+     */
+    protected void copyElements( final int from, final int to, final int count, final long startDelta ) throws IOException {
+        if( count == 0 || ( from == to && startDelta == 0 ) ) return;
+        preserveElements(to, count);
+        elementChannel.visitValueChannel(new FileChannelVisitor<Void>() {
             @Override
             public Void visit( @NotNull FileChannel channel ) throws IOException {
-                int bytesRead = channel.position(start).read(dst);
-                if( bytesRead == -1 ) {
-                    throw new EOFException("Premature end of file.");
-                } else if( bytesRead != dst.capacity() ) {
-                    throw new IOException("Unable to read element fully.");
+                ByteBuffer buf = ByteBuffer.allocate(Math.min(count, COPY_BUFFER_ELEMENTS) * ELEMENT_SIZE);
+                int remaining = count;
+                while( remaining > 0 ) {
+                    int chunk = Math.min(remaining, COPY_BUFFER_ELEMENTS);
+                    // Copy from the end when moving right so that records which have not been copied yet survive.
+                    int offset = from < to ? remaining - chunk : count - remaining;
+                    int bytes = chunk * ELEMENT_SIZE;
+                    buf.clear();
+                    buf.limit(bytes);
+                    channel.position(getElementOffset(from + offset));
+                    IOUtils.read(channel, buf, bytes);
+                    relocate(buf, chunk, startDelta);
+                    buf.position(0);
+                    channel.position(getElementOffset(to + offset));
+                    IOUtils.write(channel, buf, bytes);
+                    remaining -= chunk;
                 }
                 return null;
             }
         });
     }
 
-    private void writeData( @NotNull final ByteBuffer src, @NotNull FileChannelProvider channel, final long start ) throws IOException {
-        channel.visitValueChannel(new FileChannelVisitor<Void>() {
-            @Override
-            public Void visit( @NotNull FileChannel channel ) throws IOException {
-                int bytesWritten = channel.position(start).write(src);
-                if( bytesWritten != src.capacity() ) {
-                    throw new IOException("Unable to write element fully.");
-                }
-                return null;
+    protected void copyElements( int from, int to, int count ) throws IOException {
+        copyElements(from, to, count, 0);
+    }
+
+    protected static void relocate( @NotNull ByteBuffer elements, int count, long startDelta ) {
+        if( startDelta == 0 ) return;
+        for( int i = 0, offset = 0; i < count; i++, offset += ELEMENT_SIZE ) {
+            elements.putLong(offset, elements.getLong(offset) + startDelta);
+        }
+    }
+
+    /**
+     * Moves {@code length} bytes of the data file starting at {@code start} by {@code delta} bytes.
+     */
+    protected void copyData( long start, long length, long delta ) throws IOException {
+        if( length == 0 || delta == 0 ) return;
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(length, COPY_BUFFER_SIZE));
+        long remaining = length;
+        while( remaining > 0 ) {
+            int chunk = (int) Math.min(remaining, COPY_BUFFER_SIZE);
+            long offset = delta > 0 ? remaining - chunk : length - remaining;
+            ByteBuffer data = buf.duplicate();
+            data.limit(chunk);
+            data = data.slice();
+            readData(data, start + offset);
+            data.position(0);
+            writeData(data, start + offset + delta);
+            remaining -= chunk;
+        }
+    }
+
+    /**
+     * Shifts the elements from {@code index} to the end of the list by {@code elementDelta} positions and their data by
+     * {@code dataDelta} bytes, each with a single pass of large sequential transfers.
+     */
+    protected void moveTail( int index, int elementDelta, long dataDelta ) throws IOException {
+        int size = size();
+        if( index < size ) {
+            long start = newElement(index).start;
+            copyData(start, nextFree - start, dataDelta);
+            copyElements(index, index + elementDelta, size - index, dataDelta);
+        }
+        nextFree += dataDelta;
+        if( elementDelta < 0 ) listTruncateSize -= (long) elementDelta * ELEMENT_SIZE;
+        if( dataDelta < 0 ) dataTruncateSize -= dataDelta;
+    }
+
+    @NotNull
+    protected ByteBuffer[] toBuffers( @NotNull Collection<? extends T> objects ) throws PersistenceException {
+        // The objects are encoded one after another into the scratch buffer and handed out as slices of it.
+        ByteBuffer[] buffers = new ByteBuffer[objects.size()];
+        ByteBuffer buf = encodeBuffer;
+        if( buf != null ) buf.clear();
+        int i = 0;
+        for( T object : objects ) {
+            int length = bufferProvider.getEncodedSize(object);
+            if( buf == null || buf.remaining() < length ) {
+                int used = buf == null ? 0 : buf.position();
+                buf = ByteBuffer.allocateDirect(Math.max(length, Math.max(used, length) * 2));
             }
-        });
+            ByteBuffer payload = buf.slice();
+            payload.limit(length);
+            bufferProvider.encode(object, buf);
+            buffers[i++] = payload;
+        }
+        if( buf != null ) release(buf);
+        return buffers;
+    }
+
+    /**
+     * @return The scratch buffer, holding the encoded object. It is only valid until the next object is encoded.
+     */
+    @NotNull
+    protected ByteBuffer encode( @Nullable T object ) throws PersistenceException {
+        ByteBuffer buf = scratch(encodeBuffer, bufferProvider.getEncodedSize(object));
+        bufferProvider.encode(object, buf);
+        buf.flip();
+        release(buf);
+        return buf;
+    }
+
+    /**
+     * @return A buffer of its own holding the encoded object, for when it needs to be kept.
+     */
+    @NotNull
+    protected ByteBuffer toBuffer( @Nullable T object ) throws PersistenceException {
+        ByteBuffer buf = ByteBuffer.allocate(bufferProvider.getEncodedSize(object));
+        bufferProvider.encode(object, buf);
+        buf.flip();
+        return buf;
+    }
+
+    @Nullable
+    protected T decode( @NotNull ByteBuffer buf ) throws PersistenceException {
+        return bufferProvider.decode(buf);
+    }
+
+    @NotNull
+    private static ByteBuffer scratch( @Nullable ByteBuffer buf, int required ) {
+        if( buf == null || buf.capacity() < required ) {
+            buf = ByteBuffer.allocateDirect(Math.max(required, buf == null ? 0 : buf.capacity() * 2));
+        }
+        buf.clear();
+        buf.limit(required);
+        return buf;
+    }
+
+    private void release( @NotNull ByteBuffer buf ) {
+        encodeBuffer = buf.capacity() > MAX_SCRATCH_SIZE ? null : buf;
+    }
+
+    @NotNull
+    protected static ByteBuffer toElements( @NotNull ByteBuffer[] payloads, long start ) {
+        ByteBuffer elements = ByteBuffer.allocate(payloads.length * ELEMENT_SIZE);
+        for( ByteBuffer payload : payloads ) {
+            elements.putLong(start).putInt(payload.remaining());
+            start += payload.remaining();
+        }
+        elements.flip();
+        return elements;
+    }
+
+    protected static long length( @NotNull ByteBuffer[] buffers ) {
+        long length = 0;
+        for( ByteBuffer buffer : buffers ) length += buffer.remaining();
+        return length;
     }
 
     @Nullable
-    private T readObject( int index ) throws IOException, PersistenceException {
+    protected T readObject( int index ) throws IOException, PersistenceException {
         return readObject(newElement(index));
     }
 
     @Nullable
-    private T readObject( @NotNull Element element ) throws IOException, PersistenceException {
-        ByteBuffer buf = ByteBuffer.allocate(element.size);
-        readData(buf, dataChannel, element.start);
-        return persistenceProvider.fromBytes(buf.array());
+    protected T readObject( @NotNull Element element ) throws IOException, PersistenceException {
+        ByteBuffer buf = scratch(decodeBuffer, element.size);
+        decodeBuffer = buf.capacity() > MAX_SCRATCH_SIZE ? null : buf;
+        readData(buf, element.start);
+        buf.flip();
+        return decode(buf);
     }
 
-    private void moveLeft( int index, int newIndex, long newStart ) throws IOException {
-        int idx = index, newIdx = newIndex;
-        long start = newStart;
-        int size = size();
-        while( idx != size ) {
-            Element element = newElement(idx++);
-            newElement(start, element.size).write(newIdx++);
-            ByteBuffer object = ByteBuffer.allocate(element.size);
-            readData(object, dataChannel, element.start);
-            object.position(0);
-            writeData(object, dataChannel, start);
-            start += element.size;
+    protected void writeObject( int index, @Nullable T object ) throws PersistenceException, IOException {
+        ByteBuffer buf = encode(object);
+        Element element = index == size() ? newElement(nextFree, 0) : newElement(index);
+        int newSize = buf.remaining();
+        if( element.size != newSize ) moveTail(index + 1, 0, newSize - element.size);
+        element.size = newSize;
+        element.write(index);
+        writeData(buf, element.start);
+    }
+
+    protected void writeObjects( int index, @NotNull Collection<? extends T> objects ) throws PersistenceException, IOException {
+        ByteBuffer[] payloads = toBuffers(objects);
+        int end = index + payloads.length;
+        long start = newElement(index).start, oldEnd;
+        if( end == size() ) {
+            oldEnd = nextFree;
+        } else {
+            oldEnd = newElement(end).start;
         }
-        dataTruncateSize += start - nextFree;
-        listTruncateSize += index - newIndex;
-        nextFree = start;
+        long length = length(payloads);
+        moveTail(end, 0, length - ( oldEnd - start ));
+        writeElements(index, toElements(payloads, start));
+        writeData(payloads, start);
     }
 
-    private void moveRight( int index, int newIndex, long newStart ) throws IOException {
-        int size = size();
-        assert size >= newIndex && newIndex >= index;
-        long indexStart = index == size ? 0 : newElement(index).start;
-        long dataSpaceNeeded = newStart - indexStart;
-        assert newStart >= dataSpaceNeeded;
-        int elementSpaceNeeded = newIndex - index;
-        boolean setNextFree = false;
-        for( int i = size - 1; i >= newIndex - 1; i-- ) {
-            // Read the element
-            Element diskElement = newElement(i);
-
-            // Move the data
-            ByteBuffer object = ByteBuffer.allocate(diskElement.size);
-            readData(object, dataChannel, diskElement.start);
-            long diskElementStart = diskElement.start + dataSpaceNeeded;
-            object.position(0);
-            writeData(object, dataChannel, diskElementStart);
-
-            // Write the element
-            diskElement.start = diskElementStart;
-            diskElement.write(i + elementSpaceNeeded);
-
-            if( !setNextFree ) {
-                nextFree = diskElement.start + diskElement.size;
-                setNextFree = true;
+    protected void insertObject( int index, @Nullable T object ) throws PersistenceException, IOException {
+        insertObjects(index, Collections.singletonList(object));
+    }
+
+    protected void insertObjects( int index, @NotNull Collection<? extends T> objects ) throws PersistenceException, IOException {
+        ByteBuffer[] payloads = toBuffers(objects);
+        long start = index == size() ? nextFree : newElement(index).start;
+        moveTail(index, payloads.length, length(payloads));
+        writeElements(index, toElements(payloads, start));
+        writeData(payloads, start);
+    }
+
+    protected void removeObject( int index, @NotNull Element element ) throws IOException {
+        removeObjects(index, index + 1);
+    }
+
+    protected void removeObjects( int fromIndex, int toIndex ) throws IOException {
+        long start = newElement(fromIndex).start;
+        long end = toIndex == size() ? nextFree : newElement(toIndex).start;
+        moveTail(toIndex, fromIndex - toIndex, start - end);
+    }
+
+    /**
+     * A modification of a single element which has been buffered by an iterator.
+     */
+    protected static final class Modification {
+        // The new payload of the element, or null if the element was removed.
+        @Nullable
+        protected final ByteBuffer payload;
+
+        protected final int oldSize;
+
+        protected Modification( @Nullable ByteBuffer payload, int oldSize ) {
+            this.payload = payload;
+            this.oldSize = oldSize;
+        }
+    }
+
+    /**
+     * Reads the index records from {@code index} up to at most {@code end} into {@code dst}, which is left ready to be
+     * read from.
+     */
+    protected void readRecords( @NotNull ByteBuffer dst, int index, int end ) throws IOException {
+        dst.clear();
+        dst.limit(Math.min(end - index, dst.capacity() / ELEMENT_SIZE) * ELEMENT_SIZE);
+        readElements(index, dst);
+        dst.flip();
+    }
+
+    /**
+     * Writes the index records in {@code src} starting at {@code index}, and clears it.
+     *
+     * @return The number of records which were written.
+     */
+    protected int writeRecords( @NotNull ByteBuffer src, int index ) throws IOException {
+        src.flip();
+        int count = src.remaining() / ELEMENT_SIZE;
+        writeElements(index, src);
+        src.clear();
+        return count;
+    }
+
+    /**
+     * Applies the modifications of the elements of the list, keyed by their index, with a single pass over the list
+     * from the first modified element. If replacement payloads grow the data ahead of where it is being read, the data
+     * is first moved forward once by the most it grows so that writes never overtake reads.
+     */
+    protected void applyModifications( @NotNull SortedMap<Integer, Modification> modifications ) throws IOException {
+        int size = size(), first = modifications.firstKey(), last = modifications.lastKey();
+        long growth = 0, shift = 0;
+        for( Modification modification : modifications.values() ) {
+            growth += ( modification.payload == null ? 0 : modification.payload.remaining() ) - modification.oldSize;
+            shift = Math.max(shift, growth);
+        }
+        long end = nextFree, dst = newElement(first).start, runStart = 0, runLength = 0;
+        copyData(dst, end - dst, shift);
+        ByteBuffer in = ByteBuffer.allocate(Math.min(last - first + 1, COPY_BUFFER_ELEMENTS) * ELEMENT_SIZE);
+        ByteBuffer out = ByteBuffer.allocate(in.capacity());
+        in.limit(0);
+        int outIndex = first;
+        Iterator<Map.Entry<Integer, Modification>> iterator = modifications.entrySet().iterator();
+        Map.Entry<Integer, Modification> next = iterator.next();
+        for( int i = first; i <= last; i++ ) {
+            if( !in.hasRemaining() ) readRecords(in, i, last + 1);
+            long start = in.getLong() + shift;
+            int length = in.getInt();
+            if( !out.hasRemaining() ) outIndex += writeRecords(out, outIndex);
+            if( next != null && next.getKey() == i ) {
+                Modification modification = next.getValue();
+                next = iterator.hasNext() ? iterator.next() : null;
+                copyData(runStart, runLength, dst - runStart);
+                dst += runLength;
+                runLength = 0;
+                if( modification.payload != null ) {
+                    int newLength = modification.payload.remaining();
+                    writeData(modification.payload, dst);
+                    out.putLong(dst).putInt(newLength);
+                    dst += newLength;
+                }
+            } else {
+                // Runs of unmodified elements are moved together.
+                if( runLength == 0 ) runStart = start;
+                out.putLong(dst + runLength).putInt(length);
+                runLength += length;
             }
         }
-        dataTruncateSize -= Math.max(dataSpaceNeeded, 0);
-        listTruncateSize -= Math.max(elementSpaceNeeded, 0);
+        copyData(runStart, runLength, dst - runStart);
+        dst += runLength;
+        outIndex += writeRecords(out, outIndex);
+        int tail = size - last - 1;
+        if( tail > 0 ) {
+            long tailStart = newElement(last + 1).start;
+            copyData(tailStart + shift, end - tailStart, dst - tailStart - shift);
+            copyElements(last + 1, outIndex, tail, dst - tailStart);
+            dst += end - tailStart;
+        }
+        nextFree = dst;
+        listTruncateSize += (long) ( last + 1 - outIndex ) * ELEMENT_SIZE;
+        if( end + shift > dst ) dataTruncateSize += end + shift - dst;
+        setSize(outIndex + tail);
     }
 
-    private void writeObject( int index, @Nullable T object ) throws PersistenceException, IOException {
-        ByteBuffer buf = ByteBuffer.wrap(persistenceProvider.toBytes(object));
-        Element element;
-        int size = size();
-        if( index == size ) {
-            element = newElement(nextFree, buf.capacity());
-        } else {
-            element = newElement(index);
+    /**
+     * An iterator which reads the list and data files sequentially in large blocks. Elements which are replaced or
+     * removed while iterating forwards are buffered, and are written to the files with a single pass over the list when
+     * the iterator reaches the end of the list, turns around, adds an element, or when the list is otherwise used.
+     */
+    protected class StreamingListIterator implements ListIterator<T> {
+        @NotNull
+        private final ByteBuffer records, data;
+
+        // The index of the first record in the records buffer, and the position of the first byte of the data buffer.
+        private int recordsIndex;
+
+        private long dataStart;
+
+        // Indices of the elements in the files, which do not yet reflect the buffered removals.
+        private int cursor, lastReturned = -1;
+
+        private int expectedModCount = modCount, expectedRewrites = rewrites;
+
+        @Nullable
+        private SortedMap<Integer, Modification> modifications;
+
+        private int removed;
+
+        public StreamingListIterator( int index, int readAhead ) {
+            cursor = index;
+            records = ByteBuffer.allocate(Math.max(1, Math.min(COPY_BUFFER_ELEMENTS, readAhead / ELEMENT_SIZE)) * ELEMENT_SIZE);
+            data = ByteBuffer.allocate(readAhead);
+            records.limit(0);
+            data.limit(0);
+        }
+
+        private void checkForComodification() {
+            if( modCount != expectedModCount ) throw new ConcurrentModificationException();
+            if( rewrites != expectedRewrites ) {
+                expectedRewrites = rewrites;
+                invalidate();
+            }
+        }
+
+        private void invalidate() {
+            records.limit(0);
+            data.limit(0);
         }
-        int newSize = buf.capacity();
-        if( element.size != newSize ) {
-            int newIndex = index + 1;
-            if( newSize < element.size ) {
-                moveLeft(newIndex, newIndex, element.start + newSize);
+
+        private int recordOffset( int index, boolean forward ) throws IOException {
+            if( index < recordsIndex || index >= recordsIndex + records.limit() / ELEMENT_SIZE ) {
+                int capacity = records.capacity() / ELEMENT_SIZE;
+                recordsIndex = forward ? index : Math.max(0, index - capacity + 1);
+                readRecords(records, recordsIndex, size.intValue());
+            }
+            return ( index - recordsIndex ) * ELEMENT_SIZE;
+        }
+
+        @Nullable
+        private T read( int index, boolean forward ) throws IOException, PersistenceException {
+            int offset = recordOffset(index, forward);
+            long start = records.getLong(offset);
+            int length = records.getInt(offset + POINTER_SIZE);
+            if( start >= dataStart && start + length <= dataStart + data.limit() ) {
+                return decode(payload(start, length));
+            } else if( length > data.capacity() ) {
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                if( forward ) {
+                    // Refill the window with the data following the element in the same read.
+                    dataStart = start + length;
+                    data.clear();
+                    data.limit((int) Math.min(data.capacity(), getCommittedDataLength() - dataStart));
+                    readData(new ByteBuffer[]{ payload, data }, start);
+                    data.flip();
+                } else {
+                    readData(payload, start);
+                }
+                payload.flip();
+                return decode(payload);
             } else {
-                moveRight(newIndex, newIndex, element.start + newSize);
+                dataStart = forward ? start : Math.max(0, start + length - data.capacity());
+                data.clear();
+                data.limit((int) Math.min(data.capacity(), getCommittedDataLength() - dataStart));
+                readData(data, dataStart);
+                data.flip();
+                return decode(payload(start, length));
             }
-            element.size = newSize;
         }
-        element.write(index);
-        writeData(buf, dataChannel, element.start);
-        if( index == size ) nextFree += element.size;
+
+        @NotNull
+        private ByteBuffer payload( long start, int length ) {
+            ByteBuffer payload = data.duplicate();
+            int offset = (int) ( start - dataStart );
+            payload.limit(offset + length).position(offset);
+            return payload;
+        }
+
+        private int oldSize( int index ) throws IOException {
+            Modification modification = modifications == null ? null : modifications.get(index);
+            if( modification != null ) return modification.oldSize;
+            return records.getInt(recordOffset(index, true) + POINTER_SIZE);
+        }
+
+        private void modify( int index, @Nullable ByteBuffer payload ) throws IOException {
+            if( modifications == null ) {
+                StreamingListIterator iterator = modifyingIterator;
+                if( iterator != null ) {
+                    iterator.commit();
+                    checkForComodification();
+                }
+                modifications = new TreeMap<Integer, Modification>();
+                modifyingIterator = this;
+            }
+            modifications.put(index, new Modification(payload, oldSize(index)));
+        }
+
+        /**
+         * Writes the buffered modifications to the files.
+         */
+        public void commit() throws IOException {
+            SortedMap<Integer, Modification> modifications = this.modifications;
+            if( modifications == null ) return;
+            this.modifications = null;
+            // The modifications have been discarded if another iterator or the list took over.
+            if( modifyingIterator != this ) return;
+            modifyingIterator = null;
+            pendingRemovals = 0;
+            applyModifications(modifications);
+            if( cache != null ) cache.remove(modifications.firstKey(), size.intValue() + removed);
+            truncate();
+            cursor -= removed;
+            if( lastReturned >= 0 ) lastReturned -= removed;
+            removed = 0;
+            // Other iterators have read ahead records which the modifications have moved. The removals were counted as
+            // they were made.
+            expectedRewrites = ++rewrites;
+            invalidate();
+        }
+
+        private void commitQuietly() {
+            try {
+                commit();
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if( cursor < size.intValue() ) return true;
+            if( modCount == expectedModCount ) commitQuietly();
+            return false;
+        }
+
+        @Override
+        public T next() {
+            checkForComodification();
+            if( cursor >= size.intValue() ) throw new NoSuchElementException();
+            try {
+                T object = read(cursor, true);
+                lastReturned = cursor++;
+                return object;
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            } catch( PersistenceException e ) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public boolean hasPrevious() {
+            return nextIndex() > 0;
+        }
+
+        @Override
+        public T previous() {
+            checkForComodification();
+            commitQuietly();
+            if( cursor <= 0 ) throw new NoSuchElementException();
+            try {
+                T object = read(cursor - 1, false);
+                lastReturned = --cursor;
+                return object;
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            } catch( PersistenceException e ) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public int nextIndex() {
+            return cursor - removed;
+        }
+
+        @Override
+        public int previousIndex() {
+            return nextIndex() - 1;
+        }
+
+        @Override
+        public void remove() {
+            checkForComodification();
+            if( lastReturned < 0 ) throw new IllegalStateException();
+            try {
+                if( lastReturned < cursor ) {
+                    modify(lastReturned, null);
+                    removed++;
+                    pendingRemovals++;
+                    expectedModCount = ++modCount;
+                } else {
+                    // The element was returned by previous(), so there are no buffered modifications.
+                    FileBackedUnmappedArrayList.this.remove(lastReturned);
+                    expectedModCount = modCount;
+                    expectedRewrites = rewrites;
+                    invalidate();
+                }
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            }
+            lastReturned = -1;
+        }
+
+        @Override
+        public void set( T object ) {
+            checkForComodification();
+            if( lastReturned < 0 ) throw new IllegalStateException();
+            try {
+                if( lastReturned < cursor ) {
+                    modify(lastReturned, toBuffer(object));
+                } else {
+                    FileBackedUnmappedArrayList.this.set(lastReturned, object);
+                    expectedRewrites = rewrites;
+                    invalidate();
+                }
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            } catch( PersistenceException e ) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void add( T object ) {
+            checkForComodification();
+            commitQuietly();
+            FileBackedUnmappedArrayList.this.add(cursor++, object);
+            try {
+                // An element added at the end may have been buffered, and the iterator only reads committed records.
+                commitAppends();
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            }
+            expectedModCount = modCount;
+            expectedRewrites = rewrites;
+            lastReturned = -1;
+            invalidate();
+        }
+    }
+
+    @NotNull
+    @Override
+    public Iterator<T> iterator() {
+        return listIterator();
+    }
+
+    @NotNull
+    @Override
+    public ListIterator<T> listIterator( int index ) {
+        if( readAhead == 0 ) return super.listIterator(index);
+        if( index < 0 || index > size() ) throw new IndexOutOfBoundsException();
+        try {
+            commit();
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        }
+        return new StreamingListIterator(index, readAhead);
     }
 
     public T get( int index ) {
         if( index < 0 || index >= size() ) throw new IndexOutOfBoundsException();
         try {
-            return readObject(index);
+            commit();
+            if( cache == null ) return readObject(index);
+            ElementCache.Entry<T> entry = cache.get(index);
+            if( entry != null ) return entry.value;
+            Element element = newElement(index);
+            T object = readObject(element);
+            cache.put(index, object, element.size);
+            return object;
         } catch( IOException e ) {
             throw new RuntimeException(e);
         } catch( PersistenceException e ) {
@@ -359,15 +1165,20 @@ public class FileBackedUnmappedArrayList<T> extends AbstractList<T> implements F
     }
 
     public int size() {
-        return size.intValue();
+        return size.intValue() + appendCount - pendingRemovals;
     }
 
     @Override
     public T set( int index, T element ) {
         if( index < 0 || index >= size() ) throw new IndexOutOfBoundsException();
         try {
+            commit();
+            rewrites++;
+            beginJournal();
             T object = readObject(index);
             writeObject(index, element);
+            if( cache != null ) cache.remove(index, index + 1);
+            truncate();
             return object;
         } catch( PersistenceException e ) {
             throw new RuntimeException(e);
@@ -376,18 +1187,41 @@ public class FileBackedUnmappedArrayList<T> extends AbstractList<T> implements F
         }
     }
 
+    /**
+     * Replaces the elements starting at {@code index} with {@code elements}, shifting the rest of the list at most once.
+     */
+    public void setAll( int index, @NotNull Collection<? extends T> elements ) {
+        if( index < 0 || index + elements.size() > size() ) throw new IndexOutOfBoundsException();
+        if( elements.isEmpty() ) return;
+        try {
+            commit();
+            rewrites++;
+            beginJournal();
+            writeObjects(index, elements);
+            if( cache != null ) cache.remove(index, index + elements.size());
+            truncate();
+        } catch( PersistenceException e ) {
+            throw new RuntimeException(e);
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     public void add( int index, T element ) {
         int size = size();
         if( index < 0 || index > size ) throw new IndexOutOfBoundsException();
+        modCount++;
         try {
+            if( index == size && appendData != null ) {
+                appendObject(element);
+                return;
+            }
+            commit();
+            beginJournal();
             if( index != size ) {
-                ByteBuffer buf = ByteBuffer.wrap(persistenceProvider.toBytes(element));
-                Element ele = newElement(index);
-                moveRight(index, index + 1, ele.start + buf.capacity());
-                writeData(buf, dataChannel, ele.start);
-                ele.size = buf.capacity();
-                ele.write(index);
+                insertObject(index, element);
+                if( cache != null ) cache.shift(index, 1);
             } else {
                 writeObject(index, element);
             }
@@ -399,15 +1233,44 @@ public class FileBackedUnmappedArrayList<T> extends AbstractList<T> implements F
         }
     }
 
+    @Override
+    public boolean addAll( int index, @NotNull Collection<? extends T> c ) {
+        int size = size();
+        if( index < 0 || index > size ) throw new IndexOutOfBoundsException();
+        if( c.isEmpty() ) return false;
+        modCount++;
+        try {
+            if( index == size && appendData != null ) {
+                for( T element : c ) appendObject(element);
+                return true;
+            }
+            commit();
+            beginJournal();
+            insertObjects(index, c);
+            if( cache != null ) cache.shift(index, c.size());
+            setSize(size + c.size());
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        } catch( PersistenceException e ) {
+            throw new RuntimeException(e);
+        }
+        return true;
+    }
+
     @Override
     public T remove( int index ) {
         int size = size();
         if( index < 0 || index >= size ) throw new IndexOutOfBoundsException();
+        modCount++;
         try {
+            commit();
+            beginJournal();
             Element element = newElement(index);
             T object = readObject(element);
-            if( index != size - 1 ) {
-                moveLeft(index + 1, index, element.start);
+            removeObject(index, element);
+            if( cache != null ) {
+                cache.remove(index, index + 1);
+                cache.shift(index + 1, -1);
             }
             setSize(size - 1);
             truncate();
@@ -419,26 +1282,63 @@ public class FileBackedUnmappedArrayList<T> extends AbstractList<T> implements F
         }
     }
 
+    @Override
+    protected void removeRange( int fromIndex, int toIndex ) {
+        int size = size();
+        if( fromIndex < 0 || toIndex > size || fromIndex > toIndex ) throw new IndexOutOfBoundsException();
+        if( fromIndex == toIndex ) return;
+        modCount++;
+        try {
+            commit();
+            beginJournal();
+            removeObjects(fromIndex, toIndex);
+            if( cache != null ) {
+                cache.remove(fromIndex, toIndex);
+                cache.shift(toIndex, fromIndex - toIndex);
+            }
+            setSize(size - ( toIndex - fromIndex ));
+            truncate();
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
     protected void setSize( int size ) {
+        try {
+            beginJournal();
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        }
         this.size.intValue(size);
     }
 
     @Override
     public void clear() {
-        listTruncateSize += ELEMENT_SIZE * size();
+        modCount++;
+        try {
+            beginJournal();
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        }
+        // Discard the pending modifications rather than writing data which is about to be truncated.
+        modifyingIterator = null;
+        pendingRemovals = 0;
+        if( appendData != null ) {
+            nextFree -= appendData.position();
+            appendData.clear();
+            appendElements.clear();
+            appendCount = 0;
+        }
+        listTruncateSize += (long) ELEMENT_SIZE * size.intValue();
         setSize(0);
+        if( cache != null ) cache.clear();
+        dataTruncateSize += nextFree;
+        nextFree = 0;
         try {
-            dataTruncateSize += dataChannel.visitValueChannel(new FileChannelVisitor<Long>() {
-                @Override
-                public Long visit( @NotNull FileChannel channel ) throws IOException {
-                    return channel.size();
-                }
-            });
             truncate();
         } catch( IOException e ) {
             throw new RuntimeException(e);
         }
-        nextFree = 0;
     }
 
     @NotNull
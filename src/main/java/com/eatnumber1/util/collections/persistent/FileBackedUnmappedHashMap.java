@@ -0,0 +1,351 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.persistent.channel.FileChannelProvider;
+import com.eatnumber1.util.persistent.channel.FileChannelProviderFactory;
+import com.eatnumber1.util.persistent.channel.SimpleFileChannelProvider;
+import com.eatnumber1.util.persistent.provider.PersistenceProvider;
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import net.jcip.annotations.NotThreadSafe;
+import org.apache.commons.collections15.MapIterator;
+import org.apache.commons.collections15.iterators.EntrySetMapIterator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A hash map stored in a {@link FileBackedHashTable}. Keys are compared by their persisted form rather than by {@link
+ * Object#equals(Object)}, so the key persistence provider must persist equal keys identically.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@NotThreadSafe
+public class FileBackedUnmappedHashMap<K, V> extends AbstractMap<K, V> implements FileBackedMap<K, V> {
+    @NotNull
+    private PersistenceProvider<K> keyProvider;
+
+    @NotNull
+    private PersistenceProvider<V> valueProvider;
+
+    @NotNull
+    private FileChannelProviderFactory factory;
+
+    @NotNull
+    private File directory;
+
+    // Fields which are used during open() must not have initializers, as open() is called from the constructor.
+    @Nullable
+    private FileBackedHashTable table;
+
+    @Nullable
+    private Set<Entry<K, V>> entrySet;
+
+    protected class FileBackedEntry implements Entry<K, V> {
+        @Nullable
+        private final K key;
+
+        @Nullable
+        private V value;
+
+        public FileBackedEntry( @Nullable K key, @Nullable V value ) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue( V value ) {
+            V old = put(key, value);
+            this.value = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if( !( obj instanceof Entry ) ) return false;
+            Entry<?, ?> entry = (Entry<?, ?>) obj;
+            return ( key == null ? entry.getKey() == null : key.equals(entry.getKey()) ) && ( value == null ? entry.getValue() == null : value.equals(entry.getValue()) );
+        }
+
+        @Override
+        public int hashCode() {
+            return ( key == null ? 0 : key.hashCode() ) ^ ( value == null ? 0 : value.hashCode() );
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    public FileBackedUnmappedHashMap( @NotNull File directory, @NotNull PersistenceProvider<K> keyProvider, @NotNull PersistenceProvider<V> valueProvider ) throws IOException {
+        this(directory, keyProvider, valueProvider, new FileChannelProviderFactory() {
+            @NotNull
+            @Override
+            public FileChannelProvider create( @NotNull File file ) throws IOException {
+                return new SimpleFileChannelProvider(file, "rw");
+            }
+        });
+    }
+
+    public FileBackedUnmappedHashMap( @NotNull File directory, @NotNull PersistenceProvider<K> keyProvider, @NotNull PersistenceProvider<V> valueProvider, @NotNull FileChannelProviderFactory factory ) throws IOException {
+        this.directory = directory;
+        this.keyProvider = keyProvider;
+        this.valueProvider = valueProvider;
+        this.factory = factory;
+        open();
+    }
+
+    @NotNull
+    protected FileBackedHashTable newTable( @NotNull File directory, @NotNull FileChannelProviderFactory factory ) throws IOException {
+        return new FileBackedHashTable(directory, factory);
+    }
+
+    @Override
+    public void open() throws IOException {
+        if( table == null ) {
+            table = newTable(directory, factory);
+        } else {
+            table.open();
+        }
+    }
+
+    @NotNull
+    protected FileBackedHashTable getTable() {
+        assert table != null;
+        return table;
+    }
+
+    @Override
+    public boolean isMapped() {
+        return getTable().isMapped();
+    }
+
+    @NotNull
+    @Override
+    public File getStorageFile() {
+        return directory;
+    }
+
+    /**
+     * Reclaims the space of the records which have been removed or replaced. This is also done by {@link #flush()} once
+     * the ratio of garbage exceeds the compaction threshold of the table.
+     */
+    public void compact() throws IOException {
+        getTable().compact();
+    }
+
+    public void setCompactionThreshold( double compactionThreshold ) {
+        getTable().setCompactionThreshold(compactionThreshold);
+    }
+
+    public void setLoadFactor( float loadFactor ) {
+        getTable().setLoadFactor(loadFactor);
+    }
+
+    @NotNull
+    @SuppressWarnings({ "unchecked" })
+    private byte[] toKeyBytes( @Nullable Object key ) throws PersistenceException {
+        return keyProvider.toBytes((K) key);
+    }
+
+    @Override
+    public int size() {
+        return getTable().size();
+    }
+
+    @Override
+    public boolean containsKey( Object key ) {
+        try {
+            return getTable().containsKey(toKeyBytes(key));
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        } catch( PersistenceException e ) {
+            throw new RuntimeException(e);
+        } catch( ClassCastException e ) {
+            return false;
+        }
+    }
+
+    @Override
+    public V get( Object key ) {
+        try {
+            byte[] value = getTable().get(toKeyBytes(key));
+            return value == null ? null : valueProvider.fromBytes(value);
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        } catch( PersistenceException e ) {
+            throw new RuntimeException(e);
+        } catch( ClassCastException e ) {
+            return null;
+        }
+    }
+
+    @Override
+    public V put( K key, V value ) {
+        try {
+            byte[] old = getTable().put(keyProvider.toBytes(key), valueProvider.toBytes(value));
+            return old == null ? null : valueProvider.fromBytes(old);
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        } catch( PersistenceException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public V remove( Object key ) {
+        try {
+            byte[] old = getTable().remove(toKeyBytes(key));
+            return old == null ? null : valueProvider.fromBytes(old);
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        } catch( PersistenceException e ) {
+            throw new RuntimeException(e);
+        } catch( ClassCastException e ) {
+            return null;
+        }
+    }
+
+    @Override
+    public void clear() {
+        try {
+            getTable().clear();
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @NotNull
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        if( entrySet == null ) entrySet = new EntrySet();
+        return entrySet;
+    }
+
+    @Override
+    public MapIterator<K, V> mapIterator() {
+        return new EntrySetMapIterator<K, V>(this);
+    }
+
+    protected class EntrySet extends AbstractSet<Entry<K, V>> {
+        @NotNull
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            final Iterator<FileBackedHashTable.Record> iterator = getTable().iterator();
+            return new Iterator<Entry<K, V>>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Entry<K, V> next() {
+                    FileBackedHashTable.Record record = iterator.next();
+                    byte[] value = record.getValue();
+                    assert value != null;
+                    try {
+                        return new FileBackedEntry(keyProvider.fromBytes(record.getKey()), valueProvider.fromBytes(value));
+                    } catch( PersistenceException e ) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                @Override
+                public void remove() {
+                    iterator.remove();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return FileBackedUnmappedHashMap.this.size();
+        }
+
+        @Override
+        public void clear() {
+            FileBackedUnmappedHashMap.this.clear();
+        }
+
+        @Override
+        public boolean contains( Object o ) {
+            return find(o) != null;
+        }
+
+        @Override
+        public boolean remove( Object o ) {
+            byte[] key = find(o);
+            if( key == null ) return false;
+            try {
+                getTable().remove(key);
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            }
+            return true;
+        }
+
+        /**
+         * @return The persisted key of the entry if it is in the map, otherwise null.
+         */
+        @Nullable
+        private byte[] find( Object o ) {
+            if( !( o instanceof Entry ) ) return null;
+            Entry<?, ?> entry = (Entry<?, ?>) o;
+            try {
+                byte[] key = toKeyBytes(entry.getKey());
+                byte[] value = getTable().get(key);
+                if( value == null ) return null;
+                Object expected = entry.getValue();
+                Object actual = valueProvider.fromBytes(value);
+                return ( expected == null ? actual == null : expected.equals(actual) ) ? key : null;
+            } catch( IOException e ) {
+                throw new RuntimeException(e);
+            } catch( PersistenceException e ) {
+                throw new RuntimeException(e);
+            } catch( ClassCastException e ) {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        getTable().flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        getTable().close();
+    }
+}
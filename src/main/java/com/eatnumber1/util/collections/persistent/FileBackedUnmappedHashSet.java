@@ -0,0 +1,208 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.persistent.channel.FileChannelProvider;
+import com.eatnumber1.util.persistent.channel.FileChannelProviderFactory;
+import com.eatnumber1.util.persistent.channel.SimpleFileChannelProvider;
+import com.eatnumber1.util.persistent.provider.PersistenceProvider;
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import net.jcip.annotations.NotThreadSafe;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A hash set stored in a {@link FileBackedHashTable}. Elements are compared by their persisted form, so membership is
+ * tested without deserializing any elements, and the persistence provider must persist equal elements identically.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@NotThreadSafe
+public class FileBackedUnmappedHashSet<T> extends AbstractSet<T> implements FileBackedSet<T> {
+    @NotNull
+    private static final byte[] PRESENT = new byte[0];
+
+    @NotNull
+    private PersistenceProvider<T> persistenceProvider;
+
+    @NotNull
+    private FileChannelProviderFactory factory;
+
+    @NotNull
+    private File directory;
+
+    // Fields which are used during open() must not have initializers, as open() is called from the constructor.
+    @Nullable
+    private FileBackedHashTable table;
+
+    public FileBackedUnmappedHashSet( @NotNull File directory, @NotNull PersistenceProvider<T> persistenceProvider ) throws IOException {
+        this(directory, persistenceProvider, new FileChannelProviderFactory() {
+            @NotNull
+            @Override
+            public FileChannelProvider create( @NotNull File file ) throws IOException {
+                return new SimpleFileChannelProvider(file, "rw");
+            }
+        });
+    }
+
+    public FileBackedUnmappedHashSet( @NotNull File directory, @NotNull PersistenceProvider<T> persistenceProvider, @NotNull FileChannelProviderFactory factory ) throws IOException {
+        this.directory = directory;
+        this.persistenceProvider = persistenceProvider;
+        this.factory = factory;
+        open();
+    }
+
+    @NotNull
+    protected FileBackedHashTable newTable( @NotNull File directory, @NotNull FileChannelProviderFactory factory ) throws IOException {
+        return new FileBackedHashTable(directory, factory);
+    }
+
+    @Override
+    public void open() throws IOException {
+        if( table == null ) {
+            table = newTable(directory, factory);
+        } else {
+            table.open();
+        }
+    }
+
+    @NotNull
+    protected FileBackedHashTable getTable() {
+        assert table != null;
+        return table;
+    }
+
+    @Override
+    public boolean isMapped() {
+        return getTable().isMapped();
+    }
+
+    @NotNull
+    @Override
+    public File getStorageFile() {
+        return directory;
+    }
+
+    /**
+     * Reclaims the space of the elements which have been removed. This is also done by {@link #flush()} once the ratio
+     * of garbage exceeds the compaction threshold of the table.
+     */
+    public void compact() throws IOException {
+        getTable().compact();
+    }
+
+    public void setCompactionThreshold( double compactionThreshold ) {
+        getTable().setCompactionThreshold(compactionThreshold);
+    }
+
+    public void setLoadFactor( float loadFactor ) {
+        getTable().setLoadFactor(loadFactor);
+    }
+
+    @Override
+    public int size() {
+        return getTable().size();
+    }
+
+    @Override
+    @SuppressWarnings({ "unchecked" })
+    public boolean contains( Object o ) {
+        try {
+            return getTable().containsKey(persistenceProvider.toBytes((T) o));
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        } catch( PersistenceException e ) {
+            throw new RuntimeException(e);
+        } catch( ClassCastException e ) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean add( T object ) {
+        try {
+            return getTable().put(persistenceProvider.toBytes(object), PRESENT) == null;
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        } catch( PersistenceException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    @SuppressWarnings({ "unchecked" })
+    public boolean remove( Object o ) {
+        try {
+            return getTable().remove(persistenceProvider.toBytes((T) o)) != null;
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        } catch( PersistenceException e ) {
+            throw new RuntimeException(e);
+        } catch( ClassCastException e ) {
+            return false;
+        }
+    }
+
+    @Override
+    public void clear() {
+        try {
+            getTable().clear();
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @NotNull
+    @Override
+    public Iterator<T> iterator() {
+        final Iterator<FileBackedHashTable.Record> iterator = getTable().iterator();
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                try {
+                    return persistenceProvider.fromBytes(iterator.next().getKey());
+                } catch( PersistenceException e ) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+            }
+        };
+    }
+
+    @Override
+    public void flush() throws IOException {
+        getTable().flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        getTable().close();
+    }
+}
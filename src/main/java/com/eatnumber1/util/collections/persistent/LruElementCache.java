@@ -0,0 +1,44 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * An element cache which holds at most a fixed number of elements.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@NotThreadSafe
+public class LruElementCache<T> extends ElementCache<T> {
+    private final int maxElements;
+
+    public LruElementCache( int maxElements ) {
+        if( maxElements <= 0 ) throw new IllegalArgumentException("The cache must be able to hold an element.");
+        this.maxElements = maxElements;
+    }
+
+    @Override
+    protected boolean isOverCapacity() {
+        return size() > maxElements;
+    }
+
+    public int getMaxElements() {
+        return maxElements;
+    }
+}
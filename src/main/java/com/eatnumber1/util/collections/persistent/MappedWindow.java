@@ -0,0 +1,180 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.nio.MappedByteBufferUtils;
+import com.eatnumber1.util.persistent.channel.FileChannelProvider;
+import com.eatnumber1.util.persistent.channel.FileChannelVisitor;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import net.jcip.annotations.NotThreadSafe;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A mapping of part of a file, which is moved or grown as regions outside of it are accessed. Mappings never reach past
+ * the end of the file, so reading never changes the file. Writing past the end of the file grows it a step at a time,
+ * leaving room for the writes which follow.
+ * <p/>
+ * A window of a fixed size slides along the file. Otherwise the mapping always starts at the beginning of the file, and
+ * is grown to cover every region which is accessed.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@NotThreadSafe
+class MappedWindow {
+    // The size of a sliding window, or zero if the mapping starts at the beginning of the file.
+    private final int size;
+
+    private final long step;
+
+    @Nullable
+    private MappedByteBuffer buffer;
+
+    private long start;
+
+    private MappedWindow( int size, long step ) {
+        this.size = size;
+        this.step = step;
+    }
+
+    /**
+     * @return A window of the given size, which is aligned to a quarter of its size, and by which the file is grown.
+     */
+    @NotNull
+    static MappedWindow sliding( int size ) {
+        if( size <= 0 ) throw new IllegalArgumentException("The window size must be positive.");
+        return new MappedWindow(size, Math.max(size / 4, 1));
+    }
+
+    /**
+     * @return A mapping of the start of the file, which is grown in multiples of the step, by at most 64 steps at a time.
+     */
+    @NotNull
+    static MappedWindow growing( long step ) {
+        if( step <= 0 ) throw new IllegalArgumentException("The step must be positive.");
+        return new MappedWindow(0, step);
+    }
+
+    /**
+     * @return A buffer whose remaining bytes are the region of the file, which must already hold it.
+     */
+    @NotNull
+    ByteBuffer read( @NotNull FileChannelProvider provider, long position, int length ) throws IOException {
+        if( !covers(position, length) ) {
+            long fileLength = size(provider);
+            if( position + length > fileLength ) throw new EOFException("Cannot read past the end of " + provider.getFile() + ".");
+            map(provider, position, length, fileLength);
+        }
+        return slice(position, length);
+    }
+
+    /**
+     * @return A buffer whose remaining bytes are the region of the file, which is grown to hold it if it does not already.
+     */
+    @NotNull
+    ByteBuffer write( @NotNull FileChannelProvider provider, long position, int length ) throws IOException {
+        if( !covers(position, length) ) {
+            long fileLength = size(provider), end = position + length;
+            if( end > fileLength ) {
+                long grown = size == 0 ? Math.max(end, Math.min(fileLength * 2, fileLength + step * 64)) : end;
+                grown = ( grown + step - 1 ) / step * step;
+                if( size == 0 && grown > Integer.MAX_VALUE ) grown = end;
+                fileLength = grow(provider, grown);
+            }
+            map(provider, position, length, fileLength);
+        }
+        return slice(position, length);
+    }
+
+    private boolean covers( long position, int length ) {
+        return buffer != null && position >= start && position + length <= start + buffer.capacity();
+    }
+
+    private void map( @NotNull FileChannelProvider provider, long position, int length, long fileLength ) throws IOException {
+        long mapStart, mapEnd;
+        if( size == 0 ) {
+            mapStart = 0;
+            mapEnd = Math.min(fileLength, Integer.MAX_VALUE);
+        } else {
+            // Short moves along the file stay within a single window.
+            mapStart = position - position % step;
+            mapEnd = Math.min(fileLength, Math.max(mapStart + size, position + length));
+            if( mapEnd - mapStart > Integer.MAX_VALUE ) {
+                mapStart = position;
+                mapEnd = position + length;
+            }
+        }
+        if( position + length > mapStart + Integer.MAX_VALUE ) throw new IOException(provider.getFile() + " cannot be mapped past " + ( mapStart + Integer.MAX_VALUE ) + " bytes.");
+        unmap();
+        buffer = map(provider, mapStart, mapEnd - mapStart);
+        start = mapStart;
+    }
+
+    @NotNull
+    private ByteBuffer slice( long position, int length ) {
+        assert buffer != null;
+        ByteBuffer buf = buffer.duplicate();
+        int offset = (int) ( position - start );
+        buf.limit(offset + length).position(offset);
+        return buf;
+    }
+
+    @NotNull
+    private static MappedByteBuffer map( @NotNull FileChannelProvider provider, final long position, final long size ) throws IOException {
+        return provider.visitValueChannel(new FileChannelVisitor<MappedByteBuffer>() {
+            @Override
+            public MappedByteBuffer visit( @NotNull FileChannel channel ) throws IOException {
+                return channel.map(MapMode.READ_WRITE, position, size);
+            }
+        });
+    }
+
+    private static long size( @NotNull FileChannelProvider provider ) throws IOException {
+        return provider.visitValueChannelShared(new FileChannelVisitor<Long>() {
+            @Override
+            public Long visit( @NotNull FileChannel channel ) throws IOException {
+                return channel.size();
+            }
+        });
+    }
+
+    private static long grow( @NotNull FileChannelProvider provider, long length ) throws IOException {
+        // Writing the last byte leaves the rest of the new space as a hole.
+        provider.write(ByteBuffer.allocate(1), length - 1);
+        return length;
+    }
+
+    void force() {
+        if( buffer != null ) buffer.force();
+    }
+
+    /**
+     * Releases the mapping, which must be done before the file is truncated.
+     */
+    void unmap() {
+        if( buffer != null ) {
+            MappedByteBufferUtils.unmap(buffer);
+            buffer = null;
+        }
+    }
+}
@@ -21,6 +21,10 @@ package com.eatnumber1.util.collections.persistent;
  * @since Jul 13, 2007
  */
 public class PersistenceException extends Exception {
+    public PersistenceException( String message ) {
+        super(message);
+    }
+
     public PersistenceException( String message, Throwable cause ) {
         super(message, cause);
     }
@@ -35,6 +35,9 @@ public abstract class AbstractCompressionProvider implements CompressionProvider
             return IOUtils.toByteArray(compressedData);
         } catch( IOException e ) {
             throw new CompressionException(e);
+        } finally {
+            // Closing the stream gives back any codec which it borrowed.
+            IOUtils.closeQuietly(compressedData);
         }
     }
 
@@ -46,6 +49,9 @@ public abstract class AbstractCompressionProvider implements CompressionProvider
             return IOUtils.toByteArray(decompressedData);
         } catch( IOException e ) {
             throw new CompressionException(e);
+        } finally {
+            // Closing the stream gives back any codec which it borrowed.
+            IOUtils.closeQuietly(decompressedData);
         }
     }
 }
\ No newline at end of file
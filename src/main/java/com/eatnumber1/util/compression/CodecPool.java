@@ -0,0 +1,129 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.compression;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import net.jcip.annotations.ThreadSafe;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Keeps released codecs, such as deflaters, so that their native state can be reset and reused instead of being created
+ * for every use and left for finalization. At most {@link #getMaxIdle()} codecs are kept, the most recently released of
+ * which is borrowed first. Codecs released past that are ended straight away.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@ThreadSafe
+public abstract class CodecPool<T> {
+    public static final int DEFAULT_MAX_IDLE = 2 * Runtime.getRuntime().availableProcessors();
+
+    @NotNull
+    private final BlockingDeque<T> idle;
+
+    private final int maxIdle;
+
+    @NotNull
+    private final AtomicLong created = new AtomicLong(), ended = new AtomicLong();
+
+    @NotNull
+    private final AtomicLong borrowed = new AtomicLong(), released = new AtomicLong();
+
+    protected CodecPool( int maxIdle ) {
+        if( maxIdle <= 0 ) throw new IllegalArgumentException("The maximum number of idle codecs must be positive.");
+        this.maxIdle = maxIdle;
+        idle = new LinkedBlockingDeque<T>(maxIdle);
+    }
+
+    @NotNull
+    protected abstract T create();
+
+    protected abstract void reset( @NotNull T codec );
+
+    protected abstract void end( @NotNull T codec );
+
+    /**
+     * @return A codec in its initial state, which must be given back to {@link #release(Object)} once it is done with.
+     */
+    @NotNull
+    public T borrow() {
+        borrowed.incrementAndGet();
+        T codec = idle.pollFirst();
+        if( codec == null ) {
+            codec = create();
+            created.incrementAndGet();
+        }
+        return codec;
+    }
+
+    public void release( @NotNull T codec ) {
+        released.incrementAndGet();
+        reset(codec);
+        if( !idle.offerFirst(codec) ) {
+            end(codec);
+            ended.incrementAndGet();
+        }
+    }
+
+    /**
+     * Ends every idle codec. Codecs which are borrowed are still released as usual.
+     */
+    public void clear() {
+        T codec;
+        while( ( codec = idle.pollFirst() ) != null ) {
+            end(codec);
+            ended.incrementAndGet();
+        }
+    }
+
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * @return The number of codecs which are borrowed and have not been released yet.
+     */
+    public long getActiveCount() {
+        return borrowed.get() - released.get();
+    }
+
+    public long getBorrowedCount() {
+        return borrowed.get();
+    }
+
+    /**
+     * @return The number of codecs which have been created, each of which allocated native memory.
+     */
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    public long getEndedCount() {
+        return ended.get();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[idle=" + getIdleCount() + ", active=" + getActiveCount() + ", created=" + getCreatedCount() + ", ended=" + getEndedCount() + "]";
+    }
+}
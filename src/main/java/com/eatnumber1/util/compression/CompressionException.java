@@ -21,6 +21,10 @@ package com.eatnumber1.util.compression;
  * @since Jul 13, 2007
  */
 public class CompressionException extends Exception {
+    public CompressionException( String message ) {
+        super(message);
+    }
+
     public CompressionException( Throwable cause ) {
         super(cause);
     }
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.compression;
+
+import java.util.zip.Deflater;
+import net.jcip.annotations.ThreadSafe;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@ThreadSafe
+public class DeflaterPool extends CodecPool<Deflater> {
+    @NotNull
+    private static final DeflaterPool SHARED = new DeflaterPool(Deflater.DEFAULT_COMPRESSION, false, DEFAULT_MAX_IDLE);
+
+    @NotNull
+    private static final DeflaterPool SHARED_NOWRAP = new DeflaterPool(Deflater.DEFAULT_COMPRESSION, true, DEFAULT_MAX_IDLE);
+
+    private final int level;
+
+    private final boolean nowrap;
+
+    public DeflaterPool( int level, boolean nowrap ) {
+        this(level, nowrap, DEFAULT_MAX_IDLE);
+    }
+
+    public DeflaterPool( int level, boolean nowrap, int maxIdle ) {
+        super(maxIdle);
+        this.level = level;
+        this.nowrap = nowrap;
+    }
+
+    /**
+     * @return The pool of default level deflaters which is shared by the compression providers.
+     */
+    @NotNull
+    public static DeflaterPool getShared( boolean nowrap ) {
+        return nowrap ? SHARED_NOWRAP : SHARED;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public boolean isNowrap() {
+        return nowrap;
+    }
+
+    @NotNull
+    @Override
+    protected Deflater create() {
+        return new Deflater(level, nowrap);
+    }
+
+    @Override
+    protected void reset( @NotNull Deflater codec ) {
+        codec.reset();
+    }
+
+    @Override
+    protected void end( @NotNull Deflater codec ) {
+        codec.end();
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.compression;
+
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A compression provider which can be primed with preset dictionaries, which let small inputs refer back to data they
+ * have in common with each other instead of each carrying its own copy of it.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public interface DictionaryCompressionProvider extends CompressionProvider {
+    /**
+     * @param dictionaries The dictionaries, from oldest to newest. Data is compressed with the newest dictionary, and
+     * can be decompressed if it was compressed with any of them.
+     * @return A provider which is otherwise the same as this one.
+     */
+    @NotNull
+    DictionaryCompressionProvider withDictionaries( @NotNull List<byte[]> dictionaries );
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Builds a preset dictionary out of sample inputs by keeping the runs of bytes which recur across samples.
+ * <p/>
+ * Runs are found by counting how many samples each {@link #GRAM_SIZE} byte sequence occurs in. The runs which recur the
+ * most are placed at the end of the dictionary, where they are the cheapest to refer back to.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class DictionaryTrainer {
+    protected static final int GRAM_SIZE = 8;
+
+    // The deflate window, past which a dictionary cannot be referred back to.
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    private DictionaryTrainer() {
+    }
+
+    @NotNull
+    public static byte[] train( @NotNull List<byte[]> samples ) {
+        return train(samples, MAX_DICTIONARY_SIZE);
+    }
+
+    @NotNull
+    public static byte[] train( @NotNull List<byte[]> samples, int maxSize ) {
+        if( maxSize <= 0 ) throw new IllegalArgumentException("The dictionary size must be positive.");
+        Map<Long, Integer> counts = new HashMap<Long, Integer>();
+        for( byte[] sample : samples ) {
+            Set<Long> seen = new HashSet<Long>();
+            for( int i = 0; i + GRAM_SIZE <= sample.length; i++ ) {
+                Long gram = gram(sample, i);
+                if( seen.add(gram) ) {
+                    Integer count = counts.get(gram);
+                    counts.put(gram, count == null ? 1 : count + 1);
+                }
+            }
+        }
+        // Each run is scored by the number of samples sharing its rarest gram, summed over the samples it occurs in.
+        final Map<ByteBuffer, Long> scores = new LinkedHashMap<ByteBuffer, Long>();
+        for( byte[] sample : samples ) {
+            int i = 0;
+            while( i + GRAM_SIZE <= sample.length ) {
+                int count = counts.get(gram(sample, i));
+                if( count < 2 ) {
+                    i++;
+                    continue;
+                }
+                int start = i, min = count;
+                while( i + 1 + GRAM_SIZE <= sample.length ) {
+                    int next = counts.get(gram(sample, i + 1));
+                    if( next < 2 ) break;
+                    min = Math.min(min, next);
+                    i++;
+                }
+                ByteBuffer run = ByteBuffer.wrap(sample, start, i + GRAM_SIZE - start).slice();
+                Long score = scores.get(run);
+                scores.put(run, ( score == null ? 0 : score ) + min);
+                i += GRAM_SIZE;
+            }
+        }
+        List<ByteBuffer> runs = new ArrayList<ByteBuffer>(scores.keySet());
+        Collections.sort(runs, new Comparator<ByteBuffer>() {
+            @Override
+            public int compare( ByteBuffer o1, ByteBuffer o2 ) {
+                long s1 = scores.get(o1) * o1.remaining(), s2 = scores.get(o2) * o2.remaining();
+                return s1 < s2 ? 1 : s1 == s2 ? 0 : -1;
+            }
+        });
+        List<ByteBuffer> chosen = new ArrayList<ByteBuffer>();
+        int size = 0;
+        for( ByteBuffer run : runs ) {
+            if( size + run.remaining() > maxSize ) continue;
+            chosen.add(run);
+            size += run.remaining();
+        }
+        if( chosen.isEmpty() ) {
+            // Nothing recurs, so fall back to the samples themselves, which at least share their byte statistics.
+            for( byte[] sample : samples ) {
+                int length = Math.min(sample.length, maxSize - size);
+                chosen.add(ByteBuffer.wrap(sample, 0, length));
+                size += length;
+                if( size == maxSize ) break;
+            }
+        }
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+        for( int i = chosen.size() - 1; i >= 0; i-- ) {
+            ByteBuffer run = chosen.get(i);
+            dictionary.write(run.array(), run.arrayOffset() + run.position(), run.remaining());
+        }
+        return dictionary.toByteArray();
+    }
+
+    private static long gram( @NotNull byte[] bytes, int offset ) {
+        long gram = 0;
+        for( int i = 0; i < GRAM_SIZE; i++ ) gram = gram << 8 | bytes[offset + i] & 0xff;
+        return gram;
+    }
+}
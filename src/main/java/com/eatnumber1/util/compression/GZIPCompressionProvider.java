@@ -16,56 +16,86 @@
 
 package com.eatnumber1.util.compression;
 
-import com.eatnumber1.util.io.OutputStreamAdapter;
+import com.eatnumber1.util.io.OutputFilterInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import net.jcip.annotations.ThreadSafe;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 /**
+ * Deflaters and inflaters are borrowed from pools, by default those shared by every provider, and are given back when
+ * the streams using them are closed.
+ *
  * @author Russell Harmon
  * @since Jul 13, 2007
  */
+@ThreadSafe
 public class GZIPCompressionProvider extends AbstractCompressionProvider {
     @Nullable
     private Integer buflen;
 
+    @NotNull
+    private DeflaterPool deflaters;
+
+    @NotNull
+    private InflaterPool inflaters;
+
     public GZIPCompressionProvider( @Nullable Integer buflen ) {
-        this.buflen = buflen;
+        this(DeflaterPool.getShared(true), InflaterPool.getShared(true), buflen);
     }
 
     public GZIPCompressionProvider() {
+        this(null);
+    }
+
+    public GZIPCompressionProvider( @NotNull DeflaterPool deflaters, @NotNull InflaterPool inflaters, @Nullable Integer buflen ) {
+        this.deflaters = deflaters;
+        this.inflaters = inflaters;
+        this.buflen = buflen;
+    }
 
+    @NotNull
+    private PooledGZIPOutputStream newOutputStream( @NotNull OutputStream out ) throws IOException {
+        return new PooledGZIPOutputStream(out, deflaters, buflen == null ? PooledGZIPOutputStream.DEFAULT_BUFFER_SIZE : buflen);
     }
 
     @NotNull
     @Override
-    public InputStream compress( @NotNull final InputStream data ) throws CompressionException {
-        OutputStreamAdapter adapter = new OutputStreamAdapter();
-        final OutputStream out;
-        try {
-            out = buflen == null ? new GZIPOutputStream(adapter) : new GZIPOutputStream(adapter, buflen);
-        } catch( IOException e ) {
-            throw new RuntimeException(e);
-        }
-        final InputStream in = adapter.asInputStream();
-        return new InputStream() {
+    public InputStream compress( @NotNull InputStream data ) throws CompressionException {
+        return new OutputFilterInputStream(data) {
+            @NotNull
             @Override
-            public int read() throws IOException {
-                out.write(data.read());
-                return in.read();
+            protected OutputStream createFilter( @NotNull OutputStream out ) throws IOException {
+                return newOutputStream(out);
             }
         };
     }
 
+    @NotNull
+    @Override
+    public byte[] compress( @NotNull byte[] data ) throws CompressionException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 2 + 32);
+        try {
+            PooledGZIPOutputStream out = newOutputStream(bytes);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+        } catch( IOException e ) {
+            throw new CompressionException(e);
+        }
+        return bytes.toByteArray();
+    }
+
     @NotNull
     @Override
     public InputStream decompress( @NotNull InputStream data ) throws CompressionException {
         try {
-            return buflen == null ? new GZIPInputStream(data) : new GZIPInputStream(data, buflen);
+            return new PooledGZIPInputStream(data, inflaters, buflen == null ? PooledGZIPInputStream.DEFAULT_BUFFER_SIZE : buflen);
         } catch( IOException e ) {
             throw new CompressionException(e);
         }
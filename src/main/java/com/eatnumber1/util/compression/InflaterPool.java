@@ -0,0 +1,73 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.compression;
+
+import java.util.zip.Inflater;
+import net.jcip.annotations.ThreadSafe;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@ThreadSafe
+public class InflaterPool extends CodecPool<Inflater> {
+    @NotNull
+    private static final InflaterPool SHARED = new InflaterPool(false, DEFAULT_MAX_IDLE);
+
+    @NotNull
+    private static final InflaterPool SHARED_NOWRAP = new InflaterPool(true, DEFAULT_MAX_IDLE);
+
+    private final boolean nowrap;
+
+    public InflaterPool( boolean nowrap ) {
+        this(nowrap, DEFAULT_MAX_IDLE);
+    }
+
+    public InflaterPool( boolean nowrap, int maxIdle ) {
+        super(maxIdle);
+        this.nowrap = nowrap;
+    }
+
+    /**
+     * @return The pool of inflaters which is shared by the compression providers.
+     */
+    @NotNull
+    public static InflaterPool getShared( boolean nowrap ) {
+        return nowrap ? SHARED_NOWRAP : SHARED;
+    }
+
+    public boolean isNowrap() {
+        return nowrap;
+    }
+
+    @NotNull
+    @Override
+    protected Inflater create() {
+        return new Inflater(nowrap);
+    }
+
+    @Override
+    protected void reset( @NotNull Inflater codec ) {
+        codec.reset();
+    }
+
+    @Override
+    protected void end( @NotNull Inflater codec ) {
+        codec.end();
+    }
+}
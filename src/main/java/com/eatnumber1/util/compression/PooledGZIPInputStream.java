@@ -0,0 +1,141 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.compression;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+import net.jcip.annotations.NotThreadSafe;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Reads the format written by {@link java.util.zip.GZIPOutputStream}, with an inflater borrowed from a pool. Only the
+ * first member of the data is read. The inflater is given back when the stream is closed.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@NotThreadSafe
+public class PooledGZIPInputStream extends InflaterInputStream {
+    public static final int DEFAULT_BUFFER_SIZE = 512;
+
+    private static final int FHCRC = 2, FEXTRA = 4, FNAME = 8, FCOMMENT = 16;
+
+    @NotNull
+    private InflaterPool pool;
+
+    @NotNull
+    private CRC32 crc = new CRC32();
+
+    private boolean eos, released;
+
+    public PooledGZIPInputStream( @NotNull InputStream in, @NotNull InflaterPool pool ) throws IOException {
+        this(in, pool, DEFAULT_BUFFER_SIZE);
+    }
+
+    public PooledGZIPInputStream( @NotNull InputStream in, @NotNull InflaterPool pool, int size ) throws IOException {
+        super(in, borrow(pool), size);
+        this.pool = pool;
+        try {
+            readHeader();
+        } catch( IOException e ) {
+            release();
+            throw e;
+        }
+    }
+
+    @NotNull
+    private static Inflater borrow( @NotNull InflaterPool pool ) {
+        if( !pool.isNowrap() ) throw new IllegalArgumentException("GZIP streams need inflaters which read raw data.");
+        return pool.borrow();
+    }
+
+    private void readHeader() throws IOException {
+        if( readUByte() != 0x1f || readUByte() != 0x8b ) throw new ZipException("Not in GZIP format");
+        if( readUByte() != Deflater.DEFLATED ) throw new ZipException("Unsupported compression method");
+        int flags = readUByte();
+        skipBytes(6);
+        if( ( flags & FEXTRA ) != 0 ) skipBytes(readUByte() | readUByte() << 8);
+        if( ( flags & FNAME ) != 0 ) skipString();
+        if( ( flags & FCOMMENT ) != 0 ) skipString();
+        if( ( flags & FHCRC ) != 0 ) skipBytes(2);
+    }
+
+    private int readUByte() throws IOException {
+        int b = in.read();
+        if( b == -1 ) throw new EOFException("Unexpected end of GZIP input stream");
+        return b;
+    }
+
+    private void skipBytes( int count ) throws IOException {
+        for( int i = 0; i < count; i++ ) readUByte();
+    }
+
+    private void skipString() throws IOException {
+        int b;
+        do {
+            b = readUByte();
+        } while( b != 0 );
+    }
+
+    @Override
+    public int read( @NotNull byte[] b, int off, int len ) throws IOException {
+        if( eos ) return -1;
+        int read = super.read(b, off, len);
+        if( read == -1 ) {
+            readTrailer();
+            eos = true;
+        } else {
+            crc.update(b, off, read);
+        }
+        return read;
+    }
+
+    private void readTrailer() throws IOException {
+        // The inflater may have been handed the start of the trailer along with the end of the compressed data.
+        byte[] trailer = new byte[8];
+        int buffered = Math.min(inf.getRemaining(), trailer.length);
+        System.arraycopy(buf, len - inf.getRemaining(), trailer, 0, buffered);
+        for( int i = buffered; i < trailer.length; i++ ) trailer[i] = (byte) readUByte();
+        long crc = ( trailer[0] & 0xffL ) | ( trailer[1] & 0xffL ) << 8 | ( trailer[2] & 0xffL ) << 16 | ( trailer[3] & 0xffL ) << 24;
+        long size = ( trailer[4] & 0xffL ) | ( trailer[5] & 0xffL ) << 8 | ( trailer[6] & 0xffL ) << 16 | ( trailer[7] & 0xffL ) << 24;
+        if( crc != this.crc.getValue() || size != ( inf.getBytesWritten() & 0xffffffffL ) ) {
+            throw new ZipException("Corrupt GZIP trailer");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            release();
+        }
+    }
+
+    private void release() {
+        if( !released ) {
+            released = true;
+            pool.release(inf);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import net.jcip.annotations.NotThreadSafe;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Writes the same format as {@link java.util.zip.GZIPOutputStream}, with a deflater borrowed from a pool. The deflater
+ * is given back when the stream is closed.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@NotThreadSafe
+public class PooledGZIPOutputStream extends DeflaterOutputStream {
+    public static final int DEFAULT_BUFFER_SIZE = 512;
+
+    @NotNull
+    private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+    @NotNull
+    private DeflaterPool pool;
+
+    @NotNull
+    private CRC32 crc = new CRC32();
+
+    private boolean finished, released;
+
+    public PooledGZIPOutputStream( @NotNull OutputStream out, @NotNull DeflaterPool pool ) throws IOException {
+        this(out, pool, DEFAULT_BUFFER_SIZE);
+    }
+
+    public PooledGZIPOutputStream( @NotNull OutputStream out, @NotNull DeflaterPool pool, int size ) throws IOException {
+        super(out, borrow(pool), size);
+        this.pool = pool;
+        try {
+            out.write(HEADER);
+        } catch( IOException e ) {
+            release();
+            throw e;
+        }
+    }
+
+    @NotNull
+    private static Deflater borrow( @NotNull DeflaterPool pool ) {
+        if( !pool.isNowrap() ) throw new IllegalArgumentException("GZIP streams need deflaters which write raw data.");
+        return pool.borrow();
+    }
+
+    @Override
+    public void write( @NotNull byte[] b, int off, int len ) throws IOException {
+        super.write(b, off, len);
+        crc.update(b, off, len);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if( finished ) return;
+        super.finish();
+        finished = true;
+        int crc = (int) this.crc.getValue(), size = (int) def.getBytesRead();
+        out.write(new byte[]{
+                (byte) crc, (byte) ( crc >> 8 ), (byte) ( crc >> 16 ), (byte) ( crc >> 24 ),
+                (byte) size, (byte) ( size >> 8 ), (byte) ( size >> 16 ), (byte) ( size >> 24 )
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            release();
+        }
+    }
+
+    private void release() {
+        if( !released ) {
+            released = true;
+            pool.release(def);
+        }
+    }
+}
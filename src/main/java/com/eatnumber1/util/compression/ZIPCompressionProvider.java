@@ -16,30 +16,36 @@
 
 package com.eatnumber1.util.compression;
 
-import com.eatnumber1.util.io.OutputStreamAdapter;
+import com.eatnumber1.util.io.OutputFilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 import org.jetbrains.annotations.NotNull;
 
 /**
+ * Compresses data into a zip archive holding it as a single entry. The zip streams of the JDK cannot be given pooled
+ * deflaters or inflaters, so each stream has its own, which is ended when the stream is closed.
+ *
  * @author Russell Harmon
  * @since Jul 13, 2007
  */
 public class ZIPCompressionProvider extends AbstractCompressionProvider {
+    @NotNull
+    public static final String ENTRY_NAME = "data";
+
     @NotNull
     @Override
-    public InputStream compress( @NotNull final InputStream data ) throws CompressionException {
-        OutputStreamAdapter adapter = new OutputStreamAdapter();
-        final OutputStream out = new ZipOutputStream(adapter);
-        final InputStream in = adapter.asInputStream();
-        return new InputStream() {
+    public InputStream compress( @NotNull InputStream data ) throws CompressionException {
+        return new OutputFilterInputStream(data) {
+            @NotNull
             @Override
-            public int read() throws IOException {
-                out.write(data.read());
-                return in.read();
+            protected OutputStream createFilter( @NotNull OutputStream out ) throws IOException {
+                ZipOutputStream zip = new ZipOutputStream(out);
+                zip.putNextEntry(new ZipEntry(ENTRY_NAME));
+                return zip;
             }
         };
     }
@@ -47,6 +53,12 @@ public class ZIPCompressionProvider extends AbstractCompressionProvider {
     @NotNull
     @Override
     public InputStream decompress( @NotNull InputStream data ) throws CompressionException {
-        return new ZipInputStream(data);
+        ZipInputStream zip = new ZipInputStream(data);
+        try {
+            if( zip.getNextEntry() == null ) throw new CompressionException("The archive has no entries.");
+        } catch( IOException e ) {
+            throw new CompressionException(e);
+        }
+        return zip;
     }
 }
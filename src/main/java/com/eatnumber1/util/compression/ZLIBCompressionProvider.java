@@ -16,21 +16,38 @@
 
 package com.eatnumber1.util.compression;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterInputStream;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
-import net.jcip.annotations.NotThreadSafe;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 /**
+ * Arrays are compressed and decompressed with a single pass of the deflater or inflater over them.
+ * <p/>
+ * Unless the provider is given a deflater or inflater of its own, they are borrowed from pools, by default those shared
+ * by every provider. Streams give them back when they are closed. Such a provider is thread safe. A provider which is
+ * given its own deflater or inflater resets it before each use, and can then only be used by a single thread at a time.
+ * <p/>
+ * ZLIB data names the preset dictionary it was compressed with by its Adler-32 checksum, so a provider with dictionaries
+ * decompresses data compressed with any of them, or with none.
+ *
  * @author Russell Harmon
  * @since Jul 13, 2007
  */
-@NotThreadSafe
-public class ZLIBCompressionProvider extends AbstractCompressionProvider {
+public class ZLIBCompressionProvider extends AbstractCompressionProvider implements DictionaryCompressionProvider {
+    private static final int DEFAULT_BUFFER_SIZE = 512;
+
     @Nullable
     private Deflater deflater;
 
@@ -40,9 +57,32 @@ public class ZLIBCompressionProvider extends AbstractCompressionProvider {
     @Nullable
     private Integer buflen;
 
+    @NotNull
+    private DeflaterPool deflaters = DeflaterPool.getShared(false);
+
+    @NotNull
+    private InflaterPool inflaters = InflaterPool.getShared(false);
+
+    @Nullable
+    private byte[] dictionary;
+
+    @NotNull
+    private Map<Integer, byte[]> dictionaries = Collections.emptyMap();
+
     public ZLIBCompressionProvider() {
     }
 
+    public ZLIBCompressionProvider( @NotNull DeflaterPool deflaters, @NotNull InflaterPool inflaters ) {
+        this(deflaters, inflaters, null);
+    }
+
+    public ZLIBCompressionProvider( @NotNull DeflaterPool deflaters, @NotNull InflaterPool inflaters, @Nullable Integer buflen ) {
+        if( deflaters.isNowrap() || inflaters.isNowrap() ) throw new IllegalArgumentException("ZLIB data is wrapped.");
+        this.deflaters = deflaters;
+        this.inflaters = inflaters;
+        this.buflen = buflen;
+    }
+
     public ZLIBCompressionProvider( @Nullable Deflater deflater ) {
         this.deflater = deflater;
     }
@@ -62,27 +102,153 @@ public class ZLIBCompressionProvider extends AbstractCompressionProvider {
         this.buflen = buflen;
     }
 
+    @NotNull
+    @Override
+    public ZLIBCompressionProvider withDictionaries( @NotNull List<byte[]> dictionaries ) {
+        ZLIBCompressionProvider provider = new ZLIBCompressionProvider(deflater, inflater, buflen);
+        provider.deflaters = deflaters;
+        provider.inflaters = inflaters;
+        Map<Integer, byte[]> byChecksum = new HashMap<Integer, byte[]>();
+        for( byte[] dictionary : dictionaries ) {
+            Adler32 checksum = new Adler32();
+            checksum.update(dictionary);
+            byChecksum.put((int) checksum.getValue(), dictionary);
+            provider.dictionary = dictionary;
+        }
+        provider.dictionaries = byChecksum;
+        return provider;
+    }
+
+    @NotNull
+    private Deflater prepare( @NotNull Deflater deflater ) {
+        if( dictionary != null ) deflater.setDictionary(dictionary);
+        return deflater;
+    }
+
+    private void setDictionary( @NotNull Inflater inflater ) throws CompressionException {
+        byte[] dictionary = dictionaries.get(inflater.getAdler());
+        if( dictionary == null ) throw new CompressionException("The data was compressed with an unknown dictionary.");
+        inflater.setDictionary(dictionary);
+    }
+
     @NotNull
     @Override
     public InputStream compress( @NotNull InputStream data ) throws CompressionException {
-        if( deflater == null ) {
-            return new DeflaterInputStream(data);
-        } else if( buflen == null ) {
-            return new DeflaterInputStream(data, deflater);
-        } else {
-            return new DeflaterInputStream(data, deflater, buflen);
+        int size = buflen == null ? DEFAULT_BUFFER_SIZE : buflen;
+        if( deflater != null ) {
+            deflater.reset();
+            return new DeflaterInputStream(data, prepare(deflater), size);
         }
+        return new DeflaterInputStream(data, prepare(deflaters.borrow()), size) {
+            private boolean released;
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if( !released ) {
+                        released = true;
+                        deflaters.release(def);
+                    }
+                }
+            }
+        };
     }
 
     @NotNull
     @Override
     public InputStream decompress( @NotNull InputStream data ) throws CompressionException {
-        if( inflater == null ) {
-            return new InflaterInputStream(data);
-        } else if( buflen == null ) {
-            return new InflaterInputStream(data, inflater);
-        } else {
-            return new InflaterInputStream(data, inflater, buflen);
+        int size = buflen == null ? DEFAULT_BUFFER_SIZE : buflen;
+        if( inflater != null ) {
+            inflater.reset();
+            return new DictionaryInflaterInputStream(data, inflater, size);
+        }
+        return new DictionaryInflaterInputStream(data, inflaters.borrow(), size) {
+            private boolean released;
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if( !released ) {
+                        released = true;
+                        inflaters.release(inf);
+                    }
+                }
+            }
+        };
+    }
+
+    private class DictionaryInflaterInputStream extends InflaterInputStream {
+        public DictionaryInflaterInputStream( @NotNull InputStream in, @NotNull Inflater inf, int size ) {
+            super(in, inf, size);
+        }
+
+        @Override
+        public int read( @NotNull byte[] b, int off, int len ) throws IOException {
+            int read = super.read(b, off, len);
+            // The inflater reports the end of the stream when it stops at the name of a dictionary.
+            if( read == -1 && inf.needsDictionary() ) {
+                try {
+                    setDictionary(inf);
+                } catch( CompressionException e ) {
+                    throw new IOException(e);
+                }
+                read = super.read(b, off, len);
+            }
+            return read;
+        }
+    }
+
+    @NotNull
+    @Override
+    public byte[] compress( @NotNull byte[] data ) throws CompressionException {
+        Deflater deflater = this.deflater == null ? deflaters.borrow() : this.deflater;
+        try {
+            deflater.reset();
+            prepare(deflater);
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] out = new byte[data.length / 2 + 64];
+            int length = 0;
+            while( !deflater.finished() ) {
+                if( length == out.length ) out = Arrays.copyOf(out, out.length * 2);
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            return length == out.length ? out : Arrays.copyOf(out, length);
+        } finally {
+            if( this.deflater == null ) deflaters.release(deflater);
+        }
+    }
+
+    @NotNull
+    @Override
+    public byte[] decompress( @NotNull byte[] data ) throws CompressionException {
+        Inflater inflater = this.inflater == null ? inflaters.borrow() : this.inflater;
+        try {
+            inflater.reset();
+            inflater.setInput(data);
+            byte[] out = new byte[Math.max(64, data.length * 4)];
+            int length = 0;
+            while( !inflater.finished() ) {
+                if( length == out.length ) out = Arrays.copyOf(out, out.length * 2);
+                int inflated = inflater.inflate(out, length, out.length - length);
+                if( inflated == 0 && inflater.needsDictionary() ) {
+                    setDictionary(inflater);
+                    continue;
+                }
+                if( inflated == 0 && !inflater.finished() && ( inflater.needsInput() || inflater.needsDictionary() ) ) {
+                    throw new CompressionException("Truncated or unsupported compressed data.");
+                }
+                length += inflated;
+            }
+            return length == out.length ? out : Arrays.copyOf(out, length);
+        } catch( DataFormatException e ) {
+            throw new CompressionException(e);
+        } finally {
+            if( this.inflater == null ) inflaters.release(inflater);
         }
     }
 }
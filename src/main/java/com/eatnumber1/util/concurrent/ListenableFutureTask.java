@@ -0,0 +1,79 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A future task which runs listeners once it completes, so that callers can react to its result without a thread
+ * waiting for it.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@ThreadSafe
+public class ListenableFutureTask<V> extends FutureTask<V> {
+    // Null once the listeners have been run.
+    @Nullable
+    @GuardedBy("this")
+    private List<Runnable> listeners = new ArrayList<Runnable>();
+
+    public ListenableFutureTask( @NotNull Callable<V> callable ) {
+        super(callable);
+    }
+
+    public ListenableFutureTask( @NotNull Runnable runnable, @Nullable V result ) {
+        super(runnable, result);
+    }
+
+    /**
+     * Runs the listener on the executor once the task completes, or straight away if it already has.
+     */
+    public void addListener( @NotNull final Runnable listener, @NotNull final Executor executor ) {
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(listener);
+            }
+        };
+        synchronized( this ) {
+            if( listeners != null ) {
+                listeners.add(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
+    @Override
+    protected void done() {
+        List<Runnable> listeners;
+        synchronized( this ) {
+            listeners = this.listeners;
+            this.listeners = null;
+        }
+        for( Runnable listener : listeners ) listener.run();
+    }
+}
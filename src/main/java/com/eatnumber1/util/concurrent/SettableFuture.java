@@ -0,0 +1,56 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.concurrent;
+
+import java.util.concurrent.Callable;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A future which is completed by calling {@link #set(Object)} or {@link #setException(Throwable)} rather than by being
+ * run.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class SettableFuture<V> extends ListenableFutureTask<V> {
+    public SettableFuture() {
+        super(new Callable<V>() {
+            @Override
+            public V call() {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+
+    /**
+     * @throws UnsupportedOperationException as the future is only completed by setting its result.
+     */
+    @Override
+    public void run() {
+        throw new UnsupportedOperationException("A settable future is not run.");
+    }
+
+    @Override
+    public void set( @Nullable V v ) {
+        super.set(v);
+    }
+
+    @Override
+    public void setException( @Nullable Throwable t ) {
+        super.setException(t);
+    }
+}
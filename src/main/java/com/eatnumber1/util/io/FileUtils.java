@@ -110,6 +110,13 @@ public class FileUtils extends org.apache.commons.io.FileUtils {
         if( !file.createNewFile() ) throw new IOException("Unable to create file.");
     }
 
+    public static void rename( @NotNull File source, @NotNull File target ) throws IOException {
+        if( source.renameTo(target) ) return;
+        // Some platforms refuse to rename over an existing file.
+        if( target.exists() ) forceDelete(target);
+        if( !source.renameTo(target) ) throw new IOException("Unable to rename " + source + " to " + target + ".");
+    }
+
     public static boolean contains( @NotNull File directory, @NotNull String fileName ) {
         return Arrays.asList(directory.list()).contains(fileName);
     }
@@ -16,10 +16,17 @@
 
 package com.eatnumber1.util.io;
 
+import com.eatnumber1.util.nio.ByteBufferUtils;
 import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.StreamCorruptedException;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
 import java.nio.channels.WritableByteChannel;
 import org.jetbrains.annotations.NotNull;
 
@@ -32,11 +39,116 @@ public class IOUtils extends org.apache.commons.io.IOUtils {
     }
 
     public static void write( @NotNull WritableByteChannel channel, @NotNull ByteBuffer src, int expected ) throws IOException {
-        if( channel.write(src) != expected ) throw new IOException("Did not write expected amount of data");
+        if( src.remaining() != expected || writeFully(channel, src) != expected ) throw new IOException("Did not write expected amount of data");
     }
 
     public static void read( @NotNull ReadableByteChannel channel, @NotNull ByteBuffer dst, int expected ) throws IOException {
-        if( channel.read(dst) != expected ) throw new IOException("Did not read expected amount of data");
+        if( dst.remaining() < expected ) throw new IOException("Did not read expected amount of data");
+        int limit = dst.limit();
+        dst.limit(dst.position() + expected);
+        try {
+            readFully(channel, dst);
+        } finally {
+            dst.limit(limit);
+        }
+    }
+
+    /**
+     * Writes all of {@code src}, retrying short writes.
+     *
+     * @return The number of bytes written.
+     */
+    public static int writeFully( @NotNull WritableByteChannel channel, @NotNull ByteBuffer src ) throws IOException {
+        int total = 0;
+        while( src.hasRemaining() ) {
+            int written = channel.write(src);
+            if( written <= 0 ) throw new IOException("Did not write expected amount of data");
+            total += written;
+        }
+        return total;
+    }
+
+    /**
+     * Reads until {@code dst} is full, retrying short reads.
+     *
+     * @return The number of bytes read.
+     * @throws EOFException If the end of the channel is reached before {@code dst} is full.
+     */
+    public static int readFully( @NotNull ReadableByteChannel channel, @NotNull ByteBuffer dst ) throws IOException {
+        int total = 0;
+        while( dst.hasRemaining() ) {
+            int read = channel.read(dst);
+            if( read == -1 ) throw new EOFException("Premature end of channel.");
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Writes all of {@code srcs} with as few gathering writes as the channel allows.
+     *
+     * @return The number of bytes written.
+     */
+    public static long writeFully( @NotNull GatheringByteChannel channel, @NotNull ByteBuffer[] srcs ) throws IOException {
+        long remaining = remaining(srcs), total = 0;
+        int offset = 0;
+        while( total < remaining ) {
+            while( !srcs[offset].hasRemaining() ) offset++;
+            long written = channel.write(srcs, offset, srcs.length - offset);
+            if( written <= 0 ) throw new IOException("Did not write expected amount of data");
+            total += written;
+        }
+        return total;
+    }
+
+    /**
+     * Fills all of {@code dsts} with as few scattering reads as the channel allows.
+     *
+     * @return The number of bytes read.
+     * @throws EOFException If the end of the channel is reached before every buffer is full.
+     */
+    public static long readFully( @NotNull ScatteringByteChannel channel, @NotNull ByteBuffer[] dsts ) throws IOException {
+        long remaining = remaining(dsts), total = 0;
+        int offset = 0;
+        while( total < remaining ) {
+            while( !dsts[offset].hasRemaining() ) offset++;
+            long read = channel.read(dsts, offset, dsts.length - offset);
+            if( read == -1 ) throw new EOFException("Premature end of channel.");
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Writes a variable length integer in the format of {@link ByteBufferUtils#putVarint(ByteBuffer, long)}.
+     */
+    public static void writeVarint( @NotNull DataOutput out, long value ) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(ByteBufferUtils.getVarintSize(value));
+        ByteBufferUtils.putVarint(buf, value);
+        out.write(buf.array());
+    }
+
+    /**
+     * Reads a variable length integer in the format of {@link ByteBufferUtils#getVarint(ByteBuffer)}.
+     *
+     * @throws StreamCorruptedException If the varint is longer than any long.
+     */
+    public static long readVarint( @NotNull DataInput in ) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(ByteBufferUtils.MAX_VARINT_SIZE);
+        byte b;
+        do {
+            if( !buf.hasRemaining() ) throw new StreamCorruptedException("Malformed varint.");
+            b = in.readByte();
+            buf.put(b);
+        } while( b < 0 );
+        buf.flip();
+        return ByteBufferUtils.getVarint(buf);
+    }
+
+    public static long remaining( @NotNull ByteBuffer[] buffers ) {
+        long remaining = 0;
+        for( ByteBuffer buffer : buffers ) remaining += buffer.remaining();
+        return remaining;
     }
 
     public static void closeQuietly( @NotNull Closeable closeable ) {
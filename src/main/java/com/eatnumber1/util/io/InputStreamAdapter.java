@@ -19,56 +19,60 @@ package com.eatnumber1.util.io;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.concurrent.BlockingDeque;
-import java.util.concurrent.LinkedBlockingDeque;
 import net.jcip.annotations.ThreadSafe;
 import org.jetbrains.annotations.NotNull;
 
 /**
+ * An input stream which reads what is written to {@link #asOutputStream()}, through a {@link RingBufferPipe}. Writes
+ * block while the pipe is full, so unless it holds everything that will be written, reading and writing must be done by
+ * different threads.
+ *
  * @author Russell Harmon
  * @since Jul 13, 2007
  */
 @ThreadSafe
 public class InputStreamAdapter extends InputStream {
     @NotNull
-    private BlockingDeque<Integer> data = new LinkedBlockingDeque<Integer>();
+    private final RingBufferPipe pipe;
 
-    private boolean closed = false;
+    @NotNull
+    private final InputStream in;
 
-    private class OS extends OutputStream {
-        @Override
-        public void write( int b ) throws IOException {
-            try {
-                data.putLast(b);
-            } catch( InterruptedException e ) {
-                throw new RuntimeException(e);
-            }
-        }
+    public InputStreamAdapter() {
+        this(new RingBufferPipe());
+    }
 
-        @Override
-        public void close() throws IOException {
-            closed = true;
-        }
+    public InputStreamAdapter( int capacity ) {
+        this(new RingBufferPipe(capacity));
     }
 
-    private OutputStream adapter = new OS();
+    public InputStreamAdapter( @NotNull RingBufferPipe pipe ) {
+        this.pipe = pipe;
+        in = pipe.getInputStream();
+    }
 
     @Override
     public int read() throws IOException {
-        if( closed && data.size() == 0 ) return -1;
-        try {
-            return data.takeFirst();
-        } catch( InterruptedException e ) {
-            throw new RuntimeException(e);
-        }
+        return in.read();
     }
 
+    @Override
+    public int read( @NotNull byte[] b, int off, int len ) throws IOException {
+        return in.read(b, off, len);
+    }
+
+    @NotNull
     public OutputStream asOutputStream() {
-        return adapter;
+        return pipe.getOutputStream();
     }
 
     @Override
     public int available() throws IOException {
-        return data.size();
+        return in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
     }
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import net.jcip.annotations.NotThreadSafe;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Reads the data of another stream as it comes out of an output stream filter, such as a compressor. The source is
+ * pulled through the filter a chunk at a time as the data is read, without any threads.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@NotThreadSafe
+public abstract class OutputFilterInputStream extends InputStream {
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private static class Sink extends ByteArrayOutputStream {
+        private int position;
+
+        private Sink( int size ) {
+            super(size);
+        }
+
+        private int remaining() {
+            return count - position;
+        }
+
+        private int drain( @NotNull byte[] b, int off, int len ) {
+            int read = Math.min(len, remaining());
+            System.arraycopy(buf, position, b, off, read);
+            position += read;
+            if( position == count ) {
+                position = 0;
+                reset();
+            }
+            return read;
+        }
+    }
+
+    @NotNull
+    private InputStream source;
+
+    @NotNull
+    private byte[] chunk;
+
+    @NotNull
+    private Sink sink;
+
+    @Nullable
+    private OutputStream filter;
+
+    @NotNull
+    private final byte[] single = new byte[1];
+
+    private boolean finished;
+
+    protected OutputFilterInputStream( @NotNull InputStream source ) {
+        this(source, DEFAULT_CHUNK_SIZE);
+    }
+
+    protected OutputFilterInputStream( @NotNull InputStream source, int chunkSize ) {
+        if( chunkSize <= 0 ) throw new IllegalArgumentException("The chunk size must be positive.");
+        this.source = source;
+        chunk = new byte[chunkSize];
+        sink = new Sink(chunkSize);
+    }
+
+    /**
+     * @return The filter, writing into the given stream. Closing it must write everything which it has left to write.
+     */
+    @NotNull
+    protected abstract OutputStream createFilter( @NotNull OutputStream out ) throws IOException;
+
+    private boolean fill() throws IOException {
+        while( sink.remaining() == 0 ) {
+            if( finished ) return false;
+            if( filter == null ) filter = createFilter(sink);
+            int read = source.read(chunk);
+            if( read == -1 ) {
+                finished = true;
+                filter.close();
+            } else {
+                filter.write(chunk, 0, read);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read( @NotNull byte[] b, int off, int len ) throws IOException {
+        if( off < 0 || len < 0 || len > b.length - off ) throw new IndexOutOfBoundsException();
+        if( len == 0 ) return 0;
+        return fill() ? sink.drain(b, off, len) : -1;
+    }
+
+    @Override
+    public int available() {
+        return sink.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            // Closing the filter releases anything it holds, such as the native memory of a deflater.
+            if( !finished && filter != null ) {
+                finished = true;
+                filter.close();
+            }
+        } finally {
+            source.close();
+        }
+    }
+}
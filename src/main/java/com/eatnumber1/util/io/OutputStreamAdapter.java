@@ -19,57 +19,55 @@ package com.eatnumber1.util.io;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.concurrent.BlockingDeque;
-import java.util.concurrent.LinkedBlockingDeque;
 import net.jcip.annotations.ThreadSafe;
 import org.jetbrains.annotations.NotNull;
 
 /**
+ * An output stream whose data is read from {@link #asInputStream()}, through a {@link RingBufferPipe}. Writes block
+ * while the pipe is full, so unless it holds everything that will be written, reading and writing must be done by
+ * different threads.
+ *
  * @author Russell Harmon
  * @since Jul 13, 2007
  */
 @ThreadSafe
 public class OutputStreamAdapter extends OutputStream {
     @NotNull
-    private BlockingDeque<Integer> data = new LinkedBlockingDeque<Integer>();
+    private final RingBufferPipe pipe;
 
-    private boolean closed = false;
+    @NotNull
+    private final OutputStream out;
 
     public OutputStreamAdapter() {
+        this(new RingBufferPipe());
+    }
+
+    public OutputStreamAdapter( int capacity ) {
+        this(new RingBufferPipe(capacity));
+    }
+
+    public OutputStreamAdapter( @NotNull RingBufferPipe pipe ) {
+        this.pipe = pipe;
+        out = pipe.getOutputStream();
     }
 
     @Override
     public void write( int b ) throws IOException {
-        try {
-            data.putLast(b);
-        } catch( InterruptedException e ) {
-            throw new RuntimeException(e);
-        }
+        out.write(b);
+    }
+
+    @Override
+    public void write( @NotNull byte[] b, int off, int len ) throws IOException {
+        out.write(b, off, len);
     }
 
     @NotNull
     public InputStream asInputStream() {
-        return new InputStream() {
-            @Override
-            public int read() throws IOException {
-                if( closed && data.size() == 0 ) return -1;
-                try {
-                    return data.takeFirst();
-                } catch( InterruptedException e ) {
-                    throw new RuntimeException(e);
-                }
-            }
-
-            @Override
-            public int available() throws IOException {
-                return data.size();
-            }
-        };
+        return pipe.getInputStream();
     }
 
     @Override
     public void close() throws IOException {
-        closed = true;
-        super.close();
+        out.close();
     }
-}
\ No newline at end of file
+}
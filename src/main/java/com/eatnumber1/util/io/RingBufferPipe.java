@@ -0,0 +1,330 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import net.jcip.annotations.ThreadSafe;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A bounded pipe which moves bytes from its output stream to its input stream through a ring buffer. Writers block
+ * while the buffer is full, and readers block while it is empty. Closing the output stream lets readers drain the
+ * buffer and then see the end of the stream, and closing the input stream makes writers fail.
+ * <p/>
+ * By default both streams may be used by any number of threads. A pipe created for a single producer and a single
+ * consumer does not lock, and instead has each side publish its position for the other, which is only safe if at most
+ * one thread writes and one thread reads at a time.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@ThreadSafe
+public class RingBufferPipe {
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    // The number of times a lock free side checks the other side's position before parking.
+    private static final int SPINS = 64;
+
+    @NotNull
+    private final byte[] buffer;
+
+    private final int mask;
+
+    // The total numbers of bytes read and written.
+    private volatile long head, tail;
+
+    private volatile boolean readerClosed, writerClosed;
+
+    @Nullable
+    private final ReentrantLock lock;
+
+    @Nullable
+    private final Condition notEmpty, notFull;
+
+    @Nullable
+    private volatile Thread waitingReader, waitingWriter;
+
+    @NotNull
+    private final InputStream in = new PipeInputStream();
+
+    @NotNull
+    private final OutputStream out = new PipeOutputStream();
+
+    public RingBufferPipe() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public RingBufferPipe( int capacity ) {
+        this(capacity, false);
+    }
+
+    /**
+     * @param capacity The size of the buffer, which is rounded up to a power of two.
+     */
+    public RingBufferPipe( int capacity, boolean singleProducerSingleConsumer ) {
+        if( capacity <= 0 || capacity > 1 << 30 ) throw new IllegalArgumentException("The capacity must be positive and at most 2^30.");
+        buffer = new byte[capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1];
+        mask = buffer.length - 1;
+        if( singleProducerSingleConsumer ) {
+            lock = null;
+            notEmpty = notFull = null;
+        } else {
+            lock = new ReentrantLock();
+            notEmpty = lock.newCondition();
+            notFull = lock.newCondition();
+        }
+    }
+
+    @NotNull
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    @NotNull
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    public boolean isLockFree() {
+        return lock == null;
+    }
+
+    private void copyOut( long position, @NotNull byte[] b, int off, int len ) {
+        int index = (int) position & mask, first = Math.min(len, buffer.length - index);
+        System.arraycopy(buffer, index, b, off, first);
+        System.arraycopy(buffer, 0, b, off + first, len - first);
+    }
+
+    private void copyIn( long position, @NotNull byte[] b, int off, int len ) {
+        int index = (int) position & mask, first = Math.min(len, buffer.length - index);
+        System.arraycopy(b, off, buffer, index, first);
+        System.arraycopy(b, off + first, buffer, 0, len - first);
+    }
+
+    @NotNull
+    private static InterruptedIOException interrupted( @NotNull InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        InterruptedIOException ex = new InterruptedIOException();
+        ex.initCause(e);
+        return ex;
+    }
+
+    private int read( @NotNull byte[] b, int off, int len ) throws IOException {
+        if( off < 0 || len < 0 || len > b.length - off ) throw new IndexOutOfBoundsException();
+        if( readerClosed ) throw new IOException("Pipe closed.");
+        if( len == 0 ) return 0;
+        if( lock == null ) return readLockFree(b, off, len);
+        try {
+            lock.lockInterruptibly();
+        } catch( InterruptedException e ) {
+            throw interrupted(e);
+        }
+        try {
+            long available;
+            while( ( available = tail - head ) == 0 ) {
+                if( writerClosed ) return -1;
+                if( readerClosed ) throw new IOException("Pipe closed.");
+                notEmpty.await();
+            }
+            int read = (int) Math.min(len, available);
+            copyOut(head, b, off, read);
+            head += read;
+            notFull.signalAll();
+            return read;
+        } catch( InterruptedException e ) {
+            throw interrupted(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int readLockFree( @NotNull byte[] b, int off, int len ) throws IOException {
+        long position = head, available;
+        int spins = 0;
+        while( ( available = tail - position ) == 0 ) {
+            // The writer closes after publishing its last bytes, so the buffer is checked again once it is closed.
+            if( writerClosed ) {
+                if( tail - position == 0 ) return -1;
+                continue;
+            }
+            if( readerClosed ) throw new IOException("Pipe closed.");
+            if( spins++ < SPINS ) {
+                Thread.yield();
+            } else {
+                waitingReader = Thread.currentThread();
+                if( tail - position == 0 && !writerClosed ) LockSupport.park(this);
+                waitingReader = null;
+            }
+            if( Thread.interrupted() ) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        int read = (int) Math.min(len, available);
+        copyOut(position, b, off, read);
+        head = position + read;
+        Thread writer = waitingWriter;
+        if( writer != null ) LockSupport.unpark(writer);
+        return read;
+    }
+
+    private void write( @NotNull byte[] b, int off, int len ) throws IOException {
+        if( off < 0 || len < 0 || len > b.length - off ) throw new IndexOutOfBoundsException();
+        if( writerClosed ) throw new IOException("Pipe closed.");
+        if( lock == null ) {
+            writeLockFree(b, off, len);
+            return;
+        }
+        try {
+            lock.lockInterruptibly();
+        } catch( InterruptedException e ) {
+            throw interrupted(e);
+        }
+        try {
+            while( len > 0 ) {
+                long free;
+                while( ( free = buffer.length - ( tail - head ) ) == 0 && !readerClosed ) notFull.await();
+                if( readerClosed ) throw new IOException("Pipe closed.");
+                int written = (int) Math.min(len, free);
+                copyIn(tail, b, off, written);
+                tail += written;
+                off += written;
+                len -= written;
+                notEmpty.signalAll();
+            }
+        } catch( InterruptedException e ) {
+            throw interrupted(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeLockFree( @NotNull byte[] b, int off, int len ) throws IOException {
+        long position = tail;
+        while( len > 0 ) {
+            long free;
+            int spins = 0;
+            while( ( free = buffer.length - ( position - head ) ) == 0 ) {
+                if( readerClosed ) throw new IOException("Pipe closed.");
+                if( spins++ < SPINS ) {
+                    Thread.yield();
+                } else {
+                    waitingWriter = Thread.currentThread();
+                    if( buffer.length - ( position - head ) == 0 && !readerClosed ) LockSupport.park(this);
+                    waitingWriter = null;
+                }
+                if( Thread.interrupted() ) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            if( readerClosed ) throw new IOException("Pipe closed.");
+            int written = (int) Math.min(len, free);
+            copyIn(position, b, off, written);
+            position += written;
+            tail = position;
+            off += written;
+            len -= written;
+            Thread reader = waitingReader;
+            if( reader != null ) LockSupport.unpark(reader);
+        }
+    }
+
+    private void close( boolean reader ) {
+        if( reader ) {
+            readerClosed = true;
+        } else {
+            writerClosed = true;
+        }
+        if( lock == null ) {
+            Thread waiting = waitingReader;
+            if( waiting != null ) LockSupport.unpark(waiting);
+            waiting = waitingWriter;
+            if( waiting != null ) LockSupport.unpark(waiting);
+        } else {
+            lock.lock();
+            try {
+                notEmpty.signalAll();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private class PipeInputStream extends InputStream {
+        // Threads reading single bytes take turns with this rather than each allocating an array.
+        @NotNull
+        private final byte[] single = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            synchronized( single ) {
+                return RingBufferPipe.this.read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+            }
+        }
+
+        @Override
+        public int read( @NotNull byte[] b, int off, int len ) throws IOException {
+            return RingBufferPipe.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) ( tail - head );
+        }
+
+        @Override
+        public void close() throws IOException {
+            RingBufferPipe.this.close(true);
+        }
+    }
+
+    private class PipeOutputStream extends OutputStream {
+        @NotNull
+        private final byte[] single = new byte[1];
+
+        @Override
+        public void write( int b ) throws IOException {
+            synchronized( single ) {
+                single[0] = (byte) b;
+                RingBufferPipe.this.write(single, 0, 1);
+            }
+        }
+
+        @Override
+        public void write( @NotNull byte[] b, int off, int len ) throws IOException {
+            RingBufferPipe.this.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            RingBufferPipe.this.close(false);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.nio;
+
+import java.nio.ByteBuffer;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Variable length integers are written seven bits at a time, least significant first, with the high bit of each byte
+ * set when more bytes follow. Signed values are zigzag encoded first so that small negative values stay short.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class ByteBufferUtils {
+    public static final int MAX_VARINT_SIZE = 10;
+
+    private ByteBufferUtils() {
+    }
+
+    public static int getVarintSize( long value ) {
+        int size = 1;
+        while( ( value & ~0x7FL ) != 0 ) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    public static void putVarint( @NotNull ByteBuffer dst, long value ) {
+        while( ( value & ~0x7FL ) != 0 ) {
+            dst.put((byte) ( ( value & 0x7F ) | 0x80 ));
+            value >>>= 7;
+        }
+        dst.put((byte) value);
+    }
+
+    /**
+     * @throws java.nio.BufferUnderflowException If the buffer ends before the varint does.
+     * @throws IllegalArgumentException If the varint is longer than any long.
+     */
+    public static long getVarint( @NotNull ByteBuffer src ) {
+        long value = 0;
+        for( int shift = 0; shift < MAX_VARINT_SIZE * 7; shift += 7 ) {
+            byte b = src.get();
+            value |= (long) ( b & 0x7F ) << shift;
+            if( b >= 0 ) return value;
+        }
+        throw new IllegalArgumentException("Malformed varint.");
+    }
+
+    public static long zigzag( long value ) {
+        return ( value << 1 ) ^ ( value >> 63 );
+    }
+
+    public static long unzigzag( long value ) {
+        return ( value >>> 1 ) ^ -( value & 1 );
+    }
+}
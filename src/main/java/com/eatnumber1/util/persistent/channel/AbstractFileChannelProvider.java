@@ -18,9 +18,12 @@ package com.eatnumber1.util.persistent.channel;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ClosedChannelException;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -29,7 +32,11 @@ import org.jetbrains.annotations.NotNull;
  */
 public abstract class AbstractFileChannelProvider implements FileChannelProvider {
     @NotNull
-    protected Lock lock = new ReentrantLock();
+    private final ReadWriteLock visitLock = new ReentrantReadWriteLock();
+
+    // Held by exclusive visits. It is the write half of the lock which shared visits read lock, so it excludes both.
+    @NotNull
+    protected Lock lock = visitLock.writeLock();
 
     @NotNull
     private File file;
@@ -37,7 +44,7 @@ public abstract class AbstractFileChannelProvider implements FileChannelProvider
     @NotNull
     private String permissions;
 
-    protected boolean closed = true;
+    protected volatile boolean closed = true;
 
     protected AbstractFileChannelProvider( @NotNull File file, @NotNull String permissions ) throws IOException {
         this.file = file;
@@ -93,6 +100,15 @@ public abstract class AbstractFileChannelProvider implements FileChannelProvider
 
     @Override
     public <T> T visitValueChannel( @NotNull FileChannelVisitor<T> visitor ) throws IOException {
+        return visitValueChannel(visitor, lock);
+    }
+
+    @Override
+    public <T> T visitValueChannelShared( @NotNull FileChannelVisitor<T> visitor ) throws IOException {
+        return visitValueChannel(visitor, visitLock.readLock());
+    }
+
+    private <T> T visitValueChannel( @NotNull FileChannelVisitor<T> visitor, @NotNull Lock lock ) throws IOException {
         if( closed ) throw new ClosedChannelException();
         lock.lock();
         try {
@@ -102,5 +118,35 @@ public abstract class AbstractFileChannelProvider implements FileChannelProvider
         }
     }
 
+    @Override
+    public int read( @NotNull final ByteBuffer dst, final long position ) throws IOException {
+        if( closed ) throw new ClosedChannelException();
+        return visitValueChannelInternal(new FileChannelVisitor<Integer>() {
+            @Override
+            public Integer visit( @NotNull FileChannel channel ) throws IOException {
+                int total = 0;
+                while( dst.hasRemaining() ) {
+                    int read = channel.read(dst, position + total);
+                    if( read == -1 ) return total == 0 ? -1 : total;
+                    total += read;
+                }
+                return total;
+            }
+        });
+    }
+
+    @Override
+    public int write( @NotNull final ByteBuffer src, final long position ) throws IOException {
+        if( closed ) throw new ClosedChannelException();
+        return visitValueChannelInternal(new FileChannelVisitor<Integer>() {
+            @Override
+            public Integer visit( @NotNull FileChannel channel ) throws IOException {
+                int total = 0;
+                while( src.hasRemaining() ) total += channel.write(src, position + total);
+                return total;
+            }
+        });
+    }
+
     protected abstract <T> T visitValueChannelInternal( @NotNull FileChannelVisitor<T> visitor ) throws IOException;
 }
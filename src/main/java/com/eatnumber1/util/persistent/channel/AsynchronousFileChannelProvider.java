@@ -0,0 +1,152 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.persistent.channel;
+
+import com.eatnumber1.util.concurrent.ListenableFutureTask;
+import com.eatnumber1.util.facade.SimpleFacade;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import net.jcip.annotations.ThreadSafe;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Runs reads, writes and visitors of the delegate on an executor, returning a future of their result to which
+ * listeners can be added, so that callers can have many operations outstanding without a thread blocking on each. The
+ * synchronous methods are passed straight to the delegate.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@ThreadSafe
+public class AsynchronousFileChannelProvider extends SimpleFacade<FileChannelProvider> implements FileChannelProvider {
+    @NotNull
+    private final Executor executor;
+
+    public AsynchronousFileChannelProvider( @NotNull FileChannelProvider delegate, @NotNull Executor executor ) {
+        super(delegate);
+        this.executor = executor;
+    }
+
+    @NotNull
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Runs the task on the provider's executor if it is asynchronous, or else runs it before returning.
+     */
+    @NotNull
+    public static <T> ListenableFutureTask<T> submit( @NotNull FileChannelProvider provider, @NotNull Callable<T> task ) {
+        ListenableFutureTask<T> future = new ListenableFutureTask<T>(task);
+        if( provider instanceof AsynchronousFileChannelProvider ) {
+            ( (AsynchronousFileChannelProvider) provider ).executor.execute(future);
+        } else {
+            future.run();
+        }
+        return future;
+    }
+
+    @NotNull
+    public <T> ListenableFutureTask<T> visitValueChannelAsync( @NotNull final FileChannelVisitor<T> visitor ) {
+        return submit(this, new Callable<T>() {
+            @Override
+            public T call() throws IOException {
+                return getDelegate().visitValueChannel(visitor);
+            }
+        });
+    }
+
+    @NotNull
+    public <T> ListenableFutureTask<T> visitValueChannelSharedAsync( @NotNull final FileChannelVisitor<T> visitor ) {
+        return submit(this, new Callable<T>() {
+            @Override
+            public T call() throws IOException {
+                return getDelegate().visitValueChannelShared(visitor);
+            }
+        });
+    }
+
+    /**
+     * @see FileChannelProvider#read(ByteBuffer, long)
+     */
+    @NotNull
+    public ListenableFutureTask<Integer> readAsync( @NotNull final ByteBuffer dst, final long position ) {
+        return submit(this, new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+                return getDelegate().read(dst, position);
+            }
+        });
+    }
+
+    /**
+     * @see FileChannelProvider#write(ByteBuffer, long)
+     */
+    @NotNull
+    public ListenableFutureTask<Integer> writeAsync( @NotNull final ByteBuffer src, final long position ) {
+        return submit(this, new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+                return getDelegate().write(src, position);
+            }
+        });
+    }
+
+    @Override
+    public <T> T visitValueChannel( @NotNull FileChannelVisitor<T> visitor ) throws IOException {
+        return getDelegate().visitValueChannel(visitor);
+    }
+
+    @Override
+    public <T> T visitValueChannelShared( @NotNull FileChannelVisitor<T> visitor ) throws IOException {
+        return getDelegate().visitValueChannelShared(visitor);
+    }
+
+    @Override
+    public int read( @NotNull ByteBuffer dst, long position ) throws IOException {
+        return getDelegate().read(dst, position);
+    }
+
+    @Override
+    public int write( @NotNull ByteBuffer src, long position ) throws IOException {
+        return getDelegate().write(src, position);
+    }
+
+    @NotNull
+    @Override
+    public File getFile() {
+        return getDelegate().getFile();
+    }
+
+    @Override
+    public void open() throws IOException {
+        getDelegate().open();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        getDelegate().flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        getDelegate().close();
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.persistent.channel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class AsynchronousFileChannelProviderFactory implements FileChannelProviderFactory {
+    @NotNull
+    private final FileChannelProviderFactory delegate;
+
+    @NotNull
+    private final Executor executor;
+
+    public AsynchronousFileChannelProviderFactory( @NotNull FileChannelProviderFactory delegate, @NotNull Executor executor ) {
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+
+    @NotNull
+    @Override
+    public FileChannelProvider create( @NotNull File file ) throws IOException {
+        return new AsynchronousFileChannelProvider(delegate.create(file), executor);
+    }
+}
@@ -21,6 +21,7 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.Flushable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -30,6 +31,29 @@ import org.jetbrains.annotations.NotNull;
 public interface FileChannelProvider extends Closeable, Openable, Flushable {
     <T> T visitValueChannel( @NotNull FileChannelVisitor<T> visitor ) throws IOException;
 
+    /**
+     * Visits the channel without excluding other shared visitors. The visitor must only use the size and positional
+     * read and write methods of the channel, and must not change its position.
+     */
+    <T> T visitValueChannelShared( @NotNull FileChannelVisitor<T> visitor ) throws IOException;
+
+    /**
+     * Reads from the given position until {@code dst} is full or the end of the file is reached, without changing the
+     * channel's position. Positional reads and writes do not lock the provider, so they may run concurrently with each
+     * other and with visitors, and callers must not depend on them being ordered with respect to visitors.
+     *
+     * @return The number of bytes read, or -1 if the position is at or past the end of the file.
+     */
+    int read( @NotNull ByteBuffer dst, long position ) throws IOException;
+
+    /**
+     * Writes all of {@code src} at the given position, without changing the channel's position.
+     *
+     * @return The number of bytes written.
+     * @see #read(ByteBuffer, long)
+     */
+    int write( @NotNull ByteBuffer src, long position ) throws IOException;
+
     @NotNull
     File getFile();
 }
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.persistent.channel;
+
+import com.eatnumber1.util.io.IOUtils;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Scattering and gathering positional I/O on top of a {@link FileChannelProvider}. {@link FileChannel} has no
+ * positional scattering or gathering methods, so these hold the provider exclusively while they move the channel's
+ * position.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class FileChannelProviderUtils {
+    private FileChannelProviderUtils() {
+    }
+
+    /**
+     * Writes all of {@code srcs} starting at the given position.
+     *
+     * @return The number of bytes written.
+     */
+    public static long write( @NotNull FileChannelProvider provider, @NotNull final ByteBuffer[] srcs, final long position ) throws IOException {
+        if( IOUtils.remaining(srcs) == 0 ) return 0;
+        return provider.visitValueChannel(new FileChannelVisitor<Long>() {
+            @Override
+            public Long visit( @NotNull FileChannel channel ) throws IOException {
+                channel.position(position);
+                return IOUtils.writeFully(channel, srcs);
+            }
+        });
+    }
+
+    /**
+     * Reads from the given position until every buffer in {@code dsts} is full or the end of the file is reached.
+     *
+     * @return The number of bytes read, or -1 if the position is at or past the end of the file.
+     */
+    public static long read( @NotNull FileChannelProvider provider, @NotNull final ByteBuffer[] dsts, final long position ) throws IOException {
+        if( IOUtils.remaining(dsts) == 0 ) return 0;
+        return provider.visitValueChannel(new FileChannelVisitor<Long>() {
+            @Override
+            public Long visit( @NotNull FileChannel channel ) throws IOException {
+                channel.position(position);
+                long remaining = IOUtils.remaining(dsts), total = 0;
+                int offset = 0;
+                while( total < remaining ) {
+                    while( !dsts[offset].hasRemaining() ) offset++;
+                    long read = channel.read(dsts, offset, dsts.length - offset);
+                    if( read == -1 ) return total == 0 ? -1 : total;
+                    total += read;
+                }
+                return total;
+            }
+        });
+    }
+}
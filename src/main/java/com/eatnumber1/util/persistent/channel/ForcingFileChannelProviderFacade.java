@@ -16,17 +16,29 @@
 
 package com.eatnumber1.util.persistent.channel;
 
+import com.eatnumber1.util.concurrent.SettableFuture;
 import com.eatnumber1.util.facade.SimpleFacade;
 import java.io.File;
 import java.io.IOException;
-import java.nio.channels.FileChannel;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Future;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
+ * Forces the delegate to disk after every exclusive visit and positional write, so that they are durable once they
+ * return. Shared visits and positional reads are not forced.
+ * <p/>
+ * Given a {@link GroupCommitCoordinator}, the facade has the coordinator force the delegate, so that writes made by
+ * many threads and through many providers share each flush of the delegate.
+ *
  * @author Russell Harmon
  * @since Jul 27, 2009
  */
 public class ForcingFileChannelProviderFacade extends SimpleFacade<FileChannelProvider> implements FileChannelProvider {
+    @Nullable
+    private GroupCommitCoordinator coordinator;
+
     public ForcingFileChannelProviderFacade() {
     }
 
@@ -34,15 +46,62 @@ public class ForcingFileChannelProviderFacade extends SimpleFacade<FileChannelPr
         super(delegate);
     }
 
+    public ForcingFileChannelProviderFacade( FileChannelProvider delegate, @Nullable GroupCommitCoordinator coordinator ) {
+        super(delegate);
+        this.coordinator = coordinator;
+    }
+
+    @Nullable
+    public GroupCommitCoordinator getCoordinator() {
+        return coordinator;
+    }
+
+    /**
+     * @return A future which completes once everything written through the facade so far is on disk.
+     */
+    @NotNull
+    public Future<Void> requestForce() {
+        if( coordinator != null ) return coordinator.requestForce(getDelegate());
+        SettableFuture<Void> future = new SettableFuture<Void>();
+        try {
+            getDelegate().flush();
+            future.set(null);
+        } catch( IOException e ) {
+            future.setException(e);
+        }
+        return future;
+    }
+
+    private void force() throws IOException {
+        if( coordinator == null ) {
+            getDelegate().flush();
+        } else {
+            coordinator.force(getDelegate());
+        }
+    }
+
+    @Override
+    public <T> T visitValueChannel( @NotNull FileChannelVisitor<T> visitor ) throws IOException {
+        T result = getDelegate().visitValueChannel(visitor);
+        force();
+        return result;
+    }
+
+    @Override
+    public <T> T visitValueChannelShared( @NotNull FileChannelVisitor<T> visitor ) throws IOException {
+        return getDelegate().visitValueChannelShared(visitor);
+    }
+
+    @Override
+    public int read( @NotNull ByteBuffer dst, long position ) throws IOException {
+        return getDelegate().read(dst, position);
+    }
+
     @Override
-    public <T> T visitValueChannel( @NotNull final FileChannelVisitor<T> visitor ) throws IOException {
-        return getDelegate().visitValueChannel(new FileChannelVisitor<T>() {
-            @Override
-            public T visit( @NotNull FileChannel channel ) throws IOException {
-                channel.force(true);
-                return visitor.visit(channel);
-            }
-        });
+    public int write( @NotNull ByteBuffer src, long position ) throws IOException {
+        int written = getDelegate().write(src, position);
+        force();
+        return written;
     }
 
     @Override
@@ -63,6 +122,6 @@ public class ForcingFileChannelProviderFacade extends SimpleFacade<FileChannelPr
 
     @Override
     public void flush() throws IOException {
-        getDelegate().flush();
+        force();
     }
 }
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.persistent.channel;
+
+import com.eatnumber1.util.concurrent.SettableFuture;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Batches requests to force providers to disk into group commits, which flush each provider once for every request made
+ * for it since the last commit. Requests which are made while a commit is in progress wait for the next one, so however
+ * many threads are waiting for durability, at most one commit is in progress and one is being gathered.
+ * <p/>
+ * A commit starts once the first request of a batch has waited {@link #getMaxDelay(TimeUnit)}, or once
+ * {@link #getMaxBatchSize()} requests are waiting. A delay of zero commits as soon as the previous commit is done, which
+ * still batches the requests which arrive while a commit is in progress.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@ThreadSafe
+public class GroupCommitCoordinator implements Closeable {
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1024;
+
+    private final long maxDelay;
+
+    private final int maxBatchSize;
+
+    @NotNull
+    private final ReentrantLock lock = new ReentrantLock();
+
+    @NotNull
+    private final Condition requested = lock.newCondition();
+
+    @NotNull
+    @GuardedBy("lock")
+    private Map<FileChannelProvider, List<SettableFuture<Void>>> pending = new LinkedHashMap<FileChannelProvider, List<SettableFuture<Void>>>();
+
+    @GuardedBy("lock")
+    private int pendingCount;
+
+    @GuardedBy("lock")
+    private long batchStart;
+
+    @GuardedBy("lock")
+    private boolean closed;
+
+    @GuardedBy("lock")
+    private long requests, commits, flushes;
+
+    @NotNull
+    private final Thread thread;
+
+    public GroupCommitCoordinator() {
+        this(0, TimeUnit.NANOSECONDS);
+    }
+
+    public GroupCommitCoordinator( long maxDelay, @NotNull TimeUnit unit ) {
+        this(maxDelay, unit, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    public GroupCommitCoordinator( long maxDelay, @NotNull TimeUnit unit, int maxBatchSize ) {
+        if( maxDelay < 0 ) throw new IllegalArgumentException("The maximum delay must not be negative.");
+        if( maxBatchSize <= 0 ) throw new IllegalArgumentException("The maximum batch size must be positive.");
+        this.maxDelay = unit.toNanos(maxDelay);
+        this.maxBatchSize = maxBatchSize;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while( commit() ) ;
+            }
+        }, getClass().getSimpleName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public long getMaxDelay( @NotNull TimeUnit unit ) {
+        return unit.convert(maxDelay, TimeUnit.NANOSECONDS);
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @return A future which completes once everything written through the provider before this call is on disk, or
+     * fails with the exception which flushing the provider threw.
+     */
+    @NotNull
+    public Future<Void> requestForce( @NotNull FileChannelProvider provider ) {
+        SettableFuture<Void> future = new SettableFuture<Void>();
+        lock.lock();
+        try {
+            if( closed ) {
+                future.setException(new IOException("The coordinator is closed."));
+                return future;
+            }
+            List<SettableFuture<Void>> futures = pending.get(provider);
+            if( futures == null ) {
+                futures = new ArrayList<SettableFuture<Void>>();
+                pending.put(provider, futures);
+            }
+            futures.add(future);
+            if( pendingCount++ == 0 ) batchStart = System.nanoTime();
+            requests++;
+            requested.signal();
+        } finally {
+            lock.unlock();
+        }
+        return future;
+    }
+
+    /**
+     * Waits until everything written through the provider before this call is on disk.
+     */
+    public void force( @NotNull FileChannelProvider provider ) throws IOException {
+        await(requestForce(provider));
+    }
+
+    /**
+     * Waits for a future returned by {@link #requestForce(FileChannelProvider)}, rethrowing the exception it failed with.
+     */
+    public static void await( @NotNull Future<Void> future ) throws IOException {
+        try {
+            future.get();
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException ex = new InterruptedIOException();
+            ex.initCause(e);
+            throw ex;
+        } catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
+            if( cause instanceof IOException ) throw (IOException) cause;
+            if( cause instanceof RuntimeException ) throw (RuntimeException) cause;
+            if( cause instanceof Error ) throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Gathers a batch of requests and flushes their providers.
+     *
+     * @return false once the coordinator is closed and every request has been committed.
+     */
+    private boolean commit() {
+        Map<FileChannelProvider, List<SettableFuture<Void>>> batch;
+        lock.lock();
+        try {
+            while( pendingCount == 0 ) {
+                if( closed ) return false;
+                requested.awaitUninterruptibly();
+            }
+            long remaining;
+            while( !closed && pendingCount < maxBatchSize && ( remaining = batchStart + maxDelay - System.nanoTime() ) > 0 ) {
+                try {
+                    requested.awaitNanos(remaining);
+                } catch( InterruptedException e ) {
+                    break;
+                }
+            }
+            batch = pending;
+            pending = new LinkedHashMap<FileChannelProvider, List<SettableFuture<Void>>>();
+            pendingCount = 0;
+            commits++;
+            flushes += batch.size();
+        } finally {
+            lock.unlock();
+        }
+        for( Map.Entry<FileChannelProvider, List<SettableFuture<Void>>> entry : batch.entrySet() ) {
+            Throwable failure = null;
+            try {
+                entry.getKey().flush();
+            } catch( Throwable t ) {
+                failure = t;
+            }
+            for( SettableFuture<Void> future : entry.getValue() ) {
+                if( failure == null ) {
+                    future.set(null);
+                } else {
+                    future.setException(failure);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of requests which have been made to force a provider.
+     */
+    public long getRequestCount() {
+        lock.lock();
+        try {
+            return requests;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getCommitCount() {
+        lock.lock();
+        try {
+            return commits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of times a provider was flushed, which is at most once per provider per commit.
+     */
+    public long getFlushCount() {
+        lock.lock();
+        try {
+            return flushes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Commits every request which is waiting and stops the commit thread. Requests made after this fail.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            requested.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            thread.join();
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException ex = new InterruptedIOException();
+            ex.initCause(e);
+            throw ex;
+        }
+    }
+}
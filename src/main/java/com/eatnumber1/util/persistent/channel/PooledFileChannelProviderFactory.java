@@ -0,0 +1,339 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.persistent.channel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Creates providers which share a bounded pool of open files, so that many file backed structures can be open at once
+ * without each holding its own file descriptors. Providers of the same file share a single open file, which is closed
+ * once every provider of it is closed. As they share its position, exclusive visits through any of them exclude each
+ * other.
+ * <p/>
+ * At most {@link #getMaxOpen()} files are kept open. Opening another closes the least recently used file which no
+ * provider is using at the time, and a provider whose file was closed reopens it when it is next used. Files which are
+ * in use are never closed, so the bound is exceeded while more files than that are in use at once. Using a file which
+ * is open only takes the factory's lock when it causes files to be closed.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@ThreadSafe
+public class PooledFileChannelProviderFactory extends AbstractFileChannelProviderFactory {
+    public static final int DEFAULT_MAX_OPEN = 256;
+
+    // Added to the pin count of a file while it is being closed, so that it cannot be pinned without the factory's lock.
+    private static final int EVICTING = Integer.MIN_VALUE / 2;
+
+    private final int maxOpen;
+
+    @NotNull
+    @GuardedBy("this")
+    private final Map<File, PooledFile> files = new HashMap<File, PooledFile>();
+
+    @NotNull
+    @GuardedBy("this")
+    private final Set<PooledFile> open = new HashSet<PooledFile>();
+
+    private volatile int openCount;
+
+    @NotNull
+    private final AtomicLong clock = new AtomicLong(), hits = new AtomicLong();
+
+    @GuardedBy("this")
+    private long misses, evictions;
+
+    private class PooledFile {
+        @NotNull
+        private final File file;
+
+        @NotNull
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        @Nullable
+        private volatile RandomAccessFile randomAccessFile;
+
+        @Nullable
+        private volatile FileChannel channel;
+
+        // The number of providers of the file.
+        @GuardedBy("PooledFileChannelProviderFactory.this")
+        private int references;
+
+        // The number of providers which are using the file.
+        @NotNull
+        private final AtomicInteger pins = new AtomicInteger();
+
+        private volatile long lastUsed;
+
+        private PooledFile( @NotNull File file ) {
+            this.file = file;
+        }
+
+        private void close() throws IOException {
+            try {
+                if( channel != null ) channel.close();
+            } finally {
+                channel = null;
+                if( randomAccessFile != null ) randomAccessFile.close();
+                randomAccessFile = null;
+            }
+        }
+    }
+
+    private class PooledFileChannelProvider extends AbstractFileChannelProvider {
+        @Nullable
+        private volatile PooledFile pooledFile;
+
+        private PooledFileChannelProvider( @NotNull File file ) throws IOException {
+            super(file, permissions);
+        }
+
+        @NotNull
+        private PooledFile getPooledFile() throws IOException {
+            PooledFile pooledFile = this.pooledFile;
+            if( pooledFile == null ) throw new ClosedChannelException();
+            return pooledFile;
+        }
+
+        @Override
+        public <T> T visitValueChannel( @NotNull FileChannelVisitor<T> visitor ) throws IOException {
+            Lock lock = getPooledFile().lock.writeLock();
+            lock.lock();
+            try {
+                return super.visitValueChannel(visitor);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public <T> T visitValueChannelShared( @NotNull FileChannelVisitor<T> visitor ) throws IOException {
+            Lock lock = getPooledFile().lock.readLock();
+            lock.lock();
+            try {
+                return super.visitValueChannelShared(visitor);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        protected <T> T visitValueChannelInternal( @NotNull FileChannelVisitor<T> visitor ) throws IOException {
+            PooledFile pooledFile = getPooledFile();
+            FileChannel channel = pin(pooledFile);
+            try {
+                return visitor.visit(channel);
+            } finally {
+                unpin(pooledFile);
+            }
+        }
+
+        @Override
+        protected void flushInternal() throws IOException {
+            PooledFile pooledFile = getPooledFile();
+            pin(pooledFile);
+            try {
+                // Syncing a reopened file still syncs the data written through a descriptor which has since been closed.
+                pooledFile.randomAccessFile.getFD().sync();
+            } finally {
+                unpin(pooledFile);
+            }
+        }
+
+        @Override
+        protected void openInternal() throws IOException {
+            pooledFile = reference(getFile());
+        }
+
+        @Override
+        protected void closeInternal() throws IOException {
+            PooledFile pooledFile = this.pooledFile;
+            this.pooledFile = null;
+            if( pooledFile != null ) dereference(pooledFile);
+        }
+    }
+
+    public PooledFileChannelProviderFactory() {
+        this("rw", DEFAULT_MAX_OPEN);
+    }
+
+    public PooledFileChannelProviderFactory( @NotNull String permissions, int maxOpen ) {
+        super(permissions);
+        if( maxOpen <= 0 ) throw new IllegalArgumentException("The maximum number of open files must be positive.");
+        this.maxOpen = maxOpen;
+    }
+
+    @NotNull
+    @Override
+    public FileChannelProvider create( @NotNull File file ) throws IOException {
+        return new PooledFileChannelProvider(file);
+    }
+
+    @NotNull
+    private synchronized PooledFile reference( @NotNull File file ) throws IOException {
+        File key = file.getCanonicalFile();
+        PooledFile pooledFile = files.get(key);
+        if( pooledFile == null ) {
+            pooledFile = new PooledFile(key);
+            // Open the file up front so that a provider of a file which cannot be opened fails to be created.
+            pin(pooledFile);
+            unpin(pooledFile);
+            files.put(key, pooledFile);
+        }
+        pooledFile.references++;
+        return pooledFile;
+    }
+
+    private synchronized void dereference( @NotNull PooledFile pooledFile ) throws IOException {
+        if( --pooledFile.references > 0 ) return;
+        files.remove(pooledFile.file);
+        if( open.remove(pooledFile) ) openCount = open.size();
+        pooledFile.close();
+    }
+
+    @NotNull
+    private FileChannel pin( @NotNull PooledFile pooledFile ) throws IOException {
+        if( pooledFile.pins.incrementAndGet() > 0 ) {
+            // The file cannot be closed while it is pinned, so an open channel stays open until it is unpinned.
+            FileChannel channel = pooledFile.channel;
+            if( channel != null ) {
+                hits.incrementAndGet();
+                pooledFile.lastUsed = clock.incrementAndGet();
+                return channel;
+            }
+        }
+        pooledFile.pins.decrementAndGet();
+        return pinOpening(pooledFile);
+    }
+
+    @NotNull
+    private synchronized FileChannel pinOpening( @NotNull PooledFile pooledFile ) throws IOException {
+        // Files are only closed with the factory's lock held, so the file is not being closed.
+        pooledFile.pins.incrementAndGet();
+        FileChannel channel = pooledFile.channel;
+        if( channel == null ) {
+            misses++;
+            try {
+                evict(maxOpen - 1);
+                RandomAccessFile randomAccessFile = new RandomAccessFile(pooledFile.file, permissions);
+                pooledFile.randomAccessFile = randomAccessFile;
+                channel = pooledFile.channel = randomAccessFile.getChannel();
+            } catch( IOException e ) {
+                pooledFile.pins.decrementAndGet();
+                throw e;
+            }
+            open.add(pooledFile);
+            openCount = open.size();
+        } else {
+            hits.incrementAndGet();
+        }
+        pooledFile.lastUsed = clock.incrementAndGet();
+        return channel;
+    }
+
+    private void unpin( @NotNull PooledFile pooledFile ) throws IOException {
+        if( pooledFile.pins.decrementAndGet() == 0 && openCount > maxOpen ) {
+            synchronized( this ) {
+                evict(maxOpen);
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private void evict( int size ) throws IOException {
+        while( open.size() > size ) {
+            PooledFile eldest = null;
+            for( PooledFile pooledFile : open ) {
+                if( pooledFile.pins.get() == 0 && ( eldest == null || pooledFile.lastUsed < eldest.lastUsed ) ) eldest = pooledFile;
+            }
+            if( eldest == null ) return;
+            // The file may have been pinned since it was chosen, in which case another is chosen.
+            if( !eldest.pins.compareAndSet(0, EVICTING) ) continue;
+            try {
+                open.remove(eldest);
+                openCount = open.size();
+                evictions++;
+                eldest.close();
+            } finally {
+                eldest.pins.addAndGet(-EVICTING);
+            }
+        }
+    }
+
+    /**
+     * Closes every open file which is not in use. Providers reopen their files when they are next used.
+     */
+    public synchronized void clear() throws IOException {
+        evict(0);
+    }
+
+    public int getMaxOpen() {
+        return maxOpen;
+    }
+
+    public int getOpenCount() {
+        return openCount;
+    }
+
+    /**
+     * @return The number of files which have providers which are not closed.
+     */
+    public synchronized int getFileCount() {
+        return files.size();
+    }
+
+    /**
+     * @return The number of times a provider used its file while it was open.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of times a file had to be opened, including when it was first opened.
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return getClass().getSimpleName() + "[open=" + open.size() + "/" + maxOpen + ", files=" + files.size() + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+    }
+}
@@ -18,6 +18,7 @@ package com.eatnumber1.util.persistent.channel;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -34,4 +35,22 @@ public class ReopeningFileChannelProvider extends SimpleFileChannelProvider {
         if( closed ) open();
         return super.visitValueChannel(visitor);
     }
+
+    @Override
+    public <T> T visitValueChannelShared( @NotNull FileChannelVisitor<T> visitor ) throws IOException {
+        if( closed ) open();
+        return super.visitValueChannelShared(visitor);
+    }
+
+    @Override
+    public int read( @NotNull ByteBuffer dst, long position ) throws IOException {
+        if( closed ) open();
+        return super.read(dst, position);
+    }
+
+    @Override
+    public int write( @NotNull ByteBuffer src, long position ) throws IOException {
+        if( closed ) open();
+        return super.write(src, position);
+    }
 }
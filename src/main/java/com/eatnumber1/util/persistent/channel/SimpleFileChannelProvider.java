@@ -30,8 +30,9 @@ public class SimpleFileChannelProvider extends AbstractFileChannelProvider {
     @NotNull
     private RandomAccessFile file;
 
+    // Positional reads and writes use the channel without holding the lock.
     @NotNull
-    private FileChannel channel;
+    private volatile FileChannel channel;
 
     public SimpleFileChannelProvider( @NotNull File file, @NotNull String permissions ) throws IOException {
         super(file, permissions);
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.persistent.channel;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import net.jcip.annotations.NotThreadSafe;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A journal which allows a set of files to be rolled back to the state they were in when a transaction began. Before a
+ * range of one of the files is overwritten for the first time in a transaction, its original contents are appended to
+ * the journal and forced to disk. Rolling back writes the preserved ranges back and truncates the files to their
+ * original lengths, so the files must not be truncated below their original lengths while a transaction is active.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@NotThreadSafe
+public class UndoJournal implements Closeable {
+    private static final long MAGIC = 0x556e646f4a726e6cL;
+
+    private static final int ENTRY_HEADER_SIZE = 4 + 8 + 4, CRC_SIZE = 4;
+
+    private static final int MAX_ENTRY_SIZE = 1024 * 1024;
+
+    @NotNull
+    private final FileChannelProvider journal;
+
+    @NotNull
+    private final FileChannelProvider[] files;
+
+    // The lengths of the files when the transaction began, or null if there is no active transaction.
+    @Nullable
+    private long[] lengths;
+
+    // The ranges of each file which have been preserved, keyed by their start.
+    @NotNull
+    private final List<TreeMap<Long, Long>> preserved;
+
+    private long position;
+
+    public UndoJournal( @NotNull FileChannelProvider journal, @NotNull FileChannelProvider... files ) {
+        this.journal = journal;
+        this.files = files;
+        preserved = new ArrayList<TreeMap<Long, Long>>(files.length);
+        for( FileChannelProvider ignored : files ) preserved.add(new TreeMap<Long, Long>());
+    }
+
+    public boolean isActive() {
+        return lengths != null;
+    }
+
+    /**
+     * Begins a transaction, unless one is already active.
+     *
+     * @param state A value to be returned by {@link #rollback()}, such as the number of records in the files.
+     * @param lengths The lengths of the files which are to be restored on rollback.
+     */
+    public void begin( long state, @NotNull long... lengths ) throws IOException {
+        if( isActive() ) return;
+        if( lengths.length != files.length ) throw new IllegalArgumentException("A length is required for every file.");
+        ByteBuffer header = ByteBuffer.allocate(8 + 8 + 4 + 8 * lengths.length + CRC_SIZE);
+        header.putLong(MAGIC).putLong(state).putInt(lengths.length);
+        for( long length : lengths ) header.putLong(length);
+        putCrc(header);
+        write(journal, header, 0);
+        journal.flush();
+        position = header.capacity();
+        this.lengths = lengths.clone();
+    }
+
+    /**
+     * Preserves the original contents of a range of a file which is about to be overwritten.
+     */
+    public void preserve( int file, long offset, long length ) throws IOException {
+        long[] lengths = this.lengths;
+        if( lengths == null ) throw new IllegalStateException("No transaction is active.");
+        TreeMap<Long, Long> ranges = preserved.get(file);
+        long end = Math.min(offset + length, lengths[file]);
+        boolean written = false;
+        while( offset < end ) {
+            Map.Entry<Long, Long> floor = ranges.floorEntry(offset);
+            if( floor != null && floor.getValue() > offset ) {
+                offset = floor.getValue();
+                continue;
+            }
+            Long next = ranges.higherKey(offset);
+            long gapEnd = Math.min(end, next == null ? end : next);
+            gapEnd = Math.min(gapEnd, offset + MAX_ENTRY_SIZE);
+            ByteBuffer entry = ByteBuffer.allocate(ENTRY_HEADER_SIZE + (int) ( gapEnd - offset ) + CRC_SIZE);
+            entry.putInt(file).putLong(offset).putInt((int) ( gapEnd - offset ));
+            ByteBuffer data = entry.slice();
+            data.limit((int) ( gapEnd - offset ));
+            read(files[file], data, offset);
+            entry.position(entry.position() + data.limit());
+            putCrc(entry);
+            write(journal, entry, position);
+            position += entry.capacity();
+            ranges.put(offset, gapEnd);
+            offset = gapEnd;
+            written = true;
+        }
+        if( written ) journal.flush();
+    }
+
+    /**
+     * Ends the active transaction. The files must have been forced to disk first.
+     */
+    public void commit() throws IOException {
+        truncate(journal, 0);
+        journal.flush();
+        lengths = null;
+        position = 0;
+        for( TreeMap<Long, Long> ranges : preserved ) ranges.clear();
+    }
+
+    /**
+     * Restores the files to the state they were in when the last transaction began, if it was not committed. The
+     * journal is left intact so that the rollback can be repeated, and should be committed once anything else which
+     * depends on the state has been restored.
+     *
+     * @return The state passed to {@link #begin(long, long[])}, or -1 if there was nothing to roll back.
+     */
+    public long rollback() throws IOException {
+        long size = size(journal);
+        ByteBuffer header = ByteBuffer.allocate(8 + 8 + 4);
+        if( size < header.capacity() ) {
+            commit();
+            return -1;
+        }
+        read(journal, header, 0);
+        int count = header.getInt(16);
+        if( header.getLong(0) != MAGIC || count != files.length ) {
+            commit();
+            return -1;
+        }
+        ByteBuffer fullHeader = ByteBuffer.allocate(header.capacity() + 8 * count + CRC_SIZE);
+        if( size < fullHeader.capacity() ) {
+            commit();
+            return -1;
+        }
+        read(journal, fullHeader, 0);
+        if( !checkCrc(fullHeader) ) {
+            // The header is forced before any of the files are modified, so they are still intact.
+            commit();
+            return -1;
+        }
+        long state = fullHeader.getLong(8);
+        long position = fullHeader.capacity();
+        ByteBuffer entryHeader = ByteBuffer.allocate(ENTRY_HEADER_SIZE);
+        while( position + ENTRY_HEADER_SIZE + CRC_SIZE <= size ) {
+            entryHeader.clear();
+            read(journal, entryHeader, position);
+            int file = entryHeader.getInt(0), length = entryHeader.getInt(12);
+            // An entry which was torn by a crash was never followed by a write to the file it preserves.
+            if( file < 0 || file >= files.length || length < 0 || position + ENTRY_HEADER_SIZE + length + CRC_SIZE > size ) break;
+            ByteBuffer entry = ByteBuffer.allocate(ENTRY_HEADER_SIZE + length + CRC_SIZE);
+            read(journal, entry, position);
+            if( !checkCrc(entry) ) break;
+            entry.limit(ENTRY_HEADER_SIZE + length).position(ENTRY_HEADER_SIZE);
+            write(files[file], entry.slice(), entryHeader.getLong(4));
+            position += entry.capacity();
+        }
+        for( int i = 0; i < count; i++ ) {
+            truncate(files[i], fullHeader.getLong(20 + 8 * i));
+            files[i].flush();
+        }
+        return state;
+    }
+
+    private static void putCrc( @NotNull ByteBuffer buf ) {
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putInt((int) crc.getValue());
+        buf.flip();
+    }
+
+    private static boolean checkCrc( @NotNull ByteBuffer buf ) {
+        CRC32 crc = new CRC32();
+        int length = buf.capacity() - CRC_SIZE;
+        crc.update(buf.array(), 0, length);
+        return buf.getInt(length) == (int) crc.getValue();
+    }
+
+    private static long size( @NotNull FileChannelProvider provider ) throws IOException {
+        return provider.visitValueChannelShared(new FileChannelVisitor<Long>() {
+            @Override
+            public Long visit( @NotNull FileChannel channel ) throws IOException {
+                return channel.size();
+            }
+        });
+    }
+
+    private static void truncate( @NotNull FileChannelProvider provider, final long length ) throws IOException {
+        provider.visitValueChannel(new FileChannelVisitor<Void>() {
+            @Override
+            public Void visit( @NotNull FileChannel channel ) throws IOException {
+                if( channel.size() > length ) channel.truncate(length);
+                return null;
+            }
+        });
+    }
+
+    private static void read( @NotNull FileChannelProvider provider, @NotNull final ByteBuffer dst, final long start ) throws IOException {
+        provider.visitValueChannel(new FileChannelVisitor<Void>() {
+            @Override
+            public Void visit( @NotNull FileChannel channel ) throws IOException {
+                long position = start;
+                while( dst.hasRemaining() ) {
+                    int bytesRead = channel.read(dst, position);
+                    if( bytesRead == -1 ) throw new EOFException("Premature end of file.");
+                    position += bytesRead;
+                }
+                return null;
+            }
+        });
+        dst.flip();
+    }
+
+    private static void write( @NotNull FileChannelProvider provider, @NotNull final ByteBuffer src, final long start ) throws IOException {
+        provider.visitValueChannel(new FileChannelVisitor<Void>() {
+            @Override
+            public Void visit( @NotNull FileChannel channel ) throws IOException {
+                long position = start;
+                while( src.hasRemaining() ) position += channel.write(src, position);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        journal.close();
+    }
+}
@@ -16,12 +16,15 @@
 
 package com.eatnumber1.util.persistent.numbers;
 
+import com.eatnumber1.util.concurrent.ListenableFutureTask;
 import com.eatnumber1.util.io.FileUtils;
 import com.eatnumber1.util.numbers.AbstractMutableNumber;
+import com.eatnumber1.util.persistent.channel.AsynchronousFileChannelProvider;
 import com.eatnumber1.util.persistent.channel.FileChannelProvider;
 import com.eatnumber1.util.persistent.channel.SimpleFileChannelProvider;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.Callable;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -128,6 +131,29 @@ public abstract class AbstractFileBackedNumber extends AbstractMutableNumber imp
         }
     }
 
+    @NotNull
+    @Override
+    public ListenableFutureTask<Number> getAsync() {
+        return AsynchronousFileChannelProvider.submit(provider, new Callable<Number>() {
+            @Override
+            public Number call() throws IOException {
+                return getValue();
+            }
+        });
+    }
+
+    @NotNull
+    @Override
+    public ListenableFutureTask<Void> setAsync( @NotNull final Number value ) {
+        return AsynchronousFileChannelProvider.submit(provider, new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                setValue(value);
+                return null;
+            }
+        });
+    }
+
     public abstract int getSize();
 
     @Override
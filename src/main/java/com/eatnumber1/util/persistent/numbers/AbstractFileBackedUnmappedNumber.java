@@ -19,6 +19,7 @@ package com.eatnumber1.util.persistent.numbers;
 import com.eatnumber1.util.io.IOUtils;
 import com.eatnumber1.util.persistent.channel.FileChannelProvider;
 import com.eatnumber1.util.persistent.channel.FileChannelVisitor;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -44,12 +45,14 @@ public abstract class AbstractFileBackedUnmappedNumber extends AbstractFileBacke
 
     @NotNull
     protected Number getValue() throws IOException {
-        return provider.visitValueChannel(new FileChannelVisitor<Number>() {
+        // Reads use a shared visit, which forcing providers do not force.
+        return provider.visitValueChannelShared(new FileChannelVisitor<Number>() {
             @Override
             public Number visit( @NotNull FileChannel channel ) throws IOException {
                 ByteBuffer buf = ByteBuffer.allocate(getSize());
-                channel.position(0);
-                IOUtils.read(channel, buf, getSize());
+                while( buf.hasRemaining() ) {
+                    if( channel.read(buf, buf.position()) == -1 ) throw new EOFException("Premature end of file.");
+                }
                 buf.position(0);
                 return getValue(buf);
             }
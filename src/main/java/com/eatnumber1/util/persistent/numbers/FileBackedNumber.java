@@ -16,10 +16,12 @@
 
 package com.eatnumber1.util.persistent.numbers;
 
+import com.eatnumber1.util.concurrent.ListenableFutureTask;
 import com.eatnumber1.util.io.Openable;
 import com.eatnumber1.util.numbers.MutableNumber;
 import java.io.Closeable;
 import java.io.Flushable;
+import org.jetbrains.annotations.NotNull;
 
 /**
  * @author Russell Harmon
@@ -27,4 +29,17 @@ import java.io.Flushable;
  */
 public interface FileBackedNumber extends MutableNumber, Flushable, Closeable, Openable {
     public boolean isMapped();
+
+    /**
+     * Reads the value on the executor of the number's provider if it is an
+     * {@link com.eatnumber1.util.persistent.channel.AsynchronousFileChannelProvider}, or else before returning.
+     */
+    @NotNull
+    public ListenableFutureTask<Number> getAsync();
+
+    /**
+     * Writes the value as {@link #getAsync()} reads it.
+     */
+    @NotNull
+    public ListenableFutureTask<Void> setAsync( @NotNull Number value );
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.persistent.provider;
+
+import com.eatnumber1.util.collections.persistent.PersistenceException;
+import java.nio.ByteBuffer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public abstract class AbstractByteBufferPersistenceProvider<T> implements ByteBufferPersistenceProvider<T> {
+    @NotNull
+    @Override
+    public byte[] toBytes( @Nullable T object ) throws PersistenceException {
+        byte[] bytes = new byte[getEncodedSize(object)];
+        encode(object, ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    @Nullable
+    @Override
+    public T fromBytes( @NotNull byte[] bytes ) throws PersistenceException {
+        return decode(ByteBuffer.wrap(bytes));
+    }
+}
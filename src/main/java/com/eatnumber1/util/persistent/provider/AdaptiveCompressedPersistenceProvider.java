@@ -0,0 +1,197 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.persistent.provider;
+
+import com.eatnumber1.util.collections.persistent.PersistenceException;
+import com.eatnumber1.util.compression.CompressionException;
+import com.eatnumber1.util.compression.CompressionProvider;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Only keeps the compressed form of an object when it is sufficiently smaller than the object itself. Each object is
+ * prefixed with a byte saying whether it is stored raw or compressed, so objects which are stored raw are read without
+ * going through the compression provider. This format is not compatible with that of
+ * {@link CompressedPersistenceProvider}.
+ * <p/>
+ * After a run of objects which did not compress, compression is only attempted on one object in every
+ * {@link #getProbeInterval()}, until one compresses again. Since the same object may be stored raw one time and
+ * compressed the next, an object must be encoded by the thread which just sized it.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class AdaptiveCompressedPersistenceProvider<T> extends CompressedPersistenceProvider<T> {
+    protected static final byte RAW = 0, COMPRESSED = 1;
+
+    public static final double DEFAULT_MIN_SAVINGS = 0.1;
+
+    public static final int DEFAULT_MAX_FAILURES = 16;
+
+    public static final int DEFAULT_PROBE_INTERVAL = 64;
+
+    private double minSavings;
+
+    private int maxFailures, probeInterval;
+
+    @NotNull
+    private final AtomicInteger failures = new AtomicInteger();
+
+    @NotNull
+    private final AtomicLong writes = new AtomicLong(), attempts = new AtomicLong(), compressed = new AtomicLong();
+
+    // The form of the object each thread last sized, which is encoded as it is rather than deciding again.
+    @NotNull
+    private final ThreadLocal<ByteBufferPersistenceProviderAdapter.Encoded<T>> sized = new ThreadLocal<ByteBufferPersistenceProviderAdapter.Encoded<T>>();
+
+    public AdaptiveCompressedPersistenceProvider( @NotNull PersistenceProvider<T> delegate, @NotNull CompressionProvider compressionProvider ) {
+        this(delegate, compressionProvider, DEFAULT_MIN_SAVINGS, DEFAULT_MAX_FAILURES, DEFAULT_PROBE_INTERVAL);
+    }
+
+    /**
+     * @param minSavings The fraction of its size which compression must save on an object for it to be stored
+     * compressed.
+     * @param maxFailures The number of objects in a row which must fail to compress before attempts are skipped.
+     * @param probeInterval While attempts are skipped, compression is attempted on one object in this many.
+     */
+    public AdaptiveCompressedPersistenceProvider( @NotNull PersistenceProvider<T> delegate, @NotNull CompressionProvider compressionProvider, double minSavings, int maxFailures, int probeInterval ) {
+        super(delegate, compressionProvider);
+        if( minSavings < 0 || minSavings >= 1 ) throw new IllegalArgumentException("The minimum savings must be at least zero and less than one.");
+        if( maxFailures <= 0 ) throw new IllegalArgumentException("The maximum failures must be positive.");
+        if( probeInterval <= 0 ) throw new IllegalArgumentException("The probe interval must be positive.");
+        this.minSavings = minSavings;
+        this.maxFailures = maxFailures;
+        this.probeInterval = probeInterval;
+    }
+
+    public double getMinSavings() {
+        return minSavings;
+    }
+
+    public int getMaxFailures() {
+        return maxFailures;
+    }
+
+    public int getProbeInterval() {
+        return probeInterval;
+    }
+
+    /**
+     * @return The number of objects which compression was attempted on.
+     */
+    public long getAttemptCount() {
+        return attempts.get();
+    }
+
+    /**
+     * @return The number of objects which were stored compressed.
+     */
+    public long getCompressedCount() {
+        return compressed.get();
+    }
+
+    private boolean shouldAttempt() {
+        long write = writes.getAndIncrement();
+        return failures.get() < maxFailures || write % probeInterval == 0;
+    }
+
+    @NotNull
+    private static byte[] tag( byte tag, @NotNull byte[] bytes ) {
+        byte[] tagged = new byte[bytes.length + 1];
+        tagged[0] = tag;
+        System.arraycopy(bytes, 0, tagged, 1, bytes.length);
+        return tagged;
+    }
+
+    @NotNull
+    @Override
+    public byte[] toBytes( @Nullable T object ) throws PersistenceException {
+        if( object == null ) return new byte[0];
+        byte[] raw = getDelegate().toBytes(object);
+        if( shouldAttempt() ) {
+            attempts.incrementAndGet();
+            byte[] bytes;
+            try {
+                bytes = getCompressionProvider().compress(raw);
+            } catch( CompressionException e ) {
+                throw new PersistenceException(e);
+            }
+            if( bytes.length <= raw.length * ( 1 - minSavings ) ) {
+                failures.set(0);
+                compressed.incrementAndGet();
+                return tag(COMPRESSED, bytes);
+            }
+            failures.incrementAndGet();
+        }
+        return tag(RAW, raw);
+    }
+
+    @Nullable
+    @Override
+    public T fromBytes( @NotNull byte[] bytes ) throws PersistenceException {
+        if( bytes.length == 0 ) return null;
+        byte[] payload = Arrays.copyOfRange(bytes, 1, bytes.length);
+        switch( bytes[0] ) {
+            case RAW:
+                return getDelegate().fromBytes(payload);
+            case COMPRESSED:
+                return super.fromBytes(payload);
+            default:
+                throw new PersistenceException("Unknown payload type " + bytes[0] + ".");
+        }
+    }
+
+    @Override
+    public int getEncodedSize( @Nullable T object ) throws PersistenceException {
+        byte[] bytes = toBytes(object);
+        sized.set(new ByteBufferPersistenceProviderAdapter.Encoded<T>(object, bytes));
+        return bytes.length;
+    }
+
+    /**
+     * @throws IllegalStateException If this thread did not just size the object.
+     */
+    @Override
+    public void encode( @Nullable T object, @NotNull ByteBuffer dst ) throws PersistenceException {
+        ByteBufferPersistenceProviderAdapter.Encoded<T> encoded = sized.get();
+        if( encoded == null || encoded.object != object ) throw new IllegalStateException("The object was not just sized.");
+        sized.remove();
+        dst.put(encoded.bytes);
+    }
+
+    @Nullable
+    @Override
+    public T decode( @NotNull ByteBuffer src ) throws PersistenceException {
+        if( !src.hasRemaining() ) return null;
+        byte tag = src.get();
+        switch( tag ) {
+            case RAW:
+                byte[] payload = new byte[src.remaining()];
+                src.get(payload);
+                return getDelegate().fromBytes(payload);
+            case COMPRESSED:
+                return super.decode(src);
+            default:
+                src.position(src.limit());
+                throw new PersistenceException("Unknown payload type " + tag + ".");
+        }
+    }
+}
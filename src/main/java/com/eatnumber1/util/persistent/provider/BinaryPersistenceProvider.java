@@ -0,0 +1,65 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.persistent.provider;
+
+import com.eatnumber1.util.collections.persistent.PersistenceException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A provider with a compact hand written encoding. Every value is encoded as a field which knows its own length and is
+ * never empty, so fields can be concatenated into records and null can be persisted as no bytes at all.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public abstract class BinaryPersistenceProvider<T> extends AbstractByteBufferPersistenceProvider<T> {
+    public abstract int getFieldSize( @NotNull T object ) throws PersistenceException;
+
+    public abstract void encodeField( @NotNull T object, @NotNull ByteBuffer dst ) throws PersistenceException;
+
+    @NotNull
+    public abstract T decodeField( @NotNull ByteBuffer src ) throws PersistenceException;
+
+    @Override
+    public int getEncodedSize( @Nullable T object ) throws PersistenceException {
+        return object == null ? 0 : getFieldSize(object);
+    }
+
+    @Override
+    public void encode( @Nullable T object, @NotNull ByteBuffer dst ) throws PersistenceException {
+        if( object != null ) encodeField(object, dst);
+    }
+
+    @Nullable
+    @Override
+    public T decode( @NotNull ByteBuffer src ) throws PersistenceException {
+        if( !src.hasRemaining() ) return null;
+        T object;
+        try {
+            object = decodeField(src);
+        } catch( BufferUnderflowException e ) {
+            throw new PersistenceException("Truncated field.", e);
+        } catch( IllegalArgumentException e ) {
+            throw new PersistenceException(e);
+        }
+        if( src.hasRemaining() ) throw new PersistenceException(src.remaining() + " bytes follow the field.");
+        return object;
+    }
+}
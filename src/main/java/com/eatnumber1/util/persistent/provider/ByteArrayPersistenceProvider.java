@@ -0,0 +1,51 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.persistent.provider;
+
+import com.eatnumber1.util.collections.persistent.PersistenceException;
+import com.eatnumber1.util.nio.ByteBufferUtils;
+import java.nio.ByteBuffer;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Arrays are written as their varint length followed by their contents.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class ByteArrayPersistenceProvider extends BinaryPersistenceProvider<byte[]> {
+    @Override
+    public int getFieldSize( @NotNull byte[] object ) {
+        return ByteBufferUtils.getVarintSize(object.length) + object.length;
+    }
+
+    @Override
+    public void encodeField( @NotNull byte[] object, @NotNull ByteBuffer dst ) {
+        ByteBufferUtils.putVarint(dst, object.length);
+        dst.put(object);
+    }
+
+    @NotNull
+    @Override
+    public byte[] decodeField( @NotNull ByteBuffer src ) throws PersistenceException {
+        long length = ByteBufferUtils.getVarint(src);
+        if( length < 0 || length > src.remaining() ) throw new PersistenceException("Truncated array.");
+        byte[] bytes = new byte[(int) length];
+        src.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.persistent.provider;
+
+import com.eatnumber1.util.collections.persistent.PersistenceException;
+import java.nio.ByteBuffer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A persistence provider which encodes objects into, and decodes them from, buffers supplied by the caller. This lets
+ * callers reuse a single buffer for every object instead of allocating an array per object.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public interface ByteBufferPersistenceProvider<T> extends PersistenceProvider<T> {
+    /**
+     * @return The number of bytes which {@link #encode(Object, ByteBuffer)} will write for the object.
+     */
+    int getEncodedSize( @Nullable T object ) throws PersistenceException;
+
+    /**
+     * Writes exactly {@link #getEncodedSize(Object)} bytes at the position of the buffer, advancing it.
+     */
+    void encode( @Nullable T object, @NotNull ByteBuffer dst ) throws PersistenceException;
+
+    /**
+     * Reads an object from all the remaining bytes of the buffer. The buffer may be reused once this returns, so it must
+     * not be retained.
+     */
+    @Nullable
+    T decode( @NotNull ByteBuffer src ) throws PersistenceException;
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.persistent.provider;
+
+import com.eatnumber1.util.collections.persistent.PersistenceException;
+import com.eatnumber1.util.facade.SimpleFacade;
+import java.nio.ByteBuffer;
+import net.jcip.annotations.ThreadSafe;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Adapts a persistence provider which works on arrays to one which works on buffers. The array persisting an object is
+ * kept from {@link #getEncodedSize(Object)} until the object is encoded, so the object is only persisted once. Each
+ * thread keeps the array it last sized, so threads may size and encode objects concurrently.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@ThreadSafe
+public class ByteBufferPersistenceProviderAdapter<T> extends SimpleFacade<PersistenceProvider<T>> implements ByteBufferPersistenceProvider<T> {
+    static class Encoded<T> {
+        @Nullable
+        final T object;
+
+        @NotNull
+        final byte[] bytes;
+
+        Encoded( @Nullable T object, @NotNull byte[] bytes ) {
+            this.object = object;
+            this.bytes = bytes;
+        }
+    }
+
+    @NotNull
+    private final ThreadLocal<Encoded<T>> sized = new ThreadLocal<Encoded<T>>();
+
+    public ByteBufferPersistenceProviderAdapter( @NotNull PersistenceProvider<T> delegate ) {
+        super(delegate);
+    }
+
+    /**
+     * @return The provider if it already works on buffers, otherwise an adapter for it.
+     */
+    @NotNull
+    public static <T> ByteBufferPersistenceProvider<T> adapt( @NotNull PersistenceProvider<T> provider ) {
+        if( provider instanceof ByteBufferPersistenceProvider ) return (ByteBufferPersistenceProvider<T>) provider;
+        return new ByteBufferPersistenceProviderAdapter<T>(provider);
+    }
+
+    @NotNull
+    @Override
+    public byte[] toBytes( @Nullable T object ) throws PersistenceException {
+        return getDelegate().toBytes(object);
+    }
+
+    @Nullable
+    @Override
+    public T fromBytes( @NotNull byte[] bytes ) throws PersistenceException {
+        return getDelegate().fromBytes(bytes);
+    }
+
+    @Override
+    public int getEncodedSize( @Nullable T object ) throws PersistenceException {
+        byte[] bytes = getDelegate().toBytes(object);
+        sized.set(new Encoded<T>(object, bytes));
+        return bytes.length;
+    }
+
+    @Override
+    public void encode( @Nullable T object, @NotNull ByteBuffer dst ) throws PersistenceException {
+        // The object may have changed since it was sized if it is encoded again later, so the array is only used once.
+        Encoded<T> encoded = sized.get();
+        sized.remove();
+        dst.put(encoded != null && encoded.object == object ? encoded.bytes : getDelegate().toBytes(object));
+    }
+
+    @Nullable
+    @Override
+    public T decode( @NotNull ByteBuffer src ) throws PersistenceException {
+        byte[] bytes;
+        if( src.hasArray() && src.arrayOffset() == 0 && src.position() == 0 && src.limit() == src.array().length ) {
+            bytes = src.array();
+        } else {
+            bytes = new byte[src.remaining()];
+            src.duplicate().get(bytes);
+        }
+        src.position(src.limit());
+        return getDelegate().fromBytes(bytes);
+    }
+}
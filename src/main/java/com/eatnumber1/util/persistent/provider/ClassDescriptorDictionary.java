@@ -0,0 +1,187 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.persistent.provider;
+
+import com.eatnumber1.util.io.IOUtils;
+import com.eatnumber1.util.persistent.channel.FileChannelProvider;
+import com.eatnumber1.util.persistent.channel.FileChannelVisitor;
+import com.eatnumber1.util.persistent.channel.SimpleFileChannelProvider;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import net.jcip.annotations.ThreadSafe;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Numbers the class descriptors written by a {@link SerializablePersistenceProvider}, so that each descriptor is only
+ * stored once no matter how many objects of its class are persisted. The dictionary is usually kept next to the
+ * directory of the collection which uses it.
+ * <p/>
+ * The file holds each descriptor as its length followed by the descriptor serialized on its own. A descriptor is forced
+ * to disk before its number is handed out, so no persisted object can refer to a descriptor which was lost.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+@ThreadSafe
+public class ClassDescriptorDictionary implements Closeable {
+    private static final int LENGTH_SIZE = Integer.SIZE / 8;
+
+    @NotNull
+    private FileChannelProvider channel;
+
+    // Descriptors by their number, serialized, and decoded the first time they are read.
+    @NotNull
+    private final List<byte[]> serialized = new ArrayList<byte[]>();
+
+    @NotNull
+    private final List<ObjectStreamClass> descriptors = new ArrayList<ObjectStreamClass>();
+
+    @NotNull
+    private final Map<ByteBuffer, Integer> ids = new HashMap<ByteBuffer, Integer>();
+
+    // Descriptors of local classes are serialized once per class rather than once per object.
+    @NotNull
+    private final Map<Class<?>, Integer> classIds = new WeakHashMap<Class<?>, Integer>();
+
+    private long length;
+
+    public ClassDescriptorDictionary( @NotNull File file ) throws IOException {
+        channel = new SimpleFileChannelProvider(file, "rw");
+        try {
+            load();
+        } catch( IOException e ) {
+            IOUtils.closeQuietly(channel);
+            throw e;
+        }
+    }
+
+    private void load() throws IOException {
+        channel.visitValueChannel(new FileChannelVisitor<Void>() {
+            @Override
+            public Void visit( @NotNull FileChannel channel ) throws IOException {
+                long size = channel.size();
+                ByteBuffer header = ByteBuffer.allocate(LENGTH_SIZE);
+                while( length + LENGTH_SIZE <= size ) {
+                    header.clear();
+                    IOUtils.read(channel, header, LENGTH_SIZE);
+                    int entryLength = header.getInt(0);
+                    // A descriptor which was being appended when the process died was never handed out.
+                    if( entryLength <= 0 || length + LENGTH_SIZE + entryLength > size ) break;
+                    ByteBuffer entry = ByteBuffer.allocate(entryLength);
+                    IOUtils.read(channel, entry, entryLength);
+                    add(entry.array());
+                    length += LENGTH_SIZE + entryLength;
+                }
+                if( length != size ) channel.truncate(length);
+                channel.position(length);
+                return null;
+            }
+        });
+    }
+
+    private int add( @NotNull byte[] bytes ) {
+        int id = serialized.size();
+        serialized.add(bytes);
+        descriptors.add(null);
+        ids.put(ByteBuffer.wrap(bytes), id);
+        return id;
+    }
+
+    /**
+     * @return The number of the descriptor, which is added to the dictionary if it is not in it already.
+     */
+    public synchronized int getId( @NotNull ObjectStreamClass descriptor ) throws IOException {
+        Class<?> type = descriptor.forClass();
+        boolean local = type != null && ObjectStreamClass.lookup(type) == descriptor;
+        if( local ) {
+            Integer id = classIds.get(type);
+            if( id != null ) return id;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(descriptor);
+        out.close();
+        byte[] entry = bytes.toByteArray();
+        Integer id = ids.get(ByteBuffer.wrap(entry));
+        if( id == null ) id = append(entry);
+        if( local ) classIds.put(type, id);
+        return id;
+    }
+
+    private int append( @NotNull final byte[] entry ) throws IOException {
+        channel.visitValueChannel(new FileChannelVisitor<Void>() {
+            @Override
+            public Void visit( @NotNull FileChannel channel ) throws IOException {
+                ByteBuffer buf = ByteBuffer.allocate(LENGTH_SIZE + entry.length);
+                buf.putInt(entry.length).put(entry).flip();
+                IOUtils.write(channel, buf, buf.remaining());
+                channel.force(false);
+                return null;
+            }
+        });
+        length += LENGTH_SIZE + entry.length;
+        return add(entry);
+    }
+
+    @NotNull
+    public synchronized ObjectStreamClass getDescriptor( int id ) throws IOException {
+        if( id < 0 || id >= serialized.size() ) throw new InvalidClassException("Unknown class descriptor " + id + ".");
+        ObjectStreamClass descriptor = descriptors.get(id);
+        if( descriptor == null ) {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized.get(id)));
+            try {
+                descriptor = (ObjectStreamClass) in.readObject();
+            } catch( ClassNotFoundException e ) {
+                InvalidClassException ex = new InvalidClassException("Cannot resolve class descriptor " + id + ".");
+                ex.initCause(e);
+                throw ex;
+            } finally {
+                in.close();
+            }
+            descriptors.set(id, descriptor);
+        }
+        return descriptor;
+    }
+
+    public synchronized int size() {
+        return serialized.size();
+    }
+
+    @NotNull
+    public File getFile() {
+        return channel.getFile();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
@@ -19,7 +19,14 @@ package com.eatnumber1.util.persistent.provider;
 import com.eatnumber1.util.collections.persistent.PersistenceException;
 import com.eatnumber1.util.compression.CompressionException;
 import com.eatnumber1.util.compression.CompressionProvider;
+import com.eatnumber1.util.compression.DictionaryCompressionProvider;
 import com.eatnumber1.util.facade.SimpleFacade;
+import com.eatnumber1.util.io.ByteBufferInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.apache.commons.io.IOUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -27,13 +34,50 @@ import org.jetbrains.annotations.Nullable;
  * @author Russell Harmon
  * @since Jul 13, 2007
  */
-public class CompressedPersistenceProvider<T> extends SimpleFacade<PersistenceProvider<T>> implements PersistenceProvider<T> {
+public class CompressedPersistenceProvider<T> extends SimpleFacade<PersistenceProvider<T>> implements ByteBufferPersistenceProvider<T> {
     @NotNull
-    private CompressionProvider compressionProvider;
+    private final CompressionProvider baseCompressionProvider;
+
+    @NotNull
+    private volatile CompressionProvider compressionProvider;
+
+    // Remembers the compressed form of an object between sizing and encoding it.
+    @NotNull
+    private final ByteBufferPersistenceProvider<T> compressed = new ByteBufferPersistenceProviderAdapter<T>(new PersistenceProvider<T>() {
+        @NotNull
+        @Override
+        public byte[] toBytes( @Nullable T object ) throws PersistenceException {
+            return CompressedPersistenceProvider.this.toBytes(object);
+        }
+
+        @Nullable
+        @Override
+        public T fromBytes( @NotNull byte[] bytes ) throws PersistenceException {
+            return CompressedPersistenceProvider.this.fromBytes(bytes);
+        }
+    });
 
     public CompressedPersistenceProvider( @NotNull PersistenceProvider<T> delegate, @NotNull CompressionProvider compressionProvider ) {
         super(delegate);
-        this.compressionProvider = compressionProvider;
+        this.compressionProvider = baseCompressionProvider = compressionProvider;
+    }
+
+    @NotNull
+    public CompressionProvider getCompressionProvider() {
+        return compressionProvider;
+    }
+
+    /**
+     * Primes the compression provider with preset dictionaries, replacing any it was given before.
+     *
+     * @param dictionaries The dictionaries, from oldest to newest.
+     * @return false if the compression provider does not support dictionaries.
+     * @see DictionaryCompressionProvider#withDictionaries(List)
+     */
+    public boolean setDictionaries( @NotNull List<byte[]> dictionaries ) {
+        if( !( baseCompressionProvider instanceof DictionaryCompressionProvider ) ) return false;
+        compressionProvider = ( (DictionaryCompressionProvider) baseCompressionProvider ).withDictionaries(dictionaries);
+        return true;
     }
 
     @NotNull
@@ -57,4 +101,37 @@ public class CompressedPersistenceProvider<T> extends SimpleFacade<PersistencePr
             throw new PersistenceException(e);
         }
     }
+
+    @Override
+    public int getEncodedSize( @Nullable T object ) throws PersistenceException {
+        return compressed.getEncodedSize(object);
+    }
+
+    @Override
+    public void encode( @Nullable T object, @NotNull ByteBuffer dst ) throws PersistenceException {
+        compressed.encode(object, dst);
+    }
+
+    /**
+     * Decompresses straight out of the buffer rather than copying the compressed bytes out of it first.
+     */
+    @Nullable
+    @Override
+    public T decode( @NotNull ByteBuffer src ) throws PersistenceException {
+        if( !src.hasRemaining() ) return null;
+        try {
+            InputStream decompressed = compressionProvider.decompress(new ByteBufferInputStream(src));
+            try {
+                return getDelegate().fromBytes(IOUtils.toByteArray(decompressed));
+            } finally {
+                decompressed.close();
+            }
+        } catch( CompressionException e ) {
+            throw new PersistenceException(e);
+        } catch( IOException e ) {
+            throw new PersistenceException(e);
+        } finally {
+            src.position(src.limit());
+        }
+    }
 }
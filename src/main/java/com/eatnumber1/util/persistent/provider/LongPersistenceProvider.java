@@ -0,0 +1,45 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.persistent.provider;
+
+import com.eatnumber1.util.nio.ByteBufferUtils;
+import java.nio.ByteBuffer;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Longs are written as zigzag encoded varints, so small values of either sign take a single byte.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class LongPersistenceProvider extends BinaryPersistenceProvider<Long> {
+    @Override
+    public int getFieldSize( @NotNull Long object ) {
+        return ByteBufferUtils.getVarintSize(ByteBufferUtils.zigzag(object));
+    }
+
+    @Override
+    public void encodeField( @NotNull Long object, @NotNull ByteBuffer dst ) {
+        ByteBufferUtils.putVarint(dst, ByteBufferUtils.zigzag(object));
+    }
+
+    @NotNull
+    @Override
+    public Long decodeField( @NotNull ByteBuffer src ) {
+        return ByteBufferUtils.unzigzag(ByteBufferUtils.getVarint(src));
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.persistent.provider;
+
+import com.eatnumber1.util.collections.persistent.PersistenceException;
+import java.nio.ByteBuffer;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Persists objects as a tuple of their fields. Subclasses take an object apart into the values of its fields and put it
+ * back together from them. Records may be fields of other records, as this is itself a binary provider.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public abstract class RecordPersistenceProvider<T> extends BinaryPersistenceProvider<T> {
+    @NotNull
+    private final TuplePersistenceProvider tuple;
+
+    protected RecordPersistenceProvider( @NotNull BinaryPersistenceProvider<?>... fields ) {
+        tuple = new TuplePersistenceProvider(fields);
+    }
+
+    /**
+     * @return The values of the fields of the object, in the order their providers were given in.
+     */
+    @NotNull
+    protected abstract Object[] toFields( @NotNull T object ) throws PersistenceException;
+
+    @NotNull
+    protected abstract T fromFields( @NotNull Object[] fields ) throws PersistenceException;
+
+    @Override
+    public int getFieldSize( @NotNull T object ) throws PersistenceException {
+        return tuple.getFieldSize(toFields(object));
+    }
+
+    @Override
+    public void encodeField( @NotNull T object, @NotNull ByteBuffer dst ) throws PersistenceException {
+        tuple.encodeField(toFields(object), dst);
+    }
+
+    @NotNull
+    @Override
+    public T decodeField( @NotNull ByteBuffer src ) throws PersistenceException {
+        return fromFields(tuple.decodeField(src));
+    }
+}
@@ -17,27 +17,93 @@
 package com.eatnumber1.util.persistent.provider;
 
 import com.eatnumber1.util.collections.persistent.PersistenceException;
+import com.eatnumber1.util.io.IOUtils;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.io.StreamCorruptedException;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 /**
+ * When given a {@link ClassDescriptorDictionary} objects are written without the stream header, and with the numbers of
+ * their class descriptors in the dictionary in place of the descriptors themselves. Objects persisted with a dictionary
+ * can only be read back with the same dictionary.
+ *
  * @author Russell Harmon
  * @since Jul 13, 2007
  */
 public class SerializablePersistenceProvider<T extends Serializable> implements PersistenceProvider<T> {
+    @Nullable
+    private ClassDescriptorDictionary dictionary;
+
+    private static class DictionaryObjectOutputStream extends ObjectOutputStream {
+        @NotNull
+        private ClassDescriptorDictionary dictionary;
+
+        private DictionaryObjectOutputStream( @NotNull OutputStream out, @NotNull ClassDescriptorDictionary dictionary ) throws IOException {
+            super(out);
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        protected void writeStreamHeader() {
+        }
+
+        @Override
+        protected void writeClassDescriptor( @NotNull ObjectStreamClass desc ) throws IOException {
+            IOUtils.writeVarint(this, dictionary.getId(desc));
+        }
+    }
+
+    private static class DictionaryObjectInputStream extends ObjectInputStream {
+        @NotNull
+        private ClassDescriptorDictionary dictionary;
+
+        private DictionaryObjectInputStream( @NotNull InputStream in, @NotNull ClassDescriptorDictionary dictionary ) throws IOException {
+            super(in);
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        protected void readStreamHeader() {
+        }
+
+        @NotNull
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException {
+            long id = IOUtils.readVarint(this);
+            if( id > Integer.MAX_VALUE ) throw new StreamCorruptedException("Class descriptor number " + id + " is out of range.");
+            return dictionary.getDescriptor((int) id);
+        }
+    }
+
+    public SerializablePersistenceProvider() {
+    }
+
+    public SerializablePersistenceProvider( @Nullable ClassDescriptorDictionary dictionary ) {
+        this.dictionary = dictionary;
+    }
+
+    @Nullable
+    public ClassDescriptorDictionary getDictionary() {
+        return dictionary;
+    }
+
     @NotNull
     public byte[] toBytes( @Nullable T object ) throws PersistenceException {
         if( object == null ) return new byte[0];
         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
         ObjectOutputStream out;
         try {
-            ( out = new ObjectOutputStream(bytes) ).writeObject(object);
+            out = dictionary == null ? new ObjectOutputStream(bytes) : new DictionaryObjectOutputStream(bytes, dictionary);
+            out.writeObject(object);
         } catch( IOException e ) {
             throw new PersistenceException(e);
         }
@@ -55,7 +121,8 @@ public class SerializablePersistenceProvider<T extends Serializable> implements
         ObjectInputStream in;
         T object;
         try {
-            in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            ByteArrayInputStream stream = new ByteArrayInputStream(bytes);
+            in = dictionary == null ? new ObjectInputStream(stream) : new DictionaryObjectInputStream(stream, dictionary);
             //noinspection unchecked
             object = (T) in.readObject();
         } catch( IOException e ) {
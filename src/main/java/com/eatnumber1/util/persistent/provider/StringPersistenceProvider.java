@@ -0,0 +1,115 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.persistent.provider;
+
+import com.eatnumber1.util.collections.persistent.PersistenceException;
+import com.eatnumber1.util.nio.ByteBufferUtils;
+import java.nio.ByteBuffer;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Strings are written as the varint length of their UTF-8 encoding followed by the encoding. Unpaired surrogates are
+ * replaced with {@code '?'}, as they are by {@link String#getBytes(String)}.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class StringPersistenceProvider extends BinaryPersistenceProvider<String> {
+    @Override
+    public int getFieldSize( @NotNull String object ) {
+        int length = getUTF8Length(object);
+        return ByteBufferUtils.getVarintSize(length) + length;
+    }
+
+    @Override
+    public void encodeField( @NotNull String object, @NotNull ByteBuffer dst ) {
+        ByteBufferUtils.putVarint(dst, getUTF8Length(object));
+        int length = object.length();
+        for( int i = 0; i < length; i++ ) {
+            char c = object.charAt(i);
+            if( c < 0x80 ) {
+                dst.put((byte) c);
+            } else if( c < 0x800 ) {
+                dst.put((byte) ( 0xC0 | c >> 6 )).put((byte) ( 0x80 | c & 0x3F ));
+            } else if( !Character.isHighSurrogate(c) && !Character.isLowSurrogate(c) ) {
+                dst.put((byte) ( 0xE0 | c >> 12 )).put((byte) ( 0x80 | c >> 6 & 0x3F )).put((byte) ( 0x80 | c & 0x3F ));
+            } else if( Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(object.charAt(i + 1)) ) {
+                int codePoint = Character.toCodePoint(c, object.charAt(++i));
+                dst.put((byte) ( 0xF0 | codePoint >> 18 )).put((byte) ( 0x80 | codePoint >> 12 & 0x3F ));
+                dst.put((byte) ( 0x80 | codePoint >> 6 & 0x3F )).put((byte) ( 0x80 | codePoint & 0x3F ));
+            } else {
+                dst.put((byte) '?');
+            }
+        }
+    }
+
+    @NotNull
+    @Override
+    public String decodeField( @NotNull ByteBuffer src ) throws PersistenceException {
+        long length = ByteBufferUtils.getVarint(src);
+        if( length < 0 || length > src.remaining() ) throw new PersistenceException("Truncated string.");
+        int end = src.position() + (int) length;
+        char[] chars = new char[(int) length];
+        int count = 0;
+        while( src.position() < end ) {
+            int b = src.get() & 0xFF;
+            if( b < 0x80 ) {
+                chars[count++] = (char) b;
+            } else if( b >= 0xC0 && b < 0xE0 ) {
+                chars[count++] = (char) ( ( b & 0x1F ) << 6 | continuation(src, end) );
+            } else if( b >= 0xE0 && b < 0xF0 ) {
+                chars[count++] = (char) ( ( b & 0x0F ) << 12 | continuation(src, end) << 6 | continuation(src, end) );
+            } else if( b >= 0xF0 && b < 0xF8 ) {
+                int codePoint = ( b & 0x07 ) << 18 | continuation(src, end) << 12 | continuation(src, end) << 6 | continuation(src, end);
+                if( codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT || codePoint > Character.MAX_CODE_POINT ) {
+                    throw new PersistenceException("Malformed UTF-8.");
+                }
+                count += Character.toChars(codePoint, chars, count);
+            } else {
+                throw new PersistenceException("Malformed UTF-8.");
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    private static int continuation( @NotNull ByteBuffer src, int end ) throws PersistenceException {
+        if( src.position() >= end ) throw new PersistenceException("Truncated UTF-8.");
+        int b = src.get() & 0xFF;
+        if( ( b & 0xC0 ) != 0x80 ) throw new PersistenceException("Malformed UTF-8.");
+        return b & 0x3F;
+    }
+
+    private static int getUTF8Length( @NotNull String string ) {
+        int length = string.length(), bytes = 0;
+        for( int i = 0; i < length; i++ ) {
+            char c = string.charAt(i);
+            if( c < 0x80 ) {
+                bytes++;
+            } else if( c < 0x800 ) {
+                bytes += 2;
+            } else if( !Character.isHighSurrogate(c) && !Character.isLowSurrogate(c) ) {
+                bytes += 3;
+            } else if( Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1)) ) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes++;
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.persistent.provider;
+
+import com.eatnumber1.util.collections.persistent.PersistenceException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Persists fixed length arrays whose elements are each persisted by their own provider. A tuple is written as a bitmap
+ * of which of its elements are present followed by the fields of those elements, with nothing describing their types.
+ *
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class TuplePersistenceProvider extends BinaryPersistenceProvider<Object[]> {
+    @NotNull
+    private final List<BinaryPersistenceProvider<Object>> components;
+
+    public TuplePersistenceProvider( @NotNull BinaryPersistenceProvider<?>... components ) {
+        this(Arrays.asList(components));
+    }
+
+    public TuplePersistenceProvider( @NotNull List<? extends BinaryPersistenceProvider<?>> components ) {
+        List<BinaryPersistenceProvider<Object>> list = new ArrayList<BinaryPersistenceProvider<Object>>(components.size());
+        for( BinaryPersistenceProvider<?> component : components ) list.add(asObjectProvider(component));
+        this.components = Collections.unmodifiableList(list);
+    }
+
+    // Each component is only ever given the elements of its own position, which are of the type it persists.
+    @NotNull
+    @SuppressWarnings({ "unchecked" })
+    private static BinaryPersistenceProvider<Object> asObjectProvider( @NotNull BinaryPersistenceProvider<?> component ) {
+        return (BinaryPersistenceProvider<Object>) component;
+    }
+
+    @NotNull
+    public List<BinaryPersistenceProvider<Object>> getComponents() {
+        return components;
+    }
+
+    private int getBitmapSize() {
+        // A tuple without any components still needs a byte, as fields are never empty.
+        return Math.max(1, ( components.size() + 7 ) / 8);
+    }
+
+    private void checkArity( @NotNull Object[] object ) {
+        if( object.length != components.size() ) {
+            throw new IllegalArgumentException("Expected " + components.size() + " elements but got " + object.length + ".");
+        }
+    }
+
+    @Override
+    public int getFieldSize( @NotNull Object[] object ) throws PersistenceException {
+        checkArity(object);
+        int size = getBitmapSize();
+        for( int i = 0; i < object.length; i++ ) {
+            if( object[i] != null ) size += components.get(i).getFieldSize(object[i]);
+        }
+        return size;
+    }
+
+    @Override
+    public void encodeField( @NotNull Object[] object, @NotNull ByteBuffer dst ) throws PersistenceException {
+        checkArity(object);
+        byte[] bitmap = new byte[getBitmapSize()];
+        for( int i = 0; i < object.length; i++ ) {
+            if( object[i] != null ) bitmap[i / 8] |= 1 << i % 8;
+        }
+        dst.put(bitmap);
+        for( int i = 0; i < object.length; i++ ) {
+            if( object[i] != null ) components.get(i).encodeField(object[i], dst);
+        }
+    }
+
+    @NotNull
+    @Override
+    public Object[] decodeField( @NotNull ByteBuffer src ) throws PersistenceException {
+        byte[] bitmap = new byte[getBitmapSize()];
+        src.get(bitmap);
+        Object[] object = new Object[components.size()];
+        for( int i = 0; i < object.length; i++ ) {
+            if( ( bitmap[i / 8] & 1 << i % 8 ) != 0 ) object[i] = components.get(i).decodeField(src);
+        }
+        return object;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.io.FileUtils;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ListIterator;
+import org.apache.commons.collections.list.AbstractTestList;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public abstract class AbstractFileBackedListTest extends AbstractTestList {
+    public AbstractFileBackedListTest( String s ) {
+        super(s);
+    }
+
+    public List makeEmptyList() {
+        try {
+            File tempFile = FileUtils.createTempDirectory(getClass().getSimpleName());
+            FileUtils.forceDeleteOnExit(tempFile);
+            return makeEmptyList(tempFile);
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @NotNull
+    protected abstract FileBackedUnmappedArrayList<String> makeEmptyList( @NotNull File directory ) throws IOException;
+
+    public void testCloseThenOpen() throws IOException {
+        resetFull();
+        reopen();
+    }
+
+    protected void reopen() throws IOException {
+        FileBackedUnmappedArrayList list = (FileBackedUnmappedArrayList) collection;
+        list.close();
+        list.open();
+        verify();
+    }
+
+    public void testAddAllByIndex() throws IOException {
+        resetFull();
+        List<String> elements = Arrays.asList("a", "much longer element", "", null, "b");
+        getList().addAll(3, elements);
+        getConfirmedList().addAll(3, elements);
+        verify();
+        getList().addAll(0, elements);
+        getConfirmedList().addAll(0, elements);
+        verify();
+        getList().addAll(getList().size(), elements);
+        getConfirmedList().addAll(getConfirmedList().size(), elements);
+        verify();
+        reopen();
+    }
+
+    public void testRemoveRange() throws IOException {
+        resetFull();
+        getList().subList(2, 6).clear();
+        getConfirmedList().subList(2, 6).clear();
+        verify();
+        int size = getList().size();
+        getList().subList(size - 3, size).clear();
+        getConfirmedList().subList(size - 3, size).clear();
+        verify();
+        getList().subList(0, 2).clear();
+        getConfirmedList().subList(0, 2).clear();
+        verify();
+        reopen();
+    }
+
+    public void testSetAll() throws IOException {
+        resetFull();
+        FileBackedUnmappedArrayList<String> list = (FileBackedUnmappedArrayList<String>) collection;
+        List<String> longer = Arrays.asList("a much longer element than before", "another long element");
+        list.setAll(1, longer);
+        for( int i = 0; i < longer.size(); i++ ) getConfirmedList().set(1 + i, longer.get(i));
+        verify();
+        List<String> shorter = Arrays.asList("", "b", "c");
+        int index = list.size() - shorter.size();
+        list.setAll(index, shorter);
+        for( int i = 0; i < shorter.size(); i++ ) getConfirmedList().set(index + i, shorter.get(i));
+        verify();
+        reopen();
+    }
+
+    private void filter( int readAhead ) throws IOException {
+        resetFull();
+        FileBackedUnmappedArrayList<String> list = (FileBackedUnmappedArrayList<String>) collection;
+        if( list.getReadAhead() != 0 ) list.setReadAhead(readAhead);
+        ListIterator iterator = list.listIterator(), confirmedIterator = getConfirmedList().listIterator();
+        int i = 0;
+        while( iterator.hasNext() ) {
+            assertEquals(confirmedIterator.next(), iterator.next());
+            switch( i++ % 4 ) {
+                case 0:
+                    iterator.remove();
+                    confirmedIterator.remove();
+                    break;
+                case 1:
+                    iterator.set("a replacement which is much longer than the element it replaces");
+                    confirmedIterator.set("a replacement which is much longer than the element it replaces");
+                    break;
+                case 2:
+                    iterator.set("");
+                    confirmedIterator.set("");
+                    break;
+            }
+            assertEquals(confirmedIterator.nextIndex(), iterator.nextIndex());
+        }
+        verify();
+        reopen();
+    }
+
+    public void testIteratorFilter() throws IOException {
+        filter(FileBackedUnmappedArrayList.DEFAULT_READ_AHEAD);
+    }
+
+    public void testIteratorFilterSmallReadAhead() throws IOException {
+        filter(32);
+    }
+
+    public void testIteratorCommitOnAccess() throws IOException {
+        resetFull();
+        ListIterator iterator = getList().listIterator(), confirmedIterator = getConfirmedList().listIterator();
+        iterator.next();
+        confirmedIterator.next();
+        iterator.remove();
+        confirmedIterator.remove();
+        assertEquals(getConfirmedList().size(), getList().size());
+        assertEquals(getConfirmedList().get(0), getList().get(0));
+        assertEquals(confirmedIterator.next(), iterator.next());
+        iterator.set("replaced");
+        confirmedIterator.set("replaced");
+        assertEquals(confirmedIterator.previous(), iterator.previous());
+        iterator.remove();
+        confirmedIterator.remove();
+        verify();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.io.FileUtils;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import org.apache.commons.collections.map.AbstractTestMap;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public abstract class AbstractFileBackedMapTest extends AbstractTestMap {
+    public AbstractFileBackedMapTest( String s ) {
+        super(s);
+    }
+
+    public Map makeEmptyMap() {
+        try {
+            File tempFile = FileUtils.createTempDirectory(getClass().getSimpleName());
+            FileUtils.forceDeleteOnExit(tempFile);
+            return makeEmptyMap(tempFile);
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @NotNull
+    protected abstract FileBackedMap<String, String> makeEmptyMap( @NotNull File directory ) throws IOException;
+
+    public void testCloseThenOpen() throws IOException {
+        resetFull();
+        reopen();
+    }
+
+    protected void reopen() throws IOException {
+        FileBackedMap fileBackedMap = (FileBackedMap) map;
+        fileBackedMap.close();
+        fileBackedMap.open();
+        verify();
+    }
+
+    public void testGrowth() throws IOException {
+        resetEmpty();
+        for( int i = 0; i < 1000; i++ ) {
+            map.put("key " + i, "value " + i);
+            confirmed.put("key " + i, "value " + i);
+        }
+        verify();
+        for( int i = 0; i < 1000; i += 3 ) {
+            map.put("key " + i, "a longer replacement for value " + i);
+            confirmed.put("key " + i, "a longer replacement for value " + i);
+        }
+        for( int i = 1; i < 1000; i += 3 ) {
+            map.remove("key " + i);
+            confirmed.remove("key " + i);
+        }
+        verify();
+        reopen();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.io.FileUtils;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Set;
+import org.apache.commons.collections.set.AbstractTestSet;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public abstract class AbstractFileBackedSetTest extends AbstractTestSet {
+    public AbstractFileBackedSetTest( String s ) {
+        super(s);
+    }
+
+    public Set makeEmptySet() {
+        try {
+            File tempFile = FileUtils.createTempDirectory(getClass().getSimpleName());
+            FileUtils.forceDeleteOnExit(tempFile);
+            return makeEmptySet(tempFile);
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @NotNull
+    protected abstract FileBackedSet<Serializable> makeEmptySet( @NotNull File directory ) throws IOException;
+
+    public void testCloseThenOpen() throws IOException {
+        resetFull();
+        reopen();
+    }
+
+    protected void reopen() throws IOException {
+        FileBackedSet set = (FileBackedSet) collection;
+        set.close();
+        set.open();
+        verify();
+    }
+
+    public void testGrowth() throws IOException {
+        resetEmpty();
+        for( int i = 0; i < 1000; i++ ) {
+            collection.add("element " + i);
+            confirmed.add("element " + i);
+        }
+        verify();
+        for( int i = 0; i < 1000; i += 3 ) {
+            collection.remove("element " + i);
+            confirmed.remove("element " + i);
+        }
+        verify();
+        reopen();
+    }
+
+    public void testCompact() throws IOException {
+        testGrowth();
+        FileBackedUnmappedHashSet set = (FileBackedUnmappedHashSet) collection;
+        set.compact();
+        verify();
+        reopen();
+    }
+}
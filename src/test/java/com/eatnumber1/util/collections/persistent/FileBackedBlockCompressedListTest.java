@@ -0,0 +1,171 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.compression.ZLIBCompressionProvider;
+import com.eatnumber1.util.io.FileUtils;
+import com.eatnumber1.util.persistent.channel.FileChannelProvider;
+import com.eatnumber1.util.persistent.channel.FileChannelProviderFactory;
+import com.eatnumber1.util.persistent.channel.SimpleFileChannelProvider;
+import com.eatnumber1.util.persistent.provider.SerializablePersistenceProvider;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import org.apache.commons.collections.list.AbstractTestList;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class FileBackedBlockCompressedListTest extends AbstractTestList {
+    public FileBackedBlockCompressedListTest( String s ) {
+        super(s);
+    }
+
+    public List makeEmptyList() {
+        try {
+            File tempFile = FileUtils.createTempDirectory(getClass().getSimpleName());
+            FileUtils.forceDeleteOnExit(tempFile);
+            // Use tiny blocks and a tiny cache so that the tests split, merge and evict blocks.
+            return new FileBackedBlockCompressedList<String>(tempFile, new SerializablePersistenceProvider<String>(), new ZLIBCompressionProvider(), new FileChannelProviderFactory() {
+                @NotNull
+                @Override
+                public FileChannelProvider create( @NotNull File file ) throws IOException {
+                    return new SimpleFileChannelProvider(file, "rw");
+                }
+            }, 64, 2);
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @NotNull
+    private FileBackedBlockCompressedList<String> getBlockList() {
+        return (FileBackedBlockCompressedList<String>) collection;
+    }
+
+    private void reopen() throws IOException {
+        getBlockList().close();
+        getBlockList().open();
+        verify();
+    }
+
+    public void testCloseThenOpen() throws IOException {
+        resetFull();
+        reopen();
+    }
+
+    public void testGrowth() throws IOException {
+        resetEmpty();
+        for( int i = 0; i < 1000; i++ ) {
+            getList().add(i / 2, "element " + i);
+            getConfirmedList().add(i / 2, "element " + i);
+        }
+        verify();
+        assertTrue(getBlockList().getBlockCount() > 1);
+        reopen();
+        for( int i = 0; i < 900; i++ ) {
+            getList().remove(i % getList().size());
+            getConfirmedList().remove(i % getConfirmedList().size());
+        }
+        verify();
+        reopen();
+    }
+
+    public void testIteratorRemove() throws IOException {
+        resetFull();
+        Iterator iterator = getList().iterator(), confirmedIterator = getConfirmedList().iterator();
+        int i = 0;
+        while( iterator.hasNext() ) {
+            assertEquals(confirmedIterator.next(), iterator.next());
+            if( i++ % 3 == 0 ) {
+                iterator.remove();
+                confirmedIterator.remove();
+            }
+        }
+        verify();
+        reopen();
+    }
+
+    public void testFlushIsDurable() throws IOException {
+        resetEmpty();
+        List<String> elements = Arrays.asList("a", "b", "c", "d");
+        getList().addAll(elements);
+        getConfirmedList().addAll(elements);
+        getBlockList().flush();
+        FileBackedBlockCompressedList<String> other = new FileBackedBlockCompressedList<String>(getBlockList().getStorageFile(), new SerializablePersistenceProvider<String>());
+        try {
+            assertEquals(elements, other);
+        } finally {
+            other.close();
+        }
+    }
+
+    public void testClearIsNotDurableUntilFlushed() throws IOException {
+        resetEmpty();
+        List<String> elements = new ArrayList<String>();
+        for( int i = 0; i < 100; i++ ) elements.add("element " + i);
+        getList().addAll(elements);
+        getBlockList().flush();
+        getList().clear();
+        // Enough new elements to evict blocks, which are appended to the block file.
+        for( int i = 0; i < 100; i++ ) {
+            getList().add("after " + i);
+            getConfirmedList().add("after " + i);
+        }
+        FileBackedBlockCompressedList<String> other = new FileBackedBlockCompressedList<String>(getBlockList().getStorageFile(), new SerializablePersistenceProvider<String>());
+        try {
+            assertEquals(elements, other);
+        } finally {
+            other.close();
+        }
+        reopen();
+    }
+
+    public void testCompact() throws IOException {
+        resetFull();
+        getBlockList().setCompactionThreshold(2);
+        for( int i = 0; i < getList().size(); i++ ) {
+            getList().set(i, "replaced " + i);
+            getConfirmedList().set(i, "replaced " + i);
+        }
+        getBlockList().flush();
+        assertTrue(getBlockList().getGarbageSize() > 0);
+        getBlockList().compact();
+        assertEquals(0, getBlockList().getGarbageSize());
+        verify();
+        reopen();
+    }
+
+    public void testCompression() throws IOException {
+        File directory = FileUtils.createTempDirectory(getClass().getSimpleName());
+        FileUtils.forceDeleteOnExit(directory);
+        FileBackedBlockCompressedList<String> list = new FileBackedBlockCompressedList<String>(directory, new SerializablePersistenceProvider<String>());
+        try {
+            String element = "a repetitive element which compresses well";
+            for( int i = 0; i < 1000; i++ ) list.add(element);
+            list.flush();
+            assertTrue(new File(directory, FileBackedBlockCompressedList.BLOCKS_FILENAME).length() < 1000 * element.length() / 4);
+        } finally {
+            list.close();
+        }
+    }
+}
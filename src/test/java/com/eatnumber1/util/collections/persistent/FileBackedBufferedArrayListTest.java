@@ -0,0 +1,138 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.persistent.numbers.FileBackedInteger;
+import com.eatnumber1.util.persistent.numbers.FileBackedUnmappedInteger;
+import com.eatnumber1.util.persistent.provider.SerializablePersistenceProvider;
+import java.io.File;
+import java.io.IOException;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class FileBackedBufferedArrayListTest extends AbstractFileBackedListTest {
+    public FileBackedBufferedArrayListTest( String s ) {
+        super(s);
+    }
+
+    @NotNull
+    @Override
+    protected FileBackedUnmappedArrayList<String> makeEmptyList( @NotNull File directory ) throws IOException {
+        FileBackedUnmappedArrayList<String> list = new FileBackedUnmappedArrayList<String>(directory, new SerializablePersistenceProvider<String>());
+        // Use a tiny buffer so that the tests exercise both commits and elements which do not fit in the buffer.
+        list.setAppendBuffer(64, 1, TimeUnit.HOURS);
+        return list;
+    }
+
+    public void testFlushCommitsAppends() throws IOException {
+        resetEmpty();
+        FileBackedUnmappedArrayList<String> list = (FileBackedUnmappedArrayList<String>) collection;
+        FileBackedInteger size = new FileBackedUnmappedInteger(new File(list.getStorageFile(), FileBackedUnmappedArrayList.SIZE_FILENAME));
+        try {
+            list.add("a");
+            assertEquals(1, list.size());
+            assertEquals(0, size.intValue());
+            list.flush();
+            assertEquals(1, size.intValue());
+        } finally {
+            size.close();
+        }
+    }
+
+    public void testMaxDelay() throws IOException {
+        resetEmpty();
+        FileBackedUnmappedArrayList<String> list = (FileBackedUnmappedArrayList<String>) collection;
+        list.setAppendBuffer(1024, 0, TimeUnit.MILLISECONDS);
+        FileBackedInteger size = new FileBackedUnmappedInteger(new File(list.getStorageFile(), FileBackedUnmappedArrayList.SIZE_FILENAME));
+        try {
+            list.add("a");
+            assertEquals(1, size.intValue());
+        } finally {
+            size.close();
+        }
+    }
+
+    public void testIteratorAddAtEnd() throws IOException {
+        resetFull();
+        ListIterator iterator = getList().listIterator(getList().size() - 1), confirmedIterator = getConfirmedList().listIterator(getConfirmedList().size() - 1);
+        assertEquals(confirmedIterator.next(), iterator.next());
+        iterator.add("z");
+        confirmedIterator.add("z");
+        assertEquals(confirmedIterator.previous(), iterator.previous());
+        assertEquals(confirmedIterator.previous(), iterator.previous());
+        verify();
+    }
+
+    public void testIteratorCommitInvalidatesOtherIterators() {
+        resetFull();
+        ListIterator first = getList().listIterator(), second = getList().listIterator();
+        first.next();
+        second.next();
+        first.remove();
+        while( first.hasNext() ) first.next();
+        try {
+            second.next();
+            fail();
+        } catch( ConcurrentModificationException e ) {
+            // Expected
+        }
+    }
+
+    public void testIteratorWithoutReadAheadFailsFast() {
+        resetFull();
+        FileBackedUnmappedArrayList<String> list = (FileBackedUnmappedArrayList<String>) collection;
+        list.setReadAhead(0);
+        ListIterator iterator = list.listIterator();
+        iterator.next();
+        list.add("z");
+        try {
+            iterator.next();
+            fail();
+        } catch( ConcurrentModificationException e ) {
+            // Expected
+        }
+    }
+
+    public void testSubListFailsFast() {
+        resetFull();
+        List sub = getList().subList(1, 3);
+        getList().remove(0);
+        try {
+            sub.size();
+            fail();
+        } catch( ConcurrentModificationException e ) {
+            // Expected
+        }
+    }
+
+    public void testIteratorSeesReplacedElements() {
+        resetFull();
+        ListIterator iterator = getList().listIterator(), confirmedIterator = getConfirmedList().listIterator();
+        assertEquals(confirmedIterator.next(), iterator.next());
+        getList().set(1, "z");
+        getConfirmedList().set(1, "z");
+        assertEquals(confirmedIterator.next(), iterator.next());
+        verify();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.persistent.provider.SerializablePersistenceProvider;
+import java.io.File;
+import java.io.IOException;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class FileBackedCachedArrayListTest extends AbstractFileBackedListTest {
+    public FileBackedCachedArrayListTest( String s ) {
+        super(s);
+    }
+
+    @NotNull
+    @Override
+    protected FileBackedUnmappedArrayList<String> makeEmptyList( @NotNull File directory ) throws IOException {
+        FileBackedUnmappedArrayList<String> list = new FileBackedUnmappedArrayList<String>(directory, new SerializablePersistenceProvider<String>());
+        // Use a tiny cache so that the tests exercise eviction.
+        list.setCache(new LruElementCache<String>(4));
+        return list;
+    }
+
+    public void testHitCount() {
+        resetFull();
+        FileBackedUnmappedArrayList list = (FileBackedUnmappedArrayList) collection;
+        ElementCache cache = list.getCache();
+        cache.resetStatistics();
+        list.get(1);
+        list.get(1);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        list.add(0, "shifted");
+        getConfirmedList().add(0, "shifted");
+        assertEquals(getConfirmedList().get(2), list.get(2));
+        assertEquals(2, cache.getHitCount());
+        list.remove(0);
+        getConfirmedList().remove(0);
+        assertEquals(getConfirmedList().get(1), list.get(1));
+        assertEquals(3, cache.getHitCount());
+        verify();
+    }
+
+    public void testWeighedEviction() {
+        resetFull();
+        FileBackedUnmappedArrayList<String> list = (FileBackedUnmappedArrayList<String>) collection;
+        WeighedElementCache<String> cache = new WeighedElementCache<String>(64);
+        list.setCache(cache);
+        for( int i = 0; i < list.size(); i++ ) {
+            list.get(i);
+            assertTrue(cache.getWeight() <= cache.getMaxWeight());
+        }
+        assertTrue(cache.size() < list.size());
+        verify();
+    }
+
+    public void testShiftKeepsAccessOrder() {
+        resetFull();
+        FileBackedUnmappedArrayList list = (FileBackedUnmappedArrayList) collection;
+        ElementCache cache = list.getCache();
+        for( int i = 0; i < 4; i++ ) list.get(i);
+        list.get(0);
+        list.add(2, "shifted");
+        getConfirmedList().add(2, "shifted");
+        // The element at index 1 is now the least recently used, so it is the one evicted.
+        list.get(5);
+        cache.resetStatistics();
+        assertEquals(getConfirmedList().get(0), list.get(0));
+        assertEquals(getConfirmedList().get(3), list.get(3));
+        assertEquals(getConfirmedList().get(4), list.get(4));
+        assertEquals(3, cache.getHitCount());
+        assertEquals(getConfirmedList().get(1), list.get(1));
+        assertEquals(1, cache.getMissCount());
+        verify();
+    }
+}
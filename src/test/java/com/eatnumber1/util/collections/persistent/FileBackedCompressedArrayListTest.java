@@ -0,0 +1,77 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.compression.GZIPCompressionProvider;
+import com.eatnumber1.util.compression.ZLIBCompressionProvider;
+import com.eatnumber1.util.io.FileUtils;
+import com.eatnumber1.util.persistent.provider.CompressedPersistenceProvider;
+import com.eatnumber1.util.persistent.provider.SerializablePersistenceProvider;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class FileBackedCompressedArrayListTest extends AbstractFileBackedListTest {
+    public FileBackedCompressedArrayListTest( String s ) {
+        super(s);
+    }
+
+    @NotNull
+    @Override
+    protected FileBackedUnmappedArrayList<String> makeEmptyList( @NotNull File directory ) throws IOException {
+        FileBackedUnmappedArrayList<String> list = new FileBackedUnmappedArrayList<String>(directory, new CompressedPersistenceProvider<String>(new SerializablePersistenceProvider<String>(), new ZLIBCompressionProvider()));
+        // Compressed elements are encoded straight into the append buffer, or written through when they do not fit.
+        list.setAppendBuffer(64, 1, TimeUnit.HOURS);
+        return list;
+    }
+
+    public void testDictionary() throws IOException, PersistenceException {
+        resetFull();
+        FileBackedUnmappedArrayList<String> list = (FileBackedUnmappedArrayList<String>) collection;
+        CompressionDictionaries.install(list, CompressionDictionaries.train(list));
+        list.add(2, "an element compressed with the dictionary");
+        getConfirmedList().add(2, "an element compressed with the dictionary");
+        verify();
+        reopen();
+        assertEquals(1, CompressionDictionaries.load(list.getStorageFile()).size());
+        CompressionDictionaries.install(list, CompressionDictionaries.train(list, 4, 256));
+        list.add("an element compressed with the second dictionary");
+        getConfirmedList().add("an element compressed with the second dictionary");
+        reopen();
+    }
+
+    public void testDictionaryUnsupported() throws IOException, PersistenceException {
+        File directory = FileUtils.createTempDirectory(getClass().getSimpleName());
+        FileUtils.forceDeleteOnExit(directory);
+        FileBackedUnmappedArrayList<String> list = new FileBackedUnmappedArrayList<String>(directory, new CompressedPersistenceProvider<String>(new SerializablePersistenceProvider<String>(), new GZIPCompressionProvider()));
+        try {
+            list.add("element");
+            CompressionDictionaries.install(list, CompressionDictionaries.train(list));
+            fail();
+        } catch( IllegalArgumentException e ) {
+            // Expected
+        } finally {
+            list.close();
+        }
+        assertTrue(CompressionDictionaries.load(directory).isEmpty());
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.concurrent.ListenableFutureTask;
+import com.eatnumber1.util.io.FileUtils;
+import com.eatnumber1.util.persistent.channel.AsynchronousFileChannelProviderFactory;
+import com.eatnumber1.util.persistent.channel.FileChannelProvider;
+import com.eatnumber1.util.persistent.channel.FileChannelProviderFactory;
+import com.eatnumber1.util.persistent.channel.SimpleFileChannelProvider;
+import com.eatnumber1.util.persistent.provider.SerializablePersistenceProvider;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class FileBackedConcurrentArrayListTest extends AbstractFileBackedListTest {
+    public FileBackedConcurrentArrayListTest( String s ) {
+        super(s);
+    }
+
+    @NotNull
+    @Override
+    protected FileBackedUnmappedArrayList<String> makeEmptyList( @NotNull File directory ) throws IOException {
+        return new FileBackedConcurrentArrayList<String>(directory, new SerializablePersistenceProvider<String>());
+    }
+
+    public void testConcurrentReads() throws Exception {
+        resetFull();
+        final List list = getList();
+        final List confirmed = getConfirmedList();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for( int i = 0; i < 8; i++ ) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for( int j = 0; j < 100; j++ ) {
+                            for( int k = 0; k < confirmed.size(); k++ ) assertEquals(confirmed.get(k), list.get(k));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for( Future<Void> future : futures ) future.get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testConcurrentAppends() throws Exception {
+        resetEmpty();
+        final List<String> list = (List<String>) getList();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for( int i = 0; i < 4; i++ ) {
+                final int thread = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for( int j = 0; j < 50; j++ ) {
+                            list.add(thread + ":" + j);
+                            int size = list.size();
+                            assertNotNull(list.get(size - 1));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for( Future<Void> future : futures ) future.get();
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(200, list.size());
+    }
+
+    public void testAsync() throws Exception {
+        File directory = FileUtils.createTempDirectory(getClass().getSimpleName());
+        FileUtils.forceDeleteOnExit(directory);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        FileBackedConcurrentArrayList<String> list = new FileBackedConcurrentArrayList<String>(directory, new SerializablePersistenceProvider<String>(), new AsynchronousFileChannelProviderFactory(new FileChannelProviderFactory() {
+            @NotNull
+            @Override
+            public FileChannelProvider create( @NotNull File file ) throws IOException {
+                return new SimpleFileChannelProvider(file, "rw");
+            }
+        }, executor));
+        try {
+            List<Future<Boolean>> adds = new ArrayList<Future<Boolean>>();
+            for( int i = 0; i < 100; i++ ) adds.add(list.addAsync("element"));
+            for( Future<Boolean> add : adds ) assertTrue(add.get());
+            assertEquals(100, list.size());
+            final CountDownLatch done = new CountDownLatch(100);
+            final AtomicInteger matched = new AtomicInteger();
+            for( int i = 0; i < 100; i++ ) {
+                final ListenableFutureTask<String> get = list.getAsync(i);
+                get.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if( "element".equals(get.get()) ) matched.incrementAndGet();
+                        } catch( Exception e ) {
+                            // Counted as a mismatch.
+                        }
+                        done.countDown();
+                    }
+                }, executor);
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(100, matched.get());
+        } finally {
+            list.close();
+            executor.shutdown();
+        }
+    }
+}
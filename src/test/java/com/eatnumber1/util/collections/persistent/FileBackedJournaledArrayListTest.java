@@ -0,0 +1,106 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.io.FileUtils;
+import com.eatnumber1.util.persistent.provider.SerializablePersistenceProvider;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class FileBackedJournaledArrayListTest extends AbstractFileBackedListTest {
+    public FileBackedJournaledArrayListTest( String s ) {
+        super(s);
+    }
+
+    @NotNull
+    @Override
+    protected FileBackedUnmappedArrayList<String> makeEmptyList( @NotNull File directory ) throws IOException {
+        FileBackedUnmappedArrayList<String> list = new FileBackedUnmappedArrayList<String>(directory, new SerializablePersistenceProvider<String>());
+        list.setJournaled(true);
+        return list;
+    }
+
+    /**
+     * Copies the files of the list as they are in the middle of a transaction, as if the process had crashed.
+     */
+    @NotNull
+    private static File crash( @NotNull FileBackedUnmappedArrayList list ) throws IOException {
+        File copy = FileUtils.createTempDirectory(FileBackedJournaledArrayListTest.class.getSimpleName());
+        FileUtils.forceDeleteOnExit(copy);
+        FileUtils.copyDirectory(list.getStorageFile(), copy);
+        return copy;
+    }
+
+    public void testRollback() throws IOException {
+        resetFull();
+        FileBackedUnmappedArrayList<String> list = (FileBackedUnmappedArrayList<String>) collection;
+        list.flush();
+        List expected = new ArrayList(getConfirmedList());
+        list.remove(2);
+        list.add(1, "inserted");
+        list.set(3, "a replacement which is much longer than the element it replaces");
+        list.add("appended");
+        list.subList(4, 7).clear();
+        File copy = crash(list);
+        FileBackedUnmappedArrayList<String> recovered = new FileBackedUnmappedArrayList<String>(copy, new SerializablePersistenceProvider<String>());
+        try {
+            assertEquals(expected, recovered);
+            assertFalse(new File(copy, FileBackedUnmappedArrayList.JOURNAL_FILENAME).exists());
+        } finally {
+            recovered.close();
+        }
+    }
+
+    public void testRollbackClear() throws IOException {
+        resetFull();
+        FileBackedUnmappedArrayList<String> list = (FileBackedUnmappedArrayList<String>) collection;
+        list.flush();
+        List expected = new ArrayList(getConfirmedList());
+        list.clear();
+        list.add("a");
+        list.add("b");
+        File copy = crash(list);
+        FileBackedUnmappedArrayList<String> recovered = new FileBackedUnmappedArrayList<String>(copy, new SerializablePersistenceProvider<String>());
+        try {
+            assertEquals(expected, recovered);
+        } finally {
+            recovered.close();
+        }
+    }
+
+    public void testFlushCommits() throws IOException {
+        resetFull();
+        FileBackedUnmappedArrayList<String> list = (FileBackedUnmappedArrayList<String>) collection;
+        list.remove(0);
+        list.add(0, "inserted");
+        list.flush();
+        File copy = crash(list);
+        FileBackedUnmappedArrayList<String> recovered = new FileBackedUnmappedArrayList<String>(copy, new SerializablePersistenceProvider<String>());
+        try {
+            assertEquals(list, recovered);
+        } finally {
+            recovered.close();
+        }
+    }
+}
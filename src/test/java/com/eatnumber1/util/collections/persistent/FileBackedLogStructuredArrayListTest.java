@@ -0,0 +1,60 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.persistent.provider.SerializablePersistenceProvider;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class FileBackedLogStructuredArrayListTest extends AbstractFileBackedListTest {
+    public FileBackedLogStructuredArrayListTest( String s ) {
+        super(s);
+    }
+
+    @NotNull
+    @Override
+    protected FileBackedUnmappedArrayList<String> makeEmptyList( @NotNull File directory ) throws IOException {
+        return new FileBackedLogStructuredArrayList<String>(directory, new SerializablePersistenceProvider<String>());
+    }
+
+    public void testCompact() throws IOException {
+        resetFull();
+        FileBackedLogStructuredArrayList list = (FileBackedLogStructuredArrayList) collection;
+        List confirmed = getConfirmedList();
+        list.setCompactionThreshold(2);
+        list.remove(3);
+        confirmed.remove(3);
+        list.add(1, "inserted");
+        confirmed.add(1, "inserted");
+        list.set(2, "a longer replacement element");
+        confirmed.set(2, "a longer replacement element");
+        verify();
+        assertTrue(list.getGarbageRatio() > 0);
+        list.compact();
+        assertEquals(0, list.getGarbageSize());
+        verify();
+        list.close();
+        list.open();
+        verify();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.persistent.channel.FileChannelProvider;
+import com.eatnumber1.util.persistent.channel.FileChannelProviderFactory;
+import com.eatnumber1.util.persistent.channel.SimpleFileChannelProvider;
+import com.eatnumber1.util.persistent.provider.SerializablePersistenceProvider;
+import java.io.File;
+import java.io.IOException;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class FileBackedMappedArrayListTest extends AbstractFileBackedListTest {
+    public FileBackedMappedArrayListTest( String s ) {
+        super(s);
+    }
+
+    @NotNull
+    @Override
+    protected FileBackedUnmappedArrayList<String> makeEmptyList( @NotNull File directory ) throws IOException {
+        // Use a tiny data window so that the tests exercise remapping.
+        return new FileBackedMappedArrayList<String>(directory, new SerializablePersistenceProvider<String>(), new FileChannelProviderFactory() {
+            @NotNull
+            @Override
+            public FileChannelProvider create( @NotNull File file ) throws IOException {
+                return new SimpleFileChannelProvider(file, "rw");
+            }
+        }, 64);
+    }
+
+    public void testOpenUnmapped() throws IOException {
+        resetFull();
+        FileBackedMappedArrayList list = (FileBackedMappedArrayList) collection;
+        list.close();
+        FileBackedUnmappedArrayList<String> unmapped = new FileBackedUnmappedArrayList<String>(list.getStorageFile(), new SerializablePersistenceProvider<String>());
+        try {
+            assertEquals(confirmed, unmapped);
+        } finally {
+            unmapped.close();
+        }
+        list.open();
+    }
+
+    public void testReadingDoesNotGrowFiles() throws IOException {
+        resetFull();
+        FileBackedMappedArrayList list = (FileBackedMappedArrayList) collection;
+        list.close();
+        File listFile = new File(list.getStorageFile(), FileBackedUnmappedArrayList.LIST_FILENAME);
+        File dataFile = new File(list.getStorageFile(), FileBackedUnmappedArrayList.DATA_FILENAME);
+        long listLength = listFile.length(), dataLength = dataFile.length();
+        // The default window is far larger than the files.
+        FileBackedMappedArrayList<String> reopened = new FileBackedMappedArrayList<String>(list.getStorageFile(), new SerializablePersistenceProvider<String>());
+        try {
+            for( int i = 0; i < reopened.size(); i++ ) assertEquals(getConfirmedList().get(i), reopened.get(i));
+            assertEquals(listLength, listFile.length());
+            assertEquals(dataLength, dataFile.length());
+        } finally {
+            reopened.close();
+        }
+        list.open();
+    }
+}
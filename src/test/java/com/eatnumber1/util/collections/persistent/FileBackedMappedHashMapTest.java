@@ -0,0 +1,76 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.io.FileUtils;
+import com.eatnumber1.util.persistent.provider.SerializablePersistenceProvider;
+import java.io.File;
+import java.io.IOException;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class FileBackedMappedHashMapTest extends AbstractFileBackedMapTest {
+    public FileBackedMappedHashMapTest( String s ) {
+        super(s);
+    }
+
+    @NotNull
+    @Override
+    protected FileBackedMappedHashMap<String, String> makeEmptyMap( @NotNull File directory ) throws IOException {
+        return new FileBackedMappedHashMap<String, String>(directory, new SerializablePersistenceProvider<String>(), new SerializablePersistenceProvider<String>());
+    }
+
+    public void testOpenUnmapped() throws IOException {
+        resetFull();
+        FileBackedMap<String, String> mappedMap = (FileBackedMap<String, String>) map;
+        assertTrue(mappedMap.isMapped());
+        mappedMap.close();
+        FileBackedUnmappedHashMap<String, String> unmappedMap = new FileBackedUnmappedHashMap<String, String>(mappedMap.getStorageFile(), new SerializablePersistenceProvider<String>(), new SerializablePersistenceProvider<String>());
+        assertFalse(unmappedMap.isMapped());
+        assertEquals(confirmed, unmappedMap);
+        unmappedMap.close();
+        mappedMap.open();
+    }
+
+    public void testRecoversEndOfRecords() throws IOException {
+        resetFull();
+        FileBackedMappedHashMap<String, String> mappedMap = (FileBackedMappedHashMap<String, String>) map;
+        FileBackedHashTable table = mappedMap.getTable();
+        mappedMap.flush();
+        // Copy the files of the open table, as a crash would leave them.
+        File directory = table.getStorageFile(), crashed = FileUtils.createTempDirectory("crashed");
+        try {
+            FileUtils.copyDirectory(directory, crashed);
+            File recordFile = new File(crashed, FileBackedHashTable.RECORDS_FILENAME);
+            assertTrue(recordFile.length() > table.nextFree);
+            FileBackedUnmappedHashMap<String, String> unmappedMap = new FileBackedUnmappedHashMap<String, String>(crashed, new SerializablePersistenceProvider<String>(), new SerializablePersistenceProvider<String>());
+            try {
+                assertEquals(confirmed, unmappedMap);
+                assertEquals(table.nextFree, recordFile.length());
+                assertEquals(table.getGarbageRatio(), unmappedMap.getTable().getGarbageRatio());
+                assertFalse(new File(crashed, FileBackedHashTable.END_FILENAME).exists());
+            } finally {
+                unmappedMap.close();
+            }
+        } finally {
+            FileUtils.deleteDirectory(crashed);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.io.FileUtils;
+import com.eatnumber1.util.persistent.channel.FileChannelProviderFactory;
+import com.eatnumber1.util.persistent.channel.SimpleFileChannelProvider;
+import com.eatnumber1.util.persistent.channel.FileChannelProvider;
+import com.eatnumber1.util.persistent.provider.SerializablePersistenceProvider;
+import java.io.File;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.apache.commons.collections.map.AbstractTestSortedMap;
+import org.apache.commons.collections15.comparators.ComparableComparator;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class FileBackedTreeMapTest extends AbstractTestSortedMap {
+    public FileBackedTreeMapTest( String s ) {
+        super(s);
+    }
+
+    public Map makeEmptyMap() {
+        try {
+            File tempFile = FileUtils.createTempDirectory(getClass().getSimpleName());
+            FileUtils.forceDeleteOnExit(tempFile);
+            return makeEmptyMap(tempFile);
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @NotNull
+    protected FileBackedTreeMap<String, String> makeEmptyMap( @NotNull File directory ) throws IOException {
+        // Small pages and a small cache make even the sample mappings span several levels of the tree.
+        return new FileBackedTreeMap<String, String>(directory, new SerializablePersistenceProvider<String>(), new SerializablePersistenceProvider<String>(), ComparableComparator.<String>getInstance(), new FileChannelProviderFactory() {
+            @NotNull
+            @Override
+            public FileChannelProvider create( @NotNull File file ) throws IOException {
+                return new SimpleFileChannelProvider(file, "rw");
+            }
+        }) {
+            @NotNull
+            @Override
+            protected FileBackedBTree newTree( @NotNull File directory, @NotNull Comparator<byte[]> comparator, @NotNull FileChannelProviderFactory factory ) throws IOException {
+                return new FileBackedBTree(directory, comparator, factory, 256, 4);
+            }
+        };
+    }
+
+    // The keys are deserialized on every access, so they are equal rather than the same.
+    @Override
+    public void testFirstKey() {
+        SortedMap sm = (SortedMap) makeFullMap();
+        assertEquals(sm.keySet().iterator().next(), sm.firstKey());
+    }
+
+    @Override
+    public void testLastKey() {
+        SortedMap sm = (SortedMap) makeFullMap();
+        Object obj = null;
+        for( Iterator it = sm.keySet().iterator(); it.hasNext(); ) {
+            obj = it.next();
+        }
+        assertEquals(obj, sm.lastKey());
+    }
+
+    public void testCloseThenOpen() throws IOException {
+        resetFull();
+        reopen();
+    }
+
+    protected void reopen() throws IOException {
+        FileBackedTreeMap treeMap = (FileBackedTreeMap) map;
+        treeMap.close();
+        treeMap.open();
+        verify();
+    }
+
+    public void testGrowth() throws IOException {
+        resetEmpty();
+        grow();
+    }
+
+    public void testSingleNodeCache() throws IOException {
+        resetEmpty();
+        // Nodes being split must not be written back while they are still larger than a page.
+        ( (FileBackedTreeMap) map ).setCacheSize(1);
+        grow();
+    }
+
+    private void grow() throws IOException {
+        for( int i = 0; i < 2000; i++ ) {
+            map.put("key " + ( i * 7919 % 2000 ), "value " + i);
+            confirmed.put("key " + ( i * 7919 % 2000 ), "value " + i);
+        }
+        verify();
+        for( int i = 0; i < 2000; i += 3 ) {
+            map.put("key " + i, "a longer replacement for value " + i);
+            confirmed.put("key " + i, "a longer replacement for value " + i);
+        }
+        for( int i = 0; i < 1500; i++ ) {
+            if( i % 3 == 0 ) continue;
+            map.remove("key " + i);
+            confirmed.remove("key " + i);
+        }
+        verify();
+        reopen();
+    }
+
+    public void testRemoveAll() throws IOException {
+        testGrowth();
+        FileBackedTreeMap<String, String> treeMap = (FileBackedTreeMap<String, String>) map;
+        for( Iterator<String> iterator = treeMap.descendingKeySet().iterator(); iterator.hasNext(); ) {
+            iterator.next();
+            iterator.remove();
+        }
+        confirmed.clear();
+        verify();
+        assertEquals(1, treeMap.getTree().getHeight());
+        treeMap.put("key", "value");
+        confirmed.put("key", "value");
+        verify();
+    }
+
+    public void testNavigation() throws IOException {
+        testGrowth();
+        NavigableMap<String, String> treeMap = (NavigableMap<String, String>) map;
+        NavigableMap<String, String> confirmedMap = new TreeMap<String, String>(confirmed);
+        String[] keys = { "", "key", "key 1", "key 1500", "key 1501", "key 42", "key 999", "z" };
+        for( String key : keys ) {
+            assertEquals(confirmedMap.lowerEntry(key), treeMap.lowerEntry(key));
+            assertEquals(confirmedMap.floorEntry(key), treeMap.floorEntry(key));
+            assertEquals(confirmedMap.ceilingEntry(key), treeMap.ceilingEntry(key));
+            assertEquals(confirmedMap.higherEntry(key), treeMap.higherEntry(key));
+            assertEquals(confirmedMap.headMap(key, true), treeMap.headMap(key, true));
+            assertEquals(confirmedMap.tailMap(key, false), treeMap.tailMap(key, false));
+            assertEquals(confirmedMap.descendingMap().tailMap(key, true).firstEntry(), treeMap.descendingMap().tailMap(key, true).firstEntry());
+        }
+        NavigableMap<String, String> subMap = treeMap.subMap("key 1", false, "key 5", true).descendingMap();
+        NavigableMap<String, String> confirmedSubMap = confirmedMap.subMap("key 1", false, "key 5", true).descendingMap();
+        assertEquals(confirmedSubMap.size(), subMap.size());
+        assertEquals(confirmedSubMap.navigableKeySet().headSet("key 3", false).first(), subMap.navigableKeySet().headSet("key 3", false).first());
+        Iterator<Map.Entry<String, String>> confirmedIterator = confirmedSubMap.entrySet().iterator();
+        for( Map.Entry<String, String> entry : subMap.entrySet() ) assertEquals(confirmedIterator.next(), entry);
+        assertFalse(confirmedIterator.hasNext());
+    }
+
+    public void testCompact() throws IOException {
+        testGrowth();
+        FileBackedTreeMap<String, String> treeMap = (FileBackedTreeMap<String, String>) map;
+        treeMap.setCompactionThreshold(2);
+        for( int i = 1500; i < 2000; i += 2 ) {
+            map.remove("key " + i);
+            confirmed.remove("key " + i);
+        }
+        assertTrue(treeMap.getTree().getGarbageSize() > 0);
+        treeMap.compact();
+        assertEquals(0, treeMap.getTree().getGarbageSize());
+        verify();
+        reopen();
+    }
+}
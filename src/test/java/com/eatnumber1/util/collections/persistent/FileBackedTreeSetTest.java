@@ -0,0 +1,58 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.io.FileUtils;
+import com.eatnumber1.util.persistent.provider.SerializablePersistenceProvider;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Set;
+import org.apache.commons.collections.set.AbstractTestSortedSet;
+import org.apache.commons.collections15.comparators.ComparableComparator;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class FileBackedTreeSetTest extends AbstractTestSortedSet {
+    public FileBackedTreeSetTest( String s ) {
+        super(s);
+    }
+
+    public Set makeEmptySet() {
+        try {
+            File tempFile = FileUtils.createTempDirectory(getClass().getSimpleName());
+            FileUtils.forceDeleteOnExit(tempFile);
+            return new FileBackedTreeSet<Serializable>(tempFile, new SerializablePersistenceProvider<Serializable>(), ComparableComparator.getInstance());
+        } catch( IOException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void testCloseThenOpen() throws IOException {
+        resetFull();
+        reopen();
+    }
+
+    protected void reopen() throws IOException {
+        FileBackedTreeSet set = (FileBackedTreeSet) collection;
+        set.close();
+        set.open();
+        verify();
+    }
+}
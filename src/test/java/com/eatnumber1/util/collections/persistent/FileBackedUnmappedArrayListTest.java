@@ -16,37 +16,23 @@
 
 package com.eatnumber1.util.collections.persistent;
 
-import com.eatnumber1.util.io.FileUtils;
 import com.eatnumber1.util.persistent.provider.SerializablePersistenceProvider;
 import java.io.File;
 import java.io.IOException;
-import java.util.List;
-import org.apache.commons.collections.list.AbstractTestList;
+import org.jetbrains.annotations.NotNull;
 
 /**
  * @author Russell Harmon
  * @since Jul 13, 2007
  */
-public class FileBackedUnmappedArrayListTest extends AbstractTestList {
+public class FileBackedUnmappedArrayListTest extends AbstractFileBackedListTest {
     public FileBackedUnmappedArrayListTest( String s ) {
         super(s);
     }
 
-    public List makeEmptyList() {
-        try {
-            File tempFile = FileUtils.createTempDirectory(FileBackedUnmappedArrayListTest.class.getSimpleName());
-            FileUtils.forceDeleteOnExit(tempFile);
-            return new FileBackedUnmappedArrayList<String>(tempFile, new SerializablePersistenceProvider<String>());
-        } catch( IOException e ) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    public void testCloseThenOpen() throws IOException {
-        resetFull();
-        FileBackedUnmappedArrayList list = (FileBackedUnmappedArrayList) collection;
-        list.close();
-        list.open();
-        verify();
+    @NotNull
+    @Override
+    protected FileBackedUnmappedArrayList<String> makeEmptyList( @NotNull File directory ) throws IOException {
+        return new FileBackedUnmappedArrayList<String>(directory, new SerializablePersistenceProvider<String>());
     }
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.collections.persistent;
+
+import com.eatnumber1.util.io.FileUtils;
+import com.eatnumber1.util.persistent.provider.SerializablePersistenceProvider;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class FileBackedUnmappedHashMapTest extends AbstractFileBackedMapTest {
+    public FileBackedUnmappedHashMapTest( String s ) {
+        super(s);
+    }
+
+    @NotNull
+    @Override
+    protected FileBackedUnmappedHashMap<String, String> makeEmptyMap( @NotNull File directory ) throws IOException {
+        return new FileBackedUnmappedHashMap<String, String>(directory, new SerializablePersistenceProvider<String>(), new SerializablePersistenceProvider<String>());
+    }
+
+    public void testCompact() throws IOException {
+        resetFull();
+        FileBackedUnmappedHashMap<String, String> hashMap = (FileBackedUnmappedHashMap<String, String>) map;
+        hashMap.setCompactionThreshold(2);
+        Object[] keys = getSampleKeys();
+        for( int i = 0; i < keys.length; i += 2 ) {
+            hashMap.remove(keys[i]);
+            confirmed.remove(keys[i]);
+        }
+        assertTrue(hashMap.getTable().getGarbageSize() > 0);
+        hashMap.compact();
+        assertEquals(0, hashMap.getTable().getGarbageSize());
+        verify();
+        reopen();
+    }
+
+    public void testMissingCountIsCorrupt() throws IOException {
+        resetFull();
+        FileBackedUnmappedHashMap<String, String> hashMap = (FileBackedUnmappedHashMap<String, String>) map;
+        File directory = hashMap.getTable().getStorageFile(), recordFile = new File(directory, FileBackedHashTable.RECORDS_FILENAME);
+        hashMap.close();
+        long length = recordFile.length();
+        FileUtils.delete(new File(directory, FileBackedHashTable.COUNT_FILENAME));
+        try {
+            hashMap.open();
+            fail();
+        } catch( IOException e ) {
+            // Expected
+        }
+        assertEquals(length, recordFile.length());
+    }
+
+    public void testBadMagicIsCorrupt() throws IOException {
+        resetFull();
+        FileBackedUnmappedHashMap<String, String> hashMap = (FileBackedUnmappedHashMap<String, String>) map;
+        File directory = hashMap.getTable().getStorageFile();
+        hashMap.close();
+        RandomAccessFile recordFile = new RandomAccessFile(new File(directory, FileBackedHashTable.RECORDS_FILENAME), "rw");
+        try {
+            recordFile.writeLong(0);
+        } finally {
+            recordFile.close();
+        }
+        try {
+            hashMap.open();
+            fail();
+        } catch( IOException e ) {
+            // Expected
+        }
+    }
+}
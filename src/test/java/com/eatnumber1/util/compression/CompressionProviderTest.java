@@ -0,0 +1,204 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class CompressionProviderTest {
+    @NotNull
+    private static byte[] sample( int length ) {
+        // Half random and half repeated, so the data is neither incompressible nor trivial.
+        byte[] data = new byte[length];
+        Random random = new Random(length);
+        for( int i = 0; i < length; i++ ) data[i] = i % 2 == 0 ? (byte) random.nextInt(16) : (byte) i;
+        return data;
+    }
+
+    private static void roundTrip( @NotNull CompressionProvider provider ) throws CompressionException, IOException {
+        for( int length : new int[]{ 0, 1, 1000, 300 * 1000 } ) {
+            byte[] data = sample(length);
+            Assert.assertArrayEquals(data, provider.decompress(provider.compress(data)));
+            byte[] compressed = IOUtils.toByteArray(provider.compress(new ByteArrayInputStream(data)));
+            Assert.assertArrayEquals(data, IOUtils.toByteArray(provider.decompress(new ByteArrayInputStream(compressed))));
+            Assert.assertArrayEquals(data, provider.decompress(compressed));
+        }
+    }
+
+    @Test
+    public void gzip() throws CompressionException, IOException {
+        roundTrip(new GZIPCompressionProvider());
+        roundTrip(new GZIPCompressionProvider(512));
+        byte[] data = sample(5000);
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(new GZIPCompressionProvider().compress(data)));
+        Assert.assertArrayEquals(data, IOUtils.toByteArray(in));
+    }
+
+    @Test
+    public void gzipReadsHeaderFields() throws CompressionException, IOException {
+        byte[] data = sample(5000);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(data);
+        out.close();
+        byte[] plain = bytes.toByteArray();
+        // Set the name flag and insert a name after the fixed header.
+        byte[] named = new byte[plain.length + 5];
+        System.arraycopy(plain, 0, named, 0, 10);
+        named[3] |= 8;
+        System.arraycopy("name\0".getBytes("US-ASCII"), 0, named, 10, 5);
+        System.arraycopy(plain, 10, named, 15, plain.length - 10);
+        Assert.assertArrayEquals(data, new GZIPCompressionProvider().decompress(plain));
+        Assert.assertArrayEquals(data, new GZIPCompressionProvider().decompress(named));
+    }
+
+    @Test(expected = CompressionException.class)
+    public void gzipCorruptTrailer() throws CompressionException {
+        GZIPCompressionProvider provider = new GZIPCompressionProvider();
+        byte[] compressed = provider.compress(sample(1000));
+        compressed[compressed.length - 5]++;
+        provider.decompress(compressed);
+    }
+
+    @Test
+    public void zip() throws CompressionException, IOException {
+        roundTrip(new ZIPCompressionProvider());
+        byte[] data = sample(5000);
+        ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(new ZIPCompressionProvider().compress(data)));
+        ZipEntry entry = in.getNextEntry();
+        Assert.assertEquals(ZIPCompressionProvider.ENTRY_NAME, entry.getName());
+        Assert.assertArrayEquals(data, IOUtils.toByteArray(in));
+        Assert.assertNull(in.getNextEntry());
+    }
+
+    @Test
+    public void zlib() throws CompressionException, IOException {
+        roundTrip(new ZLIBCompressionProvider());
+        // A deflater and inflater given to the provider are reused for every call.
+        roundTrip(new ZLIBCompressionProvider(new Deflater(Deflater.BEST_SPEED), new Inflater()));
+    }
+
+    @NotNull
+    private static List<byte[]> records( int count ) throws IOException {
+        List<byte[]> records = new ArrayList<byte[]>();
+        for( int i = 0; i < count; i++ ) records.add(( "{\"id\": " + i + ", \"name\": \"user" + i + "\", \"status\": \"active\", \"roles\": [\"reader\"]}" ).getBytes("US-ASCII"));
+        return records;
+    }
+
+    @Test
+    public void zlibDictionary() throws CompressionException, IOException {
+        List<byte[]> records = records(200);
+        byte[] dictionary = DictionaryTrainer.train(records.subList(0, 100));
+        ZLIBCompressionProvider plain = new ZLIBCompressionProvider();
+        ZLIBCompressionProvider primed = plain.withDictionaries(Collections.singletonList(dictionary));
+        roundTrip(primed);
+        int plainSize = 0, primedSize = 0;
+        for( byte[] record : records.subList(100, 200) ) {
+            byte[] compressed = primed.compress(record);
+            Assert.assertArrayEquals(record, primed.decompress(compressed));
+            Assert.assertArrayEquals(record, IOUtils.toByteArray(primed.decompress(new ByteArrayInputStream(compressed))));
+            plainSize += plain.compress(record).length;
+            primedSize += compressed.length;
+        }
+        Assert.assertTrue(primedSize < plainSize / 2);
+        // Data compressed before a dictionary was added, or with an older dictionary, can still be decompressed.
+        byte[] record = records.get(0);
+        Assert.assertArrayEquals(record, primed.decompress(plain.compress(record)));
+        ZLIBCompressionProvider retrained = primed.withDictionaries(Arrays.asList(dictionary, DictionaryTrainer.train(records.subList(100, 200))));
+        Assert.assertArrayEquals(record, retrained.decompress(primed.compress(record)));
+    }
+
+    @Test(expected = CompressionException.class)
+    public void zlibUnknownDictionary() throws CompressionException, IOException {
+        byte[] record = records(1).get(0);
+        new ZLIBCompressionProvider().decompress(new ZLIBCompressionProvider().withDictionaries(Collections.singletonList(record)).compress(record));
+    }
+
+    @Test
+    public void pooled() throws CompressionException, IOException, InterruptedException, ExecutionException {
+        final DeflaterPool deflaters = new DeflaterPool(Deflater.BEST_SPEED, false, 4);
+        final InflaterPool inflaters = new InflaterPool(false, 4);
+        final ZLIBCompressionProvider provider = new ZLIBCompressionProvider(deflaters, inflaters);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for( int i = 0; i < 8; i++ ) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for( int j = 0; j < 50; j++ ) {
+                            byte[] data = sample(j * 100);
+                            Assert.assertArrayEquals(data, provider.decompress(provider.compress(data)));
+                            InputStream in = provider.decompress(provider.compress(new ByteArrayInputStream(data)));
+                            try {
+                                Assert.assertArrayEquals(data, IOUtils.toByteArray(in));
+                            } finally {
+                                in.close();
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for( Future<Void> future : futures ) future.get();
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(0, deflaters.getActiveCount());
+        Assert.assertEquals(0, inflaters.getActiveCount());
+        Assert.assertEquals(800, deflaters.getBorrowedCount());
+        Assert.assertTrue(deflaters.getCreatedCount() <= 8);
+        Assert.assertEquals(deflaters.getCreatedCount() - deflaters.getEndedCount(), deflaters.getIdleCount());
+        deflaters.clear();
+        Assert.assertEquals(0, deflaters.getIdleCount());
+    }
+
+    @Test(expected = CompressionException.class)
+    public void truncated() throws CompressionException {
+        ZLIBCompressionProvider provider = new ZLIBCompressionProvider();
+        byte[] compressed = provider.compress(sample(1000));
+        byte[] truncated = new byte[compressed.length / 2];
+        System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+        provider.decompress(truncated);
+    }
+}
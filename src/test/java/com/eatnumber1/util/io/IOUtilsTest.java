@@ -0,0 +1,154 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.io;
+
+import com.eatnumber1.util.nio.ByteBufferUtils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.util.Arrays;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class IOUtilsTest {
+    /**
+     * A channel which transfers at most a few bytes per call, as a channel with short reads and writes might.
+     */
+    private static class TricklingChannel implements ScatteringByteChannel, GatheringByteChannel {
+        private static final int MAX_TRANSFER = 3;
+
+        @NotNull
+        private final ByteBuffer in;
+
+        @NotNull
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        private TricklingChannel( @NotNull byte[] in ) {
+            this.in = ByteBuffer.wrap(in);
+        }
+
+        @Override
+        public int read( @NotNull ByteBuffer dst ) {
+            if( !in.hasRemaining() ) return -1;
+            int length = Math.min(MAX_TRANSFER, Math.min(in.remaining(), dst.remaining()));
+            for( int i = 0; i < length; i++ ) dst.put(in.get());
+            return length;
+        }
+
+        @Override
+        public long read( @NotNull ByteBuffer[] dsts, int offset, int length ) {
+            for( int i = offset; i < offset + length; i++ ) {
+                if( dsts[i].hasRemaining() ) return read(dsts[i]);
+            }
+            return 0;
+        }
+
+        @Override
+        public long read( @NotNull ByteBuffer[] dsts ) {
+            return read(dsts, 0, dsts.length);
+        }
+
+        @Override
+        public int write( @NotNull ByteBuffer src ) {
+            int length = Math.min(MAX_TRANSFER, src.remaining());
+            for( int i = 0; i < length; i++ ) out.write(src.get());
+            return length;
+        }
+
+        @Override
+        public long write( @NotNull ByteBuffer[] srcs, int offset, int length ) {
+            for( int i = offset; i < offset + length; i++ ) {
+                if( srcs[i].hasRemaining() ) return write(srcs[i]);
+            }
+            return 0;
+        }
+
+        @Override
+        public long write( @NotNull ByteBuffer[] srcs ) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void shortTransfers() throws IOException {
+        TricklingChannel channel = new TricklingChannel(new byte[]{ 1, 2, 3, 4, 5, 6, 7 });
+        ByteBuffer dst = ByteBuffer.allocate(7);
+        IOUtils.read(channel, dst, 7);
+        Assert.assertArrayEquals(new byte[]{ 1, 2, 3, 4, 5, 6, 7 }, dst.array());
+        dst.flip();
+        IOUtils.write(channel, dst, 7);
+        Assert.assertArrayEquals(new byte[]{ 1, 2, 3, 4, 5, 6, 7 }, channel.out.toByteArray());
+    }
+
+    @Test
+    public void vectored() throws IOException {
+        TricklingChannel channel = new TricklingChannel(new byte[]{ 1, 2, 3, 4, 5 });
+        ByteBuffer first = ByteBuffer.allocate(4), second = ByteBuffer.allocate(1);
+        Assert.assertEquals(5, IOUtils.readFully(channel, new ByteBuffer[]{ first, ByteBuffer.allocate(0), second }));
+        first.flip();
+        second.flip();
+        Assert.assertEquals(5, IOUtils.writeFully(channel, new ByteBuffer[]{ first, second }));
+        Assert.assertArrayEquals(new byte[]{ 1, 2, 3, 4, 5 }, channel.out.toByteArray());
+    }
+
+    @Test(expected = EOFException.class)
+    public void prematureEnd() throws IOException {
+        IOUtils.readFully(new TricklingChannel(new byte[]{ 1 }), new ByteBuffer[]{ ByteBuffer.allocate(2) });
+    }
+
+    @Test
+    public void varints() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        long[] values = { 0, 1, 127, 128, 300, Integer.MAX_VALUE, Long.MAX_VALUE, -1 };
+        for( long value : values ) IOUtils.writeVarint(out, value);
+        ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for( long value : values ) {
+            Assert.assertEquals(value, ByteBufferUtils.getVarint(buf));
+            Assert.assertEquals(value, IOUtils.readVarint(in));
+        }
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void malformedVarint() throws IOException {
+        byte[] bytes = new byte[ByteBufferUtils.MAX_VARINT_SIZE + 1];
+        Arrays.fill(bytes, (byte) 0x80);
+        IOUtils.readVarint(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+}
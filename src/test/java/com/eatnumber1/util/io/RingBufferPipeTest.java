@@ -0,0 +1,178 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class RingBufferPipeTest {
+    @NotNull
+    private static byte[] sample( int length ) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static void transfer( @NotNull final RingBufferPipe pipe ) throws IOException, InterruptedException, ExecutionException {
+        final byte[] data = sample(1000 * 1000);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Void> writer = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    OutputStream out = pipe.getOutputStream();
+                    // Mix single bytes with writes which are larger than the buffer.
+                    Random random = new Random();
+                    int offset = 0;
+                    while( offset < data.length ) {
+                        if( random.nextInt(4) == 0 ) {
+                            out.write(data[offset++]);
+                        } else {
+                            int length = Math.min(data.length - offset, random.nextInt(3 * pipe.getCapacity()));
+                            out.write(data, offset, length);
+                            offset += length;
+                        }
+                    }
+                    out.close();
+                    return null;
+                }
+            });
+            InputStream in = pipe.getInputStream();
+            Assert.assertEquals(data[0] & 0xff, in.read());
+            byte[] rest = IOUtils.toByteArray(in);
+            Assert.assertEquals(data.length - 1, rest.length);
+            for( int i = 0; i < rest.length; i++ ) {
+                if( rest[i] != data[i + 1] ) Assert.fail("Byte " + ( i + 1 ) + " differs.");
+            }
+            Assert.assertEquals(-1, in.read());
+            writer.get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void locked() throws IOException, InterruptedException, ExecutionException {
+        transfer(new RingBufferPipe(1000));
+        Assert.assertEquals(1024, new RingBufferPipe(1000).getCapacity());
+    }
+
+    @Test
+    public void lockFree() throws IOException, InterruptedException, ExecutionException {
+        RingBufferPipe pipe = new RingBufferPipe(1024, true);
+        Assert.assertTrue(pipe.isLockFree());
+        transfer(pipe);
+    }
+
+    @Test
+    public void concurrentSingleByteWriters() throws IOException, InterruptedException, ExecutionException {
+        final RingBufferPipe pipe = new RingBufferPipe(16);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?>[] writers = new Future<?>[2];
+            for( int i = 0; i < writers.length; i++ ) {
+                final int value = i + 1;
+                writers[i] = executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        for( int j = 0; j < 10000; j++ ) pipe.getOutputStream().write(value);
+                        return null;
+                    }
+                });
+            }
+            int[] counts = new int[3];
+            InputStream in = pipe.getInputStream();
+            for( int i = 0; i < 20000; i++ ) counts[in.read()]++;
+            for( Future<?> writer : writers ) writer.get();
+            Assert.assertEquals(0, counts[0]);
+            Assert.assertEquals(10000, counts[1]);
+            Assert.assertEquals(10000, counts[2]);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void drainsAfterClose() throws IOException {
+        RingBufferPipe pipe = new RingBufferPipe(16);
+        pipe.getOutputStream().write(new byte[]{ 1, 2, 3 });
+        pipe.getOutputStream().close();
+        Assert.assertEquals(3, pipe.getInputStream().available());
+        Assert.assertArrayEquals(new byte[]{ 1, 2, 3 }, IOUtils.toByteArray(pipe.getInputStream()));
+    }
+
+    @Test(expected = IOException.class)
+    public void writeAfterReaderClosed() throws IOException {
+        RingBufferPipe pipe = new RingBufferPipe(16);
+        pipe.getInputStream().close();
+        pipe.getOutputStream().write(1);
+    }
+
+    @Test
+    public void closingReaderReleasesBlockedWriter() throws IOException, InterruptedException, ExecutionException {
+        for( final boolean lockFree : new boolean[]{ false, true } ) {
+            final RingBufferPipe pipe = new RingBufferPipe(16, lockFree);
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                Future<Boolean> writer = executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        try {
+                            pipe.getOutputStream().write(new byte[64]);
+                            return false;
+                        } catch( IOException e ) {
+                            return true;
+                        }
+                    }
+                });
+                while( pipe.getInputStream().available() < 16 ) Thread.sleep(1);
+                pipe.getInputStream().close();
+                Assert.assertTrue(writer.get());
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void adapters() throws IOException {
+        OutputStreamAdapter out = new OutputStreamAdapter();
+        out.write(new byte[]{ 1, 2 });
+        out.write(3);
+        out.close();
+        Assert.assertArrayEquals(new byte[]{ 1, 2, 3 }, IOUtils.toByteArray(out.asInputStream()));
+        InputStreamAdapter in = new InputStreamAdapter();
+        in.asOutputStream().write(new byte[]{ 4, 5 });
+        in.asOutputStream().close();
+        Assert.assertArrayEquals(new byte[]{ 4, 5 }, IOUtils.toByteArray(in));
+    }
+}
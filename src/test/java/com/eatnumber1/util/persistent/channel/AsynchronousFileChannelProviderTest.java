@@ -0,0 +1,99 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.persistent.channel;
+
+import com.eatnumber1.util.concurrent.ListenableFutureTask;
+import com.eatnumber1.util.io.FileUtils;
+import com.eatnumber1.util.persistent.numbers.FileBackedInteger;
+import com.eatnumber1.util.persistent.numbers.FileBackedUnmappedInteger;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class AsynchronousFileChannelProviderTest {
+    @NotNull
+    private File directory;
+
+    @NotNull
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = FileUtils.createTempDirectory(getClass().getSimpleName());
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdown();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void readsAndWrites() throws Exception {
+        AsynchronousFileChannelProvider provider = new AsynchronousFileChannelProvider(new SimpleFileChannelProvider(new File(directory, "file"), "rw"), executor);
+        try {
+            Assert.assertEquals(Integer.valueOf(3), provider.writeAsync(ByteBuffer.wrap(new byte[]{ 1, 2, 3 }), 0).get());
+            final ByteBuffer dst = ByteBuffer.allocate(3);
+            ListenableFutureTask<Integer> read = provider.readAsync(dst, 0);
+            final CountDownLatch listened = new CountDownLatch(1);
+            read.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    if( dst.get(2) == 3 ) listened.countDown();
+                }
+            }, executor);
+            Assert.assertTrue(listened.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(Integer.valueOf(3), read.get());
+            long size = provider.visitValueChannelSharedAsync(new FileChannelVisitor<Long>() {
+                @Override
+                public Long visit( @NotNull FileChannel channel ) throws IOException {
+                    return channel.size();
+                }
+            }).get();
+            Assert.assertEquals(3, size);
+        } finally {
+            provider.close();
+        }
+    }
+
+    @Test
+    public void numbers() throws Exception {
+        File file = new File(directory, "number");
+        FileBackedInteger number = new FileBackedUnmappedInteger(file, new AsynchronousFileChannelProvider(new SimpleFileChannelProvider(file, "rw"), executor));
+        try {
+            number.setAsync(42).get();
+            Assert.assertEquals(42, number.getAsync().get().intValue());
+        } finally {
+            number.close();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.persistent.channel;
+
+import com.eatnumber1.util.io.FileUtils;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class FileChannelProviderTest {
+    @NotNull
+    private File file;
+
+    @NotNull
+    private FileChannelProvider provider;
+
+    @Before
+    public void setUp() throws IOException {
+        file = FileUtils.createTempFile(getClass().getSimpleName());
+        provider = new SimpleFileChannelProvider(file, "rw");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        provider.close();
+        FileUtils.delete(file);
+    }
+
+    @Test
+    public void positional() throws IOException {
+        Assert.assertEquals(4, provider.write(ByteBuffer.wrap(new byte[]{ 1, 2, 3, 4 }), 2));
+        long position = provider.visitValueChannel(new FileChannelVisitor<Long>() {
+            @Override
+            public Long visit( @NotNull FileChannel channel ) throws IOException {
+                return channel.position();
+            }
+        });
+        Assert.assertEquals(0, position);
+        ByteBuffer dst = ByteBuffer.allocate(8);
+        Assert.assertEquals(3, provider.read(dst, 3));
+        Assert.assertArrayEquals(new byte[]{ 2, 3, 4 }, Arrays.copyOf(dst.array(), 3));
+        Assert.assertEquals(-1, provider.read(ByteBuffer.allocate(1), 6));
+    }
+
+    @Test
+    public void positionalReadsDoNotWaitForVisitors() throws Exception {
+        provider.write(ByteBuffer.wrap(new byte[]{ 7 }), 0);
+        final CountDownLatch visiting = new CountDownLatch(1), release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Void> visitor = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    return provider.visitValueChannel(new FileChannelVisitor<Void>() {
+                        @Override
+                        public Void visit( @NotNull FileChannel channel ) throws IOException {
+                            visiting.countDown();
+                            try {
+                                release.await();
+                            } catch( InterruptedException e ) {
+                                throw new RuntimeException(e);
+                            }
+                            return null;
+                        }
+                    });
+                }
+            });
+            Assert.assertTrue(visiting.await(10, TimeUnit.SECONDS));
+            ByteBuffer dst = ByteBuffer.allocate(1);
+            Assert.assertEquals(1, provider.read(dst, 0));
+            Assert.assertEquals(7, dst.get(0));
+            release.countDown();
+            visitor.get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void vectored() throws IOException {
+        ByteBuffer[] srcs = { ByteBuffer.wrap(new byte[]{ 1, 2 }), ByteBuffer.allocate(0), ByteBuffer.wrap(new byte[]{ 3, 4, 5 }) };
+        Assert.assertEquals(5, FileChannelProviderUtils.write(provider, srcs, 1));
+        ByteBuffer first = ByteBuffer.allocate(3), second = ByteBuffer.allocate(4);
+        Assert.assertEquals(5, FileChannelProviderUtils.read(provider, new ByteBuffer[]{ first, second }, 1));
+        Assert.assertArrayEquals(new byte[]{ 1, 2, 3 }, first.array());
+        Assert.assertEquals(2, second.position());
+        Assert.assertEquals(4, second.get(0));
+        Assert.assertEquals(5, second.get(1));
+        Assert.assertEquals(-1, FileChannelProviderUtils.read(provider, new ByteBuffer[]{ ByteBuffer.allocate(1) }, 6));
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.persistent.channel;
+
+import com.eatnumber1.util.io.FileUtils;
+import com.eatnumber1.util.persistent.numbers.FileBackedInteger;
+import com.eatnumber1.util.persistent.numbers.FileBackedUnmappedInteger;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class GroupCommitCoordinatorTest {
+    @NotNull
+    private File directory;
+
+    private static class SlowFlushingProvider extends SimpleFileChannelProvider {
+        @NotNull
+        private final AtomicInteger flushes = new AtomicInteger();
+
+        private volatile boolean failing;
+
+        private SlowFlushingProvider( @NotNull File file ) throws IOException {
+            super(file, "rw");
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushes.incrementAndGet();
+            try {
+                Thread.sleep(5);
+            } catch( InterruptedException e ) {
+                throw new RuntimeException(e);
+            }
+            if( failing ) throw new IOException("Flush failed.");
+            super.flush();
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        directory = FileUtils.createTempDirectory(getClass().getSimpleName());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void batches() throws Exception {
+        final GroupCommitCoordinator coordinator = new GroupCommitCoordinator(1, TimeUnit.MILLISECONDS);
+        final SlowFlushingProvider[] providers = { new SlowFlushingProvider(new File(directory, "a")), new SlowFlushingProvider(new File(directory, "b")) };
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<Void>> writers = new ArrayList<Future<Void>>();
+            for( int i = 0; i < 16; i++ ) {
+                final int writer = i;
+                writers.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        FileChannelProvider provider = new ForcingFileChannelProviderFacade(providers[writer % 2], coordinator);
+                        for( int j = 0; j < 10; j++ ) provider.write(ByteBuffer.wrap(new byte[]{ (byte) j }), writer * 10 + j);
+                        return null;
+                    }
+                }));
+            }
+            for( Future<Void> writer : writers ) writer.get();
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(160, coordinator.getRequestCount());
+        Assert.assertTrue(coordinator.getCommitCount() < 160);
+        Assert.assertEquals(coordinator.getFlushCount(), providers[0].flushes.get() + providers[1].flushes.get());
+        coordinator.close();
+        for( SlowFlushingProvider provider : providers ) provider.close();
+    }
+
+    @Test
+    public void failures() throws IOException {
+        GroupCommitCoordinator coordinator = new GroupCommitCoordinator();
+        SlowFlushingProvider provider = new SlowFlushingProvider(new File(directory, "a"));
+        try {
+            provider.failing = true;
+            try {
+                coordinator.force(provider);
+                Assert.fail();
+            } catch( IOException e ) {
+                Assert.assertEquals("Flush failed.", e.getMessage());
+            }
+            provider.failing = false;
+            coordinator.force(provider);
+        } finally {
+            provider.close();
+        }
+    }
+
+    @Test
+    public void closeCommitsPending() throws IOException {
+        GroupCommitCoordinator coordinator = new GroupCommitCoordinator(1, TimeUnit.HOURS);
+        SlowFlushingProvider provider = new SlowFlushingProvider(new File(directory, "a"));
+        try {
+            Future<Void> future = coordinator.requestForce(provider);
+            coordinator.close();
+            Assert.assertTrue(future.isDone());
+            GroupCommitCoordinator.await(future);
+            Assert.assertEquals(1, provider.flushes.get());
+            try {
+                GroupCommitCoordinator.await(coordinator.requestForce(provider));
+                Assert.fail();
+            } catch( IOException e ) {
+                // Expected, as the coordinator is closed.
+            }
+        } finally {
+            provider.close();
+        }
+    }
+
+    @Test
+    public void readsAreNotForced() throws IOException {
+        File file = new File(directory, "number");
+        SlowFlushingProvider delegate = new SlowFlushingProvider(file);
+        FileBackedInteger number = new FileBackedUnmappedInteger(file, new ForcingFileChannelProviderFacade(delegate));
+        try {
+            number.intValue(42);
+            int flushes = delegate.flushes.get();
+            for( int i = 0; i < 10; i++ ) Assert.assertEquals(42, number.intValue());
+            Assert.assertEquals(flushes, delegate.flushes.get());
+        } finally {
+            number.close();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.persistent.channel;
+
+import com.eatnumber1.util.io.FileUtils;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class PooledFileChannelProviderFactoryTest {
+    @NotNull
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = FileUtils.createTempDirectory(getClass().getSimpleName());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void evictsAndReopens() throws IOException {
+        PooledFileChannelProviderFactory factory = new PooledFileChannelProviderFactory("rw", 2);
+        FileChannelProvider[] providers = new FileChannelProvider[5];
+        for( int i = 0; i < providers.length; i++ ) {
+            providers[i] = factory.create(new File(directory, "file" + i));
+            providers[i].write(ByteBuffer.wrap(new byte[]{ (byte) i }), 0);
+            Assert.assertTrue(factory.getOpenCount() <= 2);
+        }
+        Assert.assertEquals(5, factory.getFileCount());
+        Assert.assertEquals(3, factory.getEvictionCount());
+        for( int i = 0; i < providers.length; i++ ) {
+            ByteBuffer dst = ByteBuffer.allocate(1);
+            providers[i].read(dst, 0);
+            Assert.assertEquals(i, dst.get(0));
+            providers[i].flush();
+        }
+        long misses = factory.getMissCount(), hits = factory.getHitCount();
+        providers[4].read(ByteBuffer.allocate(1), 0);
+        Assert.assertEquals(misses, factory.getMissCount());
+        Assert.assertEquals(hits + 1, factory.getHitCount());
+        for( FileChannelProvider provider : providers ) provider.close();
+        Assert.assertEquals(0, factory.getOpenCount());
+        Assert.assertEquals(0, factory.getFileCount());
+    }
+
+    @Test
+    public void sharesFiles() throws IOException {
+        PooledFileChannelProviderFactory factory = new PooledFileChannelProviderFactory();
+        File file = new File(directory, "file");
+        FileChannelProvider first = factory.create(file), second = factory.create(new File(directory, "./file"));
+        Assert.assertEquals(1, factory.getOpenCount());
+        first.write(ByteBuffer.wrap(new byte[]{ 42 }), 0);
+        first.close();
+        ByteBuffer dst = ByteBuffer.allocate(1);
+        Assert.assertEquals(1, second.read(dst, 0));
+        Assert.assertEquals(42, dst.get(0));
+        second.close();
+        Assert.assertEquals(0, factory.getFileCount());
+    }
+
+    @Test
+    public void sharedFilesExcludeExclusiveVisits() throws Exception {
+        PooledFileChannelProviderFactory factory = new PooledFileChannelProviderFactory();
+        File file = new File(directory, "file");
+        final FileChannelProvider first = factory.create(file), second = factory.create(file);
+        final CountDownLatch visiting = new CountDownLatch(1), release = new CountDownLatch(1);
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Void> visitor = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    return first.visitValueChannel(new FileChannelVisitor<Void>() {
+                        @Override
+                        public Void visit( @NotNull FileChannel channel ) throws IOException {
+                            visiting.countDown();
+                            try {
+                                release.await();
+                            } catch( InterruptedException e ) {
+                                throw new RuntimeException(e);
+                            }
+                            return null;
+                        }
+                    });
+                }
+            });
+            Assert.assertTrue(visiting.await(10, TimeUnit.SECONDS));
+            Future<Void> other = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    return second.visitValueChannel(new FileChannelVisitor<Void>() {
+                        @Override
+                        public Void visit( @NotNull FileChannel channel ) throws IOException {
+                            if( release.getCount() > 0 ) overlapped.set(true);
+                            return null;
+                        }
+                    });
+                }
+            });
+            Thread.sleep(50);
+            release.countDown();
+            visitor.get();
+            other.get();
+            Assert.assertFalse(overlapped.get());
+        } finally {
+            executor.shutdown();
+            first.close();
+            second.close();
+        }
+    }
+
+    @Test
+    public void concurrentUse() throws Exception {
+        final PooledFileChannelProviderFactory factory = new PooledFileChannelProviderFactory("rw", 2);
+        final FileChannelProvider[] providers = new FileChannelProvider[6];
+        for( int i = 0; i < providers.length; i++ ) providers[i] = factory.create(new File(directory, "file" + i));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for( int t = 0; t < 4; t++ ) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for( int i = 0; i < 500; i++ ) {
+                            FileChannelProvider provider = providers[( i + thread ) % providers.length];
+                            long position = thread * 4;
+                            provider.write(ByteBuffer.wrap(new byte[]{ 1, 2, 3, (byte) thread }), position);
+                            ByteBuffer dst = ByteBuffer.allocate(4);
+                            Assert.assertEquals(4, provider.read(dst, position));
+                            Assert.assertEquals(thread, dst.get(3));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for( Future<Void> future : futures ) future.get();
+            Assert.assertTrue(factory.getOpenCount() <= 2);
+        } finally {
+            executor.shutdown();
+            for( FileChannelProvider provider : providers ) provider.close();
+        }
+        Assert.assertEquals(0, factory.getOpenCount());
+    }
+}
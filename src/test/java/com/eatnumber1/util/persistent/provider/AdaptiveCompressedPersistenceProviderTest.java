@@ -0,0 +1,117 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.persistent.provider;
+
+import com.eatnumber1.util.collections.persistent.PersistenceException;
+import com.eatnumber1.util.compression.ZLIBCompressionProvider;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class AdaptiveCompressedPersistenceProviderTest {
+    @NotNull
+    private static AdaptiveCompressedPersistenceProvider<byte[]> newProvider() {
+        return new AdaptiveCompressedPersistenceProvider<byte[]>(new ByteArrayPersistenceProvider(), new ZLIBCompressionProvider(), 0.1, 4, 8);
+    }
+
+    @NotNull
+    private static byte[] random( int length, int seed ) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void roundTrip( @NotNull AdaptiveCompressedPersistenceProvider<byte[]> provider, @NotNull byte[] object, byte tag ) throws PersistenceException {
+        byte[] bytes = provider.toBytes(object);
+        Assert.assertEquals(tag, bytes[0]);
+        Assert.assertArrayEquals(object, provider.fromBytes(bytes));
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+        Assert.assertArrayEquals(object, provider.decode(direct));
+        Assert.assertFalse(direct.hasRemaining());
+    }
+
+    @Test
+    public void compressible() throws PersistenceException {
+        AdaptiveCompressedPersistenceProvider<byte[]> provider = newProvider();
+        byte[] object = new byte[1000];
+        Arrays.fill(object, (byte) 'a');
+        roundTrip(provider, object, AdaptiveCompressedPersistenceProvider.COMPRESSED);
+        Assert.assertEquals(1, provider.getCompressedCount());
+        Assert.assertNull(provider.fromBytes(provider.toBytes(null)));
+    }
+
+    @Test
+    public void incompressible() throws PersistenceException {
+        AdaptiveCompressedPersistenceProvider<byte[]> provider = newProvider();
+        for( int i = 0; i < 20; i++ ) roundTrip(provider, random(1000, i), AdaptiveCompressedPersistenceProvider.RAW);
+        // Four failures stop the attempts, after which only every eighth object is tried.
+        Assert.assertEquals(6, provider.getAttemptCount());
+        Assert.assertEquals(0, provider.getCompressedCount());
+    }
+
+    @Test
+    public void recovers() throws PersistenceException {
+        AdaptiveCompressedPersistenceProvider<byte[]> provider = newProvider();
+        for( int i = 0; i < 4; i++ ) provider.toBytes(random(1000, i));
+        byte[] object = new byte[1000];
+        Arrays.fill(object, (byte) 'a');
+        for( int i = 0; i < 4; i++ ) Assert.assertEquals(AdaptiveCompressedPersistenceProvider.RAW, provider.toBytes(object)[0]);
+        // The eighth object is a probe, and once it compresses every object is tried again.
+        Assert.assertEquals(AdaptiveCompressedPersistenceProvider.COMPRESSED, provider.toBytes(object)[0]);
+        Assert.assertEquals(1, provider.getCompressedCount());
+        roundTrip(provider, object, AdaptiveCompressedPersistenceProvider.COMPRESSED);
+        Assert.assertEquals(2, provider.getCompressedCount());
+    }
+
+    @Test
+    public void encodesTheSizedForm() throws PersistenceException {
+        AdaptiveCompressedPersistenceProvider<byte[]> provider = newProvider();
+        for( int i = 0; i < 4; i++ ) provider.toBytes(random(1000, i));
+        byte[] object = new byte[1000];
+        Arrays.fill(object, (byte) 'a');
+        ByteBuffer buf = ByteBuffer.allocate(provider.getEncodedSize(object));
+        // The next object would be a probe, but the object was sized while attempts were skipped.
+        for( int i = 0; i < 3; i++ ) provider.toBytes(object);
+        provider.encode(object, buf);
+        Assert.assertFalse(buf.hasRemaining());
+        Assert.assertEquals(AdaptiveCompressedPersistenceProvider.RAW, buf.get(0));
+        buf.flip();
+        Assert.assertArrayEquals(object, provider.decode(buf));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void encodeWithoutSizing() throws PersistenceException {
+        AdaptiveCompressedPersistenceProvider<byte[]> provider = newProvider();
+        byte[] object = new byte[]{ 1 };
+        ByteBuffer buf = ByteBuffer.allocate(provider.getEncodedSize(object));
+        provider.encode(object, buf);
+        provider.encode(object, buf);
+    }
+
+    @Test(expected = PersistenceException.class)
+    public void unknownType() throws PersistenceException {
+        newProvider().fromBytes(new byte[]{ 7, 1, 2 });
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.persistent.provider;
+
+import com.eatnumber1.util.collections.persistent.PersistenceException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class BinaryPersistenceProviderTest {
+    private static class Point {
+        private final int x, y;
+
+        @NotNull
+        private final String name;
+
+        private Point( int x, int y, @NotNull String name ) {
+            this.x = x;
+            this.y = y;
+            this.name = name;
+        }
+    }
+
+    private static class PointPersistenceProvider extends RecordPersistenceProvider<Point> {
+        private PointPersistenceProvider() {
+            super(new IntegerPersistenceProvider(), new IntegerPersistenceProvider(), new StringPersistenceProvider());
+        }
+
+        @NotNull
+        @Override
+        protected Object[] toFields( @NotNull Point object ) {
+            return new Object[]{ object.x, object.y, object.name };
+        }
+
+        @NotNull
+        @Override
+        protected Point fromFields( @NotNull Object[] fields ) {
+            return new Point((Integer) fields[0], (Integer) fields[1], (String) fields[2]);
+        }
+    }
+
+    private static <T> T roundTrip( @NotNull BinaryPersistenceProvider<T> provider, T object ) throws PersistenceException {
+        byte[] bytes = provider.toBytes(object);
+        Assert.assertEquals(bytes.length, provider.getEncodedSize(object));
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        provider.encode(object, direct);
+        Assert.assertFalse(direct.hasRemaining());
+        direct.flip();
+        T decoded = provider.decode(direct);
+        Assert.assertFalse(direct.hasRemaining());
+        return decoded;
+    }
+
+    @Test
+    public void primitives() throws PersistenceException {
+        Assert.assertEquals(Boolean.TRUE, roundTrip(new BooleanPersistenceProvider(), true));
+        Assert.assertEquals(Byte.valueOf((byte) -7), roundTrip(new BytePersistenceProvider(), (byte) -7));
+        Assert.assertEquals(Short.valueOf(Short.MIN_VALUE), roundTrip(new ShortPersistenceProvider(), Short.MIN_VALUE));
+        Assert.assertEquals(Character.valueOf('\uffff'), roundTrip(new CharacterPersistenceProvider(), '\uffff'));
+        Assert.assertEquals(Float.valueOf(1.5f), roundTrip(new FloatPersistenceProvider(), 1.5f));
+        Assert.assertEquals(Double.valueOf(Double.NaN), roundTrip(new DoublePersistenceProvider(), Double.NaN));
+        for( int i : new int[]{ 0, 1, -1, 63, -64, 64, Integer.MAX_VALUE, Integer.MIN_VALUE } ) {
+            Assert.assertEquals(Integer.valueOf(i), roundTrip(new IntegerPersistenceProvider(), i));
+        }
+        for( long l : new long[]{ 0, -1, Long.MAX_VALUE, Long.MIN_VALUE } ) {
+            Assert.assertEquals(Long.valueOf(l), roundTrip(new LongPersistenceProvider(), l));
+        }
+    }
+
+    @Test
+    public void smallValuesAreShort() throws PersistenceException {
+        Assert.assertEquals(1, new LongPersistenceProvider().toBytes(-64L).length);
+        Assert.assertEquals(1, new IntegerPersistenceProvider().toBytes(63).length);
+        Assert.assertEquals(2, new StringPersistenceProvider().toBytes("a").length);
+    }
+
+    @Test
+    public void strings() throws PersistenceException, UnsupportedEncodingException {
+        StringPersistenceProvider provider = new StringPersistenceProvider();
+        for( String s : new String[]{ "", "ascii", "\u00e9t\u00e9", "\u20ac", "\ud834\udd1e clef" } ) {
+            Assert.assertEquals(s, roundTrip(provider, s));
+            Assert.assertArrayEquals(s.getBytes("UTF-8"), Arrays.copyOfRange(provider.toBytes(s), 1, provider.toBytes(s).length));
+        }
+        Assert.assertEquals("?", roundTrip(provider, "\ud834"));
+    }
+
+    @Test
+    public void nulls() throws PersistenceException {
+        Assert.assertEquals(0, new StringPersistenceProvider().toBytes(null).length);
+        Assert.assertNull(roundTrip(new LongPersistenceProvider(), null));
+        Assert.assertArrayEquals(new byte[0], roundTrip(new ByteArrayPersistenceProvider(), new byte[0]));
+    }
+
+    @Test
+    public void records() throws PersistenceException {
+        Point point = roundTrip(new PointPersistenceProvider(), new Point(3, -4, "origin"));
+        Assert.assertEquals(3, point.x);
+        Assert.assertEquals(-4, point.y);
+        Assert.assertEquals("origin", point.name);
+        TuplePersistenceProvider tuple = new TuplePersistenceProvider(new PointPersistenceProvider(), new LongPersistenceProvider(), new StringPersistenceProvider());
+        Object[] decoded = roundTrip(tuple, new Object[]{ new Point(1, 2, ""), null, "x" });
+        Assert.assertEquals(1, ( (Point) decoded[0] ).x);
+        Assert.assertNull(decoded[1]);
+        Assert.assertEquals("x", decoded[2]);
+    }
+
+    @Test(expected = PersistenceException.class)
+    public void truncated() throws PersistenceException {
+        new StringPersistenceProvider().fromBytes(new byte[]{ 5, 'a' });
+    }
+
+    @Test(expected = PersistenceException.class)
+    public void trailingBytes() throws PersistenceException {
+        new IntegerPersistenceProvider().fromBytes(new byte[]{ 1, 1 });
+    }
+}
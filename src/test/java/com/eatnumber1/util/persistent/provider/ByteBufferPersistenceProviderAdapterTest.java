@@ -0,0 +1,69 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.persistent.provider;
+
+import com.eatnumber1.util.collections.persistent.PersistenceException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class ByteBufferPersistenceProviderAdapterTest {
+    @Test
+    public void threadsKeepTheirOwnSizedArrays() throws Exception {
+        final AtomicInteger persisted = new AtomicInteger();
+        final ByteBufferPersistenceProvider<byte[]> provider = new ByteBufferPersistenceProviderAdapter<byte[]>(new ByteArrayPersistenceProvider() {
+            @NotNull
+            @Override
+            public byte[] toBytes( @Nullable byte[] object ) throws PersistenceException {
+                persisted.incrementAndGet();
+                return super.toBytes(object);
+            }
+        });
+        byte[] mine = { 1, 2, 3 };
+        final byte[] theirs = { 4, 5 };
+        ByteBuffer buf = ByteBuffer.allocate(provider.getEncodedSize(mine));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // The other thread sizes and encodes its object between this thread sizing and encoding its own.
+            Assert.assertArrayEquals(theirs, executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws PersistenceException {
+                    ByteBuffer buf = ByteBuffer.allocate(provider.getEncodedSize(theirs));
+                    provider.encode(theirs, buf);
+                    buf.flip();
+                    return provider.decode(buf);
+                }
+            }).get());
+        } finally {
+            executor.shutdown();
+        }
+        provider.encode(mine, buf);
+        buf.flip();
+        Assert.assertArrayEquals(mine, provider.decode(buf));
+        Assert.assertEquals(2, persisted.get());
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2007 Russell Harmon
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.eatnumber1.util.persistent.provider;
+
+import com.eatnumber1.util.collections.persistent.PersistenceException;
+import com.eatnumber1.util.io.FileUtils;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.HashMap;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Russell Harmon
+ * @since Jul 30, 2009
+ */
+public class SerializablePersistenceProviderTest {
+    @NotNull
+    private File tempFile;
+
+    @NotNull
+    private ClassDescriptorDictionary dictionary;
+
+    private static class Sample implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private long id;
+
+        private String name;
+
+        private Date created;
+
+        private Sample( long id, String name, Date created ) {
+            this.id = id;
+            this.name = name;
+            this.created = created;
+        }
+    }
+
+    @Before
+    public void createDictionary() throws IOException {
+        tempFile = FileUtils.createTempFile(getClass().getSimpleName());
+        FileUtils.forceDelete(tempFile);
+        FileUtils.forceDeleteOnExit(tempFile);
+        dictionary = new ClassDescriptorDictionary(tempFile);
+    }
+
+    @After
+    public void closeDictionary() throws IOException {
+        dictionary.close();
+    }
+
+    @Test
+    public void roundTrip() throws PersistenceException {
+        SerializablePersistenceProvider<Sample> provider = new SerializablePersistenceProvider<Sample>(dictionary);
+        Sample sample = provider.fromBytes(provider.toBytes(new Sample(7, "seven", new Date(7))));
+        Assert.assertNotNull(sample);
+        Assert.assertEquals(7, sample.id);
+        Assert.assertEquals("seven", sample.name);
+        Assert.assertEquals(new Date(7), sample.created);
+    }
+
+    @Test
+    public void descriptorsAreWrittenOnce() throws PersistenceException {
+        SerializablePersistenceProvider<Sample> provider = new SerializablePersistenceProvider<Sample>(dictionary);
+        byte[] plain = new SerializablePersistenceProvider<Sample>().toBytes(new Sample(1, "one", new Date(1)));
+        byte[] compact = provider.toBytes(new Sample(1, "one", new Date(1)));
+        int size = dictionary.size();
+        for( int i = 0; i < 100; i++ ) provider.toBytes(new Sample(i, "sample", new Date(i)));
+        Assert.assertEquals(size, dictionary.size());
+        Assert.assertTrue(compact.length * 4 < plain.length);
+    }
+
+    @Test
+    public void reopen() throws PersistenceException, IOException {
+        HashMap<String, Sample> map = new HashMap<String, Sample>();
+        map.put("a", new Sample(1, null, null));
+        byte[] bytes = new SerializablePersistenceProvider<HashMap<String, Sample>>(dictionary).toBytes(map);
+        int size = dictionary.size();
+        dictionary.close();
+        dictionary = new ClassDescriptorDictionary(tempFile);
+        Assert.assertEquals(size, dictionary.size());
+        HashMap<String, Sample> read = new SerializablePersistenceProvider<HashMap<String, Sample>>(dictionary).fromBytes(bytes);
+        Assert.assertNotNull(read);
+        Assert.assertEquals(1, read.get("a").id);
+    }
+
+    @Test
+    public void partialAppendIsDiscarded() throws PersistenceException, IOException {
+        new SerializablePersistenceProvider<Sample>(dictionary).toBytes(new Sample(1, "one", null));
+        int size = dictionary.size();
+        dictionary.close();
+        RandomAccessFile file = new RandomAccessFile(tempFile, "rw");
+        try {
+            long length = file.length();
+            file.seek(length);
+            file.writeInt(1000);
+            file.write(new byte[10]);
+            dictionary = new ClassDescriptorDictionary(tempFile);
+            Assert.assertEquals(size, dictionary.size());
+            Assert.assertEquals(length, file.length());
+        } finally {
+            file.close();
+        }
+    }
+}